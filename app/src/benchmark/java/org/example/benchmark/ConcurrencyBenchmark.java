@@ -0,0 +1,186 @@
+package org.example.benchmark;
+
+import org.example.HuskSheetsApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Measures how many concurrent requests one server sustains while they wait on the
+ * disk, with requests served on Tomcat's pool of platform threads and on virtual
+ * threads. Each client publishes its own sheet over and over, and every update is
+ * answered only once the journal's fsync covers it, which holds a platform thread but
+ * not a virtual one. With more clients than Tomcat has threads (200 by default) the
+ * platform-thread server queues the rest, while on virtual threads they all share each
+ * fsync.
+ *
+ * Run with: ./gradlew benchmark -PbenchmarkClass=org.example.benchmark.ConcurrencyBenchmark
+ * Every client keeps a connection open, so large client counts need a matching limit
+ * of open files.
+ */
+public class ConcurrencyBenchmark {
+    private static final int ROWS = 50; // Cells in each update of a sheet
+    private static final long DURATION_MS = 5000; // How long the clients publish at each level
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional numbers of concurrent clients to measure.
+     * @throws Exception if the server could not be started.
+     */
+    public static void main(String[] args) throws Exception {
+        int[] levels = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{50, 200, 800, 2000};
+        System.out.printf("%-9s %8s %12s %10s %10s %9s%n", "Threads", "Clients", "Updates/s", "p50 ms", "p99 ms", "Failed");
+        for (boolean virtual : new boolean[]{false, true}) {
+            for (int clients : levels) {
+                run(virtual, clients);
+            }
+        }
+    }
+
+    /**
+     * Starts a server, lets the clients publish for a while and prints the throughput
+     * and latencies.
+     *
+     * @param virtual true to serve requests on virtual threads.
+     * @param clients the number of concurrent clients.
+     * @throws Exception if the server could not be started.
+     */
+    private static void run(boolean virtual, int clients) throws Exception {
+        Path dir = Files.createTempDirectory("husksheets-concurrency");
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(HuskSheetsApplication.class)
+                .properties("server.port=0", "husksheets.data.dir=" + dir,
+                        "spring.threads.virtual.enabled=" + virtual,
+                        "spring.main.banner-mode=off", "logging.level.root=warn")
+                .run();
+        try {
+            String url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/v1/";
+            String auth = "Basic " + Base64.getEncoder().encodeToString("bench:password".getBytes());
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            client.send(request(url + "register", auth, null), HttpResponse.BodyHandlers.discarding());
+            for (int c = 0; c < clients; c++) {
+                client.send(request(url + "createSheet", auth, "{\"publisher\":\"bench\", \"sheet\":\"sheet" + c + "\"}"),
+                        HttpResponse.BodyHandlers.discarding());
+            }
+
+            List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger failed = new AtomicInteger();
+            long start = System.nanoTime();
+            long end = start + DURATION_MS * 1_000_000L;
+            CompletableFuture<?>[] running = new CompletableFuture<?>[clients];
+            for (int c = 0; c < clients; c++) {
+                running[c] = publish(client, url, auth, "sheet" + c, 0, end, latencies, failed);
+            }
+            CompletableFuture.allOf(running).join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            System.out.printf("%-9s %8d %12.0f %10.1f %10.1f %9d%n", virtual ? "virtual" : "platform", clients,
+                    sorted.size() / seconds, percentile(sorted, 0.50), percentile(sorted, 0.99), failed.get());
+        } finally {
+            context.close();
+            delete(dir);
+        }
+    }
+
+    /**
+     * Publishes a sheet again as soon as the previous update is answered, until the end
+     * time. No client thread is held while a request is in flight.
+     *
+     * @param client    the HTTP client.
+     * @param url       the base URL of the endpoints.
+     * @param auth      the basic authentication header.
+     * @param sheet     the sheet to publish.
+     * @param update    the number of updates published so far.
+     * @param end       when to stop, in System.nanoTime.
+     * @param latencies collects the time each update took, in nanoseconds.
+     * @param failed    counts the updates that were not answered with 200.
+     * @return completes when the client stops.
+     */
+    private static CompletableFuture<Void> publish(HttpClient client, String url, String auth, String sheet,
+                                                   int update, long end, List<Long> latencies, AtomicInteger failed) {
+        if (System.nanoTime() >= end) {
+            return CompletableFuture.completedFuture(null);
+        }
+        StringBuilder payload = new StringBuilder();
+        for (int row = 1; row <= ROWS; row++) {
+            payload.append("$A").append(row).append(" ").append(update + row).append("\\n");
+        }
+        String json = "{\"publisher\":\"bench\", \"sheet\":\"" + sheet + "\", \"payload\":\"" + payload + "\"}";
+        long start = System.nanoTime();
+        return client.sendAsync(request(url + "updatePublished", auth, json), HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    if (error != null || response.statusCode() != 200) {
+                        failed.incrementAndGet();
+                    } else {
+                        latencies.add(System.nanoTime() - start);
+                    }
+                    return error == null; // A client whose connection failed stops
+                })
+                .thenCompose(ok -> ok ? publish(client, url, auth, sheet, update + 1, end, latencies, failed)
+                        : CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * Builds a request to an endpoint.
+     *
+     * @param url  the endpoint's URL.
+     * @param auth the basic authentication header.
+     * @param json the JSON body, or null to send a GET request.
+     * @return the request.
+     */
+    private static HttpRequest request(String url, String auth, String json) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).header("Authorization", auth);
+        if (json == null) {
+            return builder.GET().build();
+        }
+        return builder.header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json)).build();
+    }
+
+    /**
+     * Gets a percentile of sorted latencies.
+     *
+     * @param sorted   latencies in nanoseconds, in ascending order.
+     * @param fraction the percentile, between 0 and 1.
+     * @return the latency in milliseconds, or 0 if there are none.
+     */
+    private static double percentile(List<Long> sorted, double fraction) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get(Math.min(sorted.size() - 1, (int) (fraction * sorted.size()))) / 1e6;
+    }
+
+    /**
+     * Deletes a directory and its files.
+     *
+     * @param dir the directory.
+     * @throws IOException if a file could not be deleted.
+     */
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.benchmark;
+
+import org.example.model.Spreadsheet;
+import org.example.model.formula.Formula;
+import org.graalvm.polyglot.Context;
+
+/**
+ * Measures the cost of evaluating one arithmetic formula with the old per-call GraalVM
+ * Context, with the native evaluator compiling the formula every time, and with the
+ * compiled formula cached on the cell. It also checks that both evaluators print the
+ * same results.
+ */
+public class FormulaBenchmark {
+    private static final String[] FORMULAS = new String[] {
+        "1 + 2", "8 / 2", "2 * (3 + 4) - 5", "1 / 3", "0.1 + 0.2", "10 - 2 * 3 / 4",
+        "100000000 * 100000000000000", "1 / 10000", "-3 + 1"
+    };
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of iterations for the native evaluator.
+     */
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int contextIterations = Math.max(1, iterations / 1000); // Creating a Context is far slower
+
+        Spreadsheet sheet = new Spreadsheet("benchmark");
+        checkResults(sheet);
+
+        System.out.printf("GraalVM Context per call : %10.1f ns/formula%n", measureContext(contextIterations));
+        System.out.printf("Native, compiled per call: %10.1f ns/formula%n", measureNative(sheet, iterations));
+        System.out.printf("Native, cached on cell   : %10.1f ns/formula%n", measureCached(sheet, iterations));
+    }
+
+    /**
+     * Prints any formula whose native result differs from the JavaScript one.
+     *
+     * @param sheet the spreadsheet to evaluate in.
+     */
+    private static void checkResults(Spreadsheet sheet) {
+        int mismatches = 0;
+        try (Context context = Context.create("js")) {
+            for (String formula : FORMULAS) {
+                String expected = context.eval("js", formula).toString();
+                String actual = sheet.evaluateFormula("=" + formula);
+                if (!expected.equals(actual)) {
+                    System.out.println("Mismatch for " + formula + ": js=" + expected + " native=" + actual);
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println(mismatches == 0 ? "All results match the JavaScript evaluator" : mismatches + " mismatches");
+    }
+
+    /**
+     * Times the old approach of creating a JavaScript Context for every formula. The
+     * old code never closed its Contexts; they are closed here so the run does not leak.
+     *
+     * @param iterations the number of formulas to evaluate.
+     * @return the average nanoseconds per formula.
+     */
+    private static double measureContext(int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            try (Context context = Context.create("js")) {
+                context.eval("js", FORMULAS[i % FORMULAS.length]).toString();
+            }
+        }
+        return (System.nanoTime() - start) / (double) iterations;
+    }
+
+    /**
+     * Times parsing and evaluating the formula text on every call.
+     *
+     * @param sheet      the spreadsheet to evaluate in.
+     * @param iterations the number of formulas to evaluate.
+     * @return the average nanoseconds per formula.
+     */
+    private static double measureNative(Spreadsheet sheet, int iterations) {
+        String[] formulas = new String[FORMULAS.length];
+        for (int i = 0; i < formulas.length; i++) {
+            formulas[i] = "=" + FORMULAS[i];
+        }
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += sheet.evaluateFormula(formulas[i % formulas.length]).length(); // Warm up
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += sheet.evaluateFormula(formulas[i % formulas.length]).length();
+        }
+        double result = (System.nanoTime() - start) / (double) iterations;
+        if (sink == 42) {
+            System.out.println(); // Keeps the results alive
+        }
+        return result;
+    }
+
+    /**
+     * Times re-evaluating formulas that were compiled once, as cells do on recalculation.
+     *
+     * @param sheet      the spreadsheet to evaluate in.
+     * @param iterations the number of formulas to evaluate.
+     * @return the average nanoseconds per formula.
+     */
+    private static double measureCached(Spreadsheet sheet, int iterations) {
+        Formula[] formulas = new Formula[FORMULAS.length];
+        for (int i = 0; i < formulas.length; i++) {
+            formulas[i] = Formula.compile("=" + FORMULAS[i]);
+        }
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += formulas[i % formulas.length].evaluate(sheet).length(); // Warm up
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += formulas[i % formulas.length].evaluate(sheet).length();
+        }
+        double result = (System.nanoTime() - start) / (double) iterations;
+        if (sink == 42) {
+            System.out.println(); // Keeps the results alive
+        }
+        return result;
+    }
+}
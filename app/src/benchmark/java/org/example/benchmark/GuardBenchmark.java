@@ -0,0 +1,85 @@
+package org.example.benchmark;
+
+import org.example.model.Spreadsheet;
+
+/**
+ * Measures a sheet of guard formulas, where IF, & and | protect an expensive range
+ * aggregation that is rarely needed. Only the taken branch of IF and the deciding
+ * operands of & and | are evaluated, so the guarded sheet is compared with a sheet
+ * that computes every aggregation, which is what evaluating every operand cost.
+ *
+ * Run with: ./gradlew benchmark -PbenchmarkClass=org.example.benchmark.GuardBenchmark
+ */
+public class GuardBenchmark {
+    private static final int DATA_ROWS = 2_000; // Numbers read by each aggregation
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of guard formulas.
+     */
+    public static void main(String[] args) {
+        int formulas = args.length > 0 ? Integer.parseInt(args[0]) : 3_000;
+        Spreadsheet guarded = buildSheet(formulas, true);
+        Spreadsheet unguarded = buildSheet(formulas, false);
+
+        for (int i = 0; i < 3; i++) { // Warm up
+            guarded.recalculate();
+            unguarded.recalculate();
+        }
+        double guardedMs = measure(guarded);
+        double unguardedMs = measure(unguarded);
+        System.out.printf("Guard formulas          : %10d%n", formulas);
+        System.out.printf("Cells per aggregation   : %10d%n", DATA_ROWS);
+        System.out.printf("Every branch evaluated  : %10.1f ms%n", unguardedMs);
+        System.out.printf("Taken branch only       : %10.1f ms%n", guardedMs);
+        System.out.printf("Saving                  : %10.2fx%n", unguardedMs / guardedMs);
+    }
+
+    /**
+     * Builds a sheet with a column of numbers and a column of flags, followed by one
+     * formula per row. Guarded formulas only aggregate the numbers when the flag of
+     * their row is set, which is one row in a hundred.
+     *
+     * @param formulas the number of formulas.
+     * @param guarded  true for guard formulas, false to aggregate in every formula.
+     * @return the sheet.
+     */
+    private static Spreadsheet buildSheet(int formulas, boolean guarded) {
+        Spreadsheet sheet = new Spreadsheet("benchmark");
+        for (int row = 0; row < DATA_ROWS; row++) {
+            sheet.setCellValue(row, 0, String.valueOf(row % 97));
+        }
+        String sum = "SUM($A1:$A" + DATA_ROWS + ")";
+        for (int row = 0; row < formulas; row++) {
+            String flag = "$B" + (row + 1);
+            sheet.setCellValue(row, 1, row % 100 == 0 ? "1" : "0");
+            String formula;
+            if (!guarded) {
+                formula = "=" + sum + " + " + flag; // What the eager evaluation of every operand cost
+            } else if (row % 2 == 0) {
+                formula = "=IF(" + flag + ", " + sum + ", 0)";
+            } else {
+                formula = "=" + flag + " & " + sum + " > 0";
+            }
+            sheet.setCellRawdata(row, 2, formula);
+            sheet.setCellValue(row, 2, formula);
+        }
+        return sheet;
+    }
+
+    /**
+     * Times full recalculations of the sheet.
+     *
+     * @param sheet the sheet to recalculate.
+     * @return the average milliseconds per recalculation.
+     */
+    private static double measure(Spreadsheet sheet) {
+        int runs = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            sheet.recalculate();
+        }
+        return (System.nanoTime() - start) / 1e6 / runs;
+    }
+}
@@ -0,0 +1,133 @@
+package org.example.benchmark;
+
+import org.example.model.Argument;
+import org.example.server.Server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures the server's journal: how fast updates are logged when several publishers
+ * update their sheets at once and share each fsync, how long a restart takes when it
+ * replays the whole log, and how long it takes from a snapshot of the same state.
+ *
+ * Run with: ./gradlew benchmark -PbenchmarkClass=org.example.benchmark.JournalBenchmark
+ */
+public class JournalBenchmark {
+    private static final int ROWS = 500; // Cells in each update of a sheet
+    private static final int CHANGED = 20; // Cells that change between two updates
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of publishers and updates per publisher.
+     * @throws Exception if the data directory could not be used.
+     */
+    public static void main(String[] args) throws Exception {
+        int publishers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 250;
+        Path dir = Files.createTempDirectory("husksheets-journal");
+        try {
+            Server server = new Server(dir.toString(), Integer.MAX_VALUE); // No snapshot until it is closed
+            long start = System.nanoTime();
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < publishers; p++) {
+                String name = "publisher" + p;
+                Thread thread = new Thread(() -> publish(server, name, updates));
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double writeMs = (System.nanoTime() - start) / 1e6;
+            long logBytes = size(dir);
+
+            start = System.nanoTime();
+            Server replayed = new Server(dir.toString(), Integer.MAX_VALUE); // Replays every logged update
+            double replayMs = (System.nanoTime() - start) / 1e6;
+            replayed.close(); // Writes a snapshot and starts an empty log
+            long snapshotBytes = size(dir);
+
+            start = System.nanoTime();
+            Server restored = new Server(dir.toString(), Integer.MAX_VALUE); // Loads the snapshot only
+            double snapshotMs = (System.nanoTime() - start) / 1e6;
+            restored.close();
+            server.close();
+
+            long cells = (long) publishers * updates * ROWS;
+            System.out.printf("Updates logged          : %10d%n", publishers * updates);
+            System.out.printf("Cells logged            : %10d%n", cells);
+            System.out.printf("Logged updates per sec  : %10.0f%n", publishers * updates / (writeMs / 1000));
+            System.out.printf("Log size                : %10.1f MB%n", logBytes / 1e6);
+            System.out.printf("Replay of the log       : %10.1f ms%n", replayMs);
+            System.out.printf("Snapshot size           : %10.1f MB%n", snapshotBytes / 1e6);
+            System.out.printf("Load of the snapshot    : %10.1f ms%n", snapshotMs);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Registers a publisher, creates a sheet and publishes updates that each change a
+     * few cells, the way a client sends its whole sheet on every save.
+     *
+     * @param server  the server.
+     * @param name    the publisher.
+     * @param updates the number of updates.
+     */
+    private static void publish(Server server, String name, int updates) {
+        String auth = "Basic " + Base64.getEncoder().encodeToString((name + ":password").getBytes());
+        server.register(auth);
+        server.createSheet(auth, new Argument(name, "sheet", null, null));
+        int[] values = new int[ROWS];
+        for (int u = 0; u < updates; u++) {
+            for (int c = 0; c < CHANGED; c++) {
+                values[(u * CHANGED + c) % ROWS]++;
+            }
+            StringBuilder payload = new StringBuilder();
+            for (int row = 0; row < ROWS; row++) {
+                payload.append("$A").append(row + 1).append(" ").append(values[row]).append("\\n");
+            }
+            payload.append("$B1 =SUM($A1:$A").append(ROWS).append(")\\n");
+            server.updatePublished(auth, new Argument(name, "sheet", null, payload.toString()));
+        }
+    }
+
+    /**
+     * Adds up the size of the files in a directory.
+     *
+     * @param dir the directory.
+     * @return the size in bytes.
+     * @throws IOException if the directory could not be listed.
+     */
+    private static long size(Path dir) throws IOException {
+        long total = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                total += Files.size(file);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Deletes a directory and its files.
+     *
+     * @param dir the directory.
+     * @throws IOException if a file could not be deleted.
+     */
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
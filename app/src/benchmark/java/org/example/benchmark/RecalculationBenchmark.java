@@ -0,0 +1,85 @@
+package org.example.benchmark;
+
+import org.example.model.RecalculationScheduler;
+import org.example.model.Spreadsheet;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures a full recalculation of a sheet of independent, range-heavy formulas on one
+ * thread and on every core of the common ForkJoinPool, and checks that both give the
+ * same values.
+ *
+ * Run with: ./gradlew benchmark -PbenchmarkClass=org.example.benchmark.RecalculationBenchmark
+ */
+public class RecalculationBenchmark {
+    private static final int COLUMNS = 20; // Columns of plain numbers read by the formulas
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of formula rows.
+     */
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Spreadsheet single = buildSheet(rows);
+        single.setRecalculationScheduler(new RecalculationScheduler(ForkJoinPool.commonPool(), false));
+        Spreadsheet parallel = buildSheet(rows);
+        parallel.setRecalculationScheduler(new RecalculationScheduler(ForkJoinPool.commonPool(), true));
+
+        for (int i = 0; i < 3; i++) { // Warm up
+            single.recalculate();
+            parallel.recalculate();
+        }
+        double singleMs = measure(single);
+        double parallelMs = measure(parallel);
+        for (int row = 0; row < rows; row++) {
+            if (!single.getCellValue(row, COLUMNS).equals(parallel.getCellValue(row, COLUMNS))) {
+                System.out.println("Mismatch in row " + (row + 1));
+            }
+        }
+        System.out.printf("Formulas                : %10d%n", rows * 2);
+        System.out.printf("Threads                 : %10d%n", ForkJoinPool.commonPool().getParallelism());
+        System.out.printf("Single threaded         : %10.1f ms%n", singleMs);
+        System.out.printf("ForkJoinPool            : %10.1f ms%n", parallelMs);
+        System.out.printf("Speed-up                : %10.2fx%n", singleMs / parallelMs);
+    }
+
+    /**
+     * Builds a sheet where every row has one formula summarising the row and one
+     * formula reading the first, so the formulas form two large levels.
+     *
+     * @param rows the number of rows.
+     * @return the sheet.
+     */
+    private static Spreadsheet buildSheet(int rows) {
+        Spreadsheet sheet = new Spreadsheet("benchmark");
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < COLUMNS; col++) {
+                sheet.setCellValue(row, col, String.valueOf((row * 31 + col) % 97));
+            }
+            String summary = "=STDDEV($A" + (row + 1) + ":$T" + (row + 1) + ") + MAX($A" + (row + 1) + ":$T" + (row + 1) + ")";
+            sheet.setCellRawdata(row, COLUMNS, summary);
+            sheet.setCellValue(row, COLUMNS, summary);
+            String scaled = "=$U" + (row + 1) + " * 2";
+            sheet.setCellRawdata(row, COLUMNS + 1, scaled);
+            sheet.setCellValue(row, COLUMNS + 1, scaled);
+        }
+        return sheet;
+    }
+
+    /**
+     * Times full recalculations of the sheet.
+     *
+     * @param sheet the sheet to recalculate.
+     * @return the average milliseconds per recalculation.
+     */
+    private static double measure(Spreadsheet sheet) {
+        int runs = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            sheet.recalculate();
+        }
+        return (System.nanoTime() - start) / 1e6 / runs;
+    }
+}
@@ -1,8 +1,10 @@
 package org.example.controller;
 
 import org.example.model.*;
+import org.example.model.formula.CellValue;
 import org.example.view.*;
 
+import javax.swing.SwingUtilities;
 import java.awt.Color;
 import java.io.File;
 import java.util.ArrayList;
@@ -25,6 +27,7 @@ public class UserController implements IUserController {
     boolean isCutOperation;
     protected final ServerEndpoint serverEndpoint;
     private String currentSubscribedPublisher;
+    private UpdateStream updateStream; // Pushes new published versions to the open subscriber sheet
 
     /**
      * Constructs a UserController with the given login view.
@@ -185,6 +188,7 @@ public class UserController implements IUserController {
 
     @Override
     public void setCurrentSheet(ISheetView sheetView) {
+        stopUpdateStream(); // The stream belongs to the previous sheet.
         this.sheetView = sheetView; // Set the current sheet view.
         this.sheetView.addController(this); // Add this controller to the sheet view.
         this.sheetView.makeVisible(); // Make the sheet view visible.
@@ -400,6 +404,7 @@ public class UserController implements IUserController {
                 String fullPayload = result.getValue().getLast().getPayload(); // Get the payload of the last update.
                 this.spreadsheetModel = this.home.readPayload(fullPayload, selectedSheet); // Read the payload into the spreadsheet model.
                 this.setCurrentSheet(new SubscriberSheetView(publisher, spreadsheetModel)); // Set the current sheet view with the loaded model.
+                startUpdateStream(selectedSheet, result.getValue().getLast().getId()); // Keep the sheet up to date.
             } else {
                 homeView.displayErrorBox(result.getMessage()); // Display the error message if the update is unsuccessful.
             }
@@ -408,6 +413,49 @@ public class UserController implements IUserController {
         }
     }
 
+    /**
+     * Opens a stream of the publisher's new versions of the open subscriber sheet, and
+     * applies each version to the sheet as it arrives.
+     *
+     * @param sheet the name of the sheet.
+     * @param id    the number of versions the sheet already shows.
+     */
+    private void startUpdateStream(String sheet, String id) {
+        ISpreadsheet model = this.spreadsheetModel; // The stream only ever updates this sheet.
+        ISheetView view = this.sheetView;
+        this.updateStream = this.serverEndpoint.streamUpdatesForSubscription(
+                this.currentSubscribedPublisher, sheet, id, (event, version, payload) ->
+                        SwingUtilities.invokeLater(() -> applyVersion(model, view, event, payload)));
+    }
+
+    /**
+     * Closes the stream of the open subscriber sheet, if there is one.
+     */
+    private void stopUpdateStream() {
+        if (this.updateStream != null) {
+            this.updateStream.close(); // Close the stream.
+            this.updateStream = null;
+        }
+    }
+
+    /**
+     * Applies a version pushed by the server to a subscriber sheet.
+     *
+     * @param model   the sheet.
+     * @param view    the view showing the sheet.
+     * @param event   "sheet" if the payload holds every cell, "update" if it holds the changed cells.
+     * @param payload the payload lines.
+     */
+    private void applyVersion(ISpreadsheet model, ISheetView view, String event, String payload) {
+        List<Cell> cells = new ArrayList<>();
+        if (event.equals("update")) {
+            cells.addAll(model.getPopulatedCells()); // Unchanged cells are kept as they are.
+        }
+        cells.addAll(Home.convertPayloadToCells(payload)); // Later cells replace earlier ones.
+        model.loadCells(cells); // Only the changed cells and the cells that depend on them are evaluated.
+        view.updateTable(); // Update the table view.
+    }
+
     @Override
     public void getUpdatesForPublished(String sheet, int id) throws Exception {
         try {
@@ -436,6 +484,7 @@ public class UserController implements IUserController {
                     this.spreadsheetModel = this.home.readPayload(fullpayload, sheet); // Read the payload into the spreadsheet model.
                     this.setCurrentSheet(new SubscriberSheetView(currentSubscribedPublisher,
                             this.spreadsheetModel)); // Set the current sheet view with the loaded model.
+                    startUpdateStream(sheet, result.getValue().getLast().getId()); // Keep the sheet up to date.
                 } else {
                     sheetView.displayMessage(result.getMessage()); // Display the error message if the update is unsuccessful.
                 }
@@ -470,7 +519,7 @@ public class UserController implements IUserController {
     public String handleReevaluatingCellFormula(int row, int col, String data) {
         String rawdata = this.spreadsheetModel.getCellRawdata(row, col); // Get the raw data of the cell.
         if (rawdata.startsWith("=")) {
-            return this.spreadsheetModel.evaluateFormula(rawdata); // Evaluate the formula if the raw data starts with "=".
+            return this.spreadsheetModel.evaluateCellFormula(row, col); // Evaluate the cell's cached formula if the raw data starts with "=".
         } else {
             return data; // Return the data if it is not a formula.
         }
@@ -546,20 +595,16 @@ public class UserController implements IUserController {
         Cell[][] cells = this.spreadsheetModel.getCellsObject(); // Get the cells of the spreadsheet model.
         for (int i = 0; i < this.spreadsheetModel.getRows(); i++) {
             for (int j = 0; j < this.spreadsheetModel.getCols(); j++) {
-                String value = cells[i][j].getValue(); // Get the value of the cell.
-                if (value != null && !value.isEmpty()) {
-                    try {
-                        double numericValue = Double.parseDouble(value); // Parse the value to a double.
-                        if (numericValue < 0) {
-                            sheetView.highlightCell(i, j, SheetView.PINK); // Highlight the cell in pink if the value is negative.
-                        } else if (numericValue > 0) {
-                            sheetView.highlightCell(i, j, SheetView.GREEN); // Highlight the cell in green if the value is positive.
-                        }
-                    } catch (NumberFormatException e) {
-                        sheetView.highlightCell(i, j, Color.WHITE); // Highlight the cell in white if the value is not a number.
+                CellValue value = cells[i][j].getTypedValue(); // Get the typed value of the cell, no parsing needed.
+                if (value.isNumber()) {
+                    double numericValue = value.asNumber();
+                    if (numericValue < 0) {
+                        sheetView.highlightCell(i, j, SheetView.PINK); // Highlight the cell in pink if the value is negative.
+                    } else if (numericValue > 0) {
+                        sheetView.highlightCell(i, j, SheetView.GREEN); // Highlight the cell in green if the value is positive.
                     }
                 } else {
-                    sheetView.highlightCell(i, j, Color.WHITE); // Highlight the cell in white if the value is empty.
+                    sheetView.highlightCell(i, j, Color.WHITE); // Highlight the cell in white if the value is empty or not a number.
                 }
             }
         }
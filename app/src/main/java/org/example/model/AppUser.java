@@ -1,17 +1,23 @@
 package org.example.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The AppUser class represents a user entity in the application.
  * It includes methods for user authentication and account creation via HTTP requests.
+ * Sheets are indexed by name, and may be added, found and removed from several
+ * request threads at once.
  */
 public class AppUser implements IAppUser {
     private String username; // Stores the username of the user
     private String password; // Stores the password of the user
 
-    private List<ISpreadsheet> sheets; // List to store the user's sheets
+    private final Map<String, ISpreadsheet> sheetsByName; // The user's sheets by name
+    private final List<ISpreadsheet> sheets; // The user's sheets in the order they were added
 
     /**
      * Default constructor for AppUser.
@@ -20,7 +26,8 @@ public class AppUser implements IAppUser {
      * @param password a password
      */
     public AppUser(String username, String password) {
-        this.sheets = new ArrayList<>(); // Initialize the list of sheets
+        this.sheetsByName = new ConcurrentHashMap<>(); // Initialize the sheet index
+        this.sheets = new CopyOnWriteArrayList<>(); // Sheets are listed far more often than they are added
         this.username = username; // Set the username
         this.password = password; // Set the password
     }
@@ -36,32 +43,35 @@ public class AppUser implements IAppUser {
     }
 
     @Override
-    public void addSheet(String sheetName) {
-        this.sheets.add(new Spreadsheet(sheetName)); // Add a new sheet to the list
+    public boolean addSheet(String sheetName) {
+        ISpreadsheet sheet = new Spreadsheet(sheetName);
+        if (this.sheetsByName.putIfAbsent(sheetName, sheet) != null) {
+            return false; // Another sheet already has this name
+        }
+        this.sheets.add(sheet); // Add the new sheet to the list
+        return true;
     }
 
     @Override
     public void removeSheet(String sheetName) {
-        for (ISpreadsheet sheet : this.sheets) { // Iterate over the list of sheets
-            if (sheet.getName().equals(sheetName)) { // Check if the sheet name matches
-                this.sheets.remove(sheet); // Remove the sheet from the list
-                return; // Exit the method once the sheet is removed
-            }
+        ISpreadsheet removed = this.sheetsByName.remove(sheetName); // Remove the sheet from the index
+        if (removed != null) {
+            this.sheets.remove(removed); // Remove the sheet from the list
         }
     }
 
     @Override
     public boolean doesSheetExist(String name) {
-        for (ISpreadsheet sheet : this.sheets) { // Iterate over the list of sheets
-            if (sheet.getName().equals(name)) { // Check if the sheet name matches
-                return true; // Return true if the sheet exists
-            }
-        }
-        return false; // Return false if the sheet does not exist
+        return this.sheetsByName.containsKey(name); // Return true if the sheet exists
+    }
+
+    @Override
+    public ISpreadsheet getSheet(String name) {
+        return this.sheetsByName.get(name); // Return the sheet, or null if it does not exist
     }
 
     @Override
     public List<ISpreadsheet> getSheets() {
-        return this.sheets; // Return the list of sheets
+        return Collections.unmodifiableList(this.sheets); // Return the list of sheets
     }
 }
@@ -7,6 +7,7 @@ package org.example.model;
  */
 public class Argument {
     private String publisher, sheet, id, payload;
+    private String expectedVersion; // Optional version the sheet must be at for an update to apply
 
     /**
      * Constructs an Argument with the specified publisher, sheet, ID, and payload.
@@ -111,6 +112,27 @@ public class Argument {
         this.payload = payload; // Set the payload
     }
 
+    /**
+     * Gets the version the sender expects the sheet to be at, i.e. the id of the last
+     * update it has seen.
+     *
+     * @return the expected version, or null if the update applies whatever the version
+     */
+    public String getExpectedVersion() {
+        return this.expectedVersion; // Return the expected version
+    }
+
+    /**
+     * Sets the version the sender expects the sheet to be at. An update sent with a
+     * version that is no longer current is rejected instead of overwriting changes
+     * the sender has not seen.
+     *
+     * @param expectedVersion the expected version, or null to update unconditionally
+     */
+    public void setExpectedVersion(String expectedVersion) {
+        this.expectedVersion = expectedVersion; // Set the expected version
+    }
+
     /**
      * toString function used for testing
      *
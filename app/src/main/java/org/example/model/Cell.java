@@ -1,20 +1,24 @@
 package org.example.model;
 
+import org.example.model.formula.CellValue;
+import org.example.model.formula.Formula;
+
 /**
  * Represents a cell in a spreadsheet.
  */
 public class Cell {
-    private String value; // Stores the cell's value
+    private CellValue value; // Stores the cell's typed value
     private String formula; // Stores the cell's formula
     private String rawdata; // Stores the cell's raw data
     private int row; // Stores the cell's row index
     private int col; // Stores the cell's column index
+    private Formula compiledFormula; // Caches the parsed formula so it is not parsed on every evaluation
  
     /**
      * Default constructor that initializes a cell with empty values.
      */
     public Cell() {
-        this.value = ""; // Initialize value to an empty string
+        this.value = CellValue.EMPTY; // Initialize value to an empty value
         this.rawdata = ""; // Initialize raw data to an empty string
         this.formula = ""; // Initialize formula to an empty string
     }
@@ -27,12 +31,26 @@ public class Cell {
      */
     public Cell(String value) {
         this(); // Call the default constructor to initialize empty values
-        this.value = value; // Set the cell's value to the specified value
+        this.value = CellValue.parse(value); // Set the cell's value to the specified value
         if (value.startsWith("=")) { // Check if the value starts with "=" indicating a formula
             this.formula = value; // Set the formula if the value starts with "="
         }
     }
 
+    /**
+     * Constructor that copies another cell, including its position and compiled formula.
+     *
+     * @param other the cell to copy.
+     */
+    public Cell(Cell other) {
+        this.value = other.value;
+        this.formula = other.formula;
+        this.rawdata = other.rawdata;
+        this.row = other.row;
+        this.col = other.col;
+        this.compiledFormula = other.compiledFormula; // Compiled formulas are never changed, so they can be shared
+    }
+
     /**
      * Sets the raw data of the cell.
      *
@@ -50,7 +68,16 @@ public class Cell {
      * @author Tony
      */
     public String getValue() {
-        return this.value; // Return the cell's value
+        return this.value.getText(); // Return the text of the cell's value
+    }
+
+    /**
+     * Returns the typed value of the cell, so numbers can be read without parsing.
+     *
+     * @return the typed value of the cell.
+     */
+    public CellValue getTypedValue() {
+        return this.value; // Return the cell's typed value
     }
 
     /**
@@ -70,9 +97,18 @@ public class Cell {
      * @author Vinay
      */
     public void setValue(String value) {
+        setTypedValue(CellValue.parse(value)); // Set the cell's value to the specified value
+    }
+
+    /**
+     * Sets the typed value of the cell.
+     *
+     * @param value the value to set for the cell.
+     */
+    public void setTypedValue(CellValue value) {
         this.value = value; // Set the cell's value to the specified value
-        if (value.startsWith("=")) { // Check if the value starts with "=" indicating a formula
-            this.formula = value; // Set the formula if the value starts with "="
+        if (isFormulaText(value)) { // Check if the value starts with "=" indicating a formula
+            this.formula = value.getText(); // Set the formula if the value starts with "="
         } else {
             this.formula = ""; // Clear the formula if the value does not start with "="
         }
@@ -145,6 +181,35 @@ public class Cell {
      * @author Vinay
      */
     public boolean isFormula() {
-        return this.value.startsWith("="); // Return true if the cell's value starts with "="
+        return isFormulaText(this.value); // Return true if the cell's value starts with "="
+    }
+
+    /**
+     * Checks if a value is the text of a formula. Only text can start with "=", so
+     * numbers are never formatted just to check.
+     *
+     * @param value the value to check.
+     * @return true if the value is text starting with "=".
+     */
+    private static boolean isFormulaText(CellValue value) {
+        return value.getType() == CellValue.Type.TEXT && value.getText().startsWith("=");
+    }
+
+    /**
+     * Returns the compiled form of the formula held by the cell.
+     *
+     * @return the compiled formula, or null if the cell holds no formula.
+     */
+    public Formula getCompiledFormula() {
+        return this.compiledFormula; // Return the cached formula
+    }
+
+    /**
+     * Sets the compiled form of the formula held by the cell.
+     *
+     * @param compiledFormula the compiled formula, or null to clear it.
+     */
+    public void setCompiledFormula(Formula compiledFormula) {
+        this.compiledFormula = compiledFormula; // Cache the compiled formula
     }
 }
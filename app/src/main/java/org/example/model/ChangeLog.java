@@ -0,0 +1,453 @@
+package org.example.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records the cells each version of a sheet changed, at the time the version is
+ * written. Updates since a version are then the payload of that version followed by
+ * the recorded changes of every later version, without serializing and comparing the
+ * later versions again.
+ *
+ * A change is a line "$A1 value" for a cell that was added or changed, or "$A1" for a
+ * cell that was cleared. When the positions a version may have changed are known, only
+ * those cells are compared with the version before it.
+ *
+ * The oldest versions can be pruned. Versions keep their ids, and the oldest version
+ * kept becomes the checkpoint: updates since a pruned version are every cell of the
+ * checkpoint followed by the changes of the later versions.
+ */
+public class ChangeLog {
+    private static final int INITIAL_CAPACITY = 16; // Changes a new window has room for
+
+    private volatile Window window; // The versions kept; replaced when versions are pruned or the window grows
+    private IReadOnlySpreadSheet latest; // The latest version recorded, or null before one is recorded
+    private volatile ContentHash content; // The cells the latest version was loaded from, or null if not known
+
+    /**
+     * The versions kept, read as one so the id of the first matches the changes listed.
+     * Changes are appended in place while there is room; the changes below the count
+     * never change, so readers need no lock.
+     */
+    private static final class Window {
+        private final int first; // The id of the oldest version kept
+        private final IReadOnlySpreadSheet checkpoint; // The oldest version kept, or null before one is recorded
+        private final Change[] changes; // The changes of each version kept, from the oldest, then room for more
+        private volatile int count; // Number of changes stored; written only while a version is recorded
+
+        private Window(int first, IReadOnlySpreadSheet checkpoint, Change[] changes, int count) {
+            this.first = first;
+            this.checkpoint = checkpoint;
+            this.changes = changes;
+            this.count = count;
+        }
+    }
+
+    /**
+     * The changes recorded for one version.
+     */
+    private static final class Change {
+        private final String lines; // The payload lines the version changed
+        private final long time; // When the version was recorded, in System.currentTimeMillis
+
+        private Change(String lines, long time) {
+            this.lines = lines;
+            this.time = time;
+        }
+    }
+
+    /**
+     * The versions kept at one moment, which later versions and pruning leave as they
+     * were.
+     */
+    public static final class Retained {
+        private final Window window; // The versions kept when this was taken
+        private final int end; // One past the id of the latest version then
+
+        private Retained(Window window, int end) {
+            this.window = window;
+            this.end = end;
+        }
+
+        /**
+         * Gets the id of the oldest version kept.
+         *
+         * @return the id of the first version kept.
+         */
+        public int getFirst() {
+            return this.window.first;
+        }
+
+        /**
+         * Gets the number of versions recorded, including the versions pruned.
+         *
+         * @return the number of versions.
+         */
+        public int size() {
+            return this.end;
+        }
+
+        /**
+         * Gets every cell of the oldest version kept.
+         *
+         * @return the payload lines of the checkpoint, or an empty string if no version was recorded.
+         */
+        public String getCheckpoint() {
+            StringBuilder payload = new StringBuilder();
+            if (this.window.checkpoint != null) {
+                appendCells(payload, this.window.checkpoint);
+            }
+            return payload.toString();
+        }
+
+        /**
+         * Gets the changes recorded for a version.
+         *
+         * @param version the id of the version, from getFirst() to size() - 1.
+         * @return the payload lines changed by the version.
+         */
+        public String getChanges(int version) {
+            return this.window.changes[version - this.window.first].lines;
+        }
+    }
+
+    /**
+     * Constructs an empty change log.
+     */
+    public ChangeLog() {
+        this.window = new Window(0, null, new Change[INITIAL_CAPACITY], 0); // Read without locking while a new version is recorded
+    }
+
+    /**
+     * Records the changes made by a new version, compared with the version recorded
+     * before it. Every cell of both versions is compared.
+     *
+     * @param version the new version.
+     */
+    public void record(IReadOnlySpreadSheet version) {
+        record(version, null);
+    }
+
+    /**
+     * Records the changes made by a new version, comparing only the cells at the given
+     * positions with the version recorded before it.
+     *
+     * @param version the new version.
+     * @param changed the positions, from DependencyGraph.key, of every cell that may
+     *                differ from the version recorded before it, or null to compare
+     *                every cell.
+     */
+    public void record(IReadOnlySpreadSheet version, Collection<Long> changed) {
+        IReadOnlySpreadSheet previous = this.latest;
+        StringBuilder lines = new StringBuilder(); // New or changed cells
+        StringBuilder cleared = new StringBuilder(); // Cleared cells, listed after the others
+        if (previous == null || changed == null) {
+            for (Cell cell : version.getPopulatedCells()) {
+                compare(lines, cleared, previous, version, cell.getRow(), cell.getCol());
+            }
+            if (previous != null) {
+                for (Cell cell : previous.getPopulatedCells()) {
+                    if (valueOf(version.getPopulatedCell(cell.getRow(), cell.getCol())) == null) {
+                        compare(lines, cleared, previous, version, cell.getRow(), cell.getCol());
+                    }
+                }
+            }
+        } else {
+            long[] positions = new long[changed.size()];
+            int i = 0;
+            for (long position : changed) {
+                positions[i++] = position;
+            }
+            Arrays.sort(positions); // Row by row, left to right
+            for (long position : positions) {
+                compare(lines, cleared, previous, version, DependencyGraph.row(position), DependencyGraph.col(position));
+            }
+        }
+        append(new Change(lines.append(cleared).toString(), System.currentTimeMillis()), version);
+        this.latest = version;
+        this.content = null; // Set by the caller if it knows the cells the version was loaded from
+    }
+
+    /**
+     * Adds the changes of a new version to the window, in place while there is room.
+     *
+     * @param change  the changes of the version.
+     * @param version the version.
+     */
+    private void append(Change change, IReadOnlySpreadSheet version) {
+        Window window = this.window;
+        if (window.checkpoint == null || window.count == window.changes.length) {
+            int capacity = window.count == window.changes.length ? window.changes.length * 2 : window.changes.length;
+            window = new Window(window.first, window.checkpoint == null ? version : window.checkpoint,
+                    Arrays.copyOf(window.changes, Math.max(INITIAL_CAPACITY, capacity)), window.count); // The first version kept, or more room
+            this.window = window;
+        }
+        window.changes[window.count] = change;
+        window.count = window.count + 1; // Publishes the change to readers
+    }
+
+    /**
+     * Gets the hash of the cells the latest version was loaded from, so the same update
+     * can be recognized before it is loaded again.
+     *
+     * @return the hash, or null if it is not known.
+     */
+    public ContentHash getContentHash() {
+        return this.content;
+    }
+
+    /**
+     * Sets the hash of the cells the latest version was loaded from. Recording a new
+     * version forgets it.
+     *
+     * @param content the hash of the loaded cells.
+     */
+    public void setContentHash(ContentHash content) {
+        this.content = content;
+    }
+
+    /**
+     * Gets the number of versions recorded, including the versions pruned.
+     *
+     * @return the number of versions.
+     */
+    public int size() {
+        Window window = this.window;
+        return window.first + window.count;
+    }
+
+    /**
+     * Gets the id of the oldest version kept; every version before it was pruned.
+     *
+     * @return the id of the first version kept.
+     */
+    public int getFirst() {
+        return this.window.first;
+    }
+
+    /**
+     * Gets the changes recorded for a version. The changes of the first version are
+     * all of its cells.
+     *
+     * @param version the id of the version, which must not have been pruned.
+     * @return the payload lines changed by the version.
+     */
+    public String getChanges(int version) {
+        return change(this.window, version).lines;
+    }
+
+    /**
+     * Gets when a version was recorded.
+     *
+     * @param version the id of the version, which must not have been pruned.
+     * @return the time it was recorded, in System.currentTimeMillis.
+     */
+    public long getTime(int version) {
+        return change(this.window, version).time;
+    }
+
+    /**
+     * Gets the versions kept now, to read while versions are recorded or pruned. Must not
+     * be called while a version is being recorded.
+     *
+     * @return the versions kept.
+     */
+    public Retained retained() {
+        Window window = this.window;
+        return new Retained(window, window.first + window.count);
+    }
+
+    /**
+     * Forgets the changes of every version before a given one, which becomes the
+     * checkpoint. Readers that started before keep the versions they were reading.
+     *
+     * @param first      the id of the oldest version to keep.
+     * @param checkpoint the version with that id.
+     */
+    public void prune(int first, IReadOnlySpreadSheet checkpoint) {
+        Window window = this.window;
+        int count = window.count;
+        int drop = first - window.first;
+        if (drop <= 0 || drop >= count) {
+            return; // Already pruned, or would drop the latest version
+        }
+        this.window = new Window(first, checkpoint,
+                Arrays.copyOfRange(window.changes, drop, drop + Math.max(INITIAL_CAPACITY, 2 * (count - drop))), count - drop);
+    }
+
+    /**
+     * Numbers the versions of an empty log from a given id, when the log is rebuilt from
+     * a checkpoint whose older versions were pruned.
+     *
+     * @param first the id of the next version recorded.
+     */
+    public void startAt(int first) {
+        if (this.window.count == 0) {
+            this.window = new Window(first, null, new Change[INITIAL_CAPACITY], 0);
+        }
+    }
+
+    /**
+     * Rebuilds the payload of a version from its recorded changes, by applying them to
+     * the latest version recorded so far. Recording the rebuilt version afterwards
+     * records the same changes again.
+     *
+     * @param changes the payload lines changed by the version.
+     * @return a payload with every cell of the version.
+     */
+    public String applyChanges(String changes) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (this.latest != null) {
+            for (Cell cell : this.latest.getPopulatedCells()) {
+                String value = valueOf(cell);
+                if (value != null) {
+                    values.put(reference(cell.getRow(), cell.getCol()), value);
+                }
+            }
+        }
+        for (String line : changes.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split(" ", 2);
+            if (parts.length < 2) {
+                values.remove(parts[0].trim()); // Cleared
+            } else {
+                values.put(parts[0].trim(), parts[1].trim()); // New or changed
+            }
+        }
+        StringBuilder payload = new StringBuilder();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            payload.append(entry.getKey()).append(" ").append(entry.getValue()).append("\n");
+        }
+        return payload.toString();
+    }
+
+    /**
+     * Builds the updates from a version to a later one: every cell of the first version,
+     * then the changes made by each later version. If the first version was pruned, the
+     * updates start from the checkpoint instead, so they cost no more than the versions
+     * kept.
+     *
+     * @param id    the id of the first version.
+     * @param first the first version, or null if it was pruned.
+     * @param end   one past the id of the last version to include.
+     * @return the payload lines, or an empty string if there are no versions in the range.
+     */
+    public String changesSince(int id, IReadOnlySpreadSheet first, int end) {
+        if (id >= end) {
+            return ""; // Nothing new
+        }
+        Window window = this.window; // The versions kept when the updates are built
+        if (id < window.first) {
+            id = window.first;
+            first = window.checkpoint; // Pruned, possibly since the caller looked for it
+        }
+        StringBuilder updates = new StringBuilder();
+        appendCells(updates, first);
+        for (int i = id + 1; i < end; i++) {
+            updates.append(change(window, i).lines);
+        }
+        return updates.toString();
+    }
+
+    /**
+     * Gets the changes of a version from a window.
+     *
+     * @param window  the versions kept.
+     * @param version the id of the version, which the window must hold.
+     * @return the changes.
+     */
+    private static Change change(Window window, int version) {
+        int index = version - window.first;
+        if (index < 0 || index >= window.count) {
+            throw new IndexOutOfBoundsException("Version " + version + " is not kept");
+        }
+        return window.changes[index];
+    }
+
+    /**
+     * Compares a cell of a version with the same cell of the version before it, and
+     * lists it if it was added, changed or cleared.
+     *
+     * @param changed  the new or changed cells, added to
+     * @param cleared  the cleared cells, added to
+     * @param previous the version before, or null if there is none
+     * @param version  the new version
+     * @param row      the row index of the cell
+     * @param col      the column index of the cell
+     */
+    private static void compare(StringBuilder changed, StringBuilder cleared, IReadOnlySpreadSheet previous,
+                                IReadOnlySpreadSheet version, int row, int col) {
+        String before = previous == null ? null : valueOf(previous.getPopulatedCell(row, col));
+        String after = valueOf(version.getPopulatedCell(row, col));
+        if (after != null && !after.equals(before)) {
+            changed.append(reference(row, col)).append(" ").append(after).append("\n"); // New or changed
+        } else if (after == null && before != null) {
+            cleared.append(reference(row, col)).append("\n"); // Cleared
+        }
+    }
+
+    /**
+     * Lists every cell of a version as payload lines, straight from its cells.
+     *
+     * @param payload the payload, added to
+     * @param version the version
+     */
+    private static void appendCells(StringBuilder payload, IReadOnlySpreadSheet version) {
+        for (Cell cell : version.getPopulatedCells()) { // Row by row, left to right
+            String value = valueOf(cell);
+            if (value != null) {
+                payload.append(reference(cell.getRow(), cell.getCol())).append(" ").append(value).append("\n");
+            }
+        }
+    }
+
+    /**
+     * Gets the value a cell is sent as in a payload, as Spreadsheet.convertSheetToPayload
+     * writes it.
+     *
+     * @param cell the cell, or null for an empty cell
+     * @return the value, or null if the cell is not part of a payload
+     */
+    private static String valueOf(Cell cell) {
+        if (cell == null || cell.getRawdata().isEmpty()) {
+            return null;
+        }
+        return (cell.isFormula() ? cell.getFormula() : cell.getRawdata()).trim();
+    }
+
+    /**
+     * Builds the reference of a cell, e.g. $A1.
+     *
+     * @param row the row index
+     * @param col the column index
+     * @return the reference
+     */
+    private static String reference(int row, int col) {
+        return "$" + Spreadsheet.getColumnName(col + 1) + (row + 1);
+    }
+
+    /**
+     * Splits a payload into cell references and values.
+     *
+     * @param payload a payload with one cell per line.
+     * @return cell reference -> value, in payload order.
+     */
+    public static Map<String, String> parseEntries(String payload) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String line : payload.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split(" ", 2);
+            if (parts.length < 2) {
+                continue; // A cleared cell has no value
+            }
+            values.put(parts[0].trim(), parts[1].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,372 @@
+package org.example.model;
+
+/**
+ * A growable grid of cells split into 64x64 tiles. A tile is allocated the first time
+ * one of its cells is written and released once its last cell is removed, so empty
+ * space costs nothing. Cells are found by indexing directly into the tile, with no
+ * hashing, and iteration only visits populated tiles.
+ *
+ * A snapshot shares every tile with the grid it was taken from. Tiles are copied on
+ * write: the first change to a shared tile, in either grid, gives that grid its own
+ * copy of the tile and its cells. A snapshot therefore costs one reference per tile,
+ * and each later change costs at most one tile.
+ */
+public class ChunkedGrid {
+    static final int TILE_SHIFT = 6; // Tiles are 2^6 = 64 cells wide and high
+    static final int TILE_SIZE = 1 << TILE_SHIFT; // Number of rows and columns in a tile
+    private static final int TILE_MASK = TILE_SIZE - 1; // Selects the position inside a tile
+
+    private Tile[][] tiles; // Tiles by tile row and tile column, null where nothing is stored
+    private int size; // Number of cells stored
+    private int rows; // One past the highest populated row
+    private int cols; // One past the highest populated column
+    private boolean extentStale; // Whether rows and cols must be recomputed after a removal
+    private Object owner; // Marks the tiles this grid may change in place; other tiles are shared
+
+    /**
+     * A 64x64 block of cells.
+     */
+    private static final class Tile {
+        private final Cell[] cells = new Cell[TILE_SIZE * TILE_SIZE]; // Cells row by row
+        private final Object owner; // The grid that may change the tile in place
+        private int count; // Number of cells stored in the tile
+
+        private Tile(Object owner) {
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Visits a populated cell.
+     */
+    public interface Visitor {
+
+        /**
+         * Called once for each populated cell.
+         *
+         * @param row  the row index of the cell.
+         * @param col  the column index of the cell.
+         * @param cell the cell.
+         */
+        void visit(int row, int col, Cell cell);
+    }
+
+    /**
+     * Constructs an empty grid.
+     */
+    public ChunkedGrid() {
+        this.tiles = new Tile[0][];
+        this.owner = new Object();
+    }
+
+    /**
+     * Takes a snapshot of the grid. The snapshot and this grid share their tiles until
+     * one of them changes a tile, so neither sees the changes made to the other.
+     *
+     * @return the snapshot.
+     */
+    public ChunkedGrid snapshot() {
+        ChunkedGrid copy = new ChunkedGrid();
+        copy.tiles = new Tile[this.tiles.length][];
+        for (int tileRow = 0; tileRow < this.tiles.length; tileRow++) {
+            if (this.tiles[tileRow] != null) {
+                copy.tiles[tileRow] = this.tiles[tileRow].clone(); // The tiles themselves are shared
+            }
+        }
+        copy.size = this.size;
+        copy.rows = this.rows;
+        copy.cols = this.cols;
+        copy.extentStale = this.extentStale;
+        this.owner = new Object(); // Every existing tile is now shared, so this grid copies before writing
+        return copy;
+    }
+
+    /**
+     * Gets the number of populated cells.
+     *
+     * @return the number of cells stored.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of rows in use.
+     *
+     * @return one past the highest populated row, or 0 if the grid is empty.
+     */
+    public int getRows() {
+        updateExtent();
+        return this.rows;
+    }
+
+    /**
+     * Gets the number of columns in use.
+     *
+     * @return one past the highest populated column, or 0 if the grid is empty.
+     */
+    public int getCols() {
+        updateExtent();
+        return this.cols;
+    }
+
+    /**
+     * Gets the cell stored at the given position.
+     *
+     * @param row the row index, not negative.
+     * @param col the column index, not negative.
+     * @return the cell, or null if the cell is empty.
+     */
+    public Cell get(int row, int col) {
+        Tile tile = tile(row >>> TILE_SHIFT, col >>> TILE_SHIFT);
+        return tile == null ? null : tile.cells[offset(row, col)];
+    }
+
+    /**
+     * Gets the cell stored at the given position so that it can be changed. If the cell
+     * lives in a tile shared with a snapshot, the tile and its cells are copied first.
+     *
+     * @param row the row index, not negative.
+     * @param col the column index, not negative.
+     * @return the cell, or null if the cell is empty.
+     */
+    public Cell getForWrite(int row, int col) {
+        int tileRow = row >>> TILE_SHIFT;
+        int tileCol = col >>> TILE_SHIFT;
+        Tile tile = tile(tileRow, tileCol);
+        if (tile == null || tile.cells[offset(row, col)] == null) {
+            return null; // Nothing to copy
+        }
+        return writableTile(tileRow, tileCol, tile).cells[offset(row, col)];
+    }
+
+    /**
+     * Stores a cell at the given position, replacing any cell already there.
+     *
+     * @param row  the row index, not negative.
+     * @param col  the column index, not negative.
+     * @param cell the cell, must not be null.
+     */
+    public void put(int row, int col, Cell cell) {
+        int tileRow = row >>> TILE_SHIFT;
+        int tileCol = col >>> TILE_SHIFT;
+        if (tileRow >= this.tiles.length) {
+            this.tiles = copyOf(this.tiles, Math.max(tileRow + 1, this.tiles.length * 2)); // Grow downwards
+        }
+        Tile[] tileRowArray = this.tiles[tileRow];
+        if (tileRowArray == null || tileCol >= tileRowArray.length) {
+            int length = tileRowArray == null ? 0 : tileRowArray.length;
+            Tile[] grown = new Tile[Math.max(tileCol + 1, length * 2)]; // Grow to the right
+            if (tileRowArray != null) {
+                System.arraycopy(tileRowArray, 0, grown, 0, length);
+            }
+            tileRowArray = grown;
+            this.tiles[tileRow] = grown;
+        }
+        Tile tile = tileRowArray[tileCol];
+        if (tile == null) {
+            tile = new Tile(this.owner); // First cell written in this tile
+            tileRowArray[tileCol] = tile;
+        } else {
+            tile = writableTile(tileRow, tileCol, tile);
+        }
+        int offset = offset(row, col);
+        if (tile.cells[offset] == null) {
+            tile.count++;
+            this.size++;
+        }
+        tile.cells[offset] = cell;
+        this.rows = Math.max(this.rows, row + 1);
+        this.cols = Math.max(this.cols, col + 1);
+    }
+
+    /**
+     * Removes the cell stored at the given position.
+     *
+     * @param row the row index, not negative.
+     * @param col the column index, not negative.
+     * @return the removed cell, or null if there was none.
+     */
+    public Cell remove(int row, int col) {
+        int tileRow = row >>> TILE_SHIFT;
+        int tileCol = col >>> TILE_SHIFT;
+        Tile tile = tile(tileRow, tileCol);
+        if (tile == null) {
+            return null;
+        }
+        int offset = offset(row, col);
+        Cell removed = tile.cells[offset];
+        if (removed != null) {
+            tile = writableTile(tileRow, tileCol, tile);
+            tile.cells[offset] = null;
+            this.size--;
+            if (--tile.count == 0) {
+                this.tiles[tileRow][tileCol] = null; // Release the empty tile
+            }
+            if (row + 1 == this.rows || col + 1 == this.cols) {
+                this.extentStale = true; // The edge may have moved in
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every cell.
+     */
+    public void clear() {
+        this.tiles = new Tile[0][];
+        this.size = 0;
+        this.rows = 0;
+        this.cols = 0;
+        this.extentStale = false;
+    }
+
+    /**
+     * Visits every populated cell row by row, from left to right. Only allocated tiles are
+     * scanned.
+     *
+     * @param visitor the visitor to call for each cell.
+     */
+    public void forEach(Visitor visitor) {
+        for (int tileRow = 0; tileRow < this.tiles.length; tileRow++) {
+            Tile[] tileRowArray = this.tiles[tileRow];
+            if (tileRowArray == null) {
+                continue;
+            }
+            for (int r = 0; r < TILE_SIZE; r++) { // Each row across the whole tile row
+                int row = (tileRow << TILE_SHIFT) + r;
+                for (int tileCol = 0; tileCol < tileRowArray.length; tileCol++) {
+                    Tile tile = tileRowArray[tileCol];
+                    if (tile == null) {
+                        continue;
+                    }
+                    int base = r << TILE_SHIFT;
+                    for (int c = 0; c < TILE_SIZE; c++) {
+                        Cell cell = tile.cells[base + c];
+                        if (cell != null) {
+                            visitor.visit(row, (tileCol << TILE_SHIFT) + c, cell);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the populated cells inside a rectangle row by row, from left to right.
+     * Only allocated tiles that overlap the rectangle are scanned.
+     *
+     * @param startRow the top row, not negative.
+     * @param startCol the left column, not negative.
+     * @param endRow   the bottom row.
+     * @param endCol   the right column.
+     * @param visitor  the visitor to call for each cell.
+     */
+    public void forEachInRange(int startRow, int startCol, int endRow, int endCol, Visitor visitor) {
+        int lastTileRow = Math.min(endRow >>> TILE_SHIFT, this.tiles.length - 1);
+        for (int tileRow = startRow >>> TILE_SHIFT; tileRow <= lastTileRow; tileRow++) {
+            Tile[] tileRowArray = this.tiles[tileRow];
+            if (tileRowArray == null) {
+                continue;
+            }
+            int lastTileCol = Math.min(endCol >>> TILE_SHIFT, tileRowArray.length - 1);
+            int firstRow = Math.max(startRow, tileRow << TILE_SHIFT);
+            int lastRow = Math.min(endRow, (tileRow << TILE_SHIFT) + TILE_MASK);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int tileCol = startCol >>> TILE_SHIFT; tileCol <= lastTileCol; tileCol++) {
+                    Tile tile = tileRowArray[tileCol];
+                    if (tile == null) {
+                        continue;
+                    }
+                    int firstCol = Math.max(startCol, tileCol << TILE_SHIFT);
+                    int lastCol = Math.min(endCol, (tileCol << TILE_SHIFT) + TILE_MASK);
+                    for (int col = firstCol; col <= lastCol; col++) {
+                        Cell cell = tile.cells[offset(row, col)];
+                        if (cell != null) {
+                            visitor.visit(row, col, cell);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the tile at the given tile position.
+     *
+     * @param tileRow the tile row.
+     * @param tileCol the tile column.
+     * @return the tile, or null if it is not allocated.
+     */
+    private Tile tile(int tileRow, int tileCol) {
+        if (tileRow >= this.tiles.length) {
+            return null;
+        }
+        Tile[] tileRowArray = this.tiles[tileRow];
+        return tileRowArray == null || tileCol >= tileRowArray.length ? null : tileRowArray[tileCol];
+    }
+
+    /**
+     * Gets a tile this grid may change in place, copying a shared tile and its cells.
+     *
+     * @param tileRow the tile row.
+     * @param tileCol the tile column.
+     * @param tile    the tile currently stored there.
+     * @return the tile to change.
+     */
+    private Tile writableTile(int tileRow, int tileCol, Tile tile) {
+        if (tile.owner == this.owner) {
+            return tile;
+        }
+        Tile copy = new Tile(this.owner);
+        for (int i = 0; i < tile.cells.length; i++) {
+            if (tile.cells[i] != null) {
+                copy.cells[i] = new Cell(tile.cells[i]); // Cells are changed in place, so they are copied too
+            }
+        }
+        copy.count = tile.count;
+        this.tiles[tileRow][tileCol] = copy;
+        return copy;
+    }
+
+    /**
+     * Finds the position of a cell inside its tile.
+     *
+     * @param row the row index.
+     * @param col the column index.
+     * @return the index into the tile's cells.
+     */
+    private static int offset(int row, int col) {
+        return ((row & TILE_MASK) << TILE_SHIFT) | (col & TILE_MASK);
+    }
+
+    /**
+     * Recomputes the used extent after cells on its edge were removed.
+     */
+    private void updateExtent() {
+        if (!this.extentStale) {
+            return;
+        }
+        int[] extent = new int[2];
+        forEach((row, col, cell) -> {
+            extent[0] = Math.max(extent[0], row + 1);
+            extent[1] = Math.max(extent[1], col + 1);
+        });
+        this.rows = extent[0];
+        this.cols = extent[1];
+        this.extentStale = false;
+    }
+
+    /**
+     * Copies the tile rows into a longer array.
+     *
+     * @param source the tile rows.
+     * @param length the new length.
+     * @return the copy.
+     */
+    private static Tile[][] copyOf(Tile[][] source, int length) {
+        Tile[][] copy = new Tile[length][];
+        System.arraycopy(source, 0, copy, 0, source.length);
+        return copy;
+    }
+}
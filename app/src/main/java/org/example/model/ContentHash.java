@@ -0,0 +1,107 @@
+package org.example.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hash of a sheet's content: the position and raw data of each populated cell. It
+ * does not depend on the order the cells are listed in, so an update can be checked
+ * against the latest version without sorting either. It is 128 bits, computed as two
+ * halves with different seeds, so different contents hash the same with negligible
+ * probability.
+ */
+public final class ContentHash {
+    private static final long SEED_HIGH = 0x243F6A8885A308D3L;
+    private static final long SEED_LOW = 0x13198A2E03707344L;
+
+    private final long high; // Sum of the cells' hashes with the first seed
+    private final long low; // Sum of the cells' hashes with the second seed
+    private final int cells; // Number of populated cells
+
+    private ContentHash(long high, long low, int cells) {
+        this.high = high;
+        this.low = low;
+        this.cells = cells;
+    }
+
+    /**
+     * Hashes the content of a list of cells, as they would be loaded: a later cell
+     * replaces an earlier one at the same position, and a cell without raw data clears
+     * it.
+     *
+     * @param cells the cells, in any order
+     * @return the hash
+     */
+    public static ContentHash of(Iterable<Cell> cells) {
+        Map<Long, String> content = new HashMap<>(); // Position -> raw data
+        for (Cell cell : cells) {
+            long position = ((long) cell.getRow() << 32) | (cell.getCol() & 0xFFFFFFFFL);
+            if (cell.getRawdata().isEmpty()) {
+                content.remove(position);
+            } else {
+                content.put(position, cell.getRawdata());
+            }
+        }
+        long high = 0;
+        long low = 0;
+        for (Map.Entry<Long, String> entry : content.entrySet()) {
+            high += hash(entry.getKey(), entry.getValue(), SEED_HIGH, 0x100000001B3L); // Summed, so the order does not matter
+            low += hash(entry.getKey(), entry.getValue(), SEED_LOW, 0x9E3779B97F4A7C15L);
+        }
+        return new ContentHash(high, low, content.size());
+    }
+
+    /**
+     * Hashes one cell.
+     *
+     * @param position   the row in the high half and the column in the low half
+     * @param raw        the raw data
+     * @param seed       the starting state
+     * @param multiplier the odd number each character is mixed in with
+     * @return the hash
+     */
+    private static long hash(long position, String raw, long seed, long multiplier) {
+        long h = seed ^ mix(position);
+        for (int i = 0; i < raw.length(); i++) {
+            h = (h ^ raw.charAt(i)) * multiplier;
+        }
+        return mix(h ^ raw.length());
+    }
+
+    /**
+     * Spreads every bit of a value over the whole result (the MurmurHash3 finalizer).
+     *
+     * @param h the value
+     * @return the mixed value
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ContentHash)) {
+            return false;
+        }
+        ContentHash hash = (ContentHash) other;
+        return this.high == hash.high && this.low == hash.low && this.cells == hash.cells;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (this.high ^ (this.high >>> 32));
+    }
+
+    /**
+     * toString function used for testing
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x/%d", this.high, this.low, this.cells);
+    }
+}
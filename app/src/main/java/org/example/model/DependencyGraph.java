@@ -0,0 +1,419 @@
+package org.example.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.example.model.formula.CellReferenceExpression;
+import org.example.model.formula.Formula;
+import org.example.model.formula.RangeExpression;
+
+/**
+ * Tracks which cells each formula reads (its precedents) and which formulas read each
+ * cell (its dependents), so an edit only re-evaluates the formulas it affects.
+ * Cells are identified by a key packing their row and column into one long.
+ */
+public class DependencyGraph {
+    private static final int MAX_RANGE_TILES = 4096; // Ranges over more tiles are checked on every lookup instead
+
+    private final Map<Long, Set<Long>> precedents; // Formula cell -> single cells it reads
+    private final Map<Long, Set<Long>> dependents; // Cell -> formula cells reading it directly
+    private final Map<Long, List<RangeExpression>> rangePrecedents; // Formula cell -> ranges it reads
+    private final Map<Long, Set<Long>> rangeReaders; // Tile of the sheet -> formula cells reading a range over it
+    private final Set<Long> wideReaders; // Formula cells reading a range over too many tiles to list
+    private final Set<Long> formulas; // Every formula cell, including those that read no cells
+
+    /**
+     * Constructs an empty dependency graph.
+     */
+    public DependencyGraph() {
+        this.precedents = new HashMap<>();
+        this.dependents = new HashMap<>();
+        this.rangePrecedents = new HashMap<>();
+        this.rangeReaders = new HashMap<>();
+        this.wideReaders = new HashSet<>();
+        this.formulas = new HashSet<>();
+    }
+
+    /**
+     * Packs a row and column into a single key.
+     *
+     * @param row the row index.
+     * @param col the column index.
+     * @return the key of the cell.
+     */
+    public static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the row index from a cell key.
+     *
+     * @param key the key of the cell.
+     * @return the row index.
+     */
+    public static int row(long key) {
+        return (int) (key >>> 32);
+    }
+
+    /**
+     * Gets the column index from a cell key.
+     *
+     * @param key the key of the cell.
+     * @return the column index.
+     */
+    public static int col(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Records the cells read by the formula held in the given cell, replacing whatever
+     * the cell read before.
+     *
+     * @param row     the row index of the formula cell.
+     * @param col     the column index of the formula cell.
+     * @param formula the compiled formula held by the cell.
+     */
+    public void setPrecedents(int row, int col, Formula formula) {
+        long key = key(row, col);
+        removePrecedents(row, col); // Forget the cells read by the previous formula
+        Set<Long> cells = new HashSet<>();
+        for (CellReferenceExpression reference : formula.getReferences()) {
+            long precedent = key(reference.getRow(), reference.getCol());
+            cells.add(precedent);
+            this.dependents.computeIfAbsent(precedent, k -> new HashSet<>()).add(key); // Link the precedent back
+        }
+        if (!cells.isEmpty()) {
+            this.precedents.put(key, cells);
+        }
+        if (!formula.getRanges().isEmpty()) {
+            List<RangeExpression> ranges = new ArrayList<>(formula.getRanges());
+            this.rangePrecedents.put(key, ranges);
+            indexRanges(key, ranges, true);
+        }
+        this.formulas.add(key);
+    }
+
+    /**
+     * Removes every precedent of the given cell, e.g. when its formula is replaced by a value.
+     *
+     * @param row the row index of the cell.
+     * @param col the column index of the cell.
+     */
+    public void removePrecedents(int row, int col) {
+        long key = key(row, col);
+        Set<Long> cells = this.precedents.remove(key);
+        if (cells != null) {
+            for (long precedent : cells) {
+                Set<Long> readers = this.dependents.get(precedent);
+                readers.remove(key);
+                if (readers.isEmpty()) {
+                    this.dependents.remove(precedent); // Drop empty entries
+                }
+            }
+        }
+        List<RangeExpression> ranges = this.rangePrecedents.remove(key);
+        if (ranges != null) {
+            indexRanges(key, ranges, false);
+        }
+        this.formulas.remove(key);
+    }
+
+    /**
+     * Adds a formula to, or removes it from, the readers of every tile its ranges cover,
+     * so a cell's range dependents are found among the formulas reading its tile only.
+     *
+     * @param key    the key of the formula cell.
+     * @param ranges the ranges the formula reads.
+     * @param add    true to add the formula, false to remove it.
+     */
+    private void indexRanges(long key, List<RangeExpression> ranges, boolean add) {
+        for (RangeExpression range : ranges) {
+            int startRow = range.getStart().getRow();
+            int startCol = range.getStart().getCol();
+            int endRow = range.getEnd().getRow();
+            int endCol = range.getEnd().getCol();
+            if (startRow > endRow || startCol > endCol) {
+                continue; // An inverted range contains no cell
+            }
+            int firstRow = startRow >> ChunkedGrid.TILE_SHIFT;
+            int firstCol = startCol >> ChunkedGrid.TILE_SHIFT;
+            int lastRow = endRow >> ChunkedGrid.TILE_SHIFT;
+            int lastCol = endCol >> ChunkedGrid.TILE_SHIFT;
+            if ((long) (lastRow - firstRow + 1) * (lastCol - firstCol + 1) > MAX_RANGE_TILES) {
+                if (add) {
+                    this.wideReaders.add(key);
+                } else {
+                    this.wideReaders.remove(key);
+                }
+                continue;
+            }
+            for (int r = firstRow; r <= lastRow; r++) {
+                for (int c = firstCol; c <= lastCol; c++) {
+                    long tile = key(r, c);
+                    if (add) {
+                        this.rangeReaders.computeIfAbsent(tile, k -> new HashSet<>()).add(key);
+                    } else {
+                        Set<Long> readers = this.rangeReaders.get(tile);
+                        if (readers != null && readers.remove(key) && readers.isEmpty()) {
+                            this.rangeReaders.remove(tile); // Drop empty entries
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every dependency from the graph.
+     */
+    public void clear() {
+        this.precedents.clear();
+        this.dependents.clear();
+        this.rangePrecedents.clear();
+        this.rangeReaders.clear();
+        this.wideReaders.clear();
+        this.formulas.clear();
+    }
+
+    /**
+     * Gets the formula cells that read the given cell directly, either by reference or
+     * through a range.
+     *
+     * @param key the key of the cell.
+     * @return the keys of the dependent formula cells.
+     */
+    private Set<Long> directDependents(long key) {
+        Set<Long> result = new HashSet<>(this.dependents.getOrDefault(key, Set.of()));
+        int row = row(key);
+        int col = col(key);
+        long tile = key(row >> ChunkedGrid.TILE_SHIFT, col >> ChunkedGrid.TILE_SHIFT);
+        addRangeReaders(result, this.rangeReaders.getOrDefault(tile, Set.of()), row, col);
+        addRangeReaders(result, this.wideReaders, row, col);
+        return result;
+    }
+
+    /**
+     * Adds the formulas that read a cell through one of their ranges.
+     *
+     * @param result     receives the keys of the formula cells.
+     * @param candidates the formula cells that may read the cell through a range.
+     * @param row        the row index of the cell.
+     * @param col        the column index of the cell.
+     */
+    private void addRangeReaders(Set<Long> result, Set<Long> candidates, int row, int col) {
+        for (long formula : candidates) {
+            for (RangeExpression range : this.rangePrecedents.get(formula)) {
+                if (range.contains(row, col)) {
+                    result.add(formula); // The formula reads the cell through a range
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the formula cells that the given formula reads, either by reference or
+     * through a range. Plain values are left out since they never need evaluating.
+     *
+     * @param key the key of the formula cell.
+     * @return the keys of the formula cells it reads.
+     */
+    private Set<Long> formulaPrecedents(long key) {
+        Set<Long> result = new HashSet<>();
+        for (long precedent : this.precedents.getOrDefault(key, Set.of())) {
+            if (this.formulas.contains(precedent)) {
+                result.add(precedent);
+            }
+        }
+        for (RangeExpression range : this.rangePrecedents.getOrDefault(key, List.of())) {
+            int startRow = range.getStart().getRow();
+            int startCol = range.getStart().getCol();
+            int endRow = range.getEnd().getRow();
+            int endCol = range.getEnd().getCol();
+            long area = (long) (endRow - startRow + 1) * (endCol - startCol + 1);
+            if (area <= this.formulas.size()) { // Small range, look at each of its cells
+                for (int r = startRow; r <= endRow; r++) {
+                    for (int c = startCol; c <= endCol; c++) {
+                        if (this.formulas.contains(key(r, c))) {
+                            result.add(key(r, c));
+                        }
+                    }
+                }
+            } else { // Large range, look at each formula instead
+                for (long formula : this.formulas) {
+                    if (range.contains(row(formula), col(formula))) {
+                        result.add(formula);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Works out which formulas must be re-evaluated after the given cell changes, grouped
+     * into levels. Every formula in a level only reads formulas from earlier levels, so the
+     * formulas of one level can be evaluated in any order, or at the same time. Formulas
+     * that are part of, or depend on, a circular reference cannot be ordered and are
+     * reported separately.
+     *
+     * @param row    the row index of the changed cell.
+     * @param col    the column index of the changed cell.
+     * @param cyclic receives the keys of formula cells caught up in a circular reference.
+     * @return the keys of the formula cells to re-evaluate, level by level.
+     */
+    public List<List<Long>> recalculationLevels(int row, int col, Set<Long> cyclic) {
+        ArrayDeque<Long> stack = new ArrayDeque<>();
+        stack.push(key(row, col));
+        Set<Long> affected = new LinkedHashSet<>();
+        return levels(affected, collectDependents(stack, affected), cyclic);
+    }
+
+    /**
+     * Works out which formulas must be re-evaluated after several cells change at once,
+     * grouped into levels as recalculationLevels does for one cell. Changed cells that hold
+     * formulas are included, so each formula is evaluated once even when it reads other
+     * changed cells.
+     *
+     * @param changed the keys of the changed cells.
+     * @param cyclic  receives the keys of formula cells caught up in a circular reference.
+     * @return the keys of the formula cells to evaluate, level by level.
+     */
+    public List<List<Long>> recalculationLevels(Collection<Long> changed, Set<Long> cyclic) {
+        ArrayDeque<Long> stack = new ArrayDeque<>();
+        Set<Long> affected = new LinkedHashSet<>();
+        for (long cell : changed) {
+            if (this.formulas.contains(cell)) {
+                affected.add(cell); // The changed formula itself needs evaluating
+            }
+            stack.push(cell);
+        }
+        return levels(affected, collectDependents(stack, affected), cyclic);
+    }
+
+    /**
+     * Collects every formula that depends on the cells on the stack, directly or not.
+     *
+     * @param stack    the changed cells; emptied by the search.
+     * @param affected receives the dependent formula cells.
+     * @return for every visited cell, the formula cells that read it.
+     */
+    private Map<Long, Set<Long>> collectDependents(ArrayDeque<Long> stack, Set<Long> affected) {
+        Map<Long, Set<Long>> edges = new HashMap<>();
+        while (!stack.isEmpty()) {
+            long cell = stack.pop();
+            if (edges.containsKey(cell)) {
+                continue; // Already visited
+            }
+            Set<Long> next = directDependents(cell);
+            edges.put(cell, next);
+            for (long dependent : next) {
+                if (affected.add(dependent)) {
+                    stack.push(dependent);
+                }
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Groups every formula in the sheet into levels for a full recalculation, as
+     * recalculationLevels does for the formulas affected by one change.
+     *
+     * @param cyclic receives the keys of formula cells caught up in a circular reference.
+     * @return the keys of every formula cell, level by level.
+     */
+    public List<List<Long>> allFormulaLevels(Set<Long> cyclic) {
+        Map<Long, Set<Long>> edges = new HashMap<>();
+        for (long formula : this.formulas) {
+            edges.put(formula, new HashSet<>());
+        }
+        for (long formula : this.formulas) {
+            for (long precedent : formulaPrecedents(formula)) {
+                edges.get(precedent).add(formula); // The precedent must be evaluated first
+            }
+        }
+        return levels(new LinkedHashSet<>(this.formulas), edges, cyclic);
+    }
+
+    /**
+     * Works out which formulas must be re-evaluated after the given cell changes, in an
+     * order where every formula comes after the formulas it reads. Formulas that are part
+     * of, or depend on, a circular reference cannot be ordered and are reported separately.
+     *
+     * @param row    the row index of the changed cell.
+     * @param col    the column index of the changed cell.
+     * @param cyclic receives the keys of formula cells caught up in a circular reference.
+     * @return the keys of the formula cells to re-evaluate, in evaluation order.
+     */
+    public List<Long> recalculationOrder(int row, int col, Set<Long> cyclic) {
+        List<Long> order = new ArrayList<>();
+        for (List<Long> level : recalculationLevels(row, col, cyclic)) {
+            order.addAll(level);
+        }
+        return order;
+    }
+
+    /**
+     * Sorts formulas into levels with Kahn's algorithm: a formula joins the level after
+     * the last formula it waits on. Each level is sorted by key, so the levels are the
+     * same every time.
+     *
+     * @param affected the formula cells to sort.
+     * @param edges    for every affected cell, the formula cells that read it.
+     * @param cyclic   receives the formula cells that wait on themselves.
+     * @return the levels.
+     */
+    private static List<List<Long>> levels(Set<Long> affected, Map<Long, Set<Long>> edges, Set<Long> cyclic) {
+        // Count, for every affected formula, how many affected formulas it still waits on
+        Map<Long, Integer> waiting = new HashMap<>();
+        for (long cell : affected) {
+            waiting.putIfAbsent(cell, 0);
+            for (long dependent : edges.get(cell)) {
+                waiting.merge(dependent, 1, Integer::sum);
+            }
+        }
+
+        // Evaluate formulas once everything they read is up to date
+        List<Long> ready = new ArrayList<>();
+        for (long cell : affected) {
+            if (waiting.get(cell) == 0) {
+                ready.add(cell);
+            }
+        }
+        List<List<Long>> levels = new ArrayList<>();
+        int ordered = 0;
+        while (!ready.isEmpty()) {
+            Collections.sort(ready); // Row by row, for the same order on every run
+            levels.add(ready);
+            ordered += ready.size();
+            List<Long> next = new ArrayList<>();
+            for (long cell : ready) {
+                for (long dependent : edges.get(cell)) {
+                    if (waiting.merge(dependent, -1, Integer::sum) == 0) {
+                        next.add(dependent);
+                    }
+                }
+            }
+            ready = next;
+        }
+
+        // Anything left over is waiting on itself through a circular reference
+        if (ordered < affected.size()) {
+            for (long cell : affected) {
+                if (waiting.get(cell) > 0) {
+                    cyclic.add(cell);
+                }
+            }
+        }
+        return levels;
+    }
+}
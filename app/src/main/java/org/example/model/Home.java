@@ -59,38 +59,50 @@ public class Home implements IHome {
      */
     private ISpreadsheet generateSpreadsheet(NodeList cellNodes, int maxRow,
                                              int maxCol, String path) {
-        // Create 2D cell array
-        List<List<Cell>> cellArray = new ArrayList<>();
-        for (int i = 0; i < 100; i++) {
-            ArrayList<Cell> row = new ArrayList<>();
-            for (int j = 0; j < 100; j++) {
-                Cell c = new Cell(); // Create a new cell
-                c.setRow(i); // Set the row index
-                c.setCol(j); // Set the column index
-                row.add(c); // Add the cell to the row
-            }
-            cellArray.add(row); // Add the row to the cell array
-        }
-
-        // Fill cell values
+        // Create only the cells present in the XML
+        List<Cell> cells = new ArrayList<>();
         for (int i = 0; i < cellNodes.getLength(); i++) {
             Element cellElement = (Element) cellNodes.item(i); // Get each cell element
             int col = Integer.parseInt(cellElement.getAttribute("col")); // Get the column number
             int row = Integer.parseInt(cellElement.getAttribute("row")); // Get the row number
             String value = cellElement.getTextContent(); // Get the cell value
-            cellArray.get(row).get(col).setValue(value); // Set the cell value in the array
+            if (!value.isEmpty()) { // Empty cells are not stored
+                Cell c = new Cell(); // Create a new cell
+                c.setRow(row); // Set the row index
+                c.setCol(col); // Set the column index
+                c.setValue(value); // Set the cell value
+                cells.add(c); // Add the cell to the list
+            }
         }
-        return new Spreadsheet(cellArray, trimEnds(path)); // Return the generated spreadsheet
+        ISpreadsheet spreadsheet = new Spreadsheet(trimEnds(path)); // Create the spreadsheet
+        spreadsheet.replaceCells(cells); // Place the cells in the spreadsheet
+        return spreadsheet; // Return the generated spreadsheet
     }
 
     public ISpreadsheet readPayload(String payload, String sheetName) {
-        List<List<String>> data = convertStringTo2DArray(payload); // Convert payload to 2D array
         ISpreadsheet spreadsheet = new Spreadsheet(sheetName); // Create a new spreadsheet
+        spreadsheet.loadCells(convertPayloadToCells(payload)); // Load every cell before evaluating any formula
+        return spreadsheet; // Return the spreadsheet
+    }
+
+    /**
+     * Converts a payload into cells holding the raw data of each line, in payload order.
+     * A line with no value gives a cell with empty raw data.
+     *
+     * @param payload a payload (e.g $A1 4\n)
+     * @return a list of Cell
+     */
+    public static List<Cell> convertPayloadToCells(String payload) {
+        List<List<String>> data = convertStringTo2DArray(payload); // Convert payload to 2D array
+        List<Cell> cells = new ArrayList<>(data.size()); // One cell per payload line
         for (List<String> ls : data) {
-            spreadsheet.setCellRawdata(Integer.parseInt(ls.get(0)), Integer.parseInt(ls.get(1)), ls.get(2)); // Set cell raw data
-            spreadsheet.setCellValue(Integer.parseInt(ls.get(0)), Integer.parseInt(ls.get(1)), ls.get(2)); // Set cell value
+            Cell cell = new Cell();
+            cell.setRow(Integer.parseInt(ls.get(0))); // Set cell position
+            cell.setCol(Integer.parseInt(ls.get(1)));
+            cell.setRawData(ls.get(2)); // Set cell raw data
+            cells.add(cell);
         }
-        return spreadsheet; // Return the spreadsheet
+        return cells; // Return the cells
     }
 
     @Override
@@ -144,13 +156,10 @@ public class Home implements IHome {
      * @author Theo
      */
     private void populateDocumentWithSheetData(Document dom, Element root, IReadOnlySpreadSheet sheet) {
-        String[][] values = sheet.getCellStringsObject(); // Get the cell values from the sheet
-        for (int i = 0; i < sheet.getRows(); i++) {
-            for (int j = 0; j < sheet.getCols(); j++) {
-                if (!values[i][j].equals("")) { // If the cell is not empty
-                    Element cellElement = createCellElement(dom, i, j, values[i][j]); // Create a cell element
-                    root.appendChild(cellElement); // Append the cell element to the root
-                }
+        for (Cell cell : sheet.getPopulatedCells()) { // Only populated cells, in row order
+            if (!cell.getValue().equals("")) { // If the cell is not empty
+                Element cellElement = createCellElement(dom, cell.getRow(), cell.getCol(), cell.getValue()); // Create a cell element
+                root.appendChild(cellElement); // Append the cell element to the root
             }
         }
     }
@@ -247,7 +256,7 @@ public class Home implements IHome {
      * @author Tony
      */
 
-    private static int[] convertRefToRowCol(String ref) {
+    static int[] convertRefToRowCol(String ref) {
         ref = ref.substring(1); // Remove the leading $
         int row = 0;
         int col = 0;
@@ -24,12 +24,13 @@ public interface IAppUser {
     String getPassword();
 
     /**
-     * Adds a new sheet with the given name.
+     * Adds a new sheet with the given name, unless the user already has one.
      *
      * @param sheetName the name of the sheet to add.
+     * @return true if the sheet was added, false if it already exists.
      * @author Tony
      */
-    void addSheet(String sheetName);
+    boolean addSheet(String sheetName);
 
     /**
      * Checks if a sheet with the given name exists.
@@ -41,9 +42,17 @@ public interface IAppUser {
     boolean doesSheetExist(String name);
 
     /**
-     * Gets the list of spreadsheets associated with the user.
+     * Finds a sheet by name.
      *
-     * @return a list of spreadsheets.
+     * @param name the name of the sheet.
+     * @return the sheet, or null if the user has no sheet with that name.
+     */
+    ISpreadsheet getSheet(String name);
+
+    /**
+     * Gets the list of spreadsheets associated with the user, in the order they were added.
+     *
+     * @return a read-only list of spreadsheets.
      * @author Ben
      */
     List<ISpreadsheet> getSheets();
@@ -1,12 +1,15 @@
 package org.example.model;
 
+import java.util.List;
+
 /**
  * Represents the interface for a read-only spreadsheet.
  */
 public interface IReadOnlySpreadSheet {
 
     /**
-     * Gets the number of rows in the spreadsheet.
+     * Gets the number of rows in the spreadsheet. This is the used extent of the sheet,
+     * one past the last populated row, but never less than the 100 rows of a new sheet.
      *
      * @return the number of rows in the spreadsheet.
      * @author Ben
@@ -14,7 +17,8 @@ public interface IReadOnlySpreadSheet {
     int getRows();
 
     /**
-     * Gets the number of columns in the spreadsheet.
+     * Gets the number of columns in the spreadsheet. This is the used extent of the sheet,
+     * one past the last populated column, but never less than the 100 columns of a new sheet.
      *
      * @return the number of columns in the spreadsheet.
      * @author Ben
@@ -61,4 +65,31 @@ public interface IReadOnlySpreadSheet {
      */
     String getCellRawdata(int row, int col);
 
+    /**
+     * Gets the value of the cell at the specified row and column.
+     *
+     * @param row the row index of the cell.
+     * @param col the column index of the cell.
+     * @return the value of the cell.
+     * @author Vinay
+     */
+    String getCellValue(int row, int col);
+
+    /**
+     * Gets the cells that hold a value or raw data, row by row from left to right.
+     * Empty cells are not included.
+     *
+     * @return the populated cells.
+     */
+    List<Cell> getPopulatedCells();
+
+    /**
+     * Gets the populated cell at the specified row and column, without creating one.
+     *
+     * @param row the row index of the cell.
+     * @param col the column index of the cell.
+     * @return the cell, or null if the cell is empty.
+     */
+    Cell getPopulatedCell(int row, int col);
+
 }
@@ -26,6 +26,22 @@ public interface ISpreadsheet extends IReadOnlySpreadSheet {
      */
     String evaluateFormula(String formula);
 
+    /**
+     * Re-evaluates the formula stored in the raw data of the cell at the specified
+     * row and column, reusing its compiled form when the formula has not changed.
+     *
+     * @param row the row index of the cell.
+     * @param col the column index of the cell.
+     * @return the value of the formula, or the raw data if the cell holds no formula.
+     */
+    String evaluateCellFormula(int row, int col);
+
+    /**
+     * Re-evaluates every formula in the spreadsheet in dependency order. Formulas that do
+     * not depend on each other are evaluated in parallel on large sheets.
+     */
+    void recalculate();
+
     /**
      * Gets the grid.
      * @return a 2D list of Cell
@@ -43,16 +59,6 @@ public interface ISpreadsheet extends IReadOnlySpreadSheet {
      */
     void setCellValue(int row, int col, String value);
 
-    /**
-     * Gets the value of the cell at the specified row and column.
-     *
-     * @param row the row index of the cell.
-     * @param col the column index of the cell.
-     * @return the value of the cell.
-     * @author Vinay
-     */
-    String getCellValue(int row, int col);
-
     /**
      * Sets the raw data of the cell at the specified row and column.
      *
@@ -90,7 +96,8 @@ public interface ISpreadsheet extends IReadOnlySpreadSheet {
     int getColumn(String cell);
 
     /**
-     * Adds a published version of the spreadsheet.
+     * Adds a published version of the spreadsheet. A snapshot taken since the last
+     * change costs only the cells changed since the last published version.
      *
      * @param sheet the published spreadsheet to add.
      * @author Tony
@@ -98,7 +105,8 @@ public interface ISpreadsheet extends IReadOnlySpreadSheet {
     void addPublished(ISpreadsheet sheet);
 
     /**
-     * Adds a subscribed version of the spreadsheet.
+     * Adds a subscribed version of the spreadsheet. A snapshot taken since the last
+     * change costs only the cells changed since the last subscribed version.
      *
      * @param sheet the subscribed spreadsheet to add.
      * @author Tony
@@ -106,7 +114,8 @@ public interface ISpreadsheet extends IReadOnlySpreadSheet {
     void addSubscribed(ISpreadsheet sheet);
 
     /**
-     * Gets the list of published versions of the spreadsheet.
+     * Gets the list of published versions of the spreadsheet. Only the versions kept
+     * are listed; the first has the id getPublishedChanges().getFirst().
      *
      * @return a list of published versions of the spreadsheet.
      * @author Tony
@@ -114,13 +123,46 @@ public interface ISpreadsheet extends IReadOnlySpreadSheet {
     List<ISpreadsheet> getPublishedVersions();
 
     /**
-     * Gets the list of subscribed modified versions of the spreadsheet
+     * Gets the list of subscribed modified versions of the spreadsheet. Only the versions
+     * kept are listed; the first has the id getSubscribedChanges().getFirst().
      *
      * @return a list of subscribed modified versions of the spreadsheet
      * @author Tony
      */
     List<ISpreadsheet> getSubscribedVersions();
 
+    /**
+     * Drops the published versions before a given one, which becomes the checkpoint
+     * that requests for older versions are answered from. The latest version is always
+     * kept.
+     *
+     * @param first the id of the oldest published version to keep.
+     */
+    void prunePublished(int first);
+
+    /**
+     * Drops the subscribed versions before a given one, which becomes the checkpoint
+     * that requests for older versions are answered from. The latest version is always
+     * kept.
+     *
+     * @param first the id of the oldest subscribed version to keep.
+     */
+    void pruneSubscribed(int first);
+
+    /**
+     * Gets the cells changed by each published version, recorded when it was added.
+     *
+     * @return the change log of the published versions.
+     */
+    ChangeLog getPublishedChanges();
+
+    /**
+     * Gets the cells changed by each subscribed version, recorded when it was added.
+     *
+     * @return the change log of the subscribed versions.
+     */
+    ChangeLog getSubscribedChanges();
+
     /**
      * Sets a grid
      *
@@ -128,4 +170,32 @@ public interface ISpreadsheet extends IReadOnlySpreadSheet {
      * @author Vinay
      */
     void setGrid(List<List<Cell>> updatedGrid);
+
+    /**
+     * Replaces every cell of the spreadsheet with the given cells. Each cell is placed
+     * at its own row and column; positions not covered are left empty.
+     *
+     * @param updatedCells the populated cells.
+     */
+    void replaceCells(List<Cell> updatedCells);
+
+    /**
+     * Replaces every cell of the spreadsheet with the given raw data and evaluates each
+     * formula exactly once, after every cell is loaded and in dependency order. The
+     * result does not depend on the order of the cells, so a formula may come before
+     * the cells it reads. A cell with empty raw data clears any earlier cell at the same
+     * position, so a payload of changes can be loaded after the cells it changes.
+     *
+     * @param loadedCells the cells to load, each with its row, column and raw data.
+     */
+    void loadCells(List<Cell> loadedCells);
+
+    /**
+     * Takes a snapshot of the spreadsheet's cells, e.g. to keep as a version. The
+     * snapshot shares its storage with the spreadsheet, so it costs little to take, and
+     * later changes to either one are not seen by the other.
+     *
+     * @return a spreadsheet with the same name and cells, and no versions.
+     */
+    ISpreadsheet snapshot();
 }
@@ -0,0 +1,58 @@
+package org.example.model;
+
+/**
+ * The Operation class represents one request in a batch: an Argument together with
+ * the name of the endpoint it is sent to, e.g. "getUpdatesForSubscription".
+ */
+public class Operation extends Argument {
+    private String op; // The endpoint the operation stands for
+
+    /**
+     * Constructs an Operation for an endpoint with the specified publisher, sheet, ID,
+     * and payload.
+     *
+     * @param op        the endpoint name
+     * @param publisher the publisher associated with the operation
+     * @param sheet     the sheet associated with the operation
+     * @param id        the ID associated with the operation
+     * @param payload   the payload associated with the operation
+     */
+    public Operation(String op, String publisher, String sheet, String id, String payload) {
+        super(publisher, sheet, id, payload); // Initialize the argument fields
+        this.op = op; // Initialize op
+    }
+
+    /**
+     * Default constructor for Operation.
+     * Initializes an empty Operation instance.
+     */
+    public Operation() {
+        // Empty constructor for creating an empty Operation object
+    }
+
+    /**
+     * Gets the endpoint this operation stands for.
+     *
+     * @return the endpoint name
+     */
+    public String getOp() {
+        return this.op; // Return the endpoint name
+    }
+
+    /**
+     * Sets the endpoint this operation stands for.
+     *
+     * @param op the endpoint name
+     */
+    public void setOp(String op) {
+        this.op = op; // Set the endpoint name
+    }
+
+    /**
+     * toString function used for testing
+     */
+    @Override
+    public String toString() {
+        return "Operation{op=" + op + ", " + super.toString() + "}";
+    }
+}
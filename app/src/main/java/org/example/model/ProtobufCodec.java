@@ -0,0 +1,510 @@
+package org.example.model;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes Arguments and Results in the protobuf wire format, the binary alternative to
+ * JSON for the /api/v1 endpoints (media type application/x-protobuf). The schema is:
+ *
+ * <pre>
+ * message Argument {
+ *   string publisher = 1;
+ *   string sheet = 2;
+ *   string id = 3;
+ *   Cells payload = 4;
+ *   string expectedVersion = 5;
+ * }
+ *
+ * message Cells {                          // One entry per payload line, in payload order
+ *   repeated sint32 rows = 1 [packed];     // Row index minus the previous entry's
+ *   repeated sint32 cols = 2 [packed];     // Column index minus the previous entry's
+ *   repeated uint32 kinds = 3 [packed];    // 0 cleared, 1 text, 2 integer, 3 formula
+ *   repeated sint64 integers = 4 [packed]; // The values of the integer entries
+ *   repeated string texts = 5;             // The values of the text entries, and formulas without "="
+ * }
+ *
+ * message Result {
+ *   bool success = 1;
+ *   string message = 2;
+ *   repeated Argument value = 3;
+ * }
+ * </pre>
+ *
+ * Payloads keep their text form in an Argument; they are converted to and from Cells
+ * here, so a payload survives the round trip line for line.
+ */
+public final class ProtobufCodec {
+    public static final String MEDIA_TYPE = "application/x-protobuf"; // Content type of encoded messages
+
+    private static final int CLEARED = 0; // Kinds of cell values
+    private static final int TEXT = 1;
+    private static final int INTEGER = 2;
+    private static final int FORMULA = 3;
+
+    private ProtobufCodec() {
+    }
+
+    /**
+     * The cells of a payload, as the parallel columns of the Cells message.
+     */
+    private static final class Cells {
+        private int size; // Number of entries
+        private int[] rows = new int[16]; // Row deltas
+        private int[] cols = new int[16]; // Column deltas
+        private int[] kinds = new int[16]; // Kind of each entry
+        private long[] integers = new long[16]; // Values of the integer entries
+        private int integerCount; // Number of integer entries
+        private final List<String> texts = new ArrayList<>(); // Values of the text and formula entries
+        private int rowsSize; // Encoded sizes of the packed fields, once measured
+        private int colsSize;
+        private int integersSize;
+        private int encodedSize = -1; // Encoded size of the message, or -1 until measured
+
+        /**
+         * Parses a payload, accepting the same lines as Home.convertStringTo2DArray.
+         *
+         * @param payload the payload (e.g $A1 4\n)
+         * @return the cells
+         */
+        private static Cells parse(String payload) {
+            Cells cells = new Cells();
+            if (payload.contains("\\n")) {
+                payload = payload.replace("\\n", "\n"); // Payloads built for JSON escape their line breaks
+            }
+            int row = 0;
+            int col = 0;
+            int start = 0;
+            while (start < payload.length()) {
+                int end = payload.indexOf('\n', start);
+                if (end < 0) {
+                    end = payload.length();
+                }
+                int lineEnd = end > start && payload.charAt(end - 1) == '\r' ? end - 1 : end;
+                String line = payload.substring(start, lineEnd);
+                start = end + 1;
+                if (line.trim().isEmpty()) {
+                    continue; // Skip empty lines
+                }
+                int space = line.indexOf(' ');
+                String ref = space < 0 ? line : line.substring(0, space);
+                String content = space < 0 ? "" : line.substring(space + 1);
+                int[] rowCol = Home.convertRefToRowCol(ref);
+                cells.add(rowCol[0] - row, rowCol[1] - col, content);
+                row = rowCol[0];
+                col = rowCol[1];
+            }
+            return cells;
+        }
+
+        /**
+         * Adds an entry, typing its value.
+         *
+         * @param rowDelta the row index minus the previous entry's
+         * @param colDelta the column index minus the previous entry's
+         * @param content  the raw data
+         */
+        private void add(int rowDelta, int colDelta, String content) {
+            if (this.size == this.rows.length) {
+                this.rows = Arrays.copyOf(this.rows, this.size * 2);
+                this.cols = Arrays.copyOf(this.cols, this.size * 2);
+                this.kinds = Arrays.copyOf(this.kinds, this.size * 2);
+            }
+            this.rows[this.size] = rowDelta;
+            this.cols[this.size] = colDelta;
+            if (content.isEmpty()) {
+                this.kinds[this.size] = CLEARED;
+            } else if (content.startsWith("=")) {
+                this.kinds[this.size] = FORMULA;
+                this.texts.add(content.substring(1));
+            } else if (isInteger(content)) {
+                this.kinds[this.size] = INTEGER;
+                if (this.integerCount == this.integers.length) {
+                    this.integers = Arrays.copyOf(this.integers, this.integerCount * 2);
+                }
+                this.integers[this.integerCount++] = Long.parseLong(content);
+            } else {
+                this.kinds[this.size] = TEXT;
+                this.texts.add(content);
+            }
+            this.size++;
+        }
+
+        /**
+         * Gets the encoded size of the message, measuring its fields the first time.
+         *
+         * @return the size in bytes
+         */
+        private int encodedSize() {
+            if (this.encodedSize < 0) {
+                this.rowsSize = 0;
+                this.colsSize = 0;
+                for (int i = 0; i < this.size; i++) {
+                    this.rowsSize += CodedOutputStream.computeSInt32SizeNoTag(this.rows[i]);
+                    this.colsSize += CodedOutputStream.computeSInt32SizeNoTag(this.cols[i]);
+                }
+                this.integersSize = 0;
+                for (int i = 0; i < this.integerCount; i++) {
+                    this.integersSize += CodedOutputStream.computeSInt64SizeNoTag(this.integers[i]);
+                }
+                int size = packedSize(1, this.rowsSize) + packedSize(2, this.colsSize)
+                        + packedSize(3, this.size) + packedSize(4, this.integersSize); // Every kind fits in one byte
+                for (String text : this.texts) {
+                    size += CodedOutputStream.computeStringSize(5, text);
+                }
+                this.encodedSize = size;
+            }
+            return this.encodedSize;
+        }
+
+        /**
+         * Writes the message, without its tag and length.
+         *
+         * @param out the stream
+         * @throws IOException if the stream cannot be written
+         */
+        private void write(CodedOutputStream out) throws IOException {
+            encodedSize(); // Measures the packed fields
+            if (this.size > 0) {
+                writePackedHeader(out, 1, this.rowsSize);
+                for (int i = 0; i < this.size; i++) {
+                    out.writeSInt32NoTag(this.rows[i]);
+                }
+                writePackedHeader(out, 2, this.colsSize);
+                for (int i = 0; i < this.size; i++) {
+                    out.writeSInt32NoTag(this.cols[i]);
+                }
+                writePackedHeader(out, 3, this.size);
+                for (int i = 0; i < this.size; i++) {
+                    out.writeUInt32NoTag(this.kinds[i]);
+                }
+            }
+            if (this.integerCount > 0) {
+                writePackedHeader(out, 4, this.integersSize);
+                for (int i = 0; i < this.integerCount; i++) {
+                    out.writeSInt64NoTag(this.integers[i]);
+                }
+            }
+            for (String text : this.texts) {
+                out.writeString(5, text);
+            }
+        }
+
+        /**
+         * Reads the message up to the current limit.
+         *
+         * @param in the stream
+         * @return the cells
+         * @throws IOException if the message is malformed
+         */
+        private static Cells read(CodedInputStream in) throws IOException {
+            Cells cells = new Cells();
+            IntColumn rows = new IntColumn();
+            IntColumn cols = new IntColumn();
+            IntColumn kinds = new IntColumn();
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                int field = WireFormat.getTagFieldNumber(tag);
+                if (field >= 1 && field <= 4 && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                    int limit = in.pushLimit(in.readRawVarint32()); // Packed values
+                    while (in.getBytesUntilLimit() > 0) {
+                        readValue(in, field, cells, rows, cols, kinds);
+                    }
+                    in.popLimit(limit);
+                } else if (field >= 1 && field <= 4 && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_VARINT) {
+                    readValue(in, field, cells, rows, cols, kinds); // Unpacked values are valid too
+                } else if (field == 5) {
+                    cells.texts.add(in.readString());
+                } else if (!in.skipField(tag)) {
+                    break;
+                }
+            }
+            if (rows.size != kinds.size || cols.size != kinds.size) {
+                throw new InvalidProtocolBufferException("Cells have " + rows.size + " rows, " + cols.size
+                        + " columns and " + kinds.size + " kinds");
+            }
+            cells.rows = rows.values;
+            cells.cols = cols.values;
+            cells.kinds = kinds.values;
+            cells.size = kinds.size;
+            return cells;
+        }
+
+        /**
+         * Reads one value of a repeated numeric field.
+         */
+        private static void readValue(CodedInputStream in, int field, Cells cells, IntColumn rows, IntColumn cols,
+                                      IntColumn kinds) throws IOException {
+            if (field == 1) {
+                rows.add(in.readSInt32());
+            } else if (field == 2) {
+                cols.add(in.readSInt32());
+            } else if (field == 3) {
+                kinds.add(in.readUInt32());
+            } else {
+                if (cells.integerCount == cells.integers.length) {
+                    cells.integers = Arrays.copyOf(cells.integers, cells.integerCount * 2);
+                }
+                cells.integers[cells.integerCount++] = in.readSInt64();
+            }
+        }
+
+        /**
+         * Builds the payload text of the cells.
+         *
+         * @return the payload, one line per entry
+         * @throws InvalidProtocolBufferException if the entries and values do not match
+         */
+        private String toPayload() throws InvalidProtocolBufferException {
+            StringBuilder payload = new StringBuilder(this.size * 12);
+            int row = 0;
+            int col = 0;
+            int integer = 0;
+            int text = 0;
+            for (int i = 0; i < this.size; i++) {
+                row += this.rows[i];
+                col += this.cols[i];
+                payload.append('$').append(Spreadsheet.getColumnName(col + 1)).append(row + 1);
+                int kind = this.kinds[i];
+                if (kind == INTEGER && integer < this.integerCount) {
+                    payload.append(' ').append(this.integers[integer++]);
+                } else if ((kind == TEXT || kind == FORMULA) && text < this.texts.size()) {
+                    payload.append(kind == FORMULA ? " =" : " ").append(this.texts.get(text++));
+                } else if (kind != CLEARED) {
+                    throw new InvalidProtocolBufferException("Cells are missing the value of entry " + i);
+                }
+                payload.append('\n');
+            }
+            return payload.toString();
+        }
+    }
+
+    /**
+     * A growable column of ints, read from a repeated field.
+     */
+    private static final class IntColumn {
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+    }
+
+    /**
+     * Encodes an Argument.
+     *
+     * @param argument the argument
+     * @return the encoded message
+     */
+    public static byte[] encodeArgument(Argument argument) {
+        Cells cells = argument.getPayload() == null ? null : Cells.parse(argument.getPayload());
+        byte[] message = new byte[argumentSize(argument, cells)];
+        CodedOutputStream out = CodedOutputStream.newInstance(message);
+        try {
+            writeArgument(out, argument, cells);
+        } catch (IOException e) {
+            throw new IllegalStateException("Argument size was miscalculated", e); // Writing to an array cannot fail otherwise
+        }
+        out.checkNoSpaceLeft();
+        return message;
+    }
+
+    /**
+     * Decodes an Argument.
+     *
+     * @param message the encoded message
+     * @return the argument
+     * @throws IOException if the message is malformed
+     */
+    public static Argument decodeArgument(byte[] message) throws IOException {
+        return readArgument(CodedInputStream.newInstance(message));
+    }
+
+    /**
+     * Encodes a Result.
+     *
+     * @param result the result
+     * @return the encoded message
+     */
+    public static byte[] encodeResult(Result result) {
+        List<Argument> value = result.getValue();
+        Cells[] cells = new Cells[value.size()];
+        int[] sizes = new int[value.size()];
+        int size = CodedOutputStream.computeBoolSize(1, result.getSuccess());
+        if (result.getMessage() != null) {
+            size += CodedOutputStream.computeStringSize(2, result.getMessage());
+        }
+        for (int i = 0; i < cells.length; i++) {
+            Argument argument = value.get(i);
+            cells[i] = argument.getPayload() == null ? null : Cells.parse(argument.getPayload());
+            sizes[i] = argumentSize(argument, cells[i]);
+            size += CodedOutputStream.computeTagSize(3) + CodedOutputStream.computeUInt32SizeNoTag(sizes[i]) + sizes[i];
+        }
+
+        byte[] message = new byte[size];
+        CodedOutputStream out = CodedOutputStream.newInstance(message);
+        try {
+            out.writeBool(1, result.getSuccess());
+            if (result.getMessage() != null) {
+                out.writeString(2, result.getMessage());
+            }
+            for (int i = 0; i < cells.length; i++) {
+                out.writeTag(3, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeUInt32NoTag(sizes[i]);
+                writeArgument(out, value.get(i), cells[i]);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Result size was miscalculated", e); // Writing to an array cannot fail otherwise
+        }
+        out.checkNoSpaceLeft();
+        return message;
+    }
+
+    /**
+     * Decodes a Result.
+     *
+     * @param message the encoded message
+     * @return the result
+     * @throws IOException if the message is malformed
+     */
+    public static Result decodeResult(byte[] message) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(message);
+        boolean success = false;
+        String text = null;
+        List<Argument> value = new ArrayList<>();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case 1 -> success = in.readBool();
+                case 2 -> text = in.readString();
+                case 3 -> {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    value.add(readArgument(in));
+                    in.popLimit(limit);
+                }
+                default -> in.skipField(tag); // Fields added by later versions
+            }
+        }
+        return new Result(success, text, value);
+    }
+
+    /**
+     * Gets the encoded size of an Argument.
+     *
+     * @param argument the argument
+     * @param cells    its parsed payload, or null if it has none
+     * @return the size in bytes
+     */
+    private static int argumentSize(Argument argument, Cells cells) {
+        int size = stringSize(1, argument.getPublisher()) + stringSize(2, argument.getSheet())
+                + stringSize(3, argument.getId()) + stringSize(5, argument.getExpectedVersion());
+        if (cells != null) {
+            int cellsSize = cells.encodedSize();
+            size += CodedOutputStream.computeTagSize(4) + CodedOutputStream.computeUInt32SizeNoTag(cellsSize) + cellsSize;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the fields of an Argument.
+     */
+    private static void writeArgument(CodedOutputStream out, Argument argument, Cells cells) throws IOException {
+        writeString(out, 1, argument.getPublisher());
+        writeString(out, 2, argument.getSheet());
+        writeString(out, 3, argument.getId());
+        if (cells != null) {
+            out.writeTag(4, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(cells.encodedSize());
+            cells.write(out);
+        }
+        writeString(out, 5, argument.getExpectedVersion());
+    }
+
+    /**
+     * Reads the fields of an Argument up to the current limit.
+     */
+    private static Argument readArgument(CodedInputStream in) throws IOException {
+        Argument argument = new Argument();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case 1 -> argument.setPublisher(in.readString());
+                case 2 -> argument.setSheet(in.readString());
+                case 3 -> argument.setId(in.readString());
+                case 4 -> {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    argument.setPayload(Cells.read(in).toPayload());
+                    in.popLimit(limit);
+                }
+                case 5 -> argument.setExpectedVersion(in.readString());
+                default -> in.skipField(tag); // Fields added by later versions
+            }
+        }
+        return argument;
+    }
+
+    /**
+     * Gets the size of a packed field, or 0 if it has no values.
+     */
+    private static int packedSize(int field, int valuesSize) {
+        return valuesSize == 0 ? 0
+                : CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeUInt32SizeNoTag(valuesSize) + valuesSize;
+    }
+
+    /**
+     * Writes the tag and length of a packed field.
+     */
+    private static void writePackedHeader(CodedOutputStream out, int field, int valuesSize) throws IOException {
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(valuesSize);
+    }
+
+    /**
+     * Gets the size of an optional string field.
+     */
+    private static int stringSize(int field, String value) {
+        return value == null ? 0 : CodedOutputStream.computeStringSize(field, value);
+    }
+
+    /**
+     * Writes an optional string field.
+     */
+    private static void writeString(CodedOutputStream out, int field, String value) throws IOException {
+        if (value != null) {
+            out.writeString(field, value);
+        }
+    }
+
+    /**
+     * Checks whether raw data is an integer that reads back as the same text.
+     *
+     * @param content the raw data
+     * @return true if it can be sent as an integer
+     */
+    private static boolean isInteger(String content) {
+        int start = content.charAt(0) == '-' ? 1 : 0;
+        int digits = content.length() - start;
+        if (digits < 1 || digits > 18 || (content.charAt(start) == '0' && digits > 1)
+                || (start == 1 && digits == 1 && content.charAt(1) == '0')) {
+            return false; // Leading zeros and "-0" would not read back the same
+        }
+        for (int i = start; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.model;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongConsumer;
+
+/**
+ * Evaluates a level of independent formula cells, splitting large levels across the
+ * threads of a ForkJoinPool. The formulas of a level only read cells from earlier
+ * levels and each writes its own cell, so they can run at the same time and the
+ * results do not depend on the number of threads.
+ *
+ * Setting the system property husksheets.recalc.parallel to false evaluates every
+ * level on the calling thread, which is easier to debug.
+ */
+public class RecalculationScheduler {
+    public static final String PARALLEL_PROPERTY = "husksheets.recalc.parallel"; // Set to false for one thread
+    private static final int BATCH_SIZE = 64; // Formulas evaluated per task; smaller levels run in-line
+
+    private static final RecalculationScheduler DEFAULT = new RecalculationScheduler(ForkJoinPool.commonPool(),
+            Boolean.parseBoolean(System.getProperty(PARALLEL_PROPERTY, "true"))); // Shared by every spreadsheet
+
+    private final ForkJoinPool pool; // The threads used for large levels
+    private final boolean parallel; // Whether large levels are split across threads
+
+    /**
+     * Constructs a scheduler.
+     *
+     * @param pool     the pool that evaluates large levels.
+     * @param parallel false to evaluate every level on the calling thread.
+     */
+    public RecalculationScheduler(ForkJoinPool pool, boolean parallel) {
+        this.pool = pool;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Gets the scheduler shared by every spreadsheet, configured from the system properties.
+     *
+     * @return the default scheduler.
+     */
+    public static RecalculationScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Checks if large levels are split across threads.
+     *
+     * @return true if the scheduler evaluates in parallel.
+     */
+    public boolean isParallel() {
+        return this.parallel;
+    }
+
+    /**
+     * Evaluates every cell of a level and returns once all of them are done.
+     *
+     * @param level    the keys of independent formula cells.
+     * @param evaluate evaluates the formula of one cell and stores its value.
+     */
+    public void run(List<Long> level, LongConsumer evaluate) {
+        if (!this.parallel || level.size() <= BATCH_SIZE) {
+            for (long key : level) {
+                evaluate.accept(key); // Not worth handing to other threads
+            }
+            return;
+        }
+        this.pool.invoke(new LevelTask(level, 0, level.size(), evaluate));
+    }
+
+    /**
+     * Evaluates part of a level, splitting it in half until the parts are small.
+     */
+    private static final class LevelTask extends RecursiveAction {
+        private final List<Long> level; // The whole level
+        private final int from; // First index to evaluate
+        private final int to; // One past the last index to evaluate
+        private final LongConsumer evaluate; // Evaluates one cell
+
+        private LevelTask(List<Long> level, int from, int to, LongConsumer evaluate) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+            this.evaluate = evaluate;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= BATCH_SIZE) {
+                for (int i = this.from; i < this.to; i++) {
+                    this.evaluate.accept(this.level.get(i));
+                }
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new LevelTask(this.level, this.from, middle, this.evaluate),
+                    new LevelTask(this.level, middle, this.to, this.evaluate));
+        }
+    }
+}
@@ -1,16 +1,54 @@
 package org.example.model;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.json.JSONArray;
 
 public class ServerEndpoint {
     // Base URL for the server endpoints
     private String url = "https://husksheets.fly.dev/api/v1/";//"https://husksheet-cb47d5864e1b.herokuapp.com/api/v1/";
     private static IAppUser user; // Static variable to hold the current user
+    private boolean protobuf; // Whether requests and responses use the protobuf wire format instead of JSON
+    private final HttpClient client = HttpClient.newBuilder().build(); // Keeps connections open between requests
+    private static final int CACHE_LIMIT = 64; // Responses kept for revalidation
+    private final Map<String, Response> cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Response> eldest) {
+            return size() > CACHE_LIMIT; // Forget the least recently used response
+        }
+    }); // Request -> the last response with an ETag
+
+    /**
+     * A response body and what is needed to read and revalidate it.
+     */
+    private static final class Response {
+        private final int status; // HTTP status
+        private final String contentType; // Content-Type header
+        private final String etag; // ETag header, or null if there is none
+        private final byte[] body; // Decompressed body
+
+        private Response(int status, String contentType, String etag, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.body = body;
+        }
+    }
 
     /**
      * Default constructor
@@ -28,6 +66,17 @@ public class ServerEndpoint {
         this.url = url; // Set the URL to the provided value
     }
 
+    /**
+     * Constructor that allows for different URL and wire format
+     *
+     * @param url      the base URL of the endpoints
+     * @param protobuf true to send and accept the protobuf wire format instead of JSON
+     */
+    public ServerEndpoint(String url, boolean protobuf) {
+        this.url = url; // Set the URL to the provided value
+        this.protobuf = protobuf; // Set the wire format
+    }
+
     /**
      * Constructs the Basic Authentication header using the username and password.
      *
@@ -50,10 +99,7 @@ public class ServerEndpoint {
 
     public Result register(IAppUser user) throws Exception {
         ServerEndpoint.user = user; // Set the static user variable to the provided user
-        String url = this.url + "register"; // Append "register" to the base URL
-        HttpResponse<String> response = sendGetRequest(url); // Send GET request to register endpoint
-        System.out.println("Register request: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
+        return get("register", false, "Register request: "); // Send GET request to register endpoint
     }
 
     /**
@@ -66,10 +112,7 @@ public class ServerEndpoint {
      */
     public Result login(IAppUser user) throws Exception {
         ServerEndpoint.user = user; // Set the static user variable to the provided user
-        String url = this.url + "login"; // Append "login" to the base URL
-        HttpResponse<String> response = sendGetRequest(url); // Send GET request to login endpoint
-        System.out.println("Login request: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
+        return get("login", false, "Login request: "); // Send GET request to login endpoint
     }
 
     /**
@@ -79,10 +122,7 @@ public class ServerEndpoint {
      * @author Tony
      */
     public Result getPublishers() throws Exception {
-        String url = this.url + "getPublishers"; // Append "getPublishers" to the base URL
-        HttpResponse<String> response = sendGetRequest(url); // Send GET request to getPublishers endpoint
-        System.out.println("Get Publishers Response: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
+        return get("getPublishers", true, "Get Publishers Response: "); // Send GET request to getPublishers endpoint
     }
 
     /**
@@ -93,12 +133,8 @@ public class ServerEndpoint {
      * @author Tony
      */
     public Result createSheet(String sheet) throws Exception {
-        String url = this.url + "createSheet"; // Append "createSheet" to the base URL
-        // Create JSON payload with publisher and sheet names
-        String json = String.format("{\"publisher\":\"%s\", \"sheet\":\"%s\"}", user.getUsername(), sheet);
-        HttpResponse<String> response = sendPostRequest(url, json); // Send POST request to createSheet endpoint
-        System.out.println("Create Sheet Response: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
+        Argument argument = new Argument(user.getUsername(), sheet, null, null); // Publisher and sheet names
+        return post("createSheet", argument, false, "Create Sheet Response: "); // Send POST request to createSheet endpoint
     }
 
     /**
@@ -109,12 +145,8 @@ public class ServerEndpoint {
      * @author Vinay
      */
     public Result getSheets(String publisher) throws Exception {
-        String url = this.url + "getSheets"; // Append "getSheets" to the base URL
-        // Create JSON payload with publisher name
-        String json = String.format("{\"publisher\":\"%s\"}", publisher);
-        HttpResponse<String> response = sendPostRequest(url, json); // Send POST request to getSheets endpoint
-        System.out.println("Get Sheets Response: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
+        Argument argument = new Argument(publisher, null, null, null); // Publisher name
+        return post("getSheets", argument, true, "Get Sheets Response: "); // Send POST request to getSheets endpoint
     }
 
     /**
@@ -126,12 +158,8 @@ public class ServerEndpoint {
      * @author Tony
      */
     public Result deleteSheet(String publisher, String sheet) throws Exception {
-        String url = this.url + "deleteSheet"; // Append "deleteSheet" to the base URL
-        // Create JSON payload with publisher and sheet names
-        String json = String.format("{\"publisher\":\"%s\", \"sheet\":\"%s\"}", publisher, sheet); 
-        HttpResponse<String> response = sendPostRequest(url, json); // Send POST request to deleteSheet endpoint
-        System.out.println("Delete Sheet Response: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
+        Argument argument = new Argument(publisher, sheet, null, null); // Publisher and sheet names
+        return post("deleteSheet", argument, false, "Delete Sheet Response: "); // Send POST request to deleteSheet endpoint
     }
 
     /**
@@ -145,12 +173,9 @@ public class ServerEndpoint {
      * @author Tony
      */
     public Result getUpdatesForSubscription(String publisher, String sheet, String id) throws Exception {
-        String url = this.url + "getUpdatesForSubscription"; // Append "getUpdatesForSubscription" to the base URL
-        // Create JSON payload with publisher, sheet, and ID
-        String json = String.format("{\"publisher\":\"%s\", \"sheet\":\"%s\", \"id\":\"%s\"}", publisher, sheet, id);
-        HttpResponse<String> response = sendPostRequest(url, json); // Send POST request to getUpdatesForSubscription endpoint
-        System.out.println("Get Updates For Subscription Response: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
+        Argument argument = new Argument(publisher, sheet, id, null); // Publisher, sheet, and ID
+        return post("getUpdatesForSubscription", argument, true,
+                "Get Updates For Subscription Response: "); // Send POST request to getUpdatesForSubscription endpoint
     }
 
     /**
@@ -163,12 +188,35 @@ public class ServerEndpoint {
      * @author Tony
      */
     public Result getUpdatesForPublished(String publisher, String sheet, String id) throws Exception {
-        String url = this.url + "getUpdatesForPublished"; // Append "getUpdatesForPublished" to the base URL
-        // Create JSON payload with publisher, sheet, and ID
-        String json = String.format("{\"publisher\":\"%s\", \"sheet\":\"%s\", \"id\":\"%s\"}", publisher, sheet, id);
-        HttpResponse<String> response = sendPostRequest(url, json); // Send POST request to getUpdatedForPublished endpoint
-        System.out.println("Get Updates For Published Response: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
+        Argument argument = new Argument(publisher, sheet, id, null); // Publisher, sheet, and ID
+        return post("getUpdatesForPublished", argument, true,
+                "Get Updates For Published Response: "); // Send POST request to getUpdatesForPublished endpoint
+    }
+
+    /**
+     * Opens a stream that pushes each new published version of a sheet as it is
+     * published. The stream reopens itself when the server ends it.
+     *
+     * @param publisher the name of the publisher.
+     * @param sheet     the name of the sheet.
+     * @param id        the number of versions the subscriber already has.
+     * @param listener  receives the versions, on the stream's thread.
+     * @return the started stream, to close when the sheet is closed.
+     */
+    public UpdateStream streamUpdatesForSubscription(String publisher, String sheet, String id,
+                                                     UpdateStream.Listener listener) {
+        String url = this.url + "streamUpdatesForSubscription"; // Append "streamUpdatesForSubscription" to the base URL
+        String auth = getBasicAuthHeader(); // The user may change while the stream is open
+        UpdateStream stream = new UpdateStream(this.client, from -> HttpRequest.newBuilder()
+                .uri(URI.create(url)) // Set the URI for the request
+                .header("Authorization", auth) // Add Basic Auth header
+                .header("Content-Type", "application/json") // Set the content type to JSON
+                .header("Accept", "text/event-stream") // Ask for a stream of events
+                .POST(HttpRequest.BodyPublishers.ofString(String.format(
+                        "{\"publisher\":\"%s\", \"sheet\":\"%s\", \"id\":\"%s\"}", publisher, sheet, from)))
+                .build(), id, listener);
+        stream.start();
+        return stream;
     }
 
     /**
@@ -182,13 +230,8 @@ public class ServerEndpoint {
      * @author Vinay
      */
     public Result updatePublished(String publisher, String sheet, String payload) throws Exception {
-        String url = this.url + "updatePublished"; // Append "updatePublished" to the base URL
-        // Create JSON payload with publisher, sheet, and payload
-        String json = String.format("{\"publisher\":\"%s\", \"sheet\":\"%s\", \"payload\":\"%s\"}", publisher, sheet, payload);
-        HttpResponse<String> response = sendPostRequest(url, json); // Send POST request to updatePublished endpoint
-        System.out.println("Update Published Response: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
-
+        Argument argument = new Argument(publisher, sheet, null, payload); // Publisher, sheet, and payload
+        return post("updatePublished", argument, false, "Update Published Response: "); // Send POST request to updatePublished endpoint
     }
 
     /**
@@ -201,53 +244,179 @@ public class ServerEndpoint {
      * @author Tony
      */
     public Result updateSubscription(String publisher, String sheet, String payload) throws Exception {
-        String url = this.url + "updateSubscription"; // Append "updateSubscription" to the base URL
-        // Create JSON payload with publisher, sheet, and payload
-        String json = String.format("{\"publisher\":\"%s\", \"sheet\":\"%s\", \"payload\":\"%s\"}", publisher, sheet, payload);
-        HttpResponse<String> response = sendPostRequest(url, json); // Send POST request to updateSubscription endpoint
-        System.out.println("Update Subscription Response: " + response.body()); // Print the response body
-        return new Result(response.body()); // Create and return a new Result from the response body
+        Argument argument = new Argument(publisher, sheet, null, payload); // Publisher, sheet, and payload
+        return post("updateSubscription", argument, false, "Update Subscription Response: "); // Send POST request to updateSubscription endpoint
+    }
+
+    /**
+     * Sends several operations in one request, e.g. the getUpdatesForSubscription calls
+     * of every sheet being kept in sync. Operations on the same sheet run in the order
+     * given; the rest run at the same time. Batches are always sent as JSON.
+     *
+     * @param operations the operations
+     * @return the result of each operation, in order
+     * @throws Exception if an error occurs during the HTTP request
+     */
+    public List<Result> batch(List<Operation> operations) throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (Operation operation : operations) {
+            json.append(json.length() > 1 ? ", " : "").append(toJson(operation)); // One object per operation
+        }
+        Response response = send(this.url + "batch",
+                json.append("]").toString().getBytes(StandardCharsets.UTF_8), false, false); // Send POST request to batch endpoint
+        String body = new String(response.body, StandardCharsets.UTF_8);
+        System.out.println("Batch Response: " + body); // Print the response body
+        List<Result> results = new ArrayList<>();
+        if (response.status != 200) {
+            Result failure = new Result(body); // The whole batch was refused
+            for (int i = 0; i < operations.size(); i++) {
+                results.add(failure);
+            }
+            return results;
+        }
+        JSONArray array = new JSONArray(body);
+        for (int i = 0; i < array.length(); i++) {
+            results.add(new Result(array.getJSONObject(i).toString())); // Results are in the order of the operations
+        }
+        return results;
     }
 
 
     /**
-     * Send POST request to specified url
+     * Sends a GET request to an endpoint in the chosen wire format.
      *
-     * @param url  destination of request
-     * @param json content of request
-     * @return response object
-     * @throws Exception
-     * @author Tony
+     * @param endpoint the endpoint name
+     * @param cached   true to keep the response and revalidate it the next time
+     * @param label    printed before the response
+     * @return the result of the request
+     * @throws Exception if an error occurs during the HTTP request
      */
-    public HttpResponse<String> sendPostRequest(String url, String json) throws Exception {
-        HttpClient client = HttpClient.newBuilder().build(); // Create a new HttpClient
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(new URI(url)) // Set the URI for the request
-                .header("Authorization", getBasicAuthHeader()) // Add Basic Auth header
-                .header("Content-Type", "application/json") // Set the content type to JSON
-                .POST(HttpRequest.BodyPublishers.ofString(json)) // Set the request body
-                .build();
+    private Result get(String endpoint, boolean cached, String label) throws Exception {
+        return read(send(this.url + endpoint, null, this.protobuf, cached), label); // Append the endpoint to the base URL
+    }
+
+    /**
+     * Sends a POST request to an endpoint in the chosen wire format.
+     *
+     * @param endpoint the endpoint name
+     * @param argument the request body; null fields are left out
+     * @param cached   true to keep the response and revalidate it the next time
+     * @param label    printed before the response
+     * @return the result of the request
+     * @throws Exception if an error occurs during the HTTP request
+     */
+    private Result post(String endpoint, Argument argument, boolean cached, String label) throws Exception {
+        byte[] message = this.protobuf ? ProtobufCodec.encodeArgument(argument)
+                : toJson(argument).getBytes(StandardCharsets.UTF_8);
+        return read(send(this.url + endpoint, message, this.protobuf, cached), label); // Append the endpoint to the base URL
+    }
+
+    /**
+     * Creates the JSON body of a request. The payload is embedded as it is, since
+     * payloads are built with their line breaks already escaped.
+     *
+     * @param argument the request body, or an operation of a batch; null fields are left out
+     * @return the JSON body
+     */
+    private static String toJson(Argument argument) {
+        StringBuilder json = new StringBuilder("{");
+        String op = argument instanceof Operation ? ((Operation) argument).getOp() : null; // Only batches name the endpoint
+        String[] names = {"op", "publisher", "sheet", "id", "payload"};
+        String[] values = {op, argument.getPublisher(), argument.getSheet(), argument.getId(), argument.getPayload()};
+        for (int i = 0; i < names.length; i++) {
+            if (values[i] != null) {
+                json.append(json.length() > 1 ? ", " : "").append(String.format("\"%s\":\"%s\"", names[i], values[i]));
+            }
+        }
+        return json.append("}").toString();
+    }
 
-        // Send the request and return the response
-        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * Reads the result of a request.
+     *
+     * @param response the response
+     * @param label    printed before the result
+     * @return the result of the request
+     * @throws Exception if the result cannot be read
+     */
+    private Result read(Response response, String label) throws Exception {
+        if (!this.protobuf) {
+            String body = new String(response.body, StandardCharsets.UTF_8);
+            System.out.println(label + body); // Print the response body
+            return new Result(body); // Create and return a new Result from the response body
+        }
+        Result result = response.contentType.startsWith(ProtobufCodec.MEDIA_TYPE)
+                ? ProtobufCodec.decodeResult(response.body)
+                : new Result(false, "Unexpected response: HTTP " + response.status, new ArrayList<>());
+        System.out.println(label + result); // Print the result
+        return result;
     }
 
     /**
-     * Send GET request to specified url
+     * Sends a request to specified url. A cached response is revalidated with its ETag,
+     * and reused without being sent again when the server answers 304 Not Modified.
+     * Compressed responses are decompressed.
      *
-     * @param url destination of request
+     * @param url      destination of request
+     * @param message  encoded request body, or null to send a GET request
+     * @param protobuf true if the body is protobuf and a protobuf response is wanted
+     * @param cached   true to keep the response and revalidate it the next time
      * @return response object
-     * @throws Exception
-     * @author Ben
+     * @throws Exception if an error occurs during the HTTP request
      */
-    public HttpResponse<String> sendGetRequest(String url) throws Exception {
-        HttpClient client = HttpClient.newBuilder().build(); // Create a new HttpClient
-        HttpRequest request = HttpRequest.newBuilder()
+    private Response send(String url, byte[] message, boolean protobuf, boolean cached) throws Exception {
+        String auth = getBasicAuthHeader(); // Responses are kept per user
+        String key = cached ? auth + " " + url + " "
+                + (message == null ? "" : new String(message, StandardCharsets.ISO_8859_1)) : null; // Keeps every byte
+        Response previous = key == null ? null : this.cache.get(key);
+        String type = protobuf ? ProtobufCodec.MEDIA_TYPE : "application/json";
+        HttpRequest.Builder request = HttpRequest.newBuilder()
                 .uri(new URI(url)) // Set the URI for the request
-                .header("Authorization", getBasicAuthHeader()) // Add Basic Auth header
-                .GET() // Set the request method to GET
-                .build();
-        // Send the request and return the response
-        return client.send(request, HttpResponse.BodyHandlers.ofString());
+                .header("Authorization", auth) // Add Basic Auth header
+                .header("Accept-Encoding", "gzip, deflate"); // Large responses may be compressed
+        if (protobuf) {
+            request.header("Accept", ProtobufCodec.MEDIA_TYPE); // Ask for a protobuf response
+        }
+        if (previous != null) {
+            request.header("If-None-Match", previous.etag); // Only send the body if it has changed
+        }
+        if (message == null) {
+            request.GET(); // Set the request method to GET
+        } else {
+            request.header("Content-Type", type) // Set the content type
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(message)); // Set the request body
+        }
+        HttpResponse<byte[]> response = this.client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 304 && previous != null) {
+            return previous; // Unchanged since it was cached
+        }
+        Response fresh = new Response(response.statusCode(),
+                response.headers().firstValue("Content-Type").orElse(""),
+                response.headers().firstValue("ETag").orElse(null), decompress(response));
+        if (key != null && fresh.status == 200 && fresh.etag != null) {
+            this.cache.put(key, fresh);
+        }
+        return fresh;
+    }
+
+    /**
+     * Decompresses the body of a response, as given by its Content-Encoding.
+     *
+     * @param response the response
+     * @return the body
+     * @throws IOException if the body cannot be decompressed
+     */
+    private static byte[] decompress(HttpResponse<byte[]> response) throws IOException {
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity");
+        if (encoding.equalsIgnoreCase("gzip")) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+                return in.readAllBytes();
+            }
+        } else if (encoding.equalsIgnoreCase("deflate")) {
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(response.body()))) {
+                return in.readAllBytes();
+            }
+        }
+        return response.body();
     }
 }
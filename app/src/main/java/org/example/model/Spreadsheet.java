@@ -1,17 +1,18 @@
 package org.example.model;
 
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-
-import java.util.List;
-
 import java.util.Arrays;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.graalvm.polyglot.Context;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-import ch.qos.logback.core.net.SyslogOutputStream;
+import org.example.model.formula.CellValue;
+import org.example.model.formula.EvaluationContext;
+import org.example.model.formula.Formula;
+import org.example.model.formula.ValueVisitor;
 
 /**
  * Represents a spreadsheet with various functionalities such as evaluating
@@ -19,9 +20,15 @@ import ch.qos.logback.core.net.SyslogOutputStream;
  * managing cells, and handling subscriptions and publications.
  */
 
-public class Spreadsheet implements ISpreadsheet {
+public class Spreadsheet implements ISpreadsheet, EvaluationContext {
+
+    private static final int MIN_ROWS = 100; // Rows shown even when the sheet is empty
+    private static final int MIN_COLS = 100; // Columns shown even when the sheet is empty
+    private static final int MAX_ROWS = 1 << 20; // Highest number of rows a sheet can hold
+    private static final int MAX_COLS = 1 << 14; // Highest number of columns a sheet can hold
+    private static final int UNTRACKED_SLACK = 1024; // Changed cells tracked beyond the populated ones before every cell is compared
 
-    private List<List<Cell>> grid; // The grid representing the spreadsheet
+    private ChunkedGrid cells; // Only the populated cells; empty cells are not stored
 
     private String name; // The name of the spreadsheet
     private int id_version; // Version ID for tracking updates
@@ -31,10 +38,17 @@ public class Spreadsheet implements ISpreadsheet {
     // used to retrieve version for GetUpdatesPublished
     private List<ISpreadsheet> subscribeVersions;
 
-    private String[] functions = new String[] { "IF", "SUM", "MIN", "MAX", "AVG", "CONCAT", "DEBUG", "STDDEV", "SORT",
-            "COPY" };
-    private String[] arith = new String[] { "+", "-", "*", "/" };
-    private String[] operations = new String[] { "<>", "<", ">", "=", "&", "|", ":" };
+    private ChangeLog publishChanges; // Cells changed by each published version
+    private ChangeLog subscribeChanges; // Cells changed by each subscribed version
+    private Set<Long> unpublished; // Cells changed since the last published version, or null if not known
+    private Set<Long> unsubscribed; // Cells changed since the last subscribed version, or null if not known
+    private long modifications; // Counts the changes to the cells, so a snapshot can tell if it is current
+    private Spreadsheet origin; // For a snapshot, the sheet it was taken from
+    private long originModifications; // For a snapshot, the changes of its origin when it was taken
+
+    private DependencyGraph dependencies; // Which formulas read which cells
+    private ArrayDeque<Long> copiedCells; // Cells written by COPY that still need their dependents updated
+    private RecalculationScheduler scheduler; // Evaluates independent formulas, in parallel when worthwhile
 
     /**
      * Constructs a new Spreadsheet with the specified name.
@@ -42,19 +56,18 @@ public class Spreadsheet implements ISpreadsheet {
      * @param name the name of the spreadsheet.
      */
     public Spreadsheet(String name) {
-        grid = new ArrayList<>(); // Initialize the grid
-        for (int i = 0; i < 100; i++) { // Loop to create 100 rows
-            ArrayList<Cell> row = new ArrayList<>(); // Initialize a new row
-            for (int j = 0; j < 100; j++) { // Loop to create 100 columns in each row
-                row.add(new Cell("")); // Add a new empty cell to the row
-            }
-            grid.add(row); // Add the row to the grid
-        }
+        this.cells = new ChunkedGrid(); // Start with no cells stored
 
         this.name = name; // Set the name of the spreadsheet
         this.publishVersions = new ArrayList<>(); // Initialize the publish versions list
         this.subscribeVersions = new ArrayList<>(); // Initialize the subscribe versions list
-
+        this.publishChanges = new ChangeLog();
+        this.subscribeChanges = new ChangeLog();
+        this.unpublished = new HashSet<>();
+        this.unsubscribed = new HashSet<>();
+        this.dependencies = new DependencyGraph(); // Initialize the dependency graph
+        this.copiedCells = new ArrayDeque<>();
+        this.scheduler = RecalculationScheduler.getDefault(); // Shared pool, configured by system property
     }
 
     /**
@@ -65,15 +78,16 @@ public class Spreadsheet implements ISpreadsheet {
      */
     public Spreadsheet(List<List<Cell>> grid, String name) {
         this(name); // Call the other constructor to initialize the object
-        for (int i = 0; i < 100; i++) { // Loop to process the grid
+        for (int i = 0; i < grid.size(); i++) { // Loop to process the grid
             List<Cell> row = grid.get(i); // Get a row from the input grid
-            for (int j = 0; j < 100; j++) { // Loop to process each cell in the row
+            for (int j = 0; j < row.size(); j++) { // Loop to process each cell in the row
                 Cell cell = row.get(j); // Get a cell from the input row
                 if (!cell.getValue().isEmpty()) { // Check if the cell value is not empty
-                    this.grid.get(i).set(j, cell); // Set the cell in the grid
+                    store(i, j, cell); // Store the cell
                 }
             }
         }
+        rebuildDependencies(); // Track the formulas of the given grid
     }
 
     /**
@@ -87,17 +101,11 @@ public class Spreadsheet implements ISpreadsheet {
      */
     public static String convertSheetToPayload(IReadOnlySpreadSheet sheet) {
         StringBuilder payload = new StringBuilder(); // Initialize a StringBuilder for the payload
-        Cell[][] values = sheet.getCellsObject(); // Get the cell values as a 2D array
-        for (int i = 0; i < sheet.getRows(); i++) { // Loop through the rows
-            for (int j = 0; j < sheet.getCols(); j++) { // Loop through the columns
-                if (values[i][j] != null && !values[i][j].getRawdata().isEmpty()) { // Check if the cell is not null and
-                                                                                    // has raw data
-                    String cellValue = values[i][j].isFormula() ? values[i][j].getFormula() : values[i][j].getRawdata();
-                    payload.append(String.format("$%s%s %s\\n", getColumnName(j + 1), i + 1, cellValue)); // Append the
-                                                                                                          // cell data
-                                                                                                          // to the
-                                                                                                          // payload
-                }
+        for (Cell cell : sheet.getPopulatedCells()) { // Only populated cells, in row order
+            if (!cell.getRawdata().isEmpty()) { // Check if the cell has raw data
+                String cellValue = cell.isFormula() ? cell.getFormula() : cell.getRawdata();
+                payload.append(String.format("$%s%s %s\\n", getColumnName(cell.getCol() + 1), cell.getRow() + 1,
+                        cellValue)); // Append the cell data to the payload
             }
         }
         return payload.toString(); // Return the payload as a string
@@ -122,26 +130,27 @@ public class Spreadsheet implements ISpreadsheet {
 
     @Override
     public int getRows() {
-        return this.grid.size(); // Return the number of rows in the grid
+        return Math.max(MIN_ROWS, this.cells.getRows()); // Rows in use, at least a screenful
     }
 
     @Override
     public int getCols() {
-        return this.grid.get(0).size(); // Return the number of columns in the grid
+        return Math.max(MIN_COLS, this.cells.getCols()); // Columns in use, at least a screenful
     }
 
     @Override
     public List<List<Cell>> getCells() {
-        return this.grid; // Return the grid
+        return new GridView(); // Return a view of the grid
     }
 
     @Override
     public Cell[][] getCellsObject() {
-        Cell[][] retObject = new Cell[this.getRows()][this.getCols()]; // Initialize a 2D array for the cells
-        for (int r = 0; r < this.getRows(); r++) { // Loop through the rows
-            List<Cell> row = this.grid.get(r); // Get a row from the grid
-            for (int c = 0; c < this.getCols(); c++) { // Loop through the columns
-                retObject[r][c] = row.get(c); // Set the cell in the 2D array
+        int rows = this.getRows(); // Used extent of the sheet
+        int cols = this.getCols();
+        Cell[][] retObject = new Cell[rows][cols]; // Initialize a 2D array for the cells
+        for (int r = 0; r < rows; r++) { // Loop through the rows
+            for (int c = 0; c < cols; c++) { // Loop through the columns
+                retObject[r][c] = cellOrEmpty(r, c); // Set the cell in the 2D array
             }
         }
         return retObject; // Return the 2D array
@@ -150,15 +159,25 @@ public class Spreadsheet implements ISpreadsheet {
     @Override
     public String[][] getCellStringsObject() {
         String[][] retObject = new String[this.getRows()][this.getCols()]; // Initialize a 2D array for the cell values
-        for (int r = 0; r < this.getRows(); r++) { // Loop through the rows
-            List<Cell> row = this.grid.get(r); // Get a row from the grid
-            for (int c = 0; c < this.getCols(); c++) { // Loop through the columns
-                retObject[r][c] = row.get(c).getValue(); // Set the cell value in the 2D array
-            }
+        for (String[] row : retObject) {
+            Arrays.fill(row, ""); // Empty cells are not stored
         }
+        this.cells.forEach((r, c, cell) -> retObject[r][c] = cell.getValue()); // Fill in the populated cells
         return retObject;
     }
 
+    @Override
+    public Cell getPopulatedCell(int row, int col) {
+        return row < 0 || col < 0 ? null : this.cells.get(row, col);
+    }
+
+    @Override
+    public List<Cell> getPopulatedCells() {
+        List<Cell> populated = new ArrayList<>(this.cells.size());
+        this.cells.forEach((r, c, cell) -> populated.add(cell)); // Row by row, left to right
+        return populated;
+    }
+
     @Override
     public int getRow(String cell) {
         try {
@@ -181,15 +200,59 @@ public class Spreadsheet implements ISpreadsheet {
 
     @Override
     public void addPublished(ISpreadsheet sheet) {
+        boolean current = isCurrentSnapshot(sheet);
+        this.publishChanges.record(sheet, current ? this.unpublished : null); // Recorded first, so every listed version has its changes
+        this.unpublished = current ? new HashSet<>() : null; // Changes are counted from this version if it is this sheet
         this.publishVersions.add(sheet); // Add the sheet to the publish versions list
         this.id_version++; // Increment the version ID
     }
 
     @Override
     public void addSubscribed(ISpreadsheet sheet) {
+        boolean current = isCurrentSnapshot(sheet);
+        this.subscribeChanges.record(sheet, current ? this.unsubscribed : null); // Recorded first, so every listed version has its changes
+        this.unsubscribed = current ? new HashSet<>() : null;
         this.subscribeVersions.add(sheet); // Add the sheet to the subscribe versions list
     }
 
+    @Override
+    public void prunePublished(int first) {
+        prune(this.publishVersions, this.publishChanges, first);
+    }
+
+    @Override
+    public void pruneSubscribed(int first) {
+        prune(this.subscribeVersions, this.subscribeChanges, first);
+    }
+
+    /**
+     * Checks if a sheet is a snapshot of this sheet with every change made so far, so
+     * the cells changed since the last version are the cells it changed.
+     *
+     * @param sheet the sheet added as a version
+     * @return true if it is a current snapshot
+     */
+    private boolean isCurrentSnapshot(ISpreadsheet sheet) {
+        return sheet instanceof Spreadsheet && ((Spreadsheet) sheet).origin == this
+                && ((Spreadsheet) sheet).originModifications == this.modifications;
+    }
+
+    /**
+     * Drops the oldest versions of a version list and their recorded changes.
+     *
+     * @param versions the versions kept
+     * @param changes  the changes recorded for them
+     * @param first    the id of the oldest version to keep
+     */
+    private static void prune(List<ISpreadsheet> versions, ChangeLog changes, int first) {
+        int drop = Math.min(first - changes.getFirst(), versions.size() - 1); // The latest version is always kept
+        if (drop <= 0) {
+            return;
+        }
+        versions.subList(0, drop).clear();
+        changes.prune(changes.getFirst() + drop, versions.get(0));
+    }
+
     @Override
     public List<ISpreadsheet> getPublishedVersions() {
         return this.publishVersions; // Return the publish versions list
@@ -200,14 +263,108 @@ public class Spreadsheet implements ISpreadsheet {
         return this.subscribeVersions; // Return the subscribe versions list
     }
 
+    @Override
+    public ChangeLog getPublishedChanges() {
+        return this.publishChanges; // Return the changes of the published versions
+    }
+
+    @Override
+    public ChangeLog getSubscribedChanges() {
+        return this.subscribeChanges; // Return the changes of the subscribed versions
+    }
+
     @Override
     public void setGrid(List<List<Cell>> updatedGrid) {
-        this.grid = updatedGrid; // Set the grid to the updated grid
+        this.cells.clear(); // Forget the old cells
+        touchAll();
+        for (int r = 0; r < updatedGrid.size(); r++) { // Loop through the rows
+            List<Cell> row = updatedGrid.get(r);
+            for (int c = 0; c < row.size(); c++) { // Loop through the columns
+                Cell cell = row.get(c);
+                if (!cell.getValue().isEmpty() || !cell.getRawdata().isEmpty()) {
+                    store(r, c, cell); // Only populated cells are kept
+                }
+            }
+        }
+        rebuildDependencies(); // Track the formulas of the new grid
+    }
+
+    @Override
+    public void replaceCells(List<Cell> updatedCells) {
+        this.cells.clear(); // Forget the old cells
+        touchAll();
+        for (Cell cell : updatedCells) {
+            store(cell.getRow(), cell.getCol(), cell); // Cells are placed by their own row and column
+        }
+        rebuildDependencies(); // Track the formulas of the new cells
+    }
+
+    @Override
+    public void loadCells(List<Cell> loadedCells) {
+        ChunkedGrid loaded = new ChunkedGrid(); // The loaded cells by position
+        for (Cell cell : loadedCells) {
+            if (cell.getRawdata().isEmpty()) {
+                loaded.remove(cell.getRow(), cell.getCol()); // Empty cells are not stored, and clear earlier ones
+            } else {
+                checkBounds(cell.getRow(), cell.getCol());
+                loaded.put(cell.getRow(), cell.getCol(), cell); // Later cells replace earlier ones at the same position
+            }
+        }
+
+        // Only cells whose raw data changes are touched, so unchanged tiles stay shared with snapshots
+        List<Long> changed = new ArrayList<>();
+        this.cells.forEach((r, c, cell) -> {
+            if (loaded.get(r, c) == null) {
+                changed.add(DependencyGraph.key(r, c)); // Not in the load, so it is cleared
+            }
+        });
+        for (long key : changed) {
+            this.cells.remove(DependencyGraph.row(key), DependencyGraph.col(key));
+            touch(DependencyGraph.row(key), DependencyGraph.col(key));
+            dependencies().removePrecedents(DependencyGraph.row(key), DependencyGraph.col(key));
+        }
+        loaded.forEach((r, c, cell) -> {
+            Cell existing = this.cells.get(r, c);
+            String rawdata = cell.getRawdata();
+            if (existing != null && existing.getRawdata().equals(rawdata)) {
+                return; // Unchanged
+            }
+            cell.setCompiledFormula(null);
+            if (rawdata.startsWith("=")) {
+                cell.setTypedValue(CellValue.EMPTY); // Formulas are evaluated once loading ends
+            } else {
+                CellValue value = CellValue.parseShared(rawdata); // Shared with other cells holding the same text
+                cell.setRawData(value.getText());
+                cell.setTypedValue(value);
+            }
+            store(r, c, cell);
+            if (rawdata.startsWith("=")) {
+                dependencies().setPrecedents(r, c, compiledFormula(cell, rawdata));
+            } else {
+                dependencies().removePrecedents(r, c);
+            }
+            changed.add(DependencyGraph.key(r, c));
+        });
+
+        Set<Long> cyclic = new HashSet<>();
+        evaluateLevels(dependencies().recalculationLevels(changed, cyclic), cyclic); // Each formula once, after its precedents
+        recalculateCopiedCells();
+    }
+
+    @Override
+    public ISpreadsheet snapshot() {
+        Spreadsheet copy = new Spreadsheet(this.name);
+        copy.cells = this.cells.snapshot(); // Shares every tile until one of the sheets changes it
+        copy.dependencies = null; // Built if the snapshot is ever changed
+        copy.scheduler = this.scheduler;
+        copy.origin = this;
+        copy.originModifications = this.modifications;
+        return copy;
     }
 
     @Override
     public List<List<Cell>> getGrid() {
-        return this.grid; // Return the grid
+        return new GridView(); // Return a view of the grid
     }
 
     @Override
@@ -222,930 +379,373 @@ public class Spreadsheet implements ISpreadsheet {
 
     @Override
     public void setCellValue(int row, int col, String value) {
-        this.grid.get(row).get(col).setValue(evaluateFormula(value)); // Set the cell value after evaluating the formula
+        if (value.isEmpty() && findCell(row, col) == null) {
+            return; // The cell is already empty
+        }
+        Cell cell = cellAt(row, col);
+        if (!value.startsWith("=")) {
+            cell.setCompiledFormula(null); // Plain values need no formula
+            dependencies().removePrecedents(row, col);
+            cell.setValue(value);
+            releaseIfEmpty(row, col, cell);
+        } else {
+            Formula formula = compiledFormula(cell, value);
+            dependencies().setPrecedents(row, col, formula); // Record the cells the formula reads
+            cell.setTypedValue(formula.evaluate(this)); // Set the cell value after evaluating the formula
+        }
+        recalculateDependents(row, col); // Update only the formulas affected by the change
+        recalculateCopiedCells();
     }
 
     @Override
     public String getCellValue(int row, int col) {
-        return this.grid.get(row).get(col).getValue(); // Return the cell value
+        return getTypedCellValue(row, col).getText(); // Return the cell value
+    }
+
+    @Override
+    public CellValue getTypedCellValue(int row, int col) {
+        Cell cell = findCell(row, col);
+        return cell == null ? CellValue.EMPTY : cell.getTypedValue(); // Return the typed cell value without parsing it
     }
 
     @Override
     public void setCellRawdata(int row, int col, String val) {
-        this.grid.get(row).get(col).setRawData(val); // Set the raw data of the cell
+        if (val.isEmpty() && findCell(row, col) == null) {
+            return; // The cell is already empty
+        }
+        Cell cell = cellAt(row, col);
+        cell.setRawData(val); // Set the raw data of the cell
+        releaseIfEmpty(row, col, cell);
     }
 
     @Override
     public String getCellRawdata(int row, int col) {
-        return this.grid.get(row).get(col).getRawdata(); // Return the raw data of the cell
-
+        Cell cell = findCell(row, col);
+        return cell == null ? "" : cell.getRawdata(); // Return the raw data of the cell
     }
 
     @Override
     public String evaluateFormula(String formula) {
-        System.out.println("Evaluating formula: " + formula); // Print the formula for debugging
-        String original = formula;
         if (!formula.startsWith("=")) {
             return formula; // Return the formula if it does not start with "="
         }
-    
-        // Remove the initial "="
-        formula = formula.substring(1).stripLeading();
-        System.out.println("Stripped formula: " + formula);
-    
-        try {
-            if (formula.startsWith("COPY(")) {
-                return evaluateCOPY(formula.substring(5, formula.length() - 1), original); // Evaluate COPY function
-            }
-            if (formula.startsWith("SUM(")) {
-                return evaluateSUM(formula.substring(4, formula.length() - 1)); // Evaluate SUM function directly
-            }
-            if (!formula.contains(":")) {
-                formula = replaceCellReferences(formula); // Replace cell references with their values
-                System.out.println("Formula after replacing cell references: " + formula);
-            }
-            formula = evaluateNestedExpressions(formula); // Evaluate nested expressions first
-            System.out.println("Formula after evaluating nested expressions: " + formula);
-    
-            if (formula.startsWith("DEBUG")) { // Check if formula starts with DEBUG
-                return evaluateDEBUG(formula.substring(5).trim());
-            }
-    
-            Object result = formula; // Initialize result with the formula
-            System.setProperty("polyglot.engine.WarnInterpreterOnly", "false"); // Set system property to avoid warnings
-    
-            if (containsOperation(formula)) {
-                result = parseOperations(formula); // Parse operations in the formula
-            } else if (containsArith(formula)) { // Check if formula contains arithmetic operations
-                Context context = Context.create("js"); // Create a JavaScript context
-                result = context.eval("js", formula); // Evaluate the formula using JavaScript
-            }
-    
-            return result.toString(); // Return the result as a string
-        } catch (Exception e) {
-            System.out.println("Exception in evaluateFormula: " + e.getMessage());
-            return "Error"; // Return "Error" if an exception occurs
-        }
-    }
-    
-    /**
-     * Checks if logical operation is found
-     * @param cell
-     * @return Boolean Value representing whether an operation was found
-     * @author Vinay
-     */
-    private boolean containsOperation(String cell) {
-        for (String op : operations) { // Loop through the logical operations
-            if (cell.contains(op)) {
-                return true; // Return true if logical operation is found
-            }
-        }
-        return false; // Return false if no logical operation is found
+        String value = Formula.compile(formula).evaluate(this).getText(); // Parse and evaluate the formula
+        recalculateCopiedCells();
+        return value;
     }
 
-    /**
-     * Parses and handles various operations in the formula.
-     *
-     * @param formula the formula to parse.
-     * @return the result of parsing the formula.
-     * @author Vinay
-     */
-    private String parseOperations(String formula) {
-        System.out.println("Parsing operations, initial formula: " + formula);
-
-        // Check if the formula is an IF function and handle it specially
-        if (formula.startsWith("IF(")) {
-            int startIndex = formula.indexOf("(") + 1;
-            int endIndex = formula.lastIndexOf(")");
-            String args = formula.substring(startIndex, endIndex);
-            System.out.println("IF function detected with args: " + args);
-            return evaluateIF(args); // Evaluate IF function
-        }
-
-        // Evaluate nested expressions within parentheses first
-        formula = evaluateNestedExpressions(formula);
-        System.out.println("Formula after evaluating nested expressions: " + formula);
-
-        if (formula.startsWith("DEBUG")) { // Check if formula starts with DEBUG after evaluating nested expressions
-            return evaluateDEBUG(formula.substring(5).trim());
-        }
-
-        // Handle logical operations
-        if (formula.contains("&") || formula.contains("|")) {
-            String[] logicalParts;
-            String logicalResult = "";
-
-            if (formula.contains("&")) {
-                logicalParts = formula.split("&");
-                logicalResult = "1"; // Initialize to "1" for AND operation
-                for (String part : logicalParts) {
-                    part = part.trim();
-                    System.out.println("Evaluating part of AND operation: " + part);
-                    String evaluatedPart = evaluateLogical(part);
-                    System.out.println("Evaluated part of AND operation: " + evaluatedPart);
-                    logicalResult = andOperation(logicalResult, evaluatedPart);
-                    System.out.println("AND operation result so far: " + logicalResult);
-                }
-            } else if (formula.contains("|")) {
-                logicalParts = formula.split("\\|");
-                logicalResult = "0"; // Initialize to "0" for OR operation
-                for (String part : logicalParts) {
-                    part = part.trim();
-                    System.out.println("Evaluating part of OR operation: " + part);
-                    String evaluatedPart = evaluateLogical(part);
-                    System.out.println("Evaluated part of OR operation: " + evaluatedPart);
-                    logicalResult = orOperation(logicalResult, evaluatedPart);
-                    System.out.println("OR operation result so far: " + logicalResult);
-                }
-            }
-
-            return logicalResult;
-        }
-
-        String operation = getOperation(formula); // Get the operation in the formula
-        System.out.println("Parsing operations, found operation: " + operation);
-
-        if (!operation.isEmpty()) {
-            String[] parts = formula.replaceAll(" ", "").split(Pattern.quote(operation)); // Split the formula into parts
-            System.out.println("Parts after split: " + Arrays.toString(parts));
-
-            if (formula.contains("<>")) {
-                return compareNotEqual(parts[0].trim(), parts[1].trim()); // Compare not equal
-            } else if (formula.contains("<") && !formula.contains("=")) {
-                return compareLess(parts[0].trim(), parts[1].trim()); // Compare less than
-            } else if (formula.contains(">") && !formula.contains("=")) {
-                return compareGreater(parts[0].trim(), parts[1].trim()); // Compare greater than
-            } else if (formula.contains("=") && !formula.contains("<") && !formula.contains(">")) {
-                return compareEqual(parts[0].trim(), parts[1].trim()); // Compare equal
-            }
+    @Override
+    public String evaluateCellFormula(int row, int col) {
+        Cell cell = findCell(row, col);
+        String rawdata = cell == null ? "" : cell.getRawdata();
+        if (!rawdata.startsWith("=")) {
+            return rawdata; // Nothing to evaluate
         }
+        String value = compiledFormula(cell, rawdata).evaluate(this).getText();
+        recalculateCopiedCells();
+        return value;
+    }
 
-        String function = getFunction(formula); // Get the function in the formula
-        if (!function.isEmpty()) {
-            int start = function.length() + 1; // Calculate start index of the arguments
-            int end = formula.length() - 1; // Calculate end index of the arguments
-            String args = formula.substring(start, end); // Extract the arguments
-            System.out.println("Function: " + function + ", Arguments: " + args);
-
-            if (formula.startsWith("IF(")) {
-                return evaluateIF(args); // Evaluate IF function
-            } else if (formula.startsWith("SUM(")) {
-                return evaluateSUM(args); // Evaluate SUM function
-            } else if (formula.startsWith("MIN(")) {
-                return evaluateMIN(args); // Evaluate MIN function
-            } else if (formula.startsWith("MAX(")) {
-                return evaluateMAX(args); // Evaluate MAX function
-            } else if (formula.startsWith("AVG(")) {
-                return evaluateAVG(args); // Evaluate AVG function
-            } else if (formula.startsWith("CONCAT(")) {
-                return evaluateCONCAT(args); // Evaluate CONCAT function
-            } else if (formula.startsWith("DEBUG(")) {
-                return evaluateDEBUG(args); // Evaluate DEBUG function
-            } else if (formula.startsWith("STDDEV(")) {
-                return evaluateSTDDEV(args); // Evaluate STDDEV function
-            } else if (formula.startsWith("SORT(")) {
-                return evaluateSORT(args); // Evaluate SORT function
+    @Override
+    public void forEachValue(int startRow, int startCol, int endRow, int endCol, ValueVisitor visitor) {
+        checkBounds(startRow, startCol); // Ranges outside the sheet are errors
+        checkBounds(endRow, endCol);
+        this.cells.forEachInRange(startRow, startCol, endRow, endCol, (r, c, cell) -> {
+            CellValue value = cell.getTypedValue();
+            if (!value.isEmpty()) {
+                visitor.visit(value); // Empty cells are skipped
             }
-        }
-        return formula; // Return the formula if no operations or functions are found
+        });
     }
 
-/**
- * Evaluates nested expressions within the given formula by recursively processing innermost parentheses.
- * @param formula The input formula containing potential nested expressions.
- * @return The formula with all nested expressions evaluated.
- * @author Vinay
- */
-private String evaluateNestedExpressions(String formula) {
-    // Compile a regex pattern to match the innermost parentheses
-    Pattern pattern = Pattern.compile("\\(([^()]+)\\)");
-    // Create a matcher to find occurrences of the pattern in the formula
-    Matcher matcher = pattern.matcher(formula);
-
-    // Iterate while there are matches in the formula
-    while (matcher.find()) {
-        // Extract the content inside the innermost parentheses
-        String nestedExpr = matcher.group(1);
-        System.out.println("Found nested expression: " + nestedExpr);
-
-        String result;
-        // Check if the nested expression starts with "IF"
-        if (nestedExpr.trim().startsWith("IF")) {
-            System.out.println("Nested expression starts with IF: " + nestedExpr);
-            // Evaluate the IF expression
-            result = evaluateIF(nestedExpr.trim().substring(2).trim());
-            // Replace the nested expression in the formula with its result
-            formula = formula.replace("(" + nestedExpr + ")", result);
-            System.out.println("Formula after replacing nested expression " + nestedExpr + " with result " + result + ": " + formula);
-            // Update the matcher to reflect changes in the formula
-            matcher = pattern.matcher(formula);
-        // Check if the nested expression starts with "DEBUG"
-        } else if (nestedExpr.trim().startsWith("DEBUG")) {
-            System.out.println("Nested expression starts with DEBUG: " + nestedExpr);
-            // Evaluate the DEBUG expression
-            result = evaluateDEBUG(nestedExpr.trim().substring(5).trim());
-            // Replace the nested expression in the formula with its result
-            formula = formula.replace("(" + nestedExpr + ")", result);
-            System.out.println("Formula after replacing nested expression " + nestedExpr + " with result " + result + ": " + formula);
-            // Update the matcher to reflect changes in the formula
-            matcher = pattern.matcher(formula);
-        // Check if the nested expression starts with "SUM"
-        } else if (nestedExpr.trim().startsWith("SUM")) {
-            System.out.println("Nested expression starts with SUM: " + nestedExpr);
-            // Evaluate the SUM expression
-            result = evaluateSUM(nestedExpr.trim().substring(3).trim());
-            // Replace the nested expression in the formula with its result
-            formula = formula.replace("(" + nestedExpr + ")", result);
-            System.out.println("Formula after replacing nested expression " + nestedExpr + " with result " + result + ": " + formula);
-            // Update the matcher to reflect changes in the formula
-            matcher = pattern.matcher(formula);
-        // Check if the nested expression contains a range operation
-        } else if (nestedExpr.contains(":")) {
-            // Split the expression by the colon to get the cell references
-            String[] cellRefs = nestedExpr.split(":");
-            // Perform the range operation
-            String range = rangeOperation(cellRefs[0].trim(), cellRefs[1].trim());
-            System.out.println("RANGE: " + range);
-            result = range;
-            // Replace the nested expression in the formula with its result
-            formula = formula.replace("(" + nestedExpr + ")", result);
-            // Replace cell references within the formula
-            formula = replaceCellReferences(formula);
-            System.out.println("Formula after replacing nested expression " + nestedExpr + " with result " + result + ": " + formula);
-            // Update the matcher to reflect changes in the formula
-            matcher = pattern.matcher(formula);
-        } else {
-            // Parse and evaluate other types of operations within the nested expression
-            result = parseOperations(nestedExpr);
-            // Replace the nested expression in the formula with its result
-            formula = formula.replace("(" + nestedExpr + ")", result);
-            System.out.println("Formula after replacing nested expression " + nestedExpr + " with result " + result + ": " + formula);
-            // Update the matcher to reflect changes in the formula
-            matcher = pattern.matcher(formula);
-        }
+    @Override
+    public void copyToCell(int row, int col, CellValue value) {
+        Cell cell = cellAt(row, col);
+        cell.setCompiledFormula(null); // The copied value replaces any formula in the target
+        dependencies().removePrecedents(row, col);
+        cell.setTypedValue(value);
+        cell.setRawData(value.getText());
+        this.copiedCells.add(DependencyGraph.key(row, col)); // Its dependents are updated once evaluation ends
     }
-    // Return the fully evaluated formula
-    return formula;
-}
 
-/**
- * Evaluates logical expressions within the given formula.
- * @param formula The input formula containing logical expressions.
- * @return The result of the logical expression evaluation.
- * @author Vinay
- */
-private String evaluateLogical(String formula) {
-    System.out.println("Evaluating logical expression: " + formula);
-    // Get the logical operation from the formula
-    String operation = getOperation(formula);
-    if (!operation.isEmpty()) {
-        // Split the formula into parts based on the logical operation
-        String[] parts = formula.split(Pattern.quote(operation));
-        System.out.println("Parts of logical expression: " + Arrays.toString(parts));
-        // Evaluate nested expressions within each part
-        parts[0] = evaluateNestedExpressions(parts[0].trim());
-        parts[1] = evaluateNestedExpressions(parts[1].trim());
-        System.out.println("Parts after evaluating nested expressions: " + Arrays.toString(parts));
-        // Perform the logical comparison based on the operation
-        switch (operation) {
-            case "<>":
-                return compareNotEqual(parts[0], parts[1]);
-            case "<":
-                return compareLess(parts[0], parts[1]);
-            case ">":
-                return compareGreater(parts[0], parts[1]);
-            case "=":
-                return compareEqual(parts[0], parts[1]);
-            default:
-                return "Error";
-        }
-    }
-    // Attempt to parse the formula as a numeric value
-    try {
-        double value = Double.parseDouble(formula);
-        // Return "1" if the value is non-zero, otherwise "0"
-        return value != 0 ? "1" : "0";
-    } catch (NumberFormatException e) {
-        // Return "0" if parsing fails
-        return "0";
+    @Override
+    public void recalculate() {
+        Set<Long> cyclic = new HashSet<>();
+        evaluateLevels(dependencies().allFormulaLevels(cyclic), cyclic);
+        recalculateCopiedCells();
     }
-}
 
     /**
-     * Replaces cell references in the formula with their actual values.
+     * Sets the scheduler used to evaluate independent formulas, e.g. a single threaded
+     * one for debugging.
      *
-     * @param formula the formula with cell references.
-     * @return the formula with cell references replaced by values.
-     * @author Vinay
+     * @param scheduler the scheduler.
      */
-    private String replaceCellReferences(String formula) {
-        Pattern pattern = Pattern.compile("\\$[A-Z]+[0-9]+"); // Define pattern for cell references
-        Matcher matcher = pattern.matcher(formula); // Create matcher for the formula
-        StringBuffer result = new StringBuffer(); // Initialize result buffer
-
-        while (matcher.find()) {
-            String cellReference = matcher.group(); // Get the cell reference
-            int row = getRow(cellReference); // Get the row index
-            int col = getColumn(cellReference); // Get the column index
-            String cellValue = getCellValue(row, col); // Get the cell value
-            matcher.appendReplacement(result, cellValue); // Replace the cell reference with its value
-        }
-        matcher.appendTail(result); // Append the remaining part of the formula
-
-        return result.toString(); // Return the modified formula
+    public void setRecalculationScheduler(RecalculationScheduler scheduler) {
+        this.scheduler = scheduler;
     }
 
     /**
-     * Checks if the cell contains a function.
+     * Re-evaluates every formula that depends on the given cell, directly or through
+     * other formulas, in dependency order. Formulas caught up in a circular reference
+     * are set to "Error".
      *
-     * @param cell the cell content.
-     * @return the function if present, otherwise an empty string.
-     * @author Theo
+     * @param row the row index of the changed cell.
+     * @param col the column index of the changed cell.
      */
-    private String getFunction(String cell) {
-        for (String func : functions) { // Loop through the functions
-            if (cell.contains(func)) {
-                return func; // Return the function if found
-            }
-        }
-
-        return ""; // Return empty string if no function is found
+    private void recalculateDependents(int row, int col) {
+        Set<Long> cyclic = new HashSet<>();
+        evaluateLevels(dependencies().recalculationLevels(row, col, cyclic), cyclic);
     }
 
     /**
-     * Checks if the cell contains a basic arithmetic operation.
+     * Evaluates formulas level by level. The formulas of a level are independent and are
+     * handed to the scheduler together, except those calling COPY: they write other cells,
+     * so they run one at a time after the rest of their level.
      *
-     * @param cell the cell content.
-     * @return true if it contains an arithmetic operation, otherwise false.
-     * @author Vinay
+     * @param levels the formula cells, level by level.
+     * @param cyclic the formula cells caught up in a circular reference, set to "Error".
      */
-    private boolean containsArith(String cell) {
-        for (String op : arith) { // Loop through the arithmetic operations
-            if (cell.contains(op)) {
-                return true; // Return true if arithmetic operation is found
+    private void evaluateLevels(List<List<Long>> levels, Set<Long> cyclic) {
+        for (List<Long> level : levels) {
+            List<Long> independent = new ArrayList<>(level.size());
+            List<Long> writers = new ArrayList<>();
+            for (long key : level) {
+                Cell cell = this.cells.getForWrite(DependencyGraph.row(key), DependencyGraph.col(key)); // Unshared before the threads write it
+                Formula formula = cell == null ? null : cell.getCompiledFormula();
+                if (formula != null) {
+                    (formula.writesCells() ? writers : independent).add(key);
+                }
             }
-        }
-
-        return false; // Return false if no arithmetic operation is found
-    }
-
-    /**
-     * Checks if the cell contains an operation.
-     *
-     * @param cell the cell content.
-     * @return the operation if present, otherwise an empty string.
-     * @author Theo
-     */
-    private String getOperation(String cell) {
-        for (String op : operations) { // Loop through the logical operations
-            if (cell.contains(op)) {
-                return op; // Return the operation if found
+            this.scheduler.run(independent, this::recalculateCell); // Precedents are already up to date
+            for (long key : writers) {
+                recalculateCell(key);
             }
         }
-
-        return ""; // Return empty string if no operation is found
-    }
-
-    /**
-     * Compares if the first value is less than the second value.
-     *
-     * @param x the first value.
-     * @param y the second value.
-     * @return "1" if x is less than y, otherwise "0".
-     * @author Vinay
-     */
-    private String compareLess(String x, String y) {
-        x = x.replaceAll("[()]", ""); // Remove parentheses
-        y = y.replaceAll("[()]", ""); // Remove parentheses
-        System.out.println("Comparing less: " + x + " < " + y);
-        x = replaceCellReferences(x); // Replace cell references in x
-        y = replaceCellReferences(y); // Replace cell references in y
-        try {
-            double a = Double.parseDouble(x); // Parse x as double
-            double b = Double.parseDouble(y); // Parse y as double
-            return a < b ? "1" : "0"; // Return "1" if a is less than b, otherwise "0"
-        } catch (NumberFormatException e) {
-            System.out.println("NumberFormatException in compareLess: " + e.getMessage());
-            return "Error"; // Return "Error" if parsing fails
+        for (long key : cyclic) {
+            cellAt(DependencyGraph.row(key), DependencyGraph.col(key)).setTypedValue(CellValue.ERROR);
         }
     }
 
     /**
-     * Compares if the first value is greater than the second value.
+     * Evaluates the compiled formula of a cell and stores the result in the cell. Only
+     * the cell itself is written, so independent cells can be evaluated at the same time.
      *
-     * @param x the first value.
-     * @param y the second value.
-     * @return "1" if x is greater than y, otherwise "0".
-     * @author Vinay
+     * @param key the key of the formula cell.
      */
-    private String compareGreater(String x, String y) {
-        x = x.replaceAll("[()]", ""); // Remove parentheses
-        y = y.replaceAll("[()]", ""); // Remove parentheses
-        System.out.println("Comparing greater: " + x + " > " + y);
-        x = replaceCellReferences(x); // Replace cell references in x
-        y = replaceCellReferences(y); // Replace cell references in y
-        try {
-            double a = Double.parseDouble(x); // Parse x as double
-            double b = Double.parseDouble(y); // Parse y as double
-            return a > b ? "1" : "0"; // Return "1" if a is greater than b, otherwise "0"
-        } catch (NumberFormatException e) {
-            System.out.println("NumberFormatException in compareGreater: " + e.getMessage());
-            return "Error"; // Return "Error" if parsing fails
-        }
+    private void recalculateCell(long key) {
+        Cell cell = this.cells.get(DependencyGraph.row(key), DependencyGraph.col(key));
+        cell.setTypedValue(cell.getCompiledFormula().evaluate(this));
     }
 
     /**
-     * Compares if the first value is equal to the second value.
-     *
-     * @param x the first value.
-     * @param y the second value.
-     * @return "1" if x is equal to y, otherwise "0".
-     * @author Vinay
+     * Updates the dependents of cells written by COPY during the last evaluation. Each
+     * cell is handled at most once so copies feeding each other cannot loop forever.
      */
-    private String compareEqual(String x, String y) {
-        x = x.replaceAll("[()]", ""); // Remove parentheses
-        y = y.replaceAll("[()]", ""); // Remove parentheses
-        System.out.println("Comparing equal: " + x + " = " + y);
-        x = replaceCellReferences(x); // Replace cell references in x
-        y = replaceCellReferences(y); // Replace cell references in y
-        try {
-            double a = Double.parseDouble(x); // Parse x as double
-            double b = Double.parseDouble(y); // Parse y as double
-            return a == b ? "1" : "0"; // Return "1" if a is equal to b, otherwise "0"
-        } catch (NumberFormatException e) {
-            if (x.equals(y)) {
-                return "1"; // Return "1" if x equals y as strings
-            } else {
-                return "0"; // Return "0" if x does not equal y as strings
+    private void recalculateCopiedCells() {
+        Set<Long> done = new HashSet<>();
+        while (!this.copiedCells.isEmpty()) {
+            long key = this.copiedCells.poll();
+            if (done.add(key)) {
+                recalculateDependents(DependencyGraph.row(key), DependencyGraph.col(key));
             }
         }
     }
 
     /**
-     * Compares if the first value is not equal to the second value.
+     * Gets the dependency graph, building it first for a snapshot that is being changed.
      *
-     * @param x the first value.
-     * @param y the second value.
-     * @return "1" if x is not equal to y, otherwise "0".
-     * @author Theo
+     * @return the dependency graph.
      */
-    private String compareNotEqual(String x, String y) {
-        x = replaceCellReferences(x); // Replace cell references in x
-        y = replaceCellReferences(y); // Replace cell references in y
-        try {
-            double a = Double.parseDouble(x); // Parse x as double
-            double b = Double.parseDouble(y); // Parse y as double
-            return a != b ? "1" : "0"; // Return "1" if a is not equal to b, otherwise "0"
-        } catch (NumberFormatException e) {
-            if (!x.equals(y)) {
-                return "1"; // Return "1" if x does not equal y as strings
-            } else {
-                return "0"; // Return "0" if x equals y as strings
-            }
+    private DependencyGraph dependencies() {
+        if (this.dependencies == null) {
+            rebuildDependencies();
         }
+        return this.dependencies;
     }
 
     /**
-     * Performs the AND operation between two values.
-     *
-     * @param x the first value.
-     * @param y the second value.
-     * @return "1" if both values are non-zero, otherwise "0".
-     * @author Vinay
+     * Rebuilds the dependency graph from the formulas stored in the raw data of the grid.
      */
-    private String andOperation(String x, String y) {
-        System.out.println("Performing AND operation: " + x + " & " + y);
-        try {
-            double a = Double.parseDouble(evaluateNestedExpressions(x)); // Evaluate and parse x as double
-            double b = Double.parseDouble(evaluateNestedExpressions(y)); // Evaluate and parse y as double
-            // Convert to boolean (0.0 = false, any non-zero = true)
-            boolean boolA = a != 0.0;
-            boolean boolB = b != 0.0;
-            return (boolA && boolB) ? "1" : "0"; // Return "1" if both are true, otherwise "0"
-        } catch (NumberFormatException e) {
-            System.out.println("NumberFormatException in andOperation: " + e.getMessage());
-            return "0"; // Return "0" if parsing fails
-        }
+    private void rebuildDependencies() {
+        this.dependencies = new DependencyGraph();
+        this.cells.forEach((r, c, cell) -> { // Only populated cells can hold formulas
+            if (cell.getRawdata().startsWith("=")) {
+                this.dependencies.setPrecedents(r, c, compiledFormula(cell, cell.getRawdata()));
+            }
+        });
     }
 
     /**
-     * Performs the OR operation between two values.
+     * Checks that a position lies inside the sheet.
      *
-     * @param x the first value.
-     * @param y the second value.
-     * @return "1" if either value is non-zero, otherwise "0".
-     * @author Vinay
+     * @param row the row index.
+     * @param col the column index.
+     * @throws IndexOutOfBoundsException if the position is outside the sheet.
      */
-    private String orOperation(String x, String y) {
-        System.out.println("Performing OR operation: " + x + " | " + y);
-        try {
-            double a = Double.parseDouble(evaluateNestedExpressions(x)); // Evaluate and parse x as double
-            double b = Double.parseDouble(evaluateNestedExpressions(y)); // Evaluate and parse y as double
-            return (a != 0 || b != 0) ? "1" : "0"; // Return "1" if either a or b is non-zero, otherwise "0"
-        } catch (NumberFormatException e) {
-            System.out.println("NumberFormatException in orOperation: " + e.getMessage());
-            return "Error"; // Return "Error" if parsing fails
+    private void checkBounds(int row, int col) {
+        if (row < 0 || row >= MAX_ROWS || col < 0 || col >= MAX_COLS) {
+            throw new IndexOutOfBoundsException("Cell (" + row + ", " + col + ") is outside the sheet");
         }
     }
 
     /**
-     * Performs a range operation between two cells.
+     * Finds the stored cell at the given position.
      *
-     * @param startCell the start cell.
-     * @param endCell   the end cell.
-     * @return the result of the range operation.
-     * @author Theo
+     * @param row the row index.
+     * @param col the column index.
+     * @return the cell, or null if the cell is empty.
      */
-    private String rangeOperation(String startCell, String endCell) {
-        String func = getFunction(startCell); // Get function from startCell
-        if (func != "") {
-            startCell = startCell.substring(startCell.indexOf('(', startCell.indexOf(func)) + 1); // Remove function
-                                                                                                  // part from startCell
-        }
-
-        int startRow = getRow(startCell); // Get start row
-        int endRow = getRow(endCell); // Get end row
-        int startCol = getColumn(startCell); // Get start column
-        int endCol = getColumn(endCell); // Get end column
-
-        // Check if the range is valid
-        if (startRow > endRow || startCol > endCol || startRow == -1 || endRow == -1 || startCol == -1
-                || endCol == -1) {
-            return "Error"; // Return "Error" if range is invalid
-        }
-
-        // Append the cells' values
-        StringBuilder rangeResult = new StringBuilder(); // Initialize range result
-        for (int row = startRow; row <= endRow; row++) {
-            for (int col = startCol; col <= endCol; col++) {
-                String cellValue = getCellValue(row, col); // Get cell value
-                if (!cellValue.isEmpty()) {
-                    rangeResult.append(cellValue).append(","); // Append cell value to range result
-                }
-            }
-        }
-
-        if (rangeResult.length() == 0) {
-            return ""; // Return empty string if range result is empty
-        }
-
-        String result = rangeResult.substring(0, rangeResult.length() - 1); // Remove trailing comma
-        // Add function if needed
-        if (func != "") {
-            result = func + "(" + result + ")"; // Add function to result
-            return parseOperations(result); // Parse operations in result
-        }
-        return result; // Return range result
+    private Cell findCell(int row, int col) {
+        checkBounds(row, col);
+        return this.cells.get(row, col);
     }
 
     /**
-     * Evaluates the IF function with the given parameters.
+     * Gets the stored cell at the given position, creating it if the cell is empty.
      *
-     * @param parameters the parameters for the IF function.
-     * @return the result of the IF function.
-     * @author Vinay
+     * @param row the row index.
+     * @param col the column index.
+     * @return the stored cell.
      */
-    private String evaluateIF(String parameters) {
-        System.out.println("Evaluating IF with parameters: " + parameters);
-        List<String> parts = splitByCommaOutsideParentheses(parameters.trim());
-    
-        if (parts.size() != 3) {
-            return "Error"; // Return "Error" if parameter count is not 3
-        }
-    
-        String condition = replaceCellReferences(parts.get(0).trim()); // Replace cell references in condition
-        String trueResult = replaceCellReferences(parts.get(1).trim());
-        String falseResult = replaceCellReferences(parts.get(2).trim());
-    
-        condition = parseOperations(condition); // Evaluate the condition
-        System.out.println("Condition after parsing: " + condition);
-    
-        try {
-            double conditionValue = Double.parseDouble(condition);
-            return conditionValue != 0 ? trueResult : falseResult; // Return trueResult if condition is non-zero, otherwise falseResult
-        } catch (NumberFormatException e) {
-            return condition.equals("0") ? falseResult : trueResult;
+    private Cell cellAt(int row, int col) {
+        checkBounds(row, col);
+        Cell cell = this.cells.getForWrite(row, col); // Not shared with any snapshot
+        touch(row, col); // Its raw data may be about to change
+        if (cell == null) {
+            cell = new Cell(); // First write to an empty cell
+            store(row, col, cell);
         }
+        return cell;
     }
-    
-/**
- * Splits the input string by commas, but only if the commas are outside any parentheses.
- * 
- * @param input The input string to be split.
- * @return A list of substrings split by commas outside parentheses.
- * @author Vinay
- */
-private List<String> splitByCommaOutsideParentheses(String input) {
-    // Initialize a list to hold the resulting parts
-    List<String> parts = new ArrayList<>();
-    // Variable to keep track of the current level of nested parentheses
-    int bracketLevel = 0;
-    // StringBuilder to accumulate characters for the current part
-    StringBuilder currentPart = new StringBuilder();
-
-    // Iterate over each character in the input string
-    for (char c : input.toCharArray()) {
-        // If the character is an opening parenthesis, increase the bracket level
-        if (c == '(') {
-            bracketLevel++;
-        // If the character is a closing parenthesis, decrease the bracket level
-        } else if (c == ')') {
-            bracketLevel--;
-        // If the character is a comma and we are not inside parentheses, split here
-        } else if (c == ',' && bracketLevel == 0) {
-            // Add the current part to the list of parts
-            parts.add(currentPart.toString());
-            // Reset the current part for the next segment
-            currentPart.setLength(0);
-            // Skip adding the comma itself to the current part
-            continue;
-        }
-        // Append the current character to the current part
-        currentPart.append(c);
-    }
-    // Add the last accumulated part to the list
-    parts.add(currentPart.toString());
 
-    // Return the list of parts
-    return parts;
-}
-    
     /**
-     * Evaluates the SUM function with the given parameters.
+     * Gets the stored cell at the given position, or a new empty cell that is not part
+     * of the sheet if nothing is stored there.
      *
-     * @param parameters the parameters for the SUM function.
-     * @return the result of the SUM function.
-     * @author Theo
+     * @param row the row index.
+     * @param col the column index.
+     * @return the cell.
      */
-    private String evaluateSUM(String parameters) {
-        String[] parts = parameters.split(","); // Split parameters
-        System.out.println("Formula SUM: " + parameters);
-        double sum = 0;
-        try {
-            for (String part : parts) {
-                part = part.trim();
-                if (part.contains(":")) {
-                    part = rangeOperation(part.split(":")[0], part.split(":")[1]);
-                }
-                String[] values = part.split(",");
-                for (String value : values) {
-                    value = replaceCellReferences(value.trim());
-                    if (!value.isEmpty()) {
-                        sum += Double.parseDouble(value); // Add value to sum
-                    }
-                }
-            }
-            return String.valueOf(sum); // Return sum as string
-        } catch (NumberFormatException e) {
-            return "Error"; // Return "Error" if parsing fails
+    private Cell cellOrEmpty(int row, int col) {
+        Cell cell = findCell(row, col);
+        if (cell == null) {
+            cell = new Cell(); // Detached placeholder for an empty cell
+            cell.setRow(row);
+            cell.setCol(col);
         }
+        return cell;
     }
-    
+
     /**
-     * Evaluates the MIN function with the given parameters.
+     * Stores a cell at the given position.
      *
-     * @param parameters the parameters for the MIN function.
-     * @return the result of the MIN function.
-     * @author Vinay
+     * @param row  the row index.
+     * @param col  the column index.
+     * @param cell the cell to store.
      */
-    private String evaluateMIN(String parameters) {
-        String[] parts = parameters.split(","); // Split parameters
-        double min = Double.MAX_VALUE;
-        try {
-            for (String part : parts) {
-                String func = getFunction(part); // Get function from part
-                part = replaceCellReferences(part.trim());
-                part = parseNestedOperations(func, part, parameters); // Parse nested operations
-                if (part != "") {
-                    double value = Double.parseDouble(part); // Parse part as double
-                    int index = parameters.indexOf(")"); // Find index of closing parenthesis
-                    if (func != "" && index != -1) {
-                        parameters = parameters.substring(index + 1); // Update parameters
-                    }
-                    if (value < min) {
-                        min = value; // Update min if value is smaller
-                    }
-                }
-            }
-            return String.valueOf(min); // Return min as string
-        } catch (NumberFormatException e) {
-            return "Error"; // Return "Error" if parsing fails
-        }
+    private void store(int row, int col, Cell cell) {
+        checkBounds(row, col);
+        cell.setRow(row);
+        cell.setCol(col);
+        this.cells.put(row, col, cell);
+        touch(row, col);
     }
 
     /**
-     * Evaluates the MAX function with the given parameters.
+     * Notes that a cell may have changed since the last published and subscribed
+     * versions.
      *
-     * @param parameters the parameters for the MAX function.
-     * @return the result of the MAX function.
-     * @author Vinay
+     * @param row the row index.
+     * @param col the column index.
      */
-    private String evaluateMAX(String parameters) {
-        String[] parts = parameters.split(","); // Split parameters
-        double max = Double.MIN_VALUE;
-        try {
-            for (String part : parts) {
-                String func = getFunction(part); // Get function from part
-                part = replaceCellReferences(part.trim());
-                part = parseNestedOperations(func, part, parameters); // Parse nested operations
-                if (part != "") {
-                    double value = Double.parseDouble(part); // Parse part as double
-                    int index = parameters.indexOf(")"); // Find index of closing parenthesis
-                    if (func != "" && index != -1) {
-                        parameters = parameters.substring(index + 1); // Update parameters
-                    }
-
-                    if (value > max) {
-                        max = value; // Update max if value is larger
-                    }
-                }
-            }
-            return String.valueOf(max); // Return max as string
-        } catch (NumberFormatException e) {
-            return "Error"; // Return "Error" if parsing fails
-        }
+    private void touch(int row, int col) {
+        this.modifications++;
+        long key = DependencyGraph.key(row, col);
+        this.unpublished = touch(this.unpublished, key);
+        this.unsubscribed = touch(this.unsubscribed, key);
     }
 
     /**
-     * Evaluates the AVG function with the given parameters.
+     * Adds a changed cell to the cells changed since a version.
      *
-     * @param parameters the parameters for the AVG function.
-     * @return the result of the AVG function.
-     * @author Vinay
+     * @param changed the cells changed since the version, or null if not known
+     * @param key     the position of the cell
+     * @return the cells changed since the version, or null once comparing every cell costs no more
      */
-    private String evaluateAVG(String parameters) {
-        String[] parts = parameters.split(","); // Split parameters
-        double sum = 0;
-        try {
-            for (String part : parts) {
-                String func = getFunction(part); // Get function from part
-                part = replaceCellReferences(part.trim());
-                part = parseNestedOperations(func, part, parameters); // Parse nested operations
-                if (part != "") {
-                    sum += Double.parseDouble(part); // Add part value to sum
-                    int index = parameters.indexOf(")"); // Find index of closing parenthesis
-                    if (func != "" && index != -1) {
-                        parameters = parameters.substring(index + 1); // Update parameters
-                    }
-                }
-            }
-            return String.valueOf(sum / parts.length); // Return average as string
-        } catch (NumberFormatException e) {
-            return "Error"; // Return "Error" if parsing fails
+    private Set<Long> touch(Set<Long> changed, long key) {
+        if (changed == null) {
+            return null;
         }
+        changed.add(key);
+        return changed.size() > this.cells.size() + UNTRACKED_SLACK ? null : changed;
     }
 
     /**
-     * Evaluates the CONCAT function with the given parameters.
-     *
-     * @param parameters the parameters for the CONCAT function.
-     * @return the result of the CONCAT function.
-     * @author Theo
+     * Notes that any cell may have changed since the last published and subscribed
+     * versions.
      */
-    private String evaluateCONCAT(String parameters) {
-        String[] parts = parameters.split(","); // Split parameters
-        StringBuilder result = new StringBuilder();
-        for (String part : parts) {
-            // Remove double quotes from around the string parts
-            String trimmedPart = part.trim();
-            if (trimmedPart.startsWith("\"") && trimmedPart.endsWith("\"")) {
-                trimmedPart = trimmedPart.substring(1, trimmedPart.length() - 1); // Remove quotes
-            }
-            result.append(trimmedPart); // Append part to result
-        }
-        return result.toString(); // Return concatenated string
+    private void touchAll() {
+        this.modifications++;
+        this.unpublished = null;
+        this.unsubscribed = null;
     }
 
     /**
-     * Evaluates the DEBUG function with the given parameter.
+     * Stops storing a cell once it holds nothing, so empty cells cost no memory.
      *
-     * @param parameter the parameter for the DEBUG function.
-     * @return the result of the DEBUG function.
-     * @author Theo
+     * @param row  the row index.
+     * @param col  the column index.
+     * @param cell the stored cell.
      */
-    private String evaluateDEBUG(String parameter) {
-        String innerExpression = parameter.trim();
-        System.out.println("This is the inner expression of DEBUG: " + innerExpression);
-        if (innerExpression.startsWith("=")) {
-            innerExpression = innerExpression.substring(1).stripLeading();
+    private void releaseIfEmpty(int row, int col, Cell cell) {
+        if (cell.getTypedValue().isEmpty() && cell.getRawdata().isEmpty() && cell.getCompiledFormula() == null) {
+            this.cells.remove(row, col);
+            touch(row, col);
         }
-        // Evaluate the inner expression and make sure to return the correct value.
-        return evaluateFormula("=" + innerExpression);
     }
 
     /**
-     * Evaluates the STDDEV function with the given parameter.
-     *
-     * @param parameters the parameter for the STDDEV function.
-     * @return the result of the STDDEV function.
-     * @author Theo
+     * A read-only List view of the grid. Rows and cells are produced on demand; empty
+     * cells are returned as new Cells that are not part of the sheet.
      */
-    private String evaluateSTDDEV(String parameters) {
-        String[] parts = parameters.split(","); // Split parameters
-        double sum = 0;
-
-        try {
-            double avg = Double.parseDouble(evaluateAVG(parameters)); // Calculate average
-            for (String part : parts) {
-                String func = getFunction(part); // Get function from part
-                part = replaceCellReferences(part.trim());
-                part = parseNestedOperations(func, part, parameters); // Parse nested operations
-                if (part != "") {
-                    sum += Math.pow(Double.parseDouble(replaceCellReferences(part)) - avg, 2); // Calculate squared
-                                                                                               // difference
-                    int index = parameters.indexOf(")"); // Find index of closing parenthesis
-                    if (func != "" && index != -1) {
-                        parameters = parameters.substring(index + 1); // Update parameters
-                    }
+    private class GridView extends AbstractList<List<Cell>> {
+        @Override
+        public List<Cell> get(int row) {
+            checkBounds(row, 0);
+            return new AbstractList<Cell>() {
+                @Override
+                public Cell get(int col) {
+                    return cellOrEmpty(row, col);
                 }
-            }
-        } catch (NumberFormatException e) {
-            return "Error"; // Return "Error" if parsing fails
-        }
-
-        double result = Math.pow(sum / parts.length, 0.5); // Calculate standard deviation
-        return "" + (double) Math.round(result * 1000) / 1000; // Return rounded result
-    }
 
-    /**
-     * Evaluates the SORT function with the given parameter.
-     *
-     * @param parameters the parameter for the SORT function.
-     * @return the result of the SORT function.
-     * @author Theo
-     */
-    private String evaluateSORT(String parameters) {
-        String[] parts = parameters.split(","); // Split parameters
-        double[] nums = new double[parts.length];
-        try {
-            for (int i = 0; i < nums.length; i++) {
-                String part = parts[i];
-                String func = getFunction(part); // Get function from part
-                part = replaceCellReferences(part.trim());
-                part = parseNestedOperations(func, part, parameters); // Parse nested operations
-                if (part != "") {
-                    nums[i] = Double.parseDouble(part); // Parse part as double
-                    int index = parameters.indexOf(")"); // Find index of closing parenthesis
-                    if (func != "" && index != -1) {
-                        parameters = parameters.substring(index + 1); // Update parameters
-                    }
+                @Override
+                public int size() {
+                    return getCols();
                 }
-            }
-        } catch (NumberFormatException e) {
-            return "Error"; // Return "Error" if parsing fails
+            };
         }
 
-        Arrays.sort(nums); // Sort numbers
-        StringBuilder result = new StringBuilder();
-
-        for (double num : nums) {
-            result.append(num).append(","); // Append sorted numbers to result
+        @Override
+        public int size() {
+            return getRows();
         }
-
-        return result.substring(0, result.length() - 1); // Return sorted numbers as string
-    }
-
-    private String evaluateCOPY(String parameters, String original) {
-        String[] parts = parameters.split(",");
-        String value = replaceCellReferences(parts[0]); // get the value of the first argument
-        // get the position of the second argument
-        int row = getRow(parts[1]);
-        int col = getColumn(parts[1]);
-        this.grid.get(row).get(col).setValue(value);
-        this.grid.get(row).get(col).setRawData(value);
-        return original;
     }
 
     /**
-     * Parses and evaluated any nested functions within the formula parameters.
+     * Gets the compiled form of a formula held by the given cell, compiling it only
+     * if the cell has no cached formula or the formula text has changed.
      *
-     * @param func       the nested function within the given part.
-     * @param part       the section of the parameters being evaluated
-     * @param parameters the entire parameter.
-     * @return the result of the nested function, or an empty string for the ends of
-     *         functions.
-     * @author Theo
+     * @param cell    the cell holding the formula.
+     * @param formula the formula text.
+     * @return the compiled formula.
      */
-    private String parseNestedOperations(String func, String part, String parameters) {
-        // see if there is a nested function to be evaluated
-        if (func != "" && part.contains("(")) {
-            int index = parameters.indexOf("(", parameters.indexOf(part));
-            // parse the nested parameters
-            String nestedParameters = "";
-            while (!nestedParameters.contains(")")) {
-                nestedParameters += parameters.charAt(index);
-                index += 1;
-            }
-            // evaluate the function
-            func += nestedParameters;
-            part = parseOperations(func); // Parse nested function
-            return part;
-            // for the ends of already evaluated functions
-        } else if (!part.contains("(") && part.contains(")")) {
-            return ""; // Return empty string for ends of functions
-            // for parts that don't need evaluation
-        } else {
-            return part; // Return part if no evaluation is needed
+    private Formula compiledFormula(Cell cell, String formula) {
+        Formula compiled = cell.getCompiledFormula();
+        if (compiled == null || !compiled.getSource().equals(formula)) {
+            compiled = Formula.compile(formula); // Parse the formula once and cache it on the cell
+            cell.setCompiledFormula(compiled);
         }
+        return compiled;
     }
 }
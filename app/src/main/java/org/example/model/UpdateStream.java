@@ -0,0 +1,148 @@
+package org.example.model;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Reads a server-sent event stream of a sheet's versions on a background thread. When
+ * the server ends the stream, it is reopened from the last version received, until it
+ * is closed or the server refuses it.
+ */
+public class UpdateStream {
+    private static final long RECONNECT_DELAY = 1000; // Milliseconds to wait before reopening after an error
+
+    /**
+     * Receives the versions pushed by the server.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the stream's thread for each event.
+         *
+         * @param event   "sheet" when the payload holds every cell of the latest version,
+         *                "update" when it holds the cells a new version changed.
+         * @param version the number of versions received so far.
+         * @param payload the payload lines; a line with no value clears its cell.
+         */
+        void onVersion(String event, int version, String payload);
+    }
+
+    private final HttpClient client; // Sends the requests
+    private final Function<String, HttpRequest> request; // Builds the request for the versions after an id
+    private final Listener listener; // Receives the versions
+    private final Thread reader; // Reads the stream
+    private volatile boolean closed; // Whether the stream should stay closed
+    private volatile String lastId; // The number of versions received so far
+    private volatile Stream<String> lines; // The open response, closed to stop reading
+
+    private String event; // Name of the event being read
+    private String id; // Id of the event being read
+    private final StringBuilder data; // Data lines of the event being read
+
+    /**
+     * Constructs a stream. Nothing is read until it is started.
+     *
+     * @param client   the client that sends the requests.
+     * @param request  builds the request for the versions after an id.
+     * @param id       the number of versions the client already has.
+     * @param listener receives the versions.
+     */
+    public UpdateStream(HttpClient client, Function<String, HttpRequest> request, String id, Listener listener) {
+        this.client = client;
+        this.request = request;
+        this.listener = listener;
+        this.lastId = id;
+        this.data = new StringBuilder();
+        this.reader = new Thread(this::run, "update-stream");
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * Starts reading the stream.
+     */
+    public void start() {
+        this.reader.start();
+    }
+
+    /**
+     * Stops reading the stream.
+     */
+    public void close() {
+        this.closed = true;
+        Stream<String> open = this.lines;
+        if (open != null) {
+            open.close(); // Cancels the response
+        }
+        this.reader.interrupt();
+    }
+
+    /**
+     * Opens the stream and reads it until it is closed, reopening it when the server ends it.
+     */
+    private void run() {
+        while (!this.closed) {
+            try {
+                HttpResponse<Stream<String>> response = this.client.send(this.request.apply(this.lastId),
+                        HttpResponse.BodyHandlers.ofLines());
+                if (response.statusCode() != 200) {
+                    response.body().close();
+                    return; // Refused, e.g. the sheet was deleted
+                }
+                try (Stream<String> body = response.body()) {
+                    this.lines = body;
+                    body.forEach(this::accept);
+                }
+            } catch (Exception e) {
+                if (this.closed) {
+                    return;
+                }
+                try {
+                    Thread.sleep(RECONNECT_DELAY); // The server may be restarting
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one line of the stream, calling the listener at the blank line that ends an
+     * event.
+     *
+     * @param line the line, without its line break.
+     */
+    void accept(String line) {
+        if (line.isEmpty()) {
+            if (this.event != null && this.id != null) {
+                this.lastId = this.id; // Reopened from here
+                this.listener.onVersion(this.event, Integer.parseInt(this.id), this.data.toString());
+            }
+            this.event = null;
+            this.id = null;
+            this.data.setLength(0);
+        } else if (line.startsWith("id:")) {
+            this.id = field(line, 3);
+        } else if (line.startsWith("event:")) {
+            this.event = field(line, 6);
+        } else if (line.startsWith("data:")) {
+            String value = field(line, 5);
+            if (!value.isEmpty()) {
+                this.data.append(value).append("\n");
+            }
+        }
+    }
+
+    /**
+     * Gets the value of a field line, without the single space that may follow the colon.
+     *
+     * @param line  the line.
+     * @param start the index after the colon.
+     * @return the value.
+     */
+    private static String field(String line, int start) {
+        return line.startsWith(" ", start) ? line.substring(start + 1) : line.substring(start);
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.model.formula;
+
+/**
+ * An arithmetic, comparison or logical operation between two expressions.
+ */
+public class BinaryExpression implements Expression {
+    private final TokenType operator; // The operator token
+    private final Expression left; // Left hand side
+    private final Expression right; // Right hand side
+
+    /**
+     * Constructs a binary operation.
+     *
+     * @param operator the operator token type.
+     * @param left     the left hand side.
+     * @param right    the right hand side.
+     */
+    public BinaryExpression(TokenType operator, Expression left, Expression right) {
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public CellValue evaluate(EvaluationContext context) {
+        if (operator == TokenType.AND || operator == TokenType.OR) {
+            return evaluateLogical(context); // Only evaluates the right hand side when needed
+        }
+        CellValue x = left.evaluate(context); // Evaluate the left hand side
+        CellValue y = right.evaluate(context); // Evaluate the right hand side
+        switch (operator) {
+            case PLUS:
+                return CellValue.number(x.asNumber() + y.asNumber());
+            case MINUS:
+                return CellValue.number(x.asNumber() - y.asNumber());
+            case STAR:
+                return CellValue.number(x.asNumber() * y.asNumber());
+            case SLASH:
+                return CellValue.number(x.asNumber() / y.asNumber());
+            case LESS:
+                return CellValue.bool(x.asNumber() < y.asNumber());
+            case GREATER:
+                return CellValue.bool(x.asNumber() > y.asNumber());
+            case EQUAL:
+                return CellValue.bool(equal(x, y));
+            case NOT_EQUAL:
+                return CellValue.bool(!equal(x, y));
+            default:
+                throw new FormulaException("Unknown operator " + operator);
+        }
+    }
+
+    /**
+     * Evaluates & or |, stopping as soon as the left hand side decides the result: 0 & x
+     * is 0 and 1 | x is 1 without evaluating x.
+     *
+     * @param context the spreadsheet the formula is evaluated in.
+     * @return 1 or 0.
+     * @throws FormulaException if an evaluated side is not a number.
+     */
+    private CellValue evaluateLogical(EvaluationContext context) {
+        boolean x = left.evaluate(context).asNumber() != 0;
+        if (operator == TokenType.AND ? !x : x) {
+            return CellValue.bool(x); // Decided by the left hand side
+        }
+        return CellValue.bool(right.evaluate(context).asNumber() != 0);
+    }
+
+    /**
+     * Compares two values numerically when both are numbers, otherwise as text.
+     *
+     * @param x the first value.
+     * @param y the second value.
+     * @return true if the values are equal.
+     */
+    private static boolean equal(CellValue x, CellValue y) {
+        if (x.isNumber() && y.isNumber()) {
+            return x.asNumber() == y.asNumber(); // Numeric comparison
+        }
+        return x.getText().equals(y.getText()); // Text comparison
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.model.formula;
+
+/**
+ * A reference to a single cell (e.g. $B3) within a formula.
+ */
+public class CellReferenceExpression implements Expression {
+    private final int row; // Zero based row index
+    private final int col; // Zero based column index
+
+    /**
+     * Constructs a reference from its text form.
+     *
+     * @param reference a cell reference such as $B3.
+     */
+    public CellReferenceExpression(String reference) {
+        int i = 1; // Skip the leading $
+        int column = 0;
+        while (i < reference.length() && Character.isLetter(reference.charAt(i))) {
+            column = column * 26 + (reference.charAt(i) - 'A' + 1); // Convert letters to a column number
+            i++;
+        }
+        this.col = column - 1;
+        this.row = Integer.parseInt(reference.substring(i)) - 1; // The rest is the one based row number
+    }
+
+    /**
+     * Gets the row index of the referenced cell.
+     *
+     * @return the zero based row index.
+     */
+    public int getRow() {
+        return this.row;
+    }
+
+    /**
+     * Gets the column index of the referenced cell.
+     *
+     * @return the zero based column index.
+     */
+    public int getCol() {
+        return this.col;
+    }
+
+    @Override
+    public CellValue evaluate(EvaluationContext context) {
+        return context.getTypedCellValue(this.row, this.col); // Read the current value of the cell
+    }
+}
@@ -0,0 +1,196 @@
+package org.example.model.formula;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The typed value of a cell or of a formula expression. Numbers keep their primitive
+ * double so they can be aggregated without parsing, and every value keeps the text it
+ * is shown as, so the payload format is unchanged.
+ */
+public final class CellValue {
+
+    /**
+     * The kinds of value a cell can hold.
+     */
+    public enum Type {
+        EMPTY, NUMBER, BOOLEAN, TEXT, ERROR
+    }
+
+    public static final CellValue EMPTY = new CellValue(Type.EMPTY, 0, ""); // An empty cell
+    public static final CellValue ERROR = new CellValue(Type.ERROR, 0, "Error"); // A formula that failed
+    public static final CellValue TRUE = new CellValue(Type.BOOLEAN, 1, "1"); // Result of a true comparison
+    public static final CellValue FALSE = new CellValue(Type.BOOLEAN, 0, "0"); // Result of a false comparison
+
+    private static final int SHARED_SLOTS = 1 << 14; // Values remembered by parseShared, a power of two
+    private static final int SHARED_MAX_LENGTH = 64; // Longer text is seldom repeated
+    private static final AtomicReferenceArray<CellValue> SHARED = new AtomicReferenceArray<>(SHARED_SLOTS);
+
+    private final Type type; // The kind of value
+    private final double number; // The numeric value, for numbers and booleans
+    private final boolean decimal; // Whether a computed number is shown as a Java double (e.g. 10.0)
+    private String text; // The text the value is shown as, computed on first use for numbers
+
+    private CellValue(Type type, double number, String text) {
+        this.type = type;
+        this.number = number;
+        this.decimal = false;
+        this.text = text;
+    }
+
+    private CellValue(double number, boolean decimal) {
+        this.type = Type.NUMBER;
+        this.number = number;
+        this.decimal = decimal;
+        this.text = null; // Formatted lazily
+    }
+
+    /**
+     * Creates the value of an arithmetic result, shown the way JavaScript prints numbers (e.g. 4).
+     *
+     * @param number the number.
+     * @return the value.
+     */
+    public static CellValue number(double number) {
+        return new CellValue(number, false);
+    }
+
+    /**
+     * Creates the value of a function result such as SUM, shown as a Java double (e.g. 4.0).
+     *
+     * @param number the number.
+     * @return the value.
+     */
+    public static CellValue decimal(double number) {
+        return new CellValue(number, true);
+    }
+
+    /**
+     * Gets the value of a boolean result, shown as 1 or 0.
+     *
+     * @param value the boolean.
+     * @return TRUE or FALSE.
+     */
+    public static CellValue bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    /**
+     * Classifies text entered by a user or produced by a formula. The text is kept exactly
+     * as given; text that is a number is stored as a NUMBER so it is only parsed once.
+     *
+     * @param text the text.
+     * @return the typed value.
+     */
+    public static CellValue parse(String text) {
+        if (text == null || text.isEmpty()) {
+            return EMPTY;
+        }
+        if (mayBeNumber(text)) {
+            try {
+                return new CellValue(Type.NUMBER, Double.parseDouble(text.trim()), text); // Keep the text as entered
+            } catch (NumberFormatException e) {
+                // Not a number after all
+            }
+        }
+        return new CellValue(Type.TEXT, 0, text);
+    }
+
+    /**
+     * Classifies text like parse, but returns the same value for the same short text as
+     * far as it can, so cells holding the same value, in any sheet or version, share one
+     * copy of it and of its text. Values are remembered in a fixed table without locking;
+     * text whose slot holds another value is parsed again and takes the slot.
+     *
+     * @param text the text.
+     * @return the typed value, possibly shared.
+     */
+    public static CellValue parseShared(String text) {
+        if (text == null || text.isEmpty() || text.length() > SHARED_MAX_LENGTH) {
+            return parse(text);
+        }
+        int hash = text.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (SHARED_SLOTS - 1);
+        CellValue shared = SHARED.get(slot);
+        if (shared != null && shared.text.equals(text)) {
+            return shared;
+        }
+        CellValue value = parse(text);
+        SHARED.set(slot, value); // Published safely, so other threads see its fields
+        return value;
+    }
+
+    /**
+     * Cheaply rules out text that cannot be a number, so most words are never handed to
+     * Double.parseDouble.
+     *
+     * @param text non-empty text.
+     * @return false if the text is certainly not a number.
+     */
+    private static boolean mayBeNumber(String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return false;
+        }
+        char c = trimmed.charAt(0);
+        return Character.isDigit(c) || c == '.' || c == '-' || c == '+' || c == 'N' || c == 'I';
+    }
+
+    /**
+     * Gets the kind of value.
+     *
+     * @return the type.
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Checks if the value can be used as a number.
+     *
+     * @return true for numbers and booleans.
+     */
+    public boolean isNumber() {
+        return this.type == Type.NUMBER || this.type == Type.BOOLEAN;
+    }
+
+    /**
+     * Checks if the cell is empty.
+     *
+     * @return true if the value is empty.
+     */
+    public boolean isEmpty() {
+        return this.type == Type.EMPTY;
+    }
+
+    /**
+     * Gets the value as a number.
+     *
+     * @return the numeric value.
+     * @throws FormulaException if the value is not a number.
+     */
+    public double asNumber() {
+        if (!isNumber()) {
+            throw new FormulaException("Not a number: " + getText());
+        }
+        return this.number;
+    }
+
+    /**
+     * Gets the text the value is shown as.
+     *
+     * @return the text.
+     */
+    public String getText() {
+        String result = this.text;
+        if (result == null) {
+            result = this.decimal ? Values.formatFunction(this.number) : Values.formatArithmetic(this.number);
+            this.text = result; // Only formatted once
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+}
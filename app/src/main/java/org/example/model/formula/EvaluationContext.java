@@ -0,0 +1,47 @@
+package org.example.model.formula;
+
+/**
+ * Gives a compiled formula access to the cells of the spreadsheet it is evaluated in.
+ */
+public interface EvaluationContext {
+
+    /**
+     * Gets the typed value of the cell at the specified row and column.
+     *
+     * @param row the row index of the cell.
+     * @param col the column index of the cell.
+     * @return the value of the cell.
+     */
+    CellValue getTypedCellValue(int row, int col);
+
+    /**
+     * Passes the non-empty values of the cells in a range to the visitor, row by row
+     * from left to right. The default reads every cell of the range; a spreadsheet that
+     * knows which cells are populated can skip the empty ones.
+     *
+     * @param startRow the top row of the range.
+     * @param startCol the left column of the range.
+     * @param endRow   the bottom row of the range.
+     * @param endCol   the right column of the range.
+     * @param visitor  the visitor to receive the values.
+     */
+    default void forEachValue(int startRow, int startCol, int endRow, int endCol, ValueVisitor visitor) {
+        for (int row = startRow; row <= endRow; row++) {
+            for (int col = startCol; col <= endCol; col++) {
+                CellValue value = getTypedCellValue(row, col);
+                if (!value.isEmpty()) {
+                    visitor.visit(value); // Empty cells are skipped
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a value into the cell at the specified row and column (used by COPY).
+     *
+     * @param row   the row index of the cell.
+     * @param col   the column index of the cell.
+     * @param value the value to write.
+     */
+    void copyToCell(int row, int col, CellValue value);
+}
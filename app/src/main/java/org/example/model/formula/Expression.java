@@ -0,0 +1,16 @@
+package org.example.model.formula;
+
+/**
+ * A node of a compiled formula.
+ */
+public interface Expression {
+
+    /**
+     * Evaluates this node.
+     *
+     * @param context the spreadsheet the formula is evaluated in.
+     * @return the value of this node.
+     * @throws FormulaException if the node cannot be evaluated.
+     */
+    CellValue evaluate(EvaluationContext context);
+}
@@ -0,0 +1,106 @@
+package org.example.model.formula;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A formula compiled once into an expression tree so it can be re-evaluated without
+ * parsing its text again.
+ */
+public class Formula {
+    private final String source; // The formula as typed, including the leading "="
+    private final Expression root; // Root of the expression tree, null if the formula did not parse
+    private final List<CellReferenceExpression> references; // Single cells the formula reads
+    private final List<RangeExpression> ranges; // Ranges the formula reads
+    private final boolean writesCells; // Whether evaluating the formula writes other cells (COPY)
+
+    /**
+     * Constructs a compiled formula.
+     *
+     * @param source      the formula text.
+     * @param root        the parsed expression tree, or null if parsing failed.
+     * @param references  the single cells the formula reads.
+     * @param ranges      the ranges the formula reads.
+     * @param writesCells whether evaluating the formula writes other cells.
+     */
+    private Formula(String source, Expression root, List<CellReferenceExpression> references,
+                    List<RangeExpression> ranges, boolean writesCells) {
+        this.source = source;
+        this.root = root;
+        this.references = references;
+        this.ranges = ranges;
+        this.writesCells = writesCells;
+    }
+
+    /**
+     * Compiles the given formula. A formula that does not parse still compiles, but
+     * always evaluates to "Error".
+     *
+     * @param source the formula text, starting with "=".
+     * @return the compiled formula.
+     */
+    public static Formula compile(String source) {
+        String body = source.startsWith("=") ? source.substring(1) : source; // Remove the initial "="
+        try {
+            Parser parser = new Parser(body.stripLeading(), source);
+            Expression root = parser.parse();
+            return new Formula(source, root, parser.getReferences(), parser.getRanges(), parser.writesCells());
+        } catch (RuntimeException e) {
+            return new Formula(source, null, new ArrayList<>(), new ArrayList<>(), false); // Evaluates to ERROR
+        }
+    }
+
+    /**
+     * Gets the text the formula was compiled from.
+     *
+     * @return the formula text.
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+    /**
+     * Gets the single cells read by the formula, used to track its precedents.
+     *
+     * @return the cell references.
+     */
+    public List<CellReferenceExpression> getReferences() {
+        return this.references;
+    }
+
+    /**
+     * Gets the ranges read by the formula, used to track its precedents.
+     *
+     * @return the ranges.
+     */
+    public List<RangeExpression> getRanges() {
+        return this.ranges;
+    }
+
+    /**
+     * Checks if evaluating the formula writes into other cells, as COPY does. Such
+     * formulas are never evaluated in parallel with others.
+     *
+     * @return true if the formula calls COPY.
+     */
+    public boolean writesCells() {
+        return this.writesCells;
+    }
+
+    /**
+     * Evaluates the formula against the given spreadsheet.
+     *
+     * @param context the spreadsheet the formula is evaluated in.
+     * @return the value of the formula, or ERROR if it cannot be evaluated.
+     */
+    public CellValue evaluate(EvaluationContext context) {
+        if (this.root == null) {
+            return CellValue.ERROR;
+        }
+        try {
+            return this.root.evaluate(context);
+        } catch (RuntimeException e) {
+            return CellValue.ERROR; // Return "Error" if an exception occurs
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.example.model.formula;
+
+/**
+ * Thrown when a formula cannot be parsed or evaluated. A cell whose formula throws
+ * this exception displays "Error".
+ */
+public class FormulaException extends RuntimeException {
+
+    /**
+     * Constructs a FormulaException with the given message.
+     *
+     * @param message the reason the formula failed.
+     */
+    public FormulaException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,168 @@
+package org.example.model.formula;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A call to one of the built in spreadsheet functions (e.g. SUM($A1:$A4, 2)).
+ */
+public class FunctionExpression implements Expression {
+    private final String name; // The upper case function name
+    private final List<Expression> arguments; // The argument expressions
+    private final String source; // The full formula, returned by COPY
+
+    /**
+     * Constructs a function call.
+     *
+     * @param name      the function name.
+     * @param arguments the argument expressions.
+     * @param source    the full text of the formula the call belongs to.
+     * @throws FormulaException if the function is unknown.
+     */
+    public FunctionExpression(String name, List<Expression> arguments, String source) {
+        this.name = name.toUpperCase();
+        this.arguments = arguments;
+        this.source = source;
+        switch (this.name) {
+            case "IF", "SUM", "MIN", "MAX", "AVG", "CONCAT", "DEBUG", "STDDEV", "SORT", "COPY" -> {
+                // Known function
+            }
+            default -> throw new FormulaException("Unknown function " + name);
+        }
+    }
+
+    @Override
+    public CellValue evaluate(EvaluationContext context) {
+        switch (this.name) {
+            case "IF":
+                return evaluateIF(context);
+            case "SUM":
+                return CellValue.decimal(numbers(context, false).sum());
+            case "MIN":
+                return CellValue.decimal(numbers(context, false).min()); // 0.0 if there are no values
+            case "MAX":
+                return CellValue.decimal(numbers(context, false).max()); // 0.0 if there are no values
+            case "AVG":
+                return CellValue.decimal(numbers(context, false).average());
+            case "STDDEV":
+                return evaluateSTDDEV(numbers(context, true));
+            case "SORT":
+                return evaluateSORT(numbers(context, true));
+            case "CONCAT":
+                return CellValue.parse(text(context, "")); // Join every argument without a separator
+            case "DEBUG":
+                return CellValue.parse(text(context, ",")); // DEBUG shows the value of its argument
+            default:
+                return evaluateCOPY(context);
+        }
+    }
+
+    /**
+     * Passes the value of every argument to the visitor, streaming ranges cell by cell
+     * instead of collecting them.
+     *
+     * @param context the spreadsheet the formula is evaluated in.
+     * @param visitor the visitor to receive the values.
+     */
+    private void visitArguments(EvaluationContext context, ValueVisitor visitor) {
+        for (Expression argument : this.arguments) {
+            if (argument instanceof RangeExpression) {
+                ((RangeExpression) argument).forEachValue(context, visitor); // Expand the range
+            } else {
+                visitor.visit(argument.evaluate(context));
+            }
+        }
+    }
+
+    /**
+     * Aggregates every argument as a number.
+     *
+     * @param context the spreadsheet the formula is evaluated in.
+     * @param keep    whether the numbers themselves are needed.
+     * @return the aggregated numbers.
+     * @throws FormulaException if any argument is not a number.
+     */
+    private NumberAccumulator numbers(EvaluationContext context, boolean keep) {
+        NumberAccumulator numbers = new NumberAccumulator(keep);
+        visitArguments(context, numbers);
+        return numbers;
+    }
+
+    /**
+     * Joins the text of every argument.
+     *
+     * @param context   the spreadsheet the formula is evaluated in.
+     * @param separator the separator placed between values.
+     * @return the joined text.
+     */
+    private String text(EvaluationContext context, String separator) {
+        TextJoiner text = new TextJoiner(separator);
+        visitArguments(context, text);
+        return text.toString();
+    }
+
+    /**
+     * Evaluates IF(condition, whenTrue, whenFalse). Only the branch that is taken is
+     * evaluated, so an expensive branch costs nothing when it is not selected.
+     *
+     * @param context the spreadsheet the formula is evaluated in.
+     * @return whenTrue if the condition is non-zero, otherwise whenFalse.
+     */
+    private CellValue evaluateIF(EvaluationContext context) {
+        if (this.arguments.size() != 3) {
+            throw new FormulaException("IF takes 3 arguments"); // Condition, true result and false result
+        }
+        double condition = this.arguments.get(0).evaluate(context).asNumber();
+        return this.arguments.get(condition != 0 ? 1 : 2).evaluate(context); // Evaluate the taken branch only
+    }
+
+    /**
+     * Evaluates the population standard deviation, rounded to three decimals.
+     *
+     * @param numbers the numbers.
+     * @return the standard deviation.
+     */
+    private static CellValue evaluateSTDDEV(NumberAccumulator numbers) {
+        double avg = numbers.average();
+        double sum = 0;
+        for (double number : numbers.numbers()) {
+            sum += (number - avg) * (number - avg); // Squared difference from the mean
+        }
+        double result = Math.sqrt(sum / numbers.count());
+        return CellValue.decimal((double) Math.round(result * 1000) / 1000);
+    }
+
+    /**
+     * Evaluates SORT, listing the numbers in ascending order.
+     *
+     * @param numbers the numbers.
+     * @return the sorted numbers separated by commas.
+     */
+    private static CellValue evaluateSORT(NumberAccumulator numbers) {
+        double[] sorted = numbers.numbers();
+        Arrays.sort(sorted);
+        StringBuilder result = new StringBuilder();
+        for (double number : sorted) {
+            if (result.length() > 0) {
+                result.append(",");
+            }
+            result.append(Values.formatFunction(number));
+        }
+        return CellValue.parse(result.toString());
+    }
+
+    /**
+     * Evaluates COPY(value, $ref), writing the value into the referenced cell.
+     *
+     * @param context the spreadsheet the formula is evaluated in.
+     * @return the formula itself, so the cell keeps showing the COPY call.
+     */
+    private CellValue evaluateCOPY(EvaluationContext context) {
+        if (this.arguments.size() != 2 || !(this.arguments.get(1) instanceof CellReferenceExpression)) {
+            throw new FormulaException("COPY takes a value and a cell reference");
+        }
+        CellReferenceExpression target = (CellReferenceExpression) this.arguments.get(1);
+        context.copyToCell(target.getRow(), target.getCol(), this.arguments.get(0).evaluate(context));
+        return CellValue.parse(this.source);
+    }
+}
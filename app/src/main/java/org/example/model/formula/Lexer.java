@@ -0,0 +1,167 @@
+package org.example.model.formula;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the text of a formula into tokens in a single pass.
+ */
+public class Lexer {
+    private static final String DELIMITERS = "+-*/<>=&|:,()\""; // Characters that end a bare word
+
+    private Lexer() {
+        // Static utility class
+    }
+
+    /**
+     * Tokenizes the given formula. The leading "=" of a formula must already be removed.
+     *
+     * @param formula the formula text.
+     * @return the list of tokens, always terminated by an EOF token.
+     * @throws FormulaException if a string literal is not terminated.
+     */
+    public static List<Token> tokenize(String formula) {
+        List<Token> tokens = new ArrayList<>();
+        int length = formula.length();
+        int i = 0;
+        while (i < length) {
+            char c = formula.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++; // Skip whitespace between tokens
+                continue;
+            }
+            switch (c) {
+                case '+' -> tokens.add(new Token(TokenType.PLUS, "+", i++));
+                case '-' -> tokens.add(new Token(TokenType.MINUS, "-", i++));
+                case '*' -> tokens.add(new Token(TokenType.STAR, "*", i++));
+                case '/' -> tokens.add(new Token(TokenType.SLASH, "/", i++));
+                case '>' -> tokens.add(new Token(TokenType.GREATER, ">", i++));
+                case '=' -> tokens.add(new Token(TokenType.EQUAL, "=", i++));
+                case '&' -> tokens.add(new Token(TokenType.AND, "&", i++));
+                case '|' -> tokens.add(new Token(TokenType.OR, "|", i++));
+                case ':' -> tokens.add(new Token(TokenType.COLON, ":", i++));
+                case ',' -> tokens.add(new Token(TokenType.COMMA, ",", i++));
+                case '(' -> tokens.add(new Token(TokenType.LEFT_PAREN, "(", i++));
+                case ')' -> tokens.add(new Token(TokenType.RIGHT_PAREN, ")", i++));
+                case '<' -> {
+                    if (i + 1 < length && formula.charAt(i + 1) == '>') {
+                        tokens.add(new Token(TokenType.NOT_EQUAL, "<>", i)); // Not equal operator
+                        i += 2;
+                    } else {
+                        tokens.add(new Token(TokenType.LESS, "<", i++)); // Less than operator
+                    }
+                }
+                case '"' -> {
+                    int end = formula.indexOf('"', i + 1); // Find the closing quote
+                    if (end == -1) {
+                        throw new FormulaException("Unterminated string at " + i);
+                    }
+                    tokens.add(new Token(TokenType.STRING, formula.substring(i + 1, end), i)); // Keep the text without quotes
+                    i = end + 1;
+                }
+                default -> i = readWord(formula, i, tokens);
+            }
+        }
+        tokens.add(new Token(TokenType.EOF, "", length)); // Mark the end of the formula
+        return tokens;
+    }
+
+    /**
+     * Reads a bare word starting at the given offset and classifies it as a number, cell
+     * reference, function name or plain text.
+     *
+     * @param formula the formula text.
+     * @param start   the offset of the first character of the word.
+     * @param tokens  the list to add the token to.
+     * @return the offset just past the word.
+     */
+    private static int readWord(String formula, int start, List<Token> tokens) {
+        int end = start;
+        while (end < formula.length() && DELIMITERS.indexOf(formula.charAt(end)) < 0) {
+            end++; // Consume everything up to the next delimiter
+        }
+        String word = formula.substring(start, end).trim(); // Words may contain inner spaces (e.g. not a formula)
+
+        int next = end;
+        while (next < formula.length() && Character.isWhitespace(formula.charAt(next))) {
+            next++; // Look past whitespace for an opening parenthesis
+        }
+        boolean isCall = next < formula.length() && formula.charAt(next) == '(';
+
+        TokenType type;
+        if (isCall && isIdentifier(word)) {
+            type = TokenType.FUNCTION;
+        } else if (isCellReference(word)) {
+            type = TokenType.CELL_REF;
+        } else if (isNumber(word)) {
+            type = TokenType.NUMBER;
+        } else {
+            type = TokenType.TEXT;
+        }
+        tokens.add(new Token(type, word, start));
+        return end;
+    }
+
+    /**
+     * Checks if the word looks like a function name.
+     *
+     * @param word the word to check.
+     * @return true if the word only contains letters.
+     */
+    private static boolean isIdentifier(String word) {
+        if (word.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isLetter(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the word is a cell reference of the form $[A-Z]+[0-9]+.
+     *
+     * @param word the word to check.
+     * @return true if the word is a cell reference.
+     */
+    static boolean isCellReference(String word) {
+        if (word.length() < 3 || word.charAt(0) != '$') {
+            return false;
+        }
+        int i = 1;
+        while (i < word.length() && word.charAt(i) >= 'A' && word.charAt(i) <= 'Z') {
+            i++; // Column letters
+        }
+        if (i == 1 || i == word.length()) {
+            return false; // Needs at least one letter and one digit
+        }
+        while (i < word.length() && Character.isDigit(word.charAt(i))) {
+            i++; // Row digits
+        }
+        return i == word.length();
+    }
+
+    /**
+     * Checks if the word is a plain decimal number (e.g. 4, 0.5, .5).
+     *
+     * @param word the word to check.
+     * @return true if the word is a number.
+     */
+    private static boolean isNumber(String word) {
+        boolean digits = false;
+        boolean dot = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isDigit(c)) {
+                digits = true;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return false;
+            }
+        }
+        return digits;
+    }
+}
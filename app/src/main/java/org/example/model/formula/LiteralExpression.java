@@ -0,0 +1,22 @@
+package org.example.model.formula;
+
+/**
+ * A constant number or piece of text within a formula.
+ */
+public class LiteralExpression implements Expression {
+    private final CellValue value; // The literal, typed once at compile time
+
+    /**
+     * Constructs a literal.
+     *
+     * @param value the literal as written in the formula.
+     */
+    public LiteralExpression(String value) {
+        this.value = CellValue.parse(value); // Numbers are parsed here rather than on every evaluation
+    }
+
+    @Override
+    public CellValue evaluate(EvaluationContext context) {
+        return this.value; // Literals evaluate to themselves
+    }
+}
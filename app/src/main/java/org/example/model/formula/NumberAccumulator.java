@@ -0,0 +1,110 @@
+package org.example.model.formula;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates the numbers it visits as they arrive: count, sum, minimum and maximum.
+ * Functions that need every number (STDDEV, SORT) ask for the numbers to be kept too.
+ */
+final class NumberAccumulator implements ValueVisitor {
+    private final boolean keep; // Whether the numbers themselves are kept
+    private double[] numbers; // The kept numbers, only when keep is set
+    private int count; // Number of values visited
+    private double sum; // Sum of the values, added in order
+    private double min; // Smallest value
+    private double max; // Largest value
+
+    /**
+     * Constructs an empty accumulator.
+     *
+     * @param keep whether to keep the numbers for functions that need all of them.
+     */
+    NumberAccumulator(boolean keep) {
+        this.keep = keep;
+        this.numbers = keep ? new double[16] : null;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value.
+     * @throws FormulaException if the value is not a number.
+     */
+    @Override
+    public void visit(CellValue value) {
+        double number = value.asNumber(); // Every value must be numeric
+        if (this.count == 0) {
+            this.min = number;
+            this.max = number;
+        } else {
+            this.min = Math.min(this.min, number);
+            this.max = Math.max(this.max, number);
+        }
+        this.sum += number;
+        if (this.keep) {
+            if (this.count == this.numbers.length) {
+                this.numbers = Arrays.copyOf(this.numbers, this.count * 2);
+            }
+            this.numbers[this.count] = number;
+        }
+        this.count++;
+    }
+
+    /**
+     * Gets the number of values visited.
+     *
+     * @return the count.
+     */
+    int count() {
+        return this.count;
+    }
+
+    /**
+     * Gets the sum of the values.
+     *
+     * @return the sum.
+     */
+    double sum() {
+        return this.sum;
+    }
+
+    /**
+     * Gets the smallest value.
+     *
+     * @return the minimum, or 0 if there were no values.
+     */
+    double min() {
+        return this.min;
+    }
+
+    /**
+     * Gets the largest value.
+     *
+     * @return the maximum, or 0 if there were no values.
+     */
+    double max() {
+        return this.max;
+    }
+
+    /**
+     * Gets the mean of the values.
+     *
+     * @return the mean.
+     * @throws FormulaException if there were no values.
+     */
+    double average() {
+        if (this.count == 0) {
+            throw new FormulaException("No values to average");
+        }
+        return this.sum / this.count;
+    }
+
+    /**
+     * Gets the kept numbers in the order they were visited.
+     *
+     * @return a copy of the numbers.
+     */
+    double[] numbers() {
+        return Arrays.copyOf(this.numbers, this.count);
+    }
+}
@@ -0,0 +1,203 @@
+package org.example.model.formula;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive descent parser that turns the tokens of a formula into an expression tree.
+ * Operators bind, from loosest to tightest: |, &amp;, comparisons, + and -, * and /, unary -.
+ */
+public class Parser {
+    private final List<Token> tokens; // The tokens being parsed
+    private final String source; // The full formula, needed by COPY
+    private final List<CellReferenceExpression> references; // Single cells read by the formula
+    private final List<RangeExpression> ranges; // Ranges read by the formula
+    private boolean writesCells; // Whether the formula calls COPY
+    private int position; // Index of the current token
+
+    /**
+     * Constructs a parser for the body of a formula.
+     *
+     * @param body   the formula without its leading "=".
+     * @param source the full text of the formula.
+     * @throws FormulaException if the formula cannot be tokenized.
+     */
+    public Parser(String body, String source) {
+        this.tokens = Lexer.tokenize(body);
+        this.source = source;
+        this.references = new ArrayList<>();
+        this.ranges = new ArrayList<>();
+        this.position = 0;
+    }
+
+    /**
+     * Parses the formula.
+     *
+     * @return the root of the expression tree.
+     * @throws FormulaException if the formula is malformed.
+     */
+    public Expression parse() {
+        Expression root = parseOr();
+        expect(TokenType.EOF); // The whole formula must be consumed
+        return root;
+    }
+
+    /**
+     * Gets the single cell references read by the parsed formula.
+     *
+     * @return the cell references.
+     */
+    public List<CellReferenceExpression> getReferences() {
+        return this.references;
+    }
+
+    /**
+     * Gets the ranges read by the parsed formula.
+     *
+     * @return the ranges.
+     */
+    public List<RangeExpression> getRanges() {
+        return this.ranges;
+    }
+
+    /**
+     * Checks if the parsed formula writes into other cells, as COPY does.
+     *
+     * @return true if the formula calls COPY.
+     */
+    public boolean writesCells() {
+        return this.writesCells;
+    }
+
+    private Expression parseOr() {
+        Expression left = parseAnd();
+        while (peek().getType() == TokenType.OR) {
+            advance();
+            left = new BinaryExpression(TokenType.OR, left, parseAnd());
+        }
+        return left;
+    }
+
+    private Expression parseAnd() {
+        Expression left = parseComparison();
+        while (peek().getType() == TokenType.AND) {
+            advance();
+            left = new BinaryExpression(TokenType.AND, left, parseComparison());
+        }
+        return left;
+    }
+
+    private Expression parseComparison() {
+        Expression left = parseAdditive();
+        while (true) {
+            TokenType type = peek().getType();
+            if (type != TokenType.LESS && type != TokenType.GREATER
+                    && type != TokenType.EQUAL && type != TokenType.NOT_EQUAL) {
+                return left;
+            }
+            advance();
+            left = new BinaryExpression(type, left, parseAdditive());
+        }
+    }
+
+    private Expression parseAdditive() {
+        Expression left = parseTerm();
+        while (peek().getType() == TokenType.PLUS || peek().getType() == TokenType.MINUS) {
+            TokenType type = advance().getType();
+            left = new BinaryExpression(type, left, parseTerm());
+        }
+        return left;
+    }
+
+    private Expression parseTerm() {
+        Expression left = parseUnary();
+        while (peek().getType() == TokenType.STAR || peek().getType() == TokenType.SLASH) {
+            TokenType type = advance().getType();
+            left = new BinaryExpression(type, left, parseUnary());
+        }
+        return left;
+    }
+
+    private Expression parseUnary() {
+        if (peek().getType() == TokenType.MINUS) {
+            advance();
+            return new UnaryExpression(parseUnary()); // Negation
+        }
+        return parsePrimary();
+    }
+
+    private Expression parsePrimary() {
+        Token token = advance();
+        switch (token.getType()) {
+            case NUMBER:
+            case STRING:
+            case TEXT:
+                return new LiteralExpression(token.getText());
+            case CELL_REF:
+                CellReferenceExpression reference = new CellReferenceExpression(token.getText());
+                if (peek().getType() == TokenType.COLON) {
+                    advance();
+                    Token end = expect(TokenType.CELL_REF); // A range needs a second reference
+                    RangeExpression range = new RangeExpression(reference, new CellReferenceExpression(end.getText()));
+                    this.ranges.add(range);
+                    return range;
+                }
+                this.references.add(reference);
+                return reference;
+            case FUNCTION:
+                return parseCall(token);
+            case LEFT_PAREN:
+                Expression inner = parseOr();
+                expect(TokenType.RIGHT_PAREN);
+                return inner;
+            default:
+                throw new FormulaException("Unexpected " + token);
+        }
+    }
+
+    /**
+     * Parses the argument list of a function call.
+     *
+     * @param name the token holding the function name.
+     * @return the function call expression.
+     */
+    private Expression parseCall(Token name) {
+        expect(TokenType.LEFT_PAREN);
+        List<Expression> arguments = new ArrayList<>();
+        if (peek().getType() != TokenType.RIGHT_PAREN) {
+            arguments.add(parseOr());
+            while (peek().getType() == TokenType.COMMA) {
+                advance();
+                arguments.add(parseOr()); // Parse the next argument
+            }
+        }
+        expect(TokenType.RIGHT_PAREN);
+        if (name.getText().equalsIgnoreCase("COPY")) {
+            this.writesCells = true;
+            if (arguments.size() == 2) {
+                this.references.remove(arguments.get(1)); // The COPY target is written, not read
+            }
+        }
+        return new FunctionExpression(name.getText(), arguments, this.source);
+    }
+
+    private Token peek() {
+        return this.tokens.get(this.position);
+    }
+
+    private Token advance() {
+        Token token = this.tokens.get(this.position);
+        if (token.getType() != TokenType.EOF) {
+            this.position++; // Never move past the end marker
+        }
+        return token;
+    }
+
+    private Token expect(TokenType type) {
+        Token token = advance();
+        if (token.getType() != type) {
+            throw new FormulaException("Expected " + type + " but found " + token);
+        }
+        return token;
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.model.formula;
+
+/**
+ * A rectangular range of cells (e.g. $A1:$B4) within a formula.
+ */
+public class RangeExpression implements Expression {
+    private final CellReferenceExpression start; // Top left corner of the range
+    private final CellReferenceExpression end; // Bottom right corner of the range
+
+    /**
+     * Constructs a range between two cell references.
+     *
+     * @param start the top left corner.
+     * @param end   the bottom right corner.
+     */
+    public RangeExpression(CellReferenceExpression start, CellReferenceExpression end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Gets the top left corner of the range.
+     *
+     * @return the start reference.
+     */
+    public CellReferenceExpression getStart() {
+        return this.start;
+    }
+
+    /**
+     * Gets the bottom right corner of the range.
+     *
+     * @return the end reference.
+     */
+    public CellReferenceExpression getEnd() {
+        return this.end;
+    }
+
+    /**
+     * Checks if the range covers the given cell.
+     *
+     * @param row the row index of the cell.
+     * @param col the column index of the cell.
+     * @return true if the cell lies inside the range.
+     */
+    public boolean contains(int row, int col) {
+        return row >= start.getRow() && row <= end.getRow() && col >= start.getCol() && col <= end.getCol();
+    }
+
+    /**
+     * Passes the non-empty values of the cells in the range to the visitor, row by row,
+     * without collecting them.
+     *
+     * @param context the spreadsheet the formula is evaluated in.
+     * @param visitor the visitor to receive the values.
+     * @throws FormulaException if the range is inverted.
+     */
+    public void forEachValue(EvaluationContext context, ValueVisitor visitor) {
+        if (start.getRow() > end.getRow() || start.getCol() > end.getCol()) {
+            throw new FormulaException("Invalid range"); // The end must not come before the start
+        }
+        context.forEachValue(start.getRow(), start.getCol(), end.getRow(), end.getCol(), visitor);
+    }
+
+    @Override
+    public CellValue evaluate(EvaluationContext context) {
+        TextJoiner text = new TextJoiner(","); // A range on its own shows its values separated by commas
+        forEachValue(context, text);
+        return CellValue.parse(text.toString());
+    }
+}
@@ -0,0 +1,34 @@
+package org.example.model.formula;
+
+/**
+ * Joins the text of the values it visits with a separator, as CONCAT, DEBUG and bare
+ * ranges show them.
+ */
+final class TextJoiner implements ValueVisitor {
+    private final StringBuilder text = new StringBuilder(); // The joined text so far
+    private final String separator; // Placed between values
+    private boolean first = true; // Whether no value has been visited yet
+
+    /**
+     * Constructs a joiner.
+     *
+     * @param separator the separator placed between values.
+     */
+    TextJoiner(String separator) {
+        this.separator = separator;
+    }
+
+    @Override
+    public void visit(CellValue value) {
+        if (!this.first) {
+            this.text.append(this.separator);
+        }
+        this.first = false;
+        this.text.append(value.getText());
+    }
+
+    @Override
+    public String toString() {
+        return this.text.toString();
+    }
+}
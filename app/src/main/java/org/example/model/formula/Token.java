@@ -0,0 +1,55 @@
+package org.example.model.formula;
+
+/**
+ * Represents a single token of a formula.
+ */
+public class Token {
+    private final TokenType type; // The kind of token
+    private final String text; // The text of the token
+    private final int position; // Offset of the token within the formula
+
+    /**
+     * Constructs a token.
+     *
+     * @param type     the kind of token.
+     * @param text     the text of the token.
+     * @param position the offset of the token within the formula.
+     */
+    public Token(TokenType type, String text, int position) {
+        this.type = type; // Set the token type
+        this.text = text; // Set the token text
+        this.position = position; // Set the token position
+    }
+
+    /**
+     * Gets the kind of this token.
+     *
+     * @return the token type.
+     */
+    public TokenType getType() {
+        return this.type; // Return the token type
+    }
+
+    /**
+     * Gets the text of this token.
+     *
+     * @return the token text.
+     */
+    public String getText() {
+        return this.text; // Return the token text
+    }
+
+    /**
+     * Gets the offset of this token within the formula.
+     *
+     * @return the token position.
+     */
+    public int getPosition() {
+        return this.position; // Return the token position
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + text + ")"; // Return a readable form used when reporting parse errors
+    }
+}
@@ -0,0 +1,27 @@
+package org.example.model.formula;
+
+/**
+ * The kinds of tokens produced by the formula Lexer.
+ */
+public enum TokenType {
+    NUMBER, // A numeric literal (e.g. 2, 3.5)
+    STRING, // A double quoted string literal (e.g. "hello")
+    TEXT, // Any other bare word (e.g. e, not a formula)
+    CELL_REF, // A cell reference (e.g. $A1)
+    FUNCTION, // A function name directly followed by an opening parenthesis (e.g. SUM)
+    PLUS, // +
+    MINUS, // -
+    STAR, // *
+    SLASH, // /
+    LESS, // <
+    GREATER, // >
+    EQUAL, // =
+    NOT_EQUAL, // <>
+    AND, // &
+    OR, // |
+    COLON, // :
+    COMMA, // ,
+    LEFT_PAREN, // (
+    RIGHT_PAREN, // )
+    EOF // End of the formula
+}
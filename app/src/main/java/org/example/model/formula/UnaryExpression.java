@@ -0,0 +1,22 @@
+package org.example.model.formula;
+
+/**
+ * A negated expression (e.g. -$A1).
+ */
+public class UnaryExpression implements Expression {
+    private final Expression operand; // The expression being negated
+
+    /**
+     * Constructs a negation.
+     *
+     * @param operand the expression being negated.
+     */
+    public UnaryExpression(Expression operand) {
+        this.operand = operand;
+    }
+
+    @Override
+    public CellValue evaluate(EvaluationContext context) {
+        return CellValue.number(-operand.evaluate(context).asNumber()); // Negate the numeric value
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.model.formula;
+
+/**
+ * Receives the values of a range one at a time, so functions can aggregate a range
+ * without collecting its values first.
+ */
+public interface ValueVisitor {
+
+    /**
+     * Called once for each non-empty value, row by row from left to right.
+     *
+     * @param value the value of a cell.
+     */
+    void visit(CellValue value);
+}
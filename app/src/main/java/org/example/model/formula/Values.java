@@ -0,0 +1,70 @@
+package org.example.model.formula;
+
+import java.math.BigDecimal;
+
+/**
+ * Conversion helpers shared by the formula nodes.
+ */
+public final class Values {
+    private Values() {
+        // Static utility class
+    }
+
+    /**
+     * Formats the result of an arithmetic operation the same way JavaScript prints a
+     * number, which is how arithmetic results have always been shown (e.g. 4 rather than
+     * 4.0, 0.0001 rather than 1.0E-4 and 1e+21 rather than 1.0E21).
+     *
+     * @param value the number to format.
+     * @return the formatted number.
+     */
+    public static String formatArithmetic(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Infinity" : "-Infinity";
+        }
+        if (value == 0) {
+            return "0"; // Also covers -0
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value); // Common case: a small whole number
+        }
+
+        // Shortest decimal digits that round trip, as digits * 10^(exponent - digits.length())
+        BigDecimal decimal = new BigDecimal(Double.toString(Math.abs(value))).stripTrailingZeros();
+        String digits = decimal.unscaledValue().toString();
+        int k = digits.length();
+        int n = k - decimal.scale(); // Position of the decimal point relative to the digits
+
+        StringBuilder result = new StringBuilder();
+        if (value < 0) {
+            result.append('-');
+        }
+        if (k <= n && n <= 21) {
+            result.append(digits).append("0".repeat(n - k)); // Whole number
+        } else if (0 < n && n <= 21) {
+            result.append(digits, 0, n).append('.').append(digits, n, k); // Point inside the digits
+        } else if (-6 < n && n <= 0) {
+            result.append("0.").append("0".repeat(-n)).append(digits); // Small fraction
+        } else {
+            result.append(digits.charAt(0)); // Exponential notation
+            if (k > 1) {
+                result.append('.').append(digits, 1, k);
+            }
+            result.append('e').append(n - 1 >= 0 ? "+" : "-").append(Math.abs(n - 1));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Formats the result of a spreadsheet function such as SUM or MIN.
+     *
+     * @param value the number to format.
+     * @return the formatted number (e.g. 10.0).
+     */
+    public static String formatFunction(double value) {
+        return String.valueOf(value);
+    }
+}
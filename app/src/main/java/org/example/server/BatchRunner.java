@@ -0,0 +1,107 @@
+package org.example.server;
+
+import org.example.model.Operation;
+import org.example.model.Result;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Runs the operations of a batch. Operations are grouped by the sheet they name; the
+ * operations of a group run one after another in the order they were given, so an
+ * update and a later read of the same sheet see each other, while different groups
+ * run at the same time, each on its own virtual thread. Groups mostly wait for the
+ * journal, so a virtual thread costs little while it waits.
+ */
+public class BatchRunner {
+    private final ExecutorService workers; // Runs the groups of a batch
+
+    /**
+     * Constructs a runner.
+     */
+    public BatchRunner() {
+        this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("batch-", 0).factory());
+    }
+
+    /**
+     * Runs a batch and waits for every operation to finish. An operation that throws
+     * fails on its own without stopping the others.
+     *
+     * @param operations the operations
+     * @param handler    runs one operation
+     * @return the result of each operation, in the order of the operations
+     */
+    public List<Result> run(List<Operation> operations, Function<Operation, Result> handler) {
+        Result[] results = new Result[operations.size()];
+        Map<String, List<Integer>> groups = new LinkedHashMap<>(); // Sheet -> indexes of its operations, in order
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            groups.computeIfAbsent(operation.getPublisher() + "\u0000" + operation.getSheet(),
+                    k -> new ArrayList<>()).add(i);
+        }
+        List<Future<?>> running = new ArrayList<>(groups.size());
+        List<Integer> first = null; // Run on the calling thread instead of waiting idle
+        for (List<Integer> group : groups.values()) {
+            if (first == null) {
+                first = group;
+            } else {
+                running.add(this.workers.submit(() -> runGroup(operations, group, handler, results)));
+            }
+        }
+        if (first != null) {
+            runGroup(operations, first, handler, results);
+        }
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break; // The unfinished operations are reported as failed
+            } catch (ExecutionException e) {
+                // Not reached; runGroup records every failure as a result
+            }
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = new Result(false, "Operation was not run", new ArrayList<>());
+            }
+        }
+        return new ArrayList<>(Arrays.asList(results)); // Not backed by the array a late group may still write
+    }
+
+    /**
+     * Runs the operations of one group in order.
+     *
+     * @param operations the operations of the batch
+     * @param group      the indexes of the group's operations
+     * @param handler    runs one operation
+     * @param results    the results of the batch, filled in by index
+     */
+    private static void runGroup(List<Operation> operations, List<Integer> group,
+                                 Function<Operation, Result> handler, Result[] results) {
+        for (int i : group) {
+            Result result;
+            try {
+                result = handler.apply(operations.get(i));
+            } catch (RuntimeException e) {
+                result = new Result(false, "Operation failed: " + e.getMessage(), new ArrayList<>());
+            }
+            results[i] = result; // Each index is written by one thread, and read after the futures complete
+        }
+    }
+
+    /**
+     * Stops taking batches. Batches still running finish their operations.
+     */
+    public void close() {
+        this.workers.shutdown();
+    }
+}
@@ -0,0 +1,180 @@
+package org.example.server;
+
+import org.example.model.IAppUser;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the Authorization headers whose password was verified recently, so a
+ * client sending the same header again is not made to wait for the slow hash on every
+ * request. Headers whose password was wrong are remembered too, so sending a wrong
+ * password again does not cost another hash. Headers are kept as SHA-256 digests, never
+ * as the credentials they carry.
+ *
+ * An entry expires after a while, the least recently used entry is dropped when the
+ * cache is full, and an entry only counts while the user's stored hash is the one it
+ * was checked against. Wrong passwords are kept apart from verified ones, so a flood of
+ * them never pushes out a verified header. A user whose password changes or who is
+ * removed must also be invalidated, so no entry outlives the password it was made for.
+ */
+public class CredentialCache {
+    private final int limit; // The most headers kept
+    private final long ttl; // How long a verification is trusted, in milliseconds
+    private final Map<String, Verified> verified; // Header digest -> verification of a right password
+    private final Map<String, Verified> rejected; // Header digest -> verification of a wrong password
+
+    /**
+     * A header checked against a user's stored hash.
+     */
+    private static final class Verified {
+        private final String username; // The user the header belongs to
+        private final String stored; // The user's stored hash when the header was checked
+        private final long expires; // When the verification stops counting, in System.currentTimeMillis
+
+        private Verified(String username, String stored, long expires) {
+            this.username = username;
+            this.stored = stored;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param limit the most headers kept
+     * @param ttl   how long a verification is trusted, in milliseconds
+     */
+    public CredentialCache(int limit, long ttl) {
+        this.limit = limit;
+        this.ttl = ttl;
+        this.verified = newMap();
+        this.rejected = newMap();
+    }
+
+    /**
+     * Creates a map of checked headers that keeps at most the limit.
+     *
+     * @return the map
+     */
+    private Map<String, Verified> newMap() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Verified> eldest) {
+                return size() > CredentialCache.this.limit; // Forget the least recently used header
+            }
+        });
+    }
+
+    /**
+     * Checks if a header was verified recently for a user's current password.
+     *
+     * @param authHeader the Authorization header
+     * @param user       the user the header names
+     * @return true if the header can be trusted without hashing its password
+     */
+    public boolean isVerified(String authHeader, IAppUser user) {
+        return isCurrent(this.verified, authHeader, user);
+    }
+
+    /**
+     * Checks if a header was found recently to hold a wrong password for a user's
+     * current password.
+     *
+     * @param authHeader the Authorization header
+     * @param user       the user the header names
+     * @return true if the header can be refused without hashing its password
+     */
+    public boolean isRejected(String authHeader, IAppUser user) {
+        return isCurrent(this.rejected, authHeader, user);
+    }
+
+    /**
+     * Checks if a header has an entry that has not expired and was made for a user's
+     * current password, dropping it otherwise.
+     *
+     * @param entries    the verified or rejected headers
+     * @param authHeader the Authorization header
+     * @param user       the user the header names
+     * @return true if the entry counts
+     */
+    private static boolean isCurrent(Map<String, Verified> entries, String authHeader, IAppUser user) {
+        String key = digest(authHeader);
+        Verified entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.expires <= System.currentTimeMillis() || !entry.username.equals(user.getUsername())
+                || !entry.stored.equals(user.getPassword())) {
+            entries.remove(key); // Expired, or made for a password the user no longer has
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remembers that a header's password was verified.
+     *
+     * @param authHeader the Authorization header
+     * @param user       the user whose stored hash the password matched
+     */
+    public void add(String authHeader, IAppUser user) {
+        this.verified.put(digest(authHeader),
+                new Verified(user.getUsername(), user.getPassword(), System.currentTimeMillis() + this.ttl));
+    }
+
+    /**
+     * Remembers that a header's password was wrong.
+     *
+     * @param authHeader the Authorization header
+     * @param user       the user whose stored hash the password did not match
+     */
+    public void reject(String authHeader, IAppUser user) {
+        this.rejected.put(digest(authHeader),
+                new Verified(user.getUsername(), user.getPassword(), System.currentTimeMillis() + this.ttl));
+    }
+
+    /**
+     * Forgets every header of a user, e.g. when the user's password changes or the user
+     * is removed.
+     *
+     * @param username the user
+     */
+    public void invalidate(String username) {
+        synchronized (this.verified) { // Iterating a synchronized map needs its lock
+            this.verified.values().removeIf(entry -> entry.username.equals(username));
+        }
+        synchronized (this.rejected) {
+            this.rejected.values().removeIf(entry -> entry.username.equals(username));
+        }
+    }
+
+    /**
+     * Gets the number of verified headers kept.
+     *
+     * @return the number of headers
+     */
+    public int size() {
+        return this.verified.size();
+    }
+
+    /**
+     * Digests a header, so the cache never holds a password.
+     *
+     * @param authHeader the Authorization header
+     * @return the digest
+     */
+    private static String digest(String authHeader) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(authHeader.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // Every Java runtime has it
+        }
+    }
+}
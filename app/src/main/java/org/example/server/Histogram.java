@@ -0,0 +1,139 @@
+package org.example.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts recorded values, e.g. latencies or payload sizes, in buckets whose width grows
+ * with the value, so any percentile can be read back to within a quarter of its value.
+ * Recording takes no lock: it is one atomic increment of a bucket and of two adders, so
+ * requests on many threads record at once without waiting on each other.
+ *
+ * Each power of two is split into four buckets: values below 4 have a bucket each, and
+ * a larger value v falls in the bucket for its top three bits.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 2; // Buckets per power of two is 2^SUB_BITS
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS; // Enough for any non-negative long
+
+    private final AtomicLongArray buckets; // Bucket index -> number of values recorded in it
+    private final LongAdder count; // Values recorded
+    private final LongAdder sum; // Total of the values recorded
+    private final AtomicLong max; // Largest value recorded
+
+    /**
+     * Constructs an empty histogram.
+     */
+    public Histogram() {
+        this.buckets = new AtomicLongArray(BUCKETS);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        this.buckets.incrementAndGet(bucket(v));
+        this.count.increment();
+        this.sum.add(v);
+        long largest = this.max.get();
+        while (v > largest && !this.max.compareAndSet(largest, v)) { // Rarely retried once the maximum settles
+            largest = this.max.get();
+        }
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Gets the total of the values recorded.
+     *
+     * @return the sum
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return the maximum, or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Gets a percentile of the values recorded: the upper bound of the bucket holding
+     * it, but never more than the largest value. Values recorded while the buckets are
+     * read may or may not be counted.
+     *
+     * @param quantile the percentile, between 0 and 1, e.g. 0.99
+     * @return the value, or 0 if nothing was recorded
+     */
+    public long percentile(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total)); // The rank-th smallest value
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Finds the bucket of a value.
+     *
+     * @param value a non-negative value
+     * @return the bucket index
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value; // One bucket for each small value
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // The highest bit set
+        int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_BUCKETS; // The next SUB_BITS bits
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Gets the largest value that falls in a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the value
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        long lower = sub << (exponent - SUB_BITS);
+        long width = 1L << (exponent - SUB_BITS);
+        return lower > Long.MAX_VALUE - width ? Long.MAX_VALUE : lower + width - 1;
+    }
+}
@@ -0,0 +1,229 @@
+package org.example.server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects the server's metrics and writes them in the Prometheus text format, for a
+ * scraper to poll. Each endpoint counts its requests and failures and records their
+ * latency and request size; the server adds histograms of its own, e.g. of update
+ * payload sizes, and gauges read only when the metrics are scraped.
+ *
+ * Recording never takes a lock, so it adds next to nothing to a request: the maps are
+ * only written the first time a name is seen, and recording is a few atomic adds.
+ */
+public class Metrics {
+    private static final String PREFIX = "husksheets_";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999}; // Reported for every histogram
+
+    private final Map<String, Endpoint> endpoints; // Endpoint name -> its metrics
+    private final Map<String, Recorded> histograms; // Metric name -> histogram
+    private final Map<String, Gauge> gauges; // Metric name -> gauge
+
+    /**
+     * The metrics of one endpoint.
+     */
+    private static final class Endpoint {
+        private final LongAdder requests = new LongAdder(); // Requests answered
+        private final LongAdder failures = new LongAdder(); // Requests answered with an error
+        private final Histogram latency = new Histogram(); // Time to answer, in nanoseconds
+        private final Histogram requestBytes = new Histogram(); // Size of the request bodies
+    }
+
+    /**
+     * A histogram with the text describing it.
+     */
+    private static final class Recorded {
+        private final String help;
+        private final Histogram histogram = new Histogram();
+
+        private Recorded(String help) {
+            this.help = help;
+        }
+    }
+
+    /**
+     * A gauge with the text describing it.
+     */
+    private static final class Gauge {
+        private final String help;
+        private final LongSupplier value; // Read when the metrics are scraped
+
+        private Gauge(String help, LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Constructs an empty set of metrics.
+     */
+    public Metrics() {
+        this.endpoints = new ConcurrentHashMap<>();
+        this.histograms = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records a request answered by an endpoint.
+     *
+     * @param endpoint     the endpoint name, e.g. "updatePublished"
+     * @param nanos        the time taken to answer, in nanoseconds
+     * @param requestBytes the size of the request body, or -1 if unknown
+     * @param failed       true if the request was answered with an error
+     */
+    public void recordRequest(String endpoint, long nanos, long requestBytes, boolean failed) {
+        Endpoint metrics = this.endpoints.get(endpoint); // A plain read once the endpoint is known
+        if (metrics == null) {
+            metrics = this.endpoints.computeIfAbsent(endpoint, k -> new Endpoint());
+        }
+        metrics.requests.increment();
+        if (failed) {
+            metrics.failures.increment();
+        }
+        metrics.latency.record(nanos);
+        if (requestBytes >= 0) {
+            metrics.requestBytes.record(requestBytes);
+        }
+    }
+
+    /**
+     * Records a value in a named histogram, created the first time the name is used.
+     *
+     * @param name  the metric name, without the common prefix
+     * @param help  what the histogram measures
+     * @param value the value
+     */
+    public void record(String name, String help, long value) {
+        Recorded recorded = this.histograms.get(name);
+        if (recorded == null) {
+            recorded = this.histograms.computeIfAbsent(name, k -> new Recorded(help));
+        }
+        recorded.histogram.record(value);
+    }
+
+    /**
+     * Adds a gauge whose value is read each time the metrics are scraped.
+     *
+     * @param name  the metric name, without the common prefix
+     * @param help  what the gauge measures
+     * @param value reads the current value
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        this.gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * Gets the number of requests an endpoint has answered.
+     *
+     * @param endpoint the endpoint name
+     * @return the count
+     */
+    public long getRequests(String endpoint) {
+        Endpoint metrics = this.endpoints.get(endpoint);
+        return metrics == null ? 0 : metrics.requests.sum();
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format. Histograms are
+     * written as summaries of their percentiles; latencies are in seconds.
+     *
+     * @return the metrics
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        Map<String, Endpoint> endpoints = new TreeMap<>(this.endpoints); // Sorted, so scrapes are easy to compare
+        header(out, "requests_total", "counter", "Requests answered by each endpoint.");
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            sample(out, "requests_total", label(entry.getKey()), entry.getValue().requests.sum());
+        }
+        header(out, "request_failures_total", "counter", "Requests answered with an error status by each endpoint.");
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            sample(out, "request_failures_total", label(entry.getKey()), entry.getValue().failures.sum());
+        }
+        header(out, "request_duration_seconds", "summary", "Time taken to answer each endpoint's requests.");
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            summary(out, "request_duration_seconds", label(entry.getKey()), entry.getValue().latency, 1e-9);
+        }
+        header(out, "request_bytes", "summary", "Size of the request bodies sent to each endpoint.");
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            summary(out, "request_bytes", label(entry.getKey()), entry.getValue().requestBytes, 1);
+        }
+        for (Map.Entry<String, Recorded> entry : new TreeMap<>(this.histograms).entrySet()) {
+            header(out, entry.getKey(), "summary", entry.getValue().help);
+            summary(out, entry.getKey(), "", entry.getValue().histogram, 1);
+        }
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(this.gauges).entrySet()) {
+            header(out, entry.getKey(), "gauge", entry.getValue().help);
+            sample(out, entry.getKey(), "", entry.getValue().value.getAsLong());
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the HELP and TYPE lines of a metric.
+     *
+     * @param out  the text being written
+     * @param name the metric name, without the common prefix
+     * @param type the metric type
+     * @param help what the metric measures
+     */
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Writes the samples of a histogram as a summary: its percentiles, sum and count.
+     *
+     * @param out       the text being written
+     * @param name      the metric name, without the common prefix
+     * @param labels    the labels shared by the samples, e.g. "endpoint=\"login\"", or ""
+     * @param histogram the histogram
+     * @param scale     multiplies the recorded values, e.g. to turn nanoseconds into seconds
+     */
+    private static void summary(StringBuilder out, String name, String labels, Histogram histogram, double scale) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            sample(out, name, labels + separator + "quantile=\"" + quantile + "\"",
+                    histogram.percentile(quantile) * scale);
+        }
+        sample(out, name + "_sum", labels, histogram.getSum() * scale);
+        sample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    /**
+     * Writes one sample line.
+     *
+     * @param out    the text being written
+     * @param name   the metric name, without the common prefix
+     * @param labels the sample's labels, or ""
+     * @param value  the value
+     */
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(PREFIX).append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value); // Counts are written without a fraction
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Builds the label naming an endpoint.
+     *
+     * @param endpoint the endpoint name
+     * @return the label
+     */
+    private static String label(String endpoint) {
+        return "endpoint=\"" + endpoint.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.server;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Times every request to the endpoints and records it in the server's metrics under
+ * the name of the method that answered it, e.g. "updatePublished".
+ *
+ * A long-poll or stream request is dispatched twice, once when it arrives and again
+ * when it is answered; it keeps the time it arrived, so it is recorded once, for the
+ * whole time it was open.
+ */
+public class MetricsInterceptor implements HandlerInterceptor {
+    private static final String START = MetricsInterceptor.class.getName() + ".start"; // Request attribute holding the arrival time
+
+    private final Metrics metrics; // Where requests are recorded
+
+    /**
+     * Constructs an interceptor that records requests in the given metrics.
+     *
+     * @param metrics the metrics
+     */
+    public MetricsInterceptor(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Notes when a request arrived, unless it is being dispatched again.
+     *
+     * @param request  the request
+     * @param response the response
+     * @param handler  the handler chosen for the request
+     * @return true, so the request is always handled
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getAttribute(START) == null) {
+            request.setAttribute(START, System.nanoTime());
+        }
+        return true;
+    }
+
+    /**
+     * Records a request once it has been answered.
+     *
+     * @param request  the request
+     * @param response the response
+     * @param handler  the handler that answered the request
+     * @param ex       the exception the handler threw, or null
+     */
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object start = request.getAttribute(START);
+        if (start == null) {
+            return; // Not timed, e.g. rejected before preHandle
+        }
+        String endpoint = handler instanceof HandlerMethod
+                ? ((HandlerMethod) handler).getMethod().getName() : "unmatched"; // One name per method, never per path
+        this.metrics.recordRequest(endpoint, System.nanoTime() - (Long) start, request.getContentLengthLong(),
+                ex != null || response.getStatus() >= 400);
+    }
+}
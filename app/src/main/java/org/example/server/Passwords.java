@@ -0,0 +1,97 @@
+package org.example.server;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Hashes passwords for storage with PBKDF2, salted and deliberately slow, so a copy of
+ * the users or the journal does not give the passwords away.
+ *
+ * A stored hash is "pbkdf2-sha512$iterations$salt$hash", with the salt and hash in
+ * Base64. The iteration count is kept with each hash, so it can be raised for new
+ * passwords while older hashes still verify.
+ */
+public final class Passwords {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA512";
+    private static final String PREFIX = "pbkdf2-sha512$"; // Starts every stored hash
+    private static final int ITERATIONS = 210_000; // Rounds for new hashes
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 512;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private Passwords() {
+    }
+
+    /**
+     * Hashes a password with a new random salt.
+     *
+     * @param password the password
+     * @return the hash to store
+     */
+    public static String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return PREFIX + ITERATIONS + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, ITERATIONS));
+    }
+
+    /**
+     * Checks a password against a stored hash.
+     *
+     * @param password the password
+     * @param stored   the stored hash
+     * @return true if the password is the one that was hashed
+     */
+    public static boolean verify(String password, String stored) {
+        if (!isHash(stored)) {
+            return false;
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[0]);
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] expected = base64.decode(parts[2]);
+            return MessageDigest.isEqual(expected, derive(password, base64.decode(parts[1]), iterations)); // Takes the same time wherever they differ
+        } catch (IllegalArgumentException e) {
+            return false; // Not a hash this class wrote
+        }
+    }
+
+    /**
+     * Checks if a stored password is a hash rather than plain text, as journals written
+     * before passwords were hashed hold.
+     *
+     * @param stored the stored password
+     * @return true if it is a hash
+     */
+    public static boolean isHash(String stored) {
+        return stored != null && stored.startsWith(PREFIX);
+    }
+
+    /**
+     * Derives the hash of a password.
+     *
+     * @param password   the password
+     * @param salt       the salt
+     * @param iterations the number of rounds
+     * @return the hash
+     */
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e); // Every Java runtime has it
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
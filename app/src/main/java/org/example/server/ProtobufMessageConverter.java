@@ -0,0 +1,43 @@
+package org.example.server;
+
+import org.example.model.Argument;
+import org.example.model.ProtobufCodec;
+import org.example.model.Result;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+
+import java.io.IOException;
+
+/**
+ * Reads Arguments and writes Results in the protobuf wire format, for requests sent as
+ * or accepting application/x-protobuf. See ProtobufCodec for the schema.
+ */
+public class ProtobufMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    /**
+     * Constructs a converter for application/x-protobuf.
+     */
+    public ProtobufMessageConverter() {
+        super(MediaType.parseMediaType(ProtobufCodec.MEDIA_TYPE));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz == Argument.class || clazz == Result.class;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        byte[] message = inputMessage.getBody().readAllBytes();
+        return clazz == Argument.class ? ProtobufCodec.decodeArgument(message) : ProtobufCodec.decodeResult(message);
+    }
+
+    @Override
+    protected void writeInternal(Object value, HttpOutputMessage outputMessage) throws IOException {
+        byte[] message = value instanceof Argument argument ? ProtobufCodec.encodeArgument(argument)
+                : ProtobufCodec.encodeResult((Result) value);
+        outputMessage.getBody().write(message);
+    }
+}
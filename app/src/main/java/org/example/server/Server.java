@@ -4,16 +4,42 @@ import org.example.model.*;
 
 import java.util.Base64;
 
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Persistent REST API Server for handling requests from HuskSheet application
@@ -23,8 +49,193 @@ import java.util.Map;
 @RequestMapping("/api/v1")
 public class Server {
 
-    //List of all available users
-    List<IAppUser> availUsers = new ArrayList<>();
+    // All registered users by username; requests are served on many threads at once
+    Map<String, IAppUser> availUsers = new ConcurrentHashMap<>();
+
+    // Serializes updates to the same sheet
+    private final SheetLocks sheetLocks = new SheetLocks();
+
+    // Serializes registrations, so the journal records them in the order they were made;
+    // a lock rather than a monitor, since it is held while the registration is logged
+    private final Lock registrations = new ReentrantLock();
+
+    // Long-poll requests waiting for new versions
+    private final UpdateWaiters updateWaiters = new UpdateWaiters();
+
+    // Open server-sent event streams of new versions
+    private final UpdateStreams updateStreams = new UpdateStreams();
+
+    // The longest a long-poll request may wait, in milliseconds
+    private static final long MAX_WAIT = 60_000;
+
+    // Runs the operations of batch requests
+    private final BatchRunner batchRunner = new BatchRunner();
+
+    // The most operations a batch request may hold
+    private static final int MAX_BATCH = 1000;
+
+    // Counts the users and sheets added or removed; part of the ETags of read responses
+    private final AtomicLong directoryVersion = new AtomicLong();
+
+    // Headers whose password was verified recently, so they are not hashed again on every request
+    private final CredentialCache credentialCache = new CredentialCache(10_000, 10 * 60 * 1000L);
+
+    // Passwords hashed at once; at most half the cores, so a flood of wrong passwords or
+    // registrations waits its turn instead of taking every core from signed-in requests
+    private final Semaphore hashing = new Semaphore(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    // Tells the ETags of this run of the server from those of earlier runs
+    private final String etagPrefix = Long.toString(System.currentTimeMillis(), 36);
+
+    // Request counts, latencies and sizes, read from the metrics endpoint
+    private final Metrics metrics = new Metrics();
+    private final LongAdder unchangedUpdates = new LongAdder(); // Updates acknowledged without adding a version
+
+    // The versions of each sheet kept when none is configured: the latest 1000, within 16 MB
+    private static final VersionRetention DEFAULT_RETENTION = new VersionRetention(1000, 0, 16L << 20);
+
+    // How often every sheet is checked for versions to drop, in milliseconds
+    private static final long PRUNE_EVERY = 60_000;
+
+    // Decides which old versions of each sheet are dropped
+    private final VersionRetention retention;
+
+    // Drops old versions off the request threads
+    private final ScheduledExecutorService pruner;
+
+    // Version lists queued to be pruned, so a busy sheet is queued once
+    private final Set<String> prunesPending = ConcurrentHashMap.newKeySet();
+
+    // Writes every change to disk before it is applied; null when nothing is kept on disk
+    private final ServerJournal journal;
+
+    /**
+     * Constructs a server that keeps its state in memory only.
+     */
+    public Server() {
+        this("", 0, DEFAULT_RETENTION);
+    }
+
+    /**
+     * Constructs a server that keeps its state in a data directory, recovering whatever
+     * the directory already holds.
+     *
+     * @param dataDir         the data directory, or an empty string to keep the state in memory only
+     * @param checkpointEvery the number of changes logged between snapshots of the state
+     */
+    public Server(String dataDir, int checkpointEvery) {
+        this(dataDir, checkpointEvery, DEFAULT_RETENTION);
+    }
+
+    /**
+     * Constructs a server from its configuration.
+     *
+     * @param dataDir         the data directory, or an empty string to keep the state in memory only
+     * @param checkpointEvery the number of changes logged between snapshots of the state
+     * @param maxVersions     the most versions kept of each sheet's version lists, or 0 for no limit
+     * @param maxAgeMinutes   the age after which a version is dropped, in minutes, or 0 for no limit
+     * @param maxBytes        the memory each version list's changes may take, or 0 for no limit
+     */
+    @Autowired
+    public Server(@Value("${husksheets.data.dir:}") String dataDir,
+                  @Value("${husksheets.data.checkpoint-every:10000}") int checkpointEvery,
+                  @Value("${husksheets.retention.max-versions:1000}") int maxVersions,
+                  @Value("${husksheets.retention.max-age-minutes:0}") long maxAgeMinutes,
+                  @Value("${husksheets.retention.max-bytes:16777216}") long maxBytes) {
+        this(dataDir, checkpointEvery, new VersionRetention(maxVersions, maxAgeMinutes * 60_000, maxBytes));
+    }
+
+    /**
+     * Constructs a server that keeps its state in a data directory, recovering whatever
+     * the directory already holds, and keeps the versions of each sheet a policy allows.
+     *
+     * @param dataDir         the data directory, or an empty string to keep the state in memory only
+     * @param checkpointEvery the number of changes logged between snapshots of the state
+     * @param retention       decides which old versions are dropped
+     */
+    public Server(String dataDir, int checkpointEvery, VersionRetention retention) {
+        addGauges();
+        this.retention = retention;
+        this.pruner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "version-pruner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (dataDir.isEmpty()) {
+            this.journal = null;
+        } else {
+            try {
+                this.journal = new ServerJournal(Paths.get(dataDir), checkpointEvery, new ServerJournal.Handler() {
+                    @Override
+                    public void replay(ServerJournal.Entry entry) {
+                        Server.this.replay(entry);
+                    }
+
+                    @Override
+                    public Supplier<List<ServerJournal.Entry>> compact() {
+                        return Server.this.compact();
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the data directory " + dataDir, e);
+            }
+        }
+        this.pruner.scheduleWithFixedDelay(this::pruneAll, PRUNE_EVERY, PRUNE_EVERY, TimeUnit.MILLISECONDS); // Once replayed, so it never races the replay
+    }
+
+    /**
+     * Adds the gauges of the server's state to its metrics. They are read only when the
+     * metrics are scraped, so keeping them costs the requests nothing.
+     */
+    private void addGauges() {
+        this.metrics.gauge("users", "Registered users.", () -> this.availUsers.size());
+        this.metrics.gauge("sheets", "Sheets of every publisher.", () -> {
+            long sheets = 0;
+            for (IAppUser user : this.availUsers.values()) {
+                sheets += user.getSheets().size();
+            }
+            return sheets;
+        });
+        this.metrics.gauge("versions", "Published and subscribed versions kept of every sheet.", () -> {
+            long versions = 0;
+            for (IAppUser user : this.availUsers.values()) {
+                for (ISpreadsheet sheet : user.getSheets()) {
+                    versions += sheet.getPublishedVersions().size() + sheet.getSubscribedVersions().size();
+                }
+            }
+            return versions;
+        });
+        this.metrics.gauge("waiting_requests", "Long-poll requests waiting for a new version.",
+                () -> this.updateWaiters.size());
+        this.metrics.gauge("open_streams", "Open server-sent event streams.", () -> this.updateStreams.size());
+        this.metrics.gauge("unchanged_updates", "Updates identical to the latest version, which added none.",
+                this.unchangedUpdates::sum);
+    }
+
+    /**
+     * Gets the metrics the server's requests are recorded in.
+     *
+     * @return the metrics
+     */
+    Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Writes a final snapshot of the state, so the next start has nothing to replay.
+     *
+     * @throws IOException if the snapshot could not be written
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        this.pruner.shutdownNow();
+        this.batchRunner.close();
+        this.updateWaiters.close();
+        this.updateStreams.close();
+        if (this.journal != null) {
+            this.journal.close();
+        }
+    }
 
     /**
      * Decodes the basic authentication and returns a String array of the credentials.
@@ -64,12 +275,8 @@ public class Server {
      * @author Tony
      */
     private boolean hasSheet(String sheet, String publisher) {
-        for (IAppUser user : availUsers) { // Iterate through all available users
-            if (user.getUsername().equals(publisher) && user.doesSheetExist(sheet)) {
-                return true; // Return true if the user exists and the sheet exists for the publisher
-            }
-        }
-        return false; // Return false if the sheet does not exist for the publisher
+        IAppUser user = findUser(publisher); // Find the publisher by username
+        return user != null && user.doesSheetExist(sheet); // Return true if the user exists and the sheet exists for the publisher
     }
 
     /**
@@ -80,12 +287,7 @@ public class Server {
      * @author Ben
      */
     private IAppUser findUser(String username) {
-        for (IAppUser user : this.availUsers) { // Iterate through all available users
-            if (user.getUsername().equals(username)) {
-                return user; // Return the user if the username matches
-            }
-        }
-        return null; // Return null if no user is found with the given username
+        return this.availUsers.get(username); // Return the user, or null if no user has the given username
     }
 
     /**
@@ -97,40 +299,65 @@ public class Server {
      * @author Ben
      */
     public boolean existingUser(String username, String password) {
-        for (IAppUser user : availUsers) { // Iterate through all available users
-            if (user.getUsername().equals(username) && user.getPassword().equals(password)) {
-                return true; // Return true if the username and password match an existing user
-            }
+        IAppUser user = findUser(username); // Find the user by username
+        return user != null && throttled(() -> Passwords.verify(password, user.getPassword())); // Return true if the password matches the stored hash
+    }
+
+    /**
+     * Checks that a request's credentials belong to an existing user. A header verified
+     * or refused recently is answered the same way without hashing its password again.
+     *
+     * @param authHeader  the authorization header
+     * @param credentials the decoded username and password
+     * @return the user, or null if there is no such user or the password is wrong
+     */
+    private IAppUser authenticate(String authHeader, String[] credentials) {
+        IAppUser user = findUser(credentials[0]); // Find the user by username
+        if (user == null) {
+            return null;
+        }
+        if (this.credentialCache.isVerified(authHeader, user)) {
+            return user; // Verified recently; no need to hash the password
+        }
+        if (this.credentialCache.isRejected(authHeader, user)) {
+            return null; // The same wrong password was sent before
         }
-        return false; // Return false if no matching user is found
+        if (!throttled(() -> Passwords.verify(credentials[1], user.getPassword()))) {
+            this.credentialCache.reject(authHeader, user);
+            return null;
+        }
+        this.credentialCache.add(authHeader, user);
+        return user;
     }
 
     /**
-     * Determines if there exists a user with the given username.
+     * Hashes a password once one of the hashing permits is free.
      *
-     * @param username a String
-     * @return true if there exists a user with the given username and false otherwise.
-     * @author Tony
+     * @param work the hashing to do
+     * @param <T>  the type of the result
+     * @return the result of the hashing
      */
-    private boolean findByUsername(String username) {
-        for (IAppUser user : availUsers) { // Iterate through all available users
-            if (user.getUsername().equals(username)) {
-                return true; // Return true if the username matches an existing user
-            }
+    private <T> T throttled(Supplier<T> work) {
+        this.hashing.acquireUninterruptibly();
+        try {
+            return work.get();
+        } finally {
+            this.hashing.release();
         }
-        return false; // Return false if no matching user is found
     }
 
 
     /**
      * Gets a list of publishers currently stored in the server.
      *
-     * @param authHeader basic authentication header
-     * @return a ResponseEntity containing a Result
+     * @param authHeader  basic authentication header
+     * @param ifNoneMatch the ETag of the list the sender already has, if any
+     * @return a ResponseEntity containing a Result, or 304 if the list has not changed
      * @author Ben
      */
     @GetMapping("/getPublishers")
-    public ResponseEntity<?> getPublishers(@RequestHeader("Authorization") String authHeader) {
+    public ResponseEntity<?> getPublishers(@RequestHeader("Authorization") String authHeader,
+                                           @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         String[] credentials = decodeBasicAuth(authHeader); // Decode the Basic Auth header
         try {
             validateCredentials(credentials); // Validate the credentials
@@ -144,11 +371,19 @@ public class Server {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, "User not found", new ArrayList<>())); // Return 404 status if user is not found
         }
+        if (authenticate(authHeader, credentials) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
+        }
+        String etag = etag(String.valueOf(this.directoryVersion.get())); // Read before the list, so it is never newer than the list
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build(); // The sender's list is current
+        }
         List<Argument> listOfArgument = new ArrayList<>();
-        for (IAppUser appUser : availUsers) { // Iterate through all available users
+        for (IAppUser appUser : availUsers.values()) { // Iterate through all available users
             listOfArgument.add(new Argument(appUser.getUsername(), null, null, null)); // Add each user to the list of arguments
         }
-        return ResponseEntity.ok(new Result(
+        return ResponseEntity.ok().eTag(etag).body(new Result(
                 true, null, listOfArgument)); // Return 200 status with the list of publishers
     }
 
@@ -189,8 +424,26 @@ public class Server {
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                         false, "User not found", new ArrayList<>())); // Return 404 status if user is not found
             }
-            user.addSheet(sheet); // Add the sheet to the user
-            return ResponseEntity.ok(new Result(
+            if (authenticate(authHeader, credentials) == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                        false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
+            }
+            long change;
+            Lock lock = this.sheetLocks.forSheet(publisher, sheet).writeLock(); // Logged before any update to the sheet
+            lock.lock();
+            try {
+                if (user.doesSheetExist(sheet)) { // Another request created the same sheet first
+                    return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                            false, "Sheet already exists: " + sheet, new ArrayList<>()));
+                }
+                change = record(() -> user.addSheet(sheet), ServerJournal.CREATE_SHEET, publisher, sheet);
+                this.directoryVersion.incrementAndGet(); // After the change, so no ETag is given to an older list
+            } catch (IOException e) {
+                return notSaved(e);
+            } finally {
+                lock.unlock();
+            }
+            return awaitSaved(change, new Result(
                     true, "Sheet created successfully", new ArrayList<>())); // Return 201 status if sheet is created successfully
         }
     }
@@ -223,26 +476,45 @@ public class Server {
         } else if (sheet.isEmpty()) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, "Sheet name cannot be blank", new ArrayList<>())); // Return 400 status if sheet name is blank
+        } else if (user == null || authenticate(authHeader, credentials) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
         } else if (!user.doesSheetExist(sheet)) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, "Sheet does not exist: " + sheet, new ArrayList<>())); // Return 400 status if sheet does not exist
         } else {
-            user.removeSheet(sheet);
-            return ResponseEntity.ok(new Result(
+            long change;
+            Lock lock = this.sheetLocks.forSheet(publisher, sheet).writeLock(); // Logged after every update to the sheet
+            lock.lock();
+            try {
+                change = record(() -> user.removeSheet(sheet), ServerJournal.DELETE_SHEET, publisher, sheet);
+                this.directoryVersion.incrementAndGet(); // After the change, so no ETag is given to an older list
+            } catch (IOException e) {
+                return notSaved(e);
+            } finally {
+                lock.unlock();
+            }
+            ResponseEntity<Result> response = awaitSaved(change, new Result(
                     true, "Sheet deleted successfully", new ArrayList<>())); // Return 202 status if sheet is deleted successfully
+            this.updateWaiters.wake(publisher, sheet, true); // Tells the waiting requests the sheet is gone
+            this.updateWaiters.wake(publisher, sheet, false);
+            this.updateStreams.close(publisher, sheet);
+            return response;
         }
     }
 
     /**
      * Retrieves all sheets for a specified publisher.
      *
-     * @param authHeader the authorization header containing the credentials.
-     * @param argument   the argument containing the publisher
-     * @return a ResponseEntity containing the result of the sheets retrieval.
+     * @param authHeader  the authorization header containing the credentials.
+     * @param ifNoneMatch the ETag of the list the sender already has, if any
+     * @param argument    the argument containing the publisher
+     * @return a ResponseEntity containing the result of the sheets retrieval, or 304 if the list has not changed.
      * @author Tony
      */
     @PostMapping("/getSheets") // Mapping for POST requests to /getSheets
     public ResponseEntity<Result> getSheets(@RequestHeader("Authorization") String authHeader,
+                                            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
                                             @RequestBody Argument argument) {
         // Decode the Basic Auth header
         String[] credentials = decodeBasicAuth(authHeader); // Decode the Basic Auth header
@@ -252,17 +524,37 @@ public class Server {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, e.getMessage(), new ArrayList<>())); // Return 401 status if credentials are invalid
         }
+        if (authenticate(authHeader, credentials) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
+        }
+        return listSheets(argument, ifNoneMatch);
+    }
+
+    /**
+     * Lists the sheets of a publisher, once the credentials have been checked.
+     *
+     * @param argument    the argument containing the publisher
+     * @param ifNoneMatch the ETag of the list the sender already has, or null
+     * @return a ResponseEntity containing the result of the sheets retrieval, or 304 if the list has not changed.
+     */
+    private ResponseEntity<Result> listSheets(Argument argument, String ifNoneMatch) {
         List<Argument> sheets = new ArrayList<>(); // Initialize the list of sheets
         String publisher = argument.getPublisher(); // Get the publisher from the argument
+        String etag = etag(String.valueOf(this.directoryVersion.get()), publisher); // Read before the list, so it is never newer than the list
         IAppUser user = findUser(publisher); // Find the user by publisher name
         if (user == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, "User not found", new ArrayList<>())); // Return 404 status if user is not found
         }
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build(); // The sender's list is current
+        }
         for (ISpreadsheet sheet : user.getSheets()) { // Iterate through the user's sheets
             sheets.add(new Argument(publisher, sheet.getName(), null, null)); // Add each sheet to the list of arguments
         }
-        return ResponseEntity.ok(new Result(true, "Sheets retrieved successfully", sheets)); // Return 200 status with the list of sheets
+        return ResponseEntity.ok().eTag(etag).body(new Result(
+                true, "Sheets retrieved successfully", sheets)); // Return 200 status with the list of sheets
     }
 
     /**
@@ -284,67 +576,361 @@ public class Server {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, e.getMessage(), new ArrayList<>())); // Return 401 status if credentials are invalid
         }
-        String publisher = argument.getPublisher(); // Get the publisher from the argument
-        String sheet = argument.getSheet(); // Get the sheet name from the argument
-        String payload = argument.getPayload(); // Get the payload from the argument
-        IAppUser user = findUser(publisher); // Find the user by publisher name
-        if (user == null) {
+        if (authenticate(authHeader, credentials) == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
-                    false, "User not found", new ArrayList<>())); // Return 404 status if user is not found
+                    false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
         }
-        // New updated sheet must not mutate old version and must be initialized with empty grid
-        // to account for empty spaces or deletions in the update
-        for (ISpreadsheet existingSheet : user.getSheets()) { // Iterate through the user's sheets
-            if (existingSheet.getName().equals(sheet)) {
-                List<List<String>> data = Home.convertStringTo2DArray(payload); // Convert the payload to a 2D array
-                List<List<Cell>> updatedGrid = initializeEmptyGrid(existingSheet.getRows(), existingSheet.getCols()); // Initialize an empty grid
-                populateUpdatedGrid(updatedGrid, data); // Populate the updated grid with the data
-                existingSheet.setGrid(updatedGrid); // Set the updated grid in the existing sheet
-                ISpreadsheet updatedVersion = createUpdatedVersion(existingSheet); // Create an updated version of the sheet
-                existingSheet.addPublished(updatedVersion);  // Add the updated version to the list of published versions
-                return ResponseEntity.ok(new Result(true, "Sheet updated successfully", new ArrayList<>())); // Return 200 status if sheet is updated successfully
+        return update(argument, true);
+    }
+
+
+    /**
+     * Checks if an update was made against a version of the sheet that is no longer
+     * current.
+     *
+     * @param expectedVersion the version the sender expects, or null to skip the check
+     * @param currentVersion  the current version of the sheet
+     * @return true if the update must be rejected
+     */
+    private static boolean isStale(String expectedVersion, int currentVersion) {
+        return expectedVersion != null && !expectedVersion.trim().equals(String.valueOf(currentVersion));
+    }
+
+    /**
+     * Loads an update into a sheet, adds the result as its newest version and pushes the
+     * cells it changed to the sheet's open streams.
+     *
+     * @param publisher     the publisher of the sheet
+     * @param existingSheet the sheet
+     * @param payload       the cells of the update
+     * @param published     true for a published version, false for a subscribed one
+     */
+    private void applyUpdate(String publisher, ISpreadsheet existingSheet, String payload, boolean published) {
+        List<List<String>> data = Home.convertStringTo2DArray(payload); // Convert the payload to a 2D array
+        List<Cell> cells = createUpdatedCells(data);
+        applyUpdate(publisher, existingSheet, cells, ContentHash.of(cells), published);
+    }
+
+    /**
+     * Loads the cells of an update into a sheet, adds the result as its newest version
+     * and pushes the cells it changed to the sheet's open streams.
+     *
+     * @param publisher     the publisher of the sheet
+     * @param existingSheet the sheet
+     * @param cells         the cells of the update, already parsed
+     * @param content       the hash of the cells, kept to recognize the same update again
+     * @param published     true for a published version, false for a subscribed one
+     */
+    private void applyUpdate(String publisher, ISpreadsheet existingSheet, List<Cell> cells, ContentHash content,
+                             boolean published) {
+        existingSheet.loadCells(cells); // Load the cells, then evaluate the formulas once
+        ISpreadsheet updatedVersion = createUpdatedVersion(existingSheet); // Create an updated version of the sheet
+        ChangeLog changes;
+        if (published) {
+            existingSheet.addPublished(updatedVersion); // Add the updated version to the list of published versions
+            changes = existingSheet.getPublishedChanges();
+        } else {
+            existingSheet.addSubscribed(updatedVersion); // Add the updated version to the list of subscribed versions
+            changes = existingSheet.getSubscribedChanges();
+        }
+        changes.setContentHash(content); // The cells sent, not the cells COPY wrote, so a resent update matches
+        this.updateStreams.publish(publisher, existingSheet.getName(), published,
+                changes.size(), changes.getChanges(changes.size() - 1)); // Queued in version order, under the sheet's lock
+    }
+
+    /**
+     * Logs a change to the journal, then applies it.
+     *
+     * @param change applies the change
+     * @param op     the journal operation
+     * @param fields the arguments of the operation
+     * @return the journal record, or 0 when nothing is kept on disk
+     * @throws IOException if the change could not be logged; it is then not applied
+     */
+    private long record(Runnable change, byte op, String... fields) throws IOException {
+        if (this.journal == null) {
+            change.run();
+            return 0;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i] == null ? "" : fields[i]; // A missing payload is logged as an empty one
+        }
+        return this.journal.append(change, op, fields);
+    }
+
+    /**
+     * Waits until a logged change is on disk before answering the request.
+     *
+     * @param change the journal record of the change
+     * @param result the result to send once the change is saved
+     * @return a ResponseEntity containing the result, or an error if the change could not be saved
+     */
+    private ResponseEntity<Result> awaitSaved(long change, Result result) {
+        if (this.journal != null) {
+            try {
+                this.journal.sync(change); // Shares the fsync with the changes logged alongside it
+            } catch (IOException e) {
+                return notSaved(e);
             }
         }
-        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
-                false, "Sheet not found", new ArrayList<>())); // Return 404 status if sheet is not found
+        return ResponseEntity.ok(result);
     }
 
+    /**
+     * Builds the response for a change that could not be written to disk.
+     *
+     * @param e the error
+     * @return a ResponseEntity containing the error
+     */
+    private static ResponseEntity<Result> notSaved(IOException e) {
+        e.printStackTrace(); // Log the full stack trace for debugging
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new Result(
+                false, "Could not save the change: " + e.getMessage(), new ArrayList<>())); // Return 500 status if the disk failed
+    }
 
     /**
-     * Initializes an empty grid of cells.
+     * Applies a change recovered from the journal.
      *
-     * @param rows number of rows
-     * @param cols number of columns
-     * @return a 2D list of Cell
-     * @author Ben
+     * @param entry the journal record
+     */
+    private void replay(ServerJournal.Entry entry) {
+        String name = entry.getField(0);
+        if (entry.getOp() == ServerJournal.REGISTER) {
+            String stored = entry.getField(1);
+            if (!Passwords.isHash(stored) && !this.availUsers.containsKey(name)) {
+                stored = Passwords.hash(stored); // Logged in plain text before passwords were hashed
+            }
+            this.availUsers.putIfAbsent(name, new AppUser(name, stored));
+            return;
+        }
+        IAppUser user = findUser(name);
+        String sheet = entry.getField(1);
+        if (entry.getOp() == ServerJournal.CREATE_SHEET) {
+            user.addSheet(sheet);
+        } else if (entry.getOp() == ServerJournal.DELETE_SHEET) {
+            user.removeSheet(sheet);
+        } else if (entry.getOp() == ServerJournal.UPDATE_PUBLISHED) {
+            applyUpdate(name, user.getSheet(sheet), entry.getField(2), true);
+        } else if (entry.getOp() == ServerJournal.UPDATE_SUBSCRIPTION) {
+            applyUpdate(name, user.getSheet(sheet), entry.getField(2), false);
+        } else if (entry.getOp() == ServerJournal.PUBLISHED_CHANGES) {
+            ISpreadsheet existingSheet = user.getSheet(sheet);
+            applyUpdate(name, existingSheet, existingSheet.getPublishedChanges().applyChanges(entry.getField(2)), true);
+        } else if (entry.getOp() == ServerJournal.SUBSCRIBED_CHANGES) {
+            ISpreadsheet existingSheet = user.getSheet(sheet);
+            applyUpdate(name, existingSheet, existingSheet.getSubscribedChanges().applyChanges(entry.getField(2)), false);
+        } else if (entry.getOp() == ServerJournal.PUBLISHED_CHECKPOINT) {
+            ISpreadsheet existingSheet = user.getSheet(sheet);
+            existingSheet.getPublishedChanges().startAt(Integer.parseInt(entry.getField(2))); // The versions before it were pruned
+            applyUpdate(name, existingSheet, entry.getField(3), true);
+        } else if (entry.getOp() == ServerJournal.SUBSCRIBED_CHECKPOINT) {
+            ISpreadsheet existingSheet = user.getSheet(sheet);
+            existingSheet.getSubscribedChanges().startAt(Integer.parseInt(entry.getField(2)));
+            applyUpdate(name, existingSheet, entry.getField(3), false);
+        }
+    }
+
+    /**
+     * The versions kept of a sheet when a snapshot was taken.
+     */
+    private static final class CompactedSheet {
+        private final String publisher; // The publisher of the sheet
+        private final String name; // The sheet name
+        private final ChangeLog.Retained published; // The published versions kept
+        private final ChangeLog.Retained subscribed; // The subscribed versions kept
+
+        private CompactedSheet(String publisher, String name, ChangeLog.Retained published, ChangeLog.Retained subscribed) {
+            this.publisher = publisher;
+            this.name = name;
+            this.published = published;
+            this.subscribed = subscribed;
+        }
+    }
+
+    /**
+     * Captures the current state, called while no change can be made: each user, each of
+     * their sheets, and the versions kept of the sheets. Only references are taken here,
+     * so no sheet lock is needed and changes wait as briefly as possible; the records
+     * (a checkpoint with every cell of the oldest version kept, then the changes
+     * recorded for each later one) are built from them once changes are allowed again.
+     *
+     * @return lists the journal records that recreate the captured state
+     */
+    private Supplier<List<ServerJournal.Entry>> compact() {
+        List<ServerJournal.Entry> users = new ArrayList<>();
+        List<CompactedSheet> sheets = new ArrayList<>();
+        for (IAppUser user : this.availUsers.values()) {
+            users.add(new ServerJournal.Entry(ServerJournal.REGISTER, user.getUsername(), user.getPassword()));
+            for (ISpreadsheet sheet : user.getSheets()) {
+                sheets.add(new CompactedSheet(user.getUsername(), sheet.getName(),
+                        sheet.getPublishedChanges().retained(), sheet.getSubscribedChanges().retained())); // Pruning replaces, never changes, what is captured
+            }
+        }
+        return () -> {
+            List<ServerJournal.Entry> entries = new ArrayList<>(users);
+            for (CompactedSheet sheet : sheets) {
+                entries.add(new ServerJournal.Entry(ServerJournal.CREATE_SHEET, sheet.publisher, sheet.name));
+                compactVersions(entries, sheet.publisher, sheet.name, sheet.published,
+                        ServerJournal.PUBLISHED_CHECKPOINT, ServerJournal.PUBLISHED_CHANGES);
+                compactVersions(entries, sheet.publisher, sheet.name, sheet.subscribed,
+                        ServerJournal.SUBSCRIBED_CHECKPOINT, ServerJournal.SUBSCRIBED_CHANGES);
+            }
+            return entries;
+        };
+    }
+
+    /**
+     * Lists the journal records that recreate the versions kept of a version list.
+     *
+     * @param entries      the records, added to
+     * @param publisher    the publisher of the sheet
+     * @param sheet        the sheet name
+     * @param versions     the versions kept
+     * @param checkpointOp the operation code of the checkpoint record
+     * @param changesOp    the operation code of the records of later versions
+     */
+    private static void compactVersions(List<ServerJournal.Entry> entries, String publisher, String sheet,
+                                        ChangeLog.Retained versions, byte checkpointOp, byte changesOp) {
+        int first = versions.getFirst();
+        if (versions.size() <= first) {
+            return; // No version recorded
+        }
+        if (first > 0) {
+            entries.add(new ServerJournal.Entry(checkpointOp, publisher, sheet, String.valueOf(first),
+                    versions.getCheckpoint())); // Every cell of the oldest version kept
+        } else {
+            entries.add(new ServerJournal.Entry(changesOp, publisher, sheet, versions.getChanges(0))); // Nothing was pruned
+        }
+        for (int i = first + 1; i < versions.size(); i++) {
+            entries.add(new ServerJournal.Entry(changesOp, publisher, sheet, versions.getChanges(i))); // Only the cells each version changed
+        }
+    }
+
+    /**
+     * Finds a version of a sheet while no version can be pruned. The versions themselves
+     * never change, so they can be read after the lock is released.
+     *
+     * @param publisher     the publisher of the sheet
+     * @param sheet         the sheet name
+     * @param existingSheet the sheet
+     * @param published     true for a published version, false for a subscribed one
+     * @param id            the id of the version
+     * @return the version, or null if it was pruned or does not exist yet
+     */
+    private ISpreadsheet findVersion(String publisher, String sheet, ISpreadsheet existingSheet, boolean published, int id) {
+        Lock lock = this.sheetLocks.forSheet(publisher, sheet).readLock();
+        lock.lock();
+        try {
+            List<ISpreadsheet> versions = published ? existingSheet.getPublishedVersions()
+                    : existingSheet.getSubscribedVersions();
+            int index = id - (published ? existingSheet.getPublishedChanges() : existingSheet.getSubscribedChanges()).getFirst();
+            return index >= 0 && index < versions.size() ? versions.get(index) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a version list to be pruned on the pruner's thread, unless it is already
+     * queued.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param published true for the published versions, false for the subscribed ones
+     */
+    private void schedulePrune(String publisher, String sheet, boolean published) {
+        String key = (published ? "P" : "S") + publisher + "\n" + sheet;
+        if (this.prunesPending.add(key)) {
+            try {
+                this.pruner.execute(() -> {
+                    this.prunesPending.remove(key); // Updates from now on may queue it again
+                    prune(publisher, sheet, published);
+                });
+            } catch (RejectedExecutionException e) {
+                this.prunesPending.remove(key); // Closed
+            }
+        }
+    }
+
+    /**
+     * Prunes the version lists of every sheet, so versions past their age are dropped
+     * from sheets that are no longer updated.
+     */
+    private void pruneAll() {
+        try {
+            for (IAppUser user : this.availUsers.values()) {
+                for (ISpreadsheet sheet : new ArrayList<>(user.getSheets())) {
+                    prune(user.getUsername(), sheet.getName(), true);
+                    prune(user.getUsername(), sheet.getName(), false);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Tried again at the next sweep; a scheduled task that throws is never run again
+        }
+    }
+
+    /**
+     * Prunes the version lists of every sheet now, on the pruner's thread, and waits
+     * until it is done.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException   if the pruning failed
+     */
+    void pruneVersions() throws InterruptedException, ExecutionException {
+        this.pruner.submit(this::pruneAll).get();
+    }
+
+    /**
+     * Drops the versions of a version list that the retention policy does not keep. The
+     * versions to drop are found without any lock; the sheet is locked only while they
+     * are removed, which takes no longer than copying the versions kept.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param published true for the published versions, false for the subscribed ones
      */
-    private List<List<Cell>> initializeEmptyGrid(int rows, int cols) {
-        List<List<Cell>> grid = new ArrayList<>(); // Initialize the grid
-        for (int i = 0; i < rows; i++) {
-            ArrayList<Cell> row = new ArrayList<>(); // Initialize a new row
-            for (int j = 0; j < cols; j++) {
-                row.add(new Cell("")); // Add a new empty cell to the row
+    private void prune(String publisher, String sheet, boolean published) {
+        IAppUser user = findUser(publisher);
+        ISpreadsheet existingSheet = user == null ? null : user.getSheet(sheet);
+        if (existingSheet == null) {
+            return; // Deleted since it was queued
+        }
+        ChangeLog changes = published ? existingSheet.getPublishedChanges() : existingSheet.getSubscribedChanges();
+        int first = this.retention.firstRetained(changes, System.currentTimeMillis()); // Only this thread prunes, so it stays valid
+        if (first <= changes.getFirst()) {
+            return; // Nothing to drop
+        }
+        Lock lock = this.sheetLocks.forSheet(publisher, sheet).writeLock();
+        lock.lock();
+        try {
+            if (published) {
+                existingSheet.prunePublished(first);
+            } else {
+                existingSheet.pruneSubscribed(first);
             }
-            grid.add(row); // Add the row to the grid
+        } finally {
+            lock.unlock();
         }
-        return grid; // Return the grid
     }
 
     /**
-     * Updates the copy grid with the original data.
+     * Creates the populated cells described by the update data. Only the cells in the
+     * payload are created; every other cell of the sheet is left empty.
      *
-     * @param grid new grid
-     * @param data previous grid
+     * @param data the row, column and value of each updated cell
+     * @return a list of Cell
      * @author Ben
      */
-    private void populateUpdatedGrid(List<List<Cell>> grid, List<List<String>> data) {
+    private List<Cell> createUpdatedCells(List<List<String>> data) {
+        List<Cell> cells = new ArrayList<>(data.size()); // One cell per payload entry
         for (List<String> ls : data) { // Iterate through the data
-            int row = Integer.parseInt(ls.get(0)); // Get the row index from the data
-            int col = Integer.parseInt(ls.get(1)); // Get the column index from the data
-            String value = ls.get(2); // Get the cell value from the data
-            grid.get(row).get(col).setValue(value); // Set the cell value in the grid
-            grid.get(row).get(col).setRawData(value); // Set the raw data in the grid
+            Cell cell = new Cell(); // Create an empty cell
+            cell.setRawData(ls.get(2)); // Set the raw data of the cell; its value is set when it is loaded
+            cell.setRow(Integer.parseInt(ls.get(0))); // Get the row index from the data
+            cell.setCol(Integer.parseInt(ls.get(1))); // Get the column index from the data
+            cells.add(cell);
         }
+        return cells; // Return the cells
     }
 
     /**
@@ -355,15 +941,7 @@ public class Server {
      * @author Ben
      */
     private ISpreadsheet createUpdatedVersion(ISpreadsheet existingSheet) {
-        ISpreadsheet updatedVersion = new Spreadsheet(existingSheet.getName()); // Create a new spreadsheet with the same name
-        List<List<Cell>> grid = existingSheet.getCells(); // Get the grid from the existing sheet
-        for (int i = 0; i < grid.size(); i++) {
-            for (int j = 0; j < grid.get(i).size(); j++) {
-                updatedVersion.setCellValue(i, j, grid.get(i).get(j).getValue()); // Set the cell value in the updated version
-                updatedVersion.setCellRawdata(i, j, grid.get(i).get(j).getRawdata()); // Set the raw data in the updated version
-            }
-        }
-        return updatedVersion; // Return the updated version
+        return existingSheet.snapshot(); // Shares every cell the next update leaves unchanged
     }
 
     /**
@@ -384,6 +962,22 @@ public class Server {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, e.getMessage(), new ArrayList<>())); // Return 401 status if credentials are invalid
         }
+        if (authenticate(authHeader, credentials) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
+        }
+        return update(argument, false);
+    }
+
+    /**
+     * Adds an update to a sheet as its newest published or subscribed version, once the
+     * credentials have been checked.
+     *
+     * @param argument  an Argument containing publisher, sheet name, and payload
+     * @param published true for a published version, false for a subscribed one
+     * @return a ResponseEntity containing the Result of the update
+     */
+    private ResponseEntity<Result> update(Argument argument, boolean published) {
         String publisher = argument.getPublisher(); // Get the publisher from the argument
         String sheet = argument.getSheet(); // Get the sheet name from the argument
         String payload = argument.getPayload(); // Get the payload from the argument
@@ -392,18 +986,53 @@ public class Server {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, "User not found", new ArrayList<>())); // Return 404 status if user is not found
         }
-        // New updated sheet must not mutate old version and must be initialized with empty grid
-        // to account for empty spaces or deletions in the update
-        for (ISpreadsheet existingSheet : user.getSheets()) { // Iterate through the user's sheets
-            if (existingSheet.getName().equals(sheet)) {
-                List<List<String>> data = Home.convertStringTo2DArray(payload); // Convert the payload to a 2D array
-                List<List<Cell>> updatedGrid = initializeEmptyGrid(existingSheet.getRows(), existingSheet.getCols()); // Initialize an empty grid
-                populateUpdatedGrid(updatedGrid, data); // Populate the updated grid with the data
-                existingSheet.setGrid(updatedGrid); // Set the updated grid in the existing sheet
-                ISpreadsheet updatedVersion = createUpdatedVersion(existingSheet); // Create an updated version of the sheet
-                existingSheet.addSubscribed(updatedVersion); // Add the updated version to the list of subscribed versions
-                return ResponseEntity.ok(new Result(true, "Sheet updated successfully", new ArrayList<>())); // Return 200 status if sheet is updated successfully
+        ISpreadsheet existingSheet = user.getSheet(sheet); // Sheets are indexed by name
+        if (existingSheet != null) {
+            this.metrics.record("update_payload_chars", "Characters in the payload of an update.",
+                    payload == null ? 0 : payload.length());
+            List<Cell> cells = createUpdatedCells(Home.convertStringTo2DArray(payload)); // Parsed before taking the lock
+            ContentHash content = ContentHash.of(cells);
+            long change;
+            boolean unchanged = false; // Whether the update is identical to the latest version
+            Lock lock = this.sheetLocks.forSheet(publisher, sheet).writeLock(); // Updates to other sheets do not wait
+            lock.lock();
+            try {
+                if (user.getSheet(sheet) != existingSheet) {
+                    return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                            false, "Sheet not found", new ArrayList<>())); // Deleted, or deleted and created again, before the lock was taken
+                }
+                ChangeLog changes = published ? existingSheet.getPublishedChanges() : existingSheet.getSubscribedChanges();
+                int version = changes.size(); // The id of the latest update
+                if (isStale(argument.getExpectedVersion(), version)) {
+                    return ResponseEntity.status(HttpStatus.CONFLICT).body(new Result(
+                            false, "Sheet has changed since version " + argument.getExpectedVersion()
+                            + "; current version is " + version, new ArrayList<>())); // Return 409 status instead of losing an update
+                }
+                if (content.equals(changes.getContentHash())) {
+                    this.unchangedUpdates.increment();
+                    change = this.journal == null ? 0 : this.journal.getWritten(); // The latest version may still be unsaved
+                    unchanged = true;
+                } else {
+                    change = record(() -> applyUpdate(publisher, existingSheet, cells, content, published),
+                            published ? ServerJournal.UPDATE_PUBLISHED : ServerJournal.UPDATE_SUBSCRIPTION,
+                            publisher, sheet, payload); // Logged, then loaded as a new version
+                    this.metrics.record("sheet_versions", "Versions kept of a sheet after an update.",
+                            changes.size() - changes.getFirst());
+                    if (this.retention.isOverLimit(changes)) {
+                        schedulePrune(publisher, sheet, published); // Dropped in the background; this update does not wait
+                    }
+                }
+            } catch (IOException e) {
+                return notSaved(e);
+            } finally {
+                lock.unlock();
+            }
+            if (unchanged) {
+                return awaitSaved(change, new Result(true, "Sheet unchanged", new ArrayList<>())); // Acknowledged once the identical version is saved
             }
+            ResponseEntity<Result> response = awaitSaved(change, new Result(true, "Sheet updated successfully", new ArrayList<>())); // Return 200 status if sheet is updated successfully
+            this.updateWaiters.wake(publisher, sheet, published); // Answers the requests waiting for this version
+            return response;
         }
         return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                 false, "Sheet not found", new ArrayList<>())); // Return 404 status if sheet is not found
@@ -427,13 +1056,27 @@ public class Server {
         }
         String username = credentials[0]; // Get the username from credentials
         String password = credentials[1]; // Get the password from credentials
-        if (findByUsername(username)) {
+        if (availUsers.containsKey(username)) { // Checked before hashing, which is slow
             return ResponseEntity.ok(new Result(
                     true, "User already exists", new ArrayList<>())); // Return 401 status if user already exists
         }
-        AppUser newUser = new AppUser(username, password); // Create a new user
-        availUsers.add(newUser); // Add the new user to the list of available users
-        return ResponseEntity.ok(new Result(
+        String hash = throttled(() -> Passwords.hash(password)); // Only the hash is stored, in memory and in the journal
+        AppUser newUser = new AppUser(username, hash); // Create a new user
+        long change;
+        this.registrations.lock();
+        try {
+            if (availUsers.containsKey(username)) { // Registers the user unless the name is taken
+                return ResponseEntity.ok(new Result(
+                        true, "User already exists", new ArrayList<>())); // Return 401 status if user already exists
+            }
+            change = record(() -> availUsers.put(username, newUser), ServerJournal.REGISTER, username, hash);
+            this.directoryVersion.incrementAndGet(); // After the change, so no ETag is given to an older list
+        } catch (IOException e) {
+            return notSaved(e);
+        } finally {
+            this.registrations.unlock();
+        }
+        return awaitSaved(change, new Result(
                 true, "Publisher registered successfully", new ArrayList<>())); // Return 200 status if user is registered successfully
     }
 
@@ -453,9 +1096,7 @@ public class Server {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, e.getMessage(), new ArrayList<>())); // Return 401 status if credentials are invalid
         }
-        String username = credentials[0]; // Get the username from credentials
-        String password = credentials[1]; // Get the password from credentials
-        if (existingUser(username, password)) {
+        if (authenticate(authHeader, credentials) != null) {
             return ResponseEntity.ok(new Result(
                     true, "Publisher logged in successfully", new ArrayList<>())); // Return 200 status if user is logged in successfully
         } else {
@@ -468,13 +1109,15 @@ public class Server {
      * Retrieves all updates after the given id for the specific publisher and sheet
      * for a subscriber.
      *
-     * @param authHeader the authorization header containing the credentials.
-     * @param argument   the argument containing the publisher, sheet name and id
-     * @return a ResponseEntity containing the result of the updates retrieval.
+     * @param authHeader  the authorization header containing the credentials.
+     * @param ifNoneMatch the ETag of the updates the sender already has, if any
+     * @param argument    the argument containing the publisher, sheet name and id
+     * @return a ResponseEntity containing the result of the updates retrieval, or 304 if the sender has them.
      * @author Tony
      */
     @PostMapping("/getUpdatesForSubscription") // Mapping for POST requests to /getUpdatesForSubscription
     public ResponseEntity<?> getUpdatesForSubscription(@RequestHeader("Authorization") String authHeader,
+                                                       @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
                                                        @RequestBody Argument argument) {
         String[] credentials = decodeBasicAuth(authHeader); // Decode the Basic Auth header
         try {
@@ -483,32 +1126,11 @@ public class Server {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, e.getMessage(), new ArrayList<>())); // Return 401 status if credentials are invalid
         }
-        String publisher = argument.getPublisher(); // Get the publisher from the argument
-        String sheet = argument.getSheet(); // Get the sheet name from the argument
-        String id = argument.getId(); // Get the id from the argument
-        IAppUser user = findUser(publisher); // Find the user by publisher name
-        if (user == null) {
+        if (authenticate(authHeader, credentials) == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
-                    false, "User not found", new ArrayList<>()));  // Return 404 status if user is not found
+                    false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
         }
-        List<Argument> arguments = new ArrayList<>(); // Initialize the list of arguments
-        for (ISpreadsheet existingSheet : user.getSheets()) { // Iterate through the user's sheets
-            if (existingSheet.getName().equals(sheet)) {
-                List<String> listOfPayload = new ArrayList<>();
-                List<ISpreadsheet> versions = existingSheet.getPublishedVersions(); // Get the list of published versions
-                for (int i = Integer.parseInt(id); i < versions.size(); i++) { // Iterate through the versions starting from the given id
-                    String payload = Spreadsheet.convertSheetToPayload(versions.get(i)); // Convert the sheet to a payload
-                    payload = payload.replace("\\n", "\n");
-                    System.out.println(payload);
-                    listOfPayload.add(payload);
-                }
-                String payload = trackDifferences(listOfPayload);
-                arguments.add(new Argument(publisher, sheet, String.valueOf(versions.size()), payload));
-                return ResponseEntity.ok(new Result(true, "Updates received", arguments)); // Return 200 status with the list of updates
-            }
-        }
-        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
-                false, "Sheet not found", new ArrayList<>()));  // Return 404 status if sheet is not found
+        return readUpdates(argument, ifNoneMatch, true);
     }
 
     /**
@@ -555,28 +1177,22 @@ public class Server {
      * @author Ben
      */
     private static Map<String, String> parseCurrentValues(String str) {
-        Map<String, String> values = new LinkedHashMap<>();
-        String[] lines = str.split("\n");
-        for (String line : lines) {
-            if (line.trim().isEmpty()) continue;
-            String[] parts = line.split(" ", 2);
-            if (parts.length < 2) continue;
-            values.put(parts[0].trim(), parts[1].trim());
-        }
-        return values;
+        return ChangeLog.parseEntries(str); // Split the payload into cell references and values
     }
 
     /**
      * Retrieves all updates after the given id for the specific publisher and sheet
      * for a publisher.
      *
-     * @param authHeader the authorization header containing the credentials.
-     * @param argument   the argument containing the subscription details.
-     * @return a ResponseEntity containing the result of the updates retrieval.
+     * @param authHeader  the authorization header containing the credentials.
+     * @param ifNoneMatch the ETag of the updates the sender already has, if any
+     * @param argument    the argument containing the subscription details.
+     * @return a ResponseEntity containing the result of the updates retrieval, or 304 if the sender has them.
      * @author Tony
      */
     @PostMapping("/getUpdatesForPublished") // Mapping for POST requests to /getUpdatesForPublished
     public ResponseEntity<?> getUpdatesForPublished(@RequestHeader("Authorization") String authHeader,
+                                                    @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
                                                     @RequestBody Argument argument) {
         String[] credentials = decodeBasicAuth(authHeader); // Decode the Basic Auth header
         try {
@@ -585,32 +1201,393 @@ public class Server {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                     false, e.getMessage(), new ArrayList<>())); // Return 401 status if credentials are invalid
         }
+        if (authenticate(authHeader, credentials) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
+        }
+        return readUpdates(argument, ifNoneMatch, false);
+    }
+
+    /**
+     * Merges the updates of a sheet after the given id into one payload, once the
+     * credentials have been checked.
+     *
+     * @param argument    the argument containing the publisher, sheet name and id
+     * @param ifNoneMatch the ETag of the updates the sender already has, or null
+     * @param published   true for the published versions, false for the subscribed ones
+     * @return a ResponseEntity containing the result of the updates retrieval, or 304 if the sender has them.
+     */
+    private ResponseEntity<?> readUpdates(Argument argument, String ifNoneMatch, boolean published) {
         String publisher = argument.getPublisher(); // Get the publisher from the argument
         String sheet = argument.getSheet(); // Get the sheet name from the argument
-        String id = argument.getId();  // Get the id from the argument
+        String id = argument.getId(); // Get the id from the argument
         IAppUser user = findUser(publisher); // Find the user by publisher name
         if (user == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
-                    false, "User not found", new ArrayList<>())); // Return 404 status if user is not found
+                    false, "User not found", new ArrayList<>()));  // Return 404 status if user is not found
         }
         List<Argument> arguments = new ArrayList<>(); // Initialize the list of arguments
-        for (ISpreadsheet existingSheet : user.getSheets()) { // Iterate through the user's sheets
-
-            if (existingSheet.getName().equals(sheet)) {
-                List<String> listOfPayload = new ArrayList<>();
-                List<ISpreadsheet> versions = existingSheet.getSubscribedVersions(); // Get the list of subscribed versions
-                for (int i = Integer.parseInt(id); i < versions.size(); i++) { // Iterate through the versions starting from the given id
-                    String payload = Spreadsheet.convertSheetToPayload(versions.get(i)); // Convert the sheet to a payload
-                    payload = payload.replace("\\n", "\n");
-                    System.out.println(payload);
-                    listOfPayload.add(payload);
-                }
-                String payload = trackDifferences(listOfPayload);
-                arguments.add(new Argument(publisher, sheet, String.valueOf(versions.size()), payload));
-                return ResponseEntity.ok(new Result(true, "Updates received", arguments)); // Return 200 status with the list of updates
+        long directory = this.directoryVersion.get(); // Read before the sheet, so a recreated sheet gets other ETags
+        ISpreadsheet existingSheet = user.getSheet(sheet); // Sheets are indexed by name
+        if (existingSheet != null) {
+            ChangeLog changes = published ? existingSheet.getPublishedChanges() : existingSheet.getSubscribedChanges();
+            int end = changes.size(); // The number of versions
+            String etag = etag(directory, publisher, sheet, id, end); // Read before the updates, so it is never newer than them
+            if (matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build(); // The sender has these updates
             }
+            int from = Integer.parseInt(id); // The first version the sender has not seen
+            ISpreadsheet first = from < end ? findVersion(publisher, sheet, existingSheet, published, from) : null;
+            String payload = changes.changesSince(from, first, end); // Merge the recorded changes since the id, or since the checkpoint if it was pruned
+            this.metrics.record("updates_payload_chars", "Characters in the merged changes sent for a request for updates.",
+                    payload.length());
+            arguments.add(new Argument(publisher, sheet, String.valueOf(end), payload));
+            return ResponseEntity.ok().eTag(etag).body(new Result(
+                    true, "Updates received", arguments)); // Return 200 status with the list of updates
         }
         return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
                 false, "Sheet not found", new ArrayList<>())); // Return 404 status if sheet is not found
     }
+
+    /**
+     * Long-poll variant of getUpdatesForSubscription: waits until the sheet has a
+     * published version after the given id, or until the timeout passes, then answers
+     * as getUpdatesForSubscription does. No thread is held while waiting.
+     *
+     * @param authHeader the authorization header containing the credentials.
+     * @param timeout    the longest time to wait, in milliseconds.
+     * @param argument   the argument containing the publisher, sheet name and id
+     * @return the result of the updates retrieval, once there is one.
+     */
+    @PostMapping(value = "/getUpdatesForSubscription", params = "timeout")
+    public DeferredResult<ResponseEntity<?>> awaitUpdatesForSubscription(@RequestHeader("Authorization") String authHeader,
+                                                                         @RequestParam("timeout") long timeout,
+                                                                         @RequestBody Argument argument) {
+        return awaitUpdates(authHeader, argument, timeout, true);
+    }
+
+    /**
+     * Long-poll variant of getUpdatesForPublished: waits until the sheet has a
+     * subscribed version after the given id, or until the timeout passes, then answers
+     * as getUpdatesForPublished does. No thread is held while waiting.
+     *
+     * @param authHeader the authorization header containing the credentials.
+     * @param timeout    the longest time to wait, in milliseconds.
+     * @param argument   the argument containing the publisher, sheet name and id
+     * @return the result of the updates retrieval, once there is one.
+     */
+    @PostMapping(value = "/getUpdatesForPublished", params = "timeout")
+    public DeferredResult<ResponseEntity<?>> awaitUpdatesForPublished(@RequestHeader("Authorization") String authHeader,
+                                                                      @RequestParam("timeout") long timeout,
+                                                                      @RequestBody Argument argument) {
+        return awaitUpdates(authHeader, argument, timeout, false);
+    }
+
+    /**
+     * Answers a long-poll request at once if there is a new version, and otherwise
+     * registers it to be answered when one is added or when the timeout passes.
+     *
+     * @param authHeader the authorization header containing the credentials
+     * @param argument   the argument containing the publisher, sheet name and id
+     * @param timeout    the longest time to wait, in milliseconds
+     * @param published  true to wait for a published version, false for a subscribed one
+     * @return the pending result
+     */
+    private DeferredResult<ResponseEntity<?>> awaitUpdates(String authHeader, Argument argument,
+                                                           long timeout, boolean published) {
+        DeferredResult<ResponseEntity<?>> deferred = new DeferredResult<>(Math.max(0, Math.min(timeout, MAX_WAIT)));
+        if (!hasValidCredentials(authHeader) || hasNewVersion(argument, published)) {
+            deferred.setResult(getUpdates(authHeader, argument, published)); // Nothing to wait for
+            return deferred;
+        }
+        String publisher = argument.getPublisher();
+        String sheet = argument.getSheet();
+        Runnable wake = () -> {
+            try {
+                deferred.setResult(getUpdates(authHeader, argument, published)); // Ignored if already answered
+            } catch (RuntimeException e) {
+                deferred.setErrorResult(e); // Not thrown at the thread that added the version
+            }
+        };
+        deferred.onTimeout(wake); // Answers with no updates
+        deferred.onCompletion(() -> this.updateWaiters.cancel(publisher, sheet, published, wake));
+        this.updateWaiters.await(publisher, sheet, published, wake);
+        if (hasNewVersion(argument, published)) {
+            wake.run(); // Added before the request was registered, so nothing else will wake it
+        }
+        return deferred;
+    }
+
+    /**
+     * Answers a request for updates.
+     *
+     * @param authHeader the authorization header containing the credentials
+     * @param argument   the argument containing the publisher, sheet name and id
+     * @param published  true for the published versions, false for the subscribed ones
+     * @return a ResponseEntity containing the result of the updates retrieval
+     */
+    private ResponseEntity<?> getUpdates(String authHeader, Argument argument, boolean published) {
+        return published ? getUpdatesForSubscription(authHeader, null, argument)
+                : getUpdatesForPublished(authHeader, null, argument);
+    }
+
+    /**
+     * Checks the credentials of a request without answering it.
+     *
+     * @param authHeader the authorization header containing the credentials
+     * @return true if the credentials belong to an existing user
+     */
+    private boolean hasValidCredentials(String authHeader) {
+        String[] credentials = decodeBasicAuth(authHeader);
+        try {
+            validateCredentials(credentials);
+        } catch (ResponseStatusException e) {
+            return false;
+        }
+        return authenticate(authHeader, credentials) != null;
+    }
+
+    /**
+     * Builds the weak ETag of a read response. It is weak because the same updates may be
+     * sent as JSON or protobuf, and compressed or not.
+     *
+     * @param version a count that changes whenever the response would
+     * @param request what else the response depends on
+     * @return the ETag
+     */
+    private String etag(String version, Object... request) {
+        return "W/\"" + this.etagPrefix + "-" + version + "-" + Integer.toHexString(Arrays.hashCode(request)) + "\"";
+    }
+
+    /**
+     * Builds the weak ETag of a read response for a sheet's updates.
+     *
+     * @param directory the users and sheets added or removed, read before the sheet was found
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param id        the id the sender has seen
+     * @param versions  the number of versions of the sheet
+     * @return the ETag
+     */
+    private String etag(long directory, String publisher, String sheet, String id, int versions) {
+        return etag(directory + "." + versions, publisher, sheet, id);
+    }
+
+    /**
+     * Checks if an If-None-Match header names an ETag. Tags are compared weakly.
+     *
+     * @param ifNoneMatch the header, or null if there is none
+     * @param etag        the current ETag
+     * @return true if the sender already has the current response
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if ((tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a long-poll request can be answered without waiting: the sheet has a
+     * version the sender has not seen, or the request is one that fails.
+     *
+     * @param argument  the argument containing the publisher, sheet name and id
+     * @param published true for the published versions, false for the subscribed ones
+     * @return true if the request should be answered now
+     */
+    private boolean hasNewVersion(Argument argument, boolean published) {
+        IAppUser user = argument.getPublisher() == null ? null : findUser(argument.getPublisher());
+        ISpreadsheet existingSheet = user == null || argument.getSheet() == null ? null : user.getSheet(argument.getSheet());
+        if (existingSheet == null || argument.getId() == null || !argument.getId().trim().matches("\\d{1,9}")) {
+            return true; // Answered with the error at once
+        }
+        int versions = published ? existingSheet.getPublishedChanges().size()
+                : existingSheet.getSubscribedChanges().size();
+        return versions > Integer.parseInt(argument.getId().trim());
+    }
+
+    /**
+     * Opens a server-sent event stream of a sheet's published versions for a subscriber.
+     * The stream starts with every cell of the latest version if there are versions after
+     * the given id, then sends the cells changed by each new version as it is published.
+     *
+     * @param authHeader the authorization header containing the credentials.
+     * @param argument   the argument containing the publisher, sheet name and id
+     * @return the stream, or a ResponseEntity containing the error.
+     */
+    @PostMapping("/streamUpdatesForSubscription")
+    public ResponseEntity<?> streamUpdatesForSubscription(@RequestHeader("Authorization") String authHeader,
+                                                          @RequestBody Argument argument) {
+        return streamUpdates(authHeader, argument, true);
+    }
+
+    /**
+     * Opens a server-sent event stream of the changes subscribers propose to a sheet, for
+     * its publisher. The stream starts with every cell of the latest proposal if there
+     * are proposals after the given id, then sends the cells changed by each new one.
+     *
+     * @param authHeader the authorization header containing the credentials.
+     * @param argument   the argument containing the publisher, sheet name and id
+     * @return the stream, or a ResponseEntity containing the error.
+     */
+    @PostMapping("/streamUpdatesForPublished")
+    public ResponseEntity<?> streamUpdatesForPublished(@RequestHeader("Authorization") String authHeader,
+                                                       @RequestBody Argument argument) {
+        return streamUpdates(authHeader, argument, false);
+    }
+
+    /**
+     * Opens a stream of a sheet's published or subscribed versions.
+     *
+     * @param authHeader the authorization header containing the credentials
+     * @param argument   the argument containing the publisher, sheet name and id
+     * @param published  true for the published versions, false for the subscribed ones
+     * @return the stream, or a ResponseEntity containing the error
+     */
+    private ResponseEntity<?> streamUpdates(String authHeader, Argument argument, boolean published) {
+        String[] credentials = decodeBasicAuth(authHeader); // Decode the Basic Auth header
+        try {
+            validateCredentials(credentials); // Validate the credentials
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, e.getMessage(), new ArrayList<>())); // Return 401 status if credentials are invalid
+        }
+        if (authenticate(authHeader, credentials) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
+        }
+        String publisher = argument.getPublisher(); // Get the publisher from the argument
+        String sheet = argument.getSheet(); // Get the sheet name from the argument
+        IAppUser user = findUser(publisher); // Find the user by publisher name
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, "User not found", new ArrayList<>())); // Return 404 status if user is not found
+        }
+        ISpreadsheet existingSheet = user.getSheet(sheet); // Sheets are indexed by name
+        if (existingSheet == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, "Sheet not found", new ArrayList<>())); // Return 404 status if sheet is not found
+        }
+        String id = argument.getId() == null ? "" : argument.getId().trim();
+        int from = id.matches("\\d{1,9}") ? Integer.parseInt(id) : 0; // Anything else gets the whole sheet
+        ResponseBodyEmitter stream;
+        Lock lock = this.sheetLocks.forSheet(publisher, sheet).readLock(); // No version is added until the stream is open
+        lock.lock();
+        try {
+            List<ISpreadsheet> versions = published ? existingSheet.getPublishedVersions()
+                    : existingSheet.getSubscribedVersions();
+            ChangeLog changes = published ? existingSheet.getPublishedChanges() : existingSheet.getSubscribedChanges();
+            int latest = changes.size();
+            byte[] first = null;
+            if (from < latest) {
+                first = UpdateStreams.encode("sheet", latest,
+                        changes.changesSince(latest - 1, versions.get(versions.size() - 1), latest)); // Every cell of the latest version
+            }
+            stream = this.updateStreams.open(publisher, sheet, published, first);
+        } finally {
+            lock.unlock();
+        }
+        return ResponseEntity.ok().contentType(MediaType.TEXT_EVENT_STREAM).body(stream);
+    }
+
+    /**
+     * Runs several operations in one request, for clients that keep many sheets in sync.
+     * The credentials are checked once for all of them. Operations on the same sheet run
+     * in the order given; operations on different sheets run at the same time.
+     *
+     * Each operation names the endpoint it stands for: updatePublished,
+     * updateSubscription, getUpdatesForSubscription, getUpdatesForPublished or getSheets,
+     * and carries the fields that endpoint takes.
+     *
+     * @param authHeader the authorization header containing the credentials.
+     * @param operations the operations
+     * @return a ResponseEntity containing the Result of each operation, in order.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> batch(@RequestHeader("Authorization") String authHeader,
+                                   @RequestBody List<Operation> operations) {
+        String[] credentials = decodeBasicAuth(authHeader); // Decode the Basic Auth header
+        try {
+            validateCredentials(credentials); // Validate the credentials
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, e.getMessage(), new ArrayList<>())); // Return 401 status if credentials are invalid
+        }
+        if (authenticate(authHeader, credentials) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new Result(
+                    false, "Wrong username or password", new ArrayList<>())); // Return 401 status if the password is wrong
+        }
+        if (operations.size() > MAX_BATCH) {
+            return ResponseEntity.status(413).body(new Result(
+                    false, "Too many operations: at most " + MAX_BATCH, new ArrayList<>())); // Return 413 status for an oversized batch
+        }
+        return ResponseEntity.ok(this.batchRunner.run(operations, this::perform)); // Return 200 status with every result
+    }
+
+    /**
+     * Runs one operation of a batch, once the credentials have been checked.
+     *
+     * @param operation the operation
+     * @return the Result the operation's endpoint would have sent
+     */
+    private Result perform(Operation operation) {
+        String op = operation.getOp() == null ? "" : operation.getOp();
+        ResponseEntity<?> response;
+        switch (op) {
+            case "updatePublished":
+                response = update(operation, true);
+                break;
+            case "updateSubscription":
+                response = update(operation, false);
+                break;
+            case "getUpdatesForSubscription":
+                response = readUpdates(operation, null, true);
+                break;
+            case "getUpdatesForPublished":
+                response = readUpdates(operation, null, false);
+                break;
+            case "getSheets":
+                response = listSheets(operation, null);
+                break;
+            default:
+                return new Result(false, "Unknown operation: " + op, new ArrayList<>());
+        }
+        return (Result) response.getBody();
+    }
+
+    /**
+     * Writes the server's metrics in the Prometheus text format. Only answered for
+     * requests from the same machine, so the metrics are not published to every client.
+     *
+     * @param request the request, to tell where it came from
+     * @return a ResponseEntity containing the metrics, or 404 for a request from elsewhere
+     */
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public ResponseEntity<String> metrics(HttpServletRequest request) {
+        if (!isLocal(request.getRemoteAddr())) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build(); // Return 404 status as if there were no metrics
+        }
+        return ResponseEntity.ok(this.metrics.scrape()); // Return 200 status with the metrics
+    }
+
+    /**
+     * Checks if an address is one of this machine's loopback addresses.
+     *
+     * @param address the address, as an IP literal
+     * @return true if the address is a loopback address
+     */
+    private static boolean isLocal(String address) {
+        try {
+            return address != null && InetAddress.getByName(address).isLoopbackAddress(); // An IP literal is never looked up
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
 }
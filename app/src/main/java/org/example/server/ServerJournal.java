@@ -0,0 +1,564 @@
+package org.example.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to the server's users and sheets, kept in a
+ * data directory so they survive a restart.
+ *
+ * Every change is written to the current log segment before it is applied. Requests
+ * wait for their record to reach the disk with {@link #sync(long)}; one fsync covers
+ * every record written before it, so concurrent requests share it instead of each
+ * paying for their own. After a number of records a snapshot of the whole state is
+ * written, in the same record format, and the segments it covers are deleted, so a
+ * restart loads the snapshot and replays only the records written after it.
+ *
+ * A record is its length, a CRC32 of its body and the body: an operation code and its
+ * string fields. A record cut short by a crash fails its length or checksum, and
+ * recovery truncates the log before it.
+ *
+ * Writes and fsyncs are guarded by explicit locks rather than monitors, so a request on
+ * a virtual thread that waits for the disk releases its carrier thread.
+ */
+public class ServerJournal {
+    public static final byte REGISTER = 1; // username, password hash (plain text in journals written before hashing)
+    public static final byte CREATE_SHEET = 2; // publisher, sheet
+    public static final byte DELETE_SHEET = 3; // publisher, sheet
+    public static final byte UPDATE_PUBLISHED = 4; // publisher, sheet, payload
+    public static final byte UPDATE_SUBSCRIPTION = 5; // publisher, sheet, payload
+    public static final byte PUBLISHED_CHANGES = 6; // publisher, sheet, changes since the previous version
+    public static final byte SUBSCRIBED_CHANGES = 7; // publisher, sheet, changes since the previous version
+    public static final byte PUBLISHED_CHECKPOINT = 8; // publisher, sheet, id of the oldest version kept, every cell of it
+    public static final byte SUBSCRIBED_CHECKPOINT = 9; // publisher, sheet, id of the oldest version kept, every cell of it
+
+    private static final String SEGMENT_PREFIX = "journal-"; // Followed by the number of the segment's first record
+    private static final String SNAPSHOT_PREFIX = "snapshot-"; // Followed by the number of the first record not covered
+    private static final int SNAPSHOT_MAGIC = 0x48534B31; // Marks a complete snapshot file
+    private static final int MAX_RECORD = 1 << 30; // Longer lengths can only be a torn write
+
+    /**
+     * Applies recovered records to the server's state and lists the state as records
+     * for a snapshot.
+     */
+    public interface Handler {
+
+        /**
+         * Applies a recovered record.
+         *
+         * @param entry the record.
+         */
+        void replay(Entry entry);
+
+        /**
+         * Captures the current state. Called while no change can be made, so it should
+         * only take references to the state, without waiting for any lock; the records
+         * are listed from them, and written, after changes are allowed again.
+         *
+         * @return lists the records that recreate the captured state, in the order they must be replayed.
+         */
+        Supplier<List<Entry>> compact();
+    }
+
+    /**
+     * An operation and its fields.
+     */
+    public static final class Entry {
+        private final byte op; // One of the operation codes
+        private final String[] fields; // The operation's arguments
+        private int size; // Bytes the record took in the file it was read from
+
+        /**
+         * Constructs a record.
+         *
+         * @param op     the operation code.
+         * @param fields the operation's arguments.
+         */
+        public Entry(byte op, String... fields) {
+            this.op = op;
+            this.fields = fields;
+        }
+
+        /**
+         * Gets the operation code.
+         *
+         * @return the operation code.
+         */
+        public byte getOp() {
+            return this.op;
+        }
+
+        /**
+         * Gets an argument of the operation.
+         *
+         * @param index the index of the argument.
+         * @return the argument.
+         */
+        public String getField(int index) {
+            return this.fields[index];
+        }
+    }
+
+    private final Path dir; // The data directory
+    private final Handler handler; // Replays and lists the state
+    private final int checkpointEvery; // Records written between snapshots
+    private final ReadWriteLock checkpointLock; // Changes share it; taking a snapshot excludes them briefly
+    private final Lock syncLock; // Serializes fsyncs and segment switches
+    private final Lock bufferLock; // Guards the buffered stream of the current segment and the counters
+    private final ExecutorService checkpointer; // Writes snapshots off the request threads
+
+    private FileChannel channel; // The current segment, for fsync
+    private DataOutputStream out; // Buffered writes to the current segment
+    private long written; // Number of records written, which is the number of the next record
+    private volatile long synced; // Number of records known to be on disk
+    private long sinceCheckpoint; // Records written since the last snapshot was started
+    private boolean checkpointPending; // Whether a snapshot is queued or being written
+
+    /**
+     * Opens the journal in a directory, recovering the state it holds.
+     *
+     * @param dir             the data directory, created if it does not exist.
+     * @param checkpointEvery the number of records between snapshots.
+     * @param handler         applies the recovered records and lists the state for snapshots.
+     * @throws IOException if the directory cannot be read or written.
+     */
+    public ServerJournal(Path dir, int checkpointEvery, Handler handler) throws IOException {
+        this.dir = dir;
+        this.handler = handler;
+        this.checkpointEvery = checkpointEvery;
+        this.checkpointLock = new ReentrantReadWriteLock();
+        this.syncLock = new ReentrantLock();
+        this.bufferLock = new ReentrantLock();
+        this.checkpointer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Files.createDirectories(dir);
+        this.written = recover();
+        this.synced = this.written;
+        openSegment();
+    }
+
+    /**
+     * Writes a record, then applies the change it describes. The change is applied
+     * before any snapshot is taken that leaves the record out, so every change is either
+     * in the snapshot or in a segment after it.
+     *
+     * @param change applies the change to the server's state.
+     * @param op     the operation code.
+     * @param fields the operation's arguments.
+     * @return the number of the record, to pass to {@link #sync(long)}.
+     * @throws IOException if the record could not be written; the change is not applied.
+     */
+    public long append(Runnable change, byte op, String... fields) throws IOException {
+        byte[] record = encode(new Entry(op, fields)); // Encoded before taking any lock
+        long number;
+        boolean checkpoint = false;
+        this.checkpointLock.readLock().lock();
+        try {
+            this.bufferLock.lock();
+            try {
+                this.out.write(record);
+                number = ++this.written;
+                if (++this.sinceCheckpoint >= this.checkpointEvery && !this.checkpointPending) {
+                    this.checkpointPending = true;
+                    checkpoint = true;
+                }
+            } finally {
+                this.bufferLock.unlock();
+            }
+            change.run();
+        } finally {
+            this.checkpointLock.readLock().unlock();
+        }
+        if (checkpoint) {
+            this.checkpointer.execute(this::checkpointInBackground);
+        }
+        return number;
+    }
+
+    /**
+     * Gets the number of records written so far. Syncing it waits for every change
+     * applied before this was called.
+     *
+     * @return the number of the latest record, to pass to {@link #sync(long)}.
+     */
+    public long getWritten() {
+        this.bufferLock.lock();
+        try {
+            return this.written;
+        } finally {
+            this.bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a record is on disk. If another thread is already syncing, this waits
+     * for it and then syncs everything written in the meantime at once.
+     *
+     * @param number the number of the record, as returned by append.
+     * @throws IOException if the segment could not be synced.
+     */
+    public void sync(long number) throws IOException {
+        if (this.synced >= number) {
+            return; // Covered by an earlier fsync
+        }
+        this.syncLock.lock();
+        try {
+            if (this.synced >= number) {
+                return; // Covered by the fsync this thread waited for
+            }
+            long target;
+            this.bufferLock.lock();
+            try {
+                this.out.flush();
+                target = this.written; // Every record written so far
+            } finally {
+                this.bufferLock.unlock();
+            }
+            this.channel.force(false);
+            this.synced = target;
+        } finally {
+            this.syncLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current state and deletes the segments it covers.
+     *
+     * @throws IOException if the snapshot could not be written.
+     */
+    public void checkpoint() throws IOException {
+        Supplier<List<Entry>> state;
+        long covered;
+        this.checkpointLock.writeLock().lock(); // No change is half written or half applied
+        try {
+            this.syncLock.lock();
+            this.bufferLock.lock();
+            try {
+                this.out.flush();
+                this.channel.force(false);
+                this.out.close();
+                covered = this.written;
+                this.synced = covered;
+                this.sinceCheckpoint = 0;
+                openSegment(); // Later records go to a segment the snapshot does not cover
+            } finally {
+                this.bufferLock.unlock();
+                this.syncLock.unlock();
+            }
+            state = this.handler.compact();
+        } finally {
+            this.checkpointLock.writeLock().unlock();
+        }
+        writeSnapshot(covered, state.get()); // Built while changes go on
+        deleteCovered(covered);
+    }
+
+    /**
+     * Writes a final snapshot, so the next start has nothing to replay, and closes the
+     * journal.
+     *
+     * @throws IOException if the snapshot could not be written.
+     */
+    public void close() throws IOException {
+        this.checkpointer.shutdown();
+        try {
+            this.checkpointer.awaitTermination(1, TimeUnit.MINUTES); // Let a running snapshot finish
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoint();
+        this.bufferLock.lock();
+        try {
+            this.out.close();
+        } finally {
+            this.bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Takes a snapshot on the checkpoint thread.
+     */
+    private void checkpointInBackground() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            e.printStackTrace(); // The segments are kept, so nothing is lost
+        } finally {
+            this.bufferLock.lock();
+            try {
+                this.checkpointPending = false;
+            } finally {
+                this.bufferLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment named after the number of its first record.
+     *
+     * @throws IOException if the segment could not be created.
+     */
+    private void openSegment() throws IOException {
+        Path path = this.dir.resolve(SEGMENT_PREFIX + this.written);
+        FileOutputStream file = new FileOutputStream(path.toFile(), true); // Appends to a segment recovered with the same number
+        this.channel = file.getChannel();
+        this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+    }
+
+    /**
+     * Loads the newest complete snapshot and replays the segments written after it.
+     *
+     * @return the number of records in the recovered state.
+     * @throws IOException if the data directory could not be read.
+     */
+    private long recover() throws IOException {
+        long start = 0;
+        for (long number : numbered(SNAPSHOT_PREFIX, true)) {
+            if (readSnapshot(this.dir.resolve(SNAPSHOT_PREFIX + number))) {
+                start = number; // The newest complete snapshot
+                break;
+            }
+        }
+        long next = start;
+        for (long number : numbered(SEGMENT_PREFIX, false)) {
+            Path segment = this.dir.resolve(SEGMENT_PREFIX + number);
+            if (number < start) {
+                Files.delete(segment); // Covered by the snapshot
+                continue;
+            }
+            next = number + replaySegment(segment);
+        }
+        return next;
+    }
+
+    /**
+     * Replays the records of a segment, truncating it after the last complete record.
+     *
+     * @param segment the segment file.
+     * @return the number of records replayed.
+     * @throws IOException if the segment could not be read.
+     */
+    private long replaySegment(Path segment) throws IOException {
+        long count = 0;
+        long valid = 0; // Length of the complete records
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+            Entry entry;
+            while ((entry = read(in)) != null) {
+                replay(entry);
+                valid += entry.size;
+                count++;
+            }
+        }
+        if (valid < Files.size(segment)) {
+            try (FileChannel file = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                file.truncate(valid); // Drop a record torn by a crash
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Replays a snapshot if it was completely written.
+     *
+     * @param snapshot the snapshot file.
+     * @return true if the snapshot was replayed.
+     * @throws IOException if the snapshot could not be read.
+     */
+    private boolean readSnapshot(Path snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return false;
+            }
+            long count = in.readLong();
+            for (long i = 0; i < count; i++) {
+                Entry entry = read(in);
+                if (entry == null) {
+                    return false; // Snapshots are renamed into place once complete, so this is damage
+                }
+                replay(entry);
+            }
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Applies a recovered record, skipping one whose change failed when it was first made.
+     *
+     * @param entry the record.
+     */
+    private void replay(Entry entry) {
+        try {
+            this.handler.replay(entry);
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // The request failed the same way, so the state is unchanged
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file and renames it into place once it is on disk.
+     *
+     * @param covered the number of records the snapshot covers.
+     * @param state   the records that recreate the state.
+     * @throws IOException if the snapshot could not be written.
+     */
+    private void writeSnapshot(long covered, List<Entry> state) throws IOException {
+        Path temporary = this.dir.resolve(SNAPSHOT_PREFIX + covered + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(state.size());
+            for (Entry entry : state) {
+                out.write(encode(entry));
+            }
+            out.flush();
+            file.getChannel().force(false);
+        }
+        Files.move(temporary, this.dir.resolve(SNAPSHOT_PREFIX + covered),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes the snapshots and segments older than a snapshot.
+     *
+     * @param covered the number of records the snapshot covers.
+     * @throws IOException if a file could not be deleted.
+     */
+    private void deleteCovered(long covered) throws IOException {
+        for (long number : numbered(SNAPSHOT_PREFIX, false)) {
+            if (number < covered) {
+                Files.deleteIfExists(this.dir.resolve(SNAPSHOT_PREFIX + number));
+            }
+        }
+        for (long number : numbered(SEGMENT_PREFIX, false)) {
+            if (number < covered) {
+                Files.deleteIfExists(this.dir.resolve(SEGMENT_PREFIX + number));
+            }
+        }
+    }
+
+    /**
+     * Lists the numbers of the files with a prefix, skipping temporary files.
+     *
+     * @param prefix     the file name prefix.
+     * @param descending true for the newest first.
+     * @return the numbers, sorted.
+     * @throws IOException if the directory could not be listed.
+     */
+    private List<Long> numbered(String prefix, boolean descending) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(this.dir)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+")) {
+                    numbers.add(Long.parseLong(name.substring(prefix.length())));
+                }
+            }
+        }
+        numbers.sort(null);
+        if (descending) {
+            Collections.reverse(numbers);
+        }
+        return numbers;
+    }
+
+    /**
+     * Encodes a record: its length, the CRC32 of its body, then the body.
+     *
+     * @param entry the record.
+     * @return the encoded record.
+     */
+    static byte[] encode(Entry entry) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeByte(entry.op);
+            out.writeByte(entry.fields.length);
+            for (String field : entry.fields) {
+                byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            byte[] bytes = body.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 8);
+            DataOutputStream header = new DataOutputStream(record);
+            header.writeInt(bytes.length);
+            header.writeInt((int) crc.getValue());
+            header.write(bytes);
+            return record.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Writing to memory does not fail
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @param in the stream to read from.
+     * @return the record, or null at the end of the stream or at a torn or damaged record.
+     * @throws IOException if the stream could not be read.
+     */
+    static Entry read(DataInputStream in) throws IOException {
+        byte[] bytes;
+        int checksum;
+        try {
+            int length = in.readInt();
+            if (length < 2 || length > MAX_RECORD) {
+                return null;
+            }
+            checksum = in.readInt();
+            bytes = new byte[length];
+            in.readFully(bytes);
+        } catch (EOFException e) {
+            return null; // End of the log, or a record torn by a crash
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte op = body.readByte();
+        String[] fields = new String[body.readByte()];
+        for (int i = 0; i < fields.length; i++) {
+            byte[] field = new byte[body.readInt()];
+            body.readFully(field);
+            fields[i] = new String(field, StandardCharsets.UTF_8);
+        }
+        Entry entry = new Entry(op, fields);
+        entry.size = 8 + bytes.length;
+        return entry;
+    }
+}
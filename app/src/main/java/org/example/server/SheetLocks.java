@@ -0,0 +1,39 @@
+package org.example.server;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed set of read-write locks shared out between sheets by hashing the publisher
+ * and sheet name. Updates to one sheet are serialized, while updates to different
+ * sheets almost always take different locks and run at the same time. Readers of a
+ * sheet's versions share the read lock.
+ */
+public class SheetLocks {
+    private static final int STRIPES = 64; // Number of locks; a power of two
+
+    private final ReadWriteLock[] locks; // The stripes
+
+    /**
+     * Constructs the locks.
+     */
+    public SheetLocks() {
+        this.locks = new ReadWriteLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Gets the lock guarding a sheet. The same sheet always gets the same lock.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @return the lock
+     */
+    public ReadWriteLock forSheet(String publisher, String sheet) {
+        int hash = 31 * publisher.hashCode() + sheet.hashCode();
+        hash ^= hash >>> 16; // Spread the high bits into the stripe index
+        return this.locks[hash & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,250 @@
+package org.example.server;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The open server-sent event streams of each sheet. When a sheet gets a new version,
+ * the cells it changed are encoded once as an event and the same bytes are queued for
+ * every stream of the sheet.
+ *
+ * Each stream has its own bounded queue, written to the connection by a virtual writer
+ * thread while the stream has events waiting. Queuing never blocks, so a slow connection only
+ * holds up its own writer. A stream whose queue fills up is closed; the client
+ * reconnects from the last version it received.
+ *
+ * Events are "sheet", with every cell of the latest version, sent first when the
+ * client has missed versions, then "update", with the cells a version changed. The id
+ * of an event is the number of versions it brings the client up to.
+ */
+public class UpdateStreams {
+    private static final int QUEUE_LIMIT = 256; // Events a stream may fall behind before it is closed
+    private static final long STREAM_TIMEOUT = 30 * 60 * 1000L; // Streams are closed, and reopened by the client, after this
+
+    private final Map<String, Set<Stream>> streams; // Sheet and version list -> open streams
+    private final ExecutorService writers; // Writes queued events to the connections
+
+    /**
+     * An open stream and the events waiting to be written to it.
+     */
+    private final class Stream {
+        private final String key; // The sheet and version list
+        private final ResponseBodyEmitter emitter; // The connection
+        private final BlockingQueue<byte[]> queue; // Encoded events, shared with the other streams
+        private final AtomicBoolean writing; // Whether a writer is draining the queue
+
+        private Stream(String key) {
+            this.key = key;
+            this.emitter = new ResponseBodyEmitter(STREAM_TIMEOUT);
+            this.queue = new ArrayBlockingQueue<>(QUEUE_LIMIT);
+            this.writing = new AtomicBoolean();
+        }
+
+        /**
+         * Queues an event and makes sure a writer is running.
+         *
+         * @param event the encoded event.
+         */
+        private void offer(byte[] event) {
+            if (!this.queue.offer(event)) {
+                close(); // Too far behind; the client catches up when it reconnects
+                return;
+            }
+            if (this.writing.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this::write);
+                } catch (RejectedExecutionException e) {
+                    close(); // The server is closing
+                }
+            }
+        }
+
+        /**
+         * Writes the queued events until the queue is empty.
+         */
+        private void write() {
+            do {
+                byte[] event;
+                while ((event = this.queue.poll()) != null) {
+                    try {
+                        this.emitter.send(event, MediaType.TEXT_EVENT_STREAM);
+                    } catch (IOException | IllegalStateException e) {
+                        close(); // The client has gone
+                        this.queue.clear();
+                    }
+                }
+                this.writing.set(false);
+            } while (!this.queue.isEmpty() && this.writing.compareAndSet(false, true)); // Queued after the last poll
+        }
+
+        /**
+         * Ends the stream and forgets it.
+         */
+        private void close() {
+            remove(this);
+            this.emitter.complete();
+        }
+    }
+
+    /**
+     * Constructs an empty set of streams.
+     */
+    public UpdateStreams() {
+        this.streams = new ConcurrentHashMap<>();
+        this.writers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("update-stream-", 0).factory());
+    }
+
+    /**
+     * Opens a stream for a sheet. Must be called while no version can be added to the
+     * sheet, so the stream sees every version after the first event.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param published true to stream the published versions, false for the subscribed ones
+     * @param first     the encoded event to send first, or null if the client is up to date
+     * @return the connection, to return from the request
+     */
+    public ResponseBodyEmitter open(String publisher, String sheet, boolean published, byte[] first) {
+        Stream stream = new Stream(key(publisher, sheet, published));
+        stream.emitter.onCompletion(() -> remove(stream));
+        stream.emitter.onTimeout(() -> remove(stream));
+        stream.emitter.onError(e -> remove(stream));
+        this.streams.compute(stream.key, (k, open) -> {
+            Set<Stream> added = open == null ? ConcurrentHashMap.<Stream>newKeySet() : open;
+            added.add(stream); // Inside compute, so the set cannot be removed before the stream is in it
+            return added;
+        });
+        if (first != null) {
+            stream.offer(first);
+        }
+        return stream.emitter;
+    }
+
+    /**
+     * Sends the cells changed by a new version to every stream of the sheet. Called
+     * while the version is being added, so events are queued in version order.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param published true if a published version was added, false for a subscribed one
+     * @param version   the number of versions, including the new one
+     * @param changes   the payload lines changed by the version
+     */
+    public void publish(String publisher, String sheet, boolean published, int version, String changes) {
+        Set<Stream> open = this.streams.get(key(publisher, sheet, published));
+        if (open == null || open.isEmpty()) {
+            return; // Nobody is listening
+        }
+        byte[] event = encode("update", version, changes); // Encoded once for every stream
+        for (Stream stream : open) {
+            stream.offer(event);
+        }
+    }
+
+    /**
+     * Ends every stream of a sheet, after it is deleted.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     */
+    public void close(String publisher, String sheet) {
+        for (boolean published : new boolean[]{true, false}) {
+            Set<Stream> open = this.streams.remove(key(publisher, sheet, published));
+            if (open != null) {
+                for (Stream stream : open) {
+                    stream.emitter.complete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends every stream and stops the writers, when the server is closing. Events
+     * already being written finish.
+     */
+    public void close() {
+        for (String key : this.streams.keySet()) {
+            Set<Stream> open = this.streams.remove(key);
+            if (open != null) {
+                for (Stream stream : open) {
+                    stream.emitter.complete();
+                }
+            }
+        }
+        this.writers.shutdown();
+    }
+
+    /**
+     * Counts the open streams of every sheet.
+     *
+     * @return the number of open streams
+     */
+    public int size() {
+        int size = 0;
+        for (Set<Stream> open : this.streams.values()) {
+            size += open.size();
+        }
+        return size;
+    }
+
+    /**
+     * Encodes a server-sent event, with one data line per payload line.
+     *
+     * @param name    the event name
+     * @param version the event id: the number of versions the event brings the client up to
+     * @param payload the payload lines
+     * @return the event as UTF-8 bytes
+     */
+    public static byte[] encode(String name, int version, String payload) {
+        StringBuilder event = new StringBuilder();
+        event.append("id: ").append(version).append("\n");
+        event.append("event: ").append(name).append("\n");
+        boolean empty = true;
+        for (String line : payload.split("\n")) {
+            if (!line.isEmpty()) {
+                event.append("data: ").append(line).append("\n");
+                empty = false;
+            }
+        }
+        if (empty) {
+            event.append("data:\n"); // An event needs a data line to be dispatched
+        }
+        return event.append("\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Forgets a stream that has ended.
+     *
+     * @param stream the stream
+     */
+    private void remove(Stream stream) {
+        this.streams.computeIfPresent(stream.key, (k, open) -> {
+            open.remove(stream);
+            return open.isEmpty() ? null : open; // Forget sheets nobody listens to
+        });
+    }
+
+    /**
+     * Builds the key of a sheet's version list.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param published true for the published versions, false for the subscribed ones
+     * @return the key
+     */
+    private static String key(String publisher, String sheet, boolean published) {
+        return (published ? "P" : "S") + publisher + "\n" + sheet;
+    }
+}
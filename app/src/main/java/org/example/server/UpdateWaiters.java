@@ -0,0 +1,117 @@
+package org.example.server;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The long-poll requests waiting for a new version of a sheet. A waiting request holds
+ * no thread; it is a callback that completes the request, run when the sheet gets a
+ * new version.
+ *
+ * A request must check for new versions again after it starts waiting: a version
+ * added just before the request was registered has already woken the others.
+ *
+ * The callbacks run on virtual threads, one each, so the request that added a version
+ * does not wait while every waiting request builds its response.
+ */
+public class UpdateWaiters {
+    private final Map<String, Set<Runnable>> waiting; // Sheet and version list -> callbacks
+    private final ExecutorService wakers; // Runs the callbacks of woken requests
+
+    /**
+     * Constructs an empty set of waiters.
+     */
+    public UpdateWaiters() {
+        this.waiting = new ConcurrentHashMap<>();
+        this.wakers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("wake-", 0).factory());
+    }
+
+    /**
+     * Starts waiting for a new version of a sheet.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param published true to wait for a published version, false for a subscribed one
+     * @param wake      completes the waiting request
+     */
+    public void await(String publisher, String sheet, boolean published, Runnable wake) {
+        this.waiting.compute(key(publisher, sheet, published), (k, callbacks) -> {
+            Set<Runnable> added = callbacks == null ? ConcurrentHashMap.<Runnable>newKeySet() : callbacks;
+            added.add(wake); // Inside compute, so the set cannot be removed before the callback is in it
+            return added;
+        });
+    }
+
+    /**
+     * Stops waiting, once a request has been completed or has timed out.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param published true for a published version, false for a subscribed one
+     * @param wake      the callback passed to await
+     */
+    public void cancel(String publisher, String sheet, boolean published, Runnable wake) {
+        this.waiting.computeIfPresent(key(publisher, sheet, published), (k, callbacks) -> {
+            callbacks.remove(wake);
+            return callbacks.isEmpty() ? null : callbacks; // Forget sheets nobody waits for
+        });
+    }
+
+    /**
+     * Wakes every request waiting for a sheet, without waiting for their responses.
+     * Called after the new version is added.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param published true if a published version was added, false for a subscribed one
+     */
+    public void wake(String publisher, String sheet, boolean published) {
+        Set<Runnable> callbacks = this.waiting.remove(key(publisher, sheet, published));
+        if (callbacks == null) {
+            return; // Nobody is waiting
+        }
+        for (Runnable wake : callbacks) {
+            try {
+                this.wakers.execute(wake);
+            } catch (RejectedExecutionException e) {
+                wake.run(); // Closing, so answered on this thread
+            }
+        }
+    }
+
+    /**
+     * Counts the requests waiting for a new version of any sheet.
+     *
+     * @return the number of waiting requests
+     */
+    public int size() {
+        int size = 0;
+        for (Set<Runnable> callbacks : this.waiting.values()) {
+            size += callbacks.size();
+        }
+        return size;
+    }
+
+    /**
+     * Stops running callbacks on their own threads. Callbacks already started finish.
+     */
+    public void close() {
+        this.wakers.shutdown();
+    }
+
+    /**
+     * Builds the key of a sheet's version list.
+     *
+     * @param publisher the publisher of the sheet
+     * @param sheet     the sheet name
+     * @param published true for the published versions, false for the subscribed ones
+     * @return the key
+     */
+    private static String key(String publisher, String sheet, boolean published) {
+        return (published ? "P" : "S") + publisher + "\n" + sheet;
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.server;
+
+import org.example.model.ChangeLog;
+
+/**
+ * Decides how many of a sheet's versions are kept: at most a number of versions, none
+ * older than an age, and no more than a memory budget, estimated from the changes
+ * recorded for each version. The latest version is always kept. A limit of 0 is no
+ * limit.
+ */
+public class VersionRetention {
+    private final int maxVersions; // The most versions kept of each version list
+    private final long maxAge; // The age after which a version is dropped, in milliseconds
+    private final long maxBytes; // The memory the changes of each version list may take
+
+    /**
+     * Constructs a retention policy.
+     *
+     * @param maxVersions the most versions kept of each version list, or 0 for no limit
+     * @param maxAge      the age after which a version is dropped, in milliseconds, or 0 for no limit
+     * @param maxBytes    the memory the changes of each version list may take, or 0 for no limit
+     */
+    public VersionRetention(int maxVersions, long maxAge, long maxBytes) {
+        this.maxVersions = maxVersions;
+        this.maxAge = maxAge;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Checks if a version list has grown well past the most versions kept, so it should
+     * be pruned now rather than at the next sweep. The slack lets each pruning drop many
+     * versions at once instead of one per update.
+     *
+     * @param changes the changes recorded for the version list
+     * @return true if the list should be pruned
+     */
+    public boolean isOverLimit(ChangeLog changes) {
+        return this.maxVersions > 0 && changes.size() - changes.getFirst() > this.maxVersions + Math.max(1, this.maxVersions / 4);
+    }
+
+    /**
+     * Finds the oldest version to keep. Versions are counted from the latest back, until
+     * one would break a limit.
+     *
+     * @param changes the changes recorded for the version list
+     * @param now     the current time, in System.currentTimeMillis
+     * @return the id of the oldest version to keep, or changes.getFirst() if none is dropped
+     */
+    public int firstRetained(ChangeLog changes, long now) {
+        int first = changes.getFirst();
+        int end = changes.size();
+        if (end - first <= 1) {
+            return first; // Only the latest version is kept
+        }
+        int keep = end - 1;
+        long bytes = 2L * changes.getChanges(keep).length(); // Two bytes per character
+        while (keep > first) {
+            int older = keep - 1;
+            if (this.maxVersions > 0 && end - older > this.maxVersions) {
+                break;
+            }
+            if (this.maxAge > 0 && changes.getTime(older) < now - this.maxAge) {
+                break;
+            }
+            bytes += 2L * changes.getChanges(older).length();
+            if (this.maxBytes > 0 && bytes > this.maxBytes) {
+                break;
+            }
+            keep = older;
+        }
+        return keep;
+    }
+}
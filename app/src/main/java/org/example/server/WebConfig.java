@@ -0,0 +1,49 @@
+package org.example.server;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Configures how the server's endpoints read requests and write responses.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    private final Server server; // The server whose requests are measured
+
+    /**
+     * Constructs the configuration for a server.
+     *
+     * @param server the server
+     */
+    public WebConfig(Server server) {
+        this.server = server;
+    }
+
+    /**
+     * Adds the protobuf wire format after the default converters, so requests that do
+     * not ask for it are still answered in JSON.
+     *
+     * @param converters the configured converters
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new ProtobufMessageConverter());
+    }
+
+    /**
+     * Records every request to the endpoints in the server's metrics, except the
+     * requests that read the metrics.
+     *
+     * @param registry the configured interceptors
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new MetricsInterceptor(this.server.getMetrics()))
+                .addPathPatterns("/api/v1/**")
+                .excludePathPatterns("/api/v1/metrics");
+    }
+}
@@ -37,11 +37,12 @@ public class ReviewChangesRenderer extends AbstractCustomTableCellRenderer {
     protected void configureCellRenderer(Component c, JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
         if (column > 0) { // Skip the row header
             int modelColumn = column - 1; // Adjust for row header
-            Cell currentCell = originalCells.get(row).get(modelColumn); // Get the current cell from original cells
-            Cell changeCell = changes.getCells().get(row).get(modelColumn); // Get the corresponding cell from changes
+            boolean reviewed = row < originalCells.size() && modelColumn < originalCells.get(row).size(); // Inside the extent that was reviewed
+            Cell currentCell = reviewed ? originalCells.get(row).get(modelColumn) : null; // Get the current cell from original cells
+            String changeRawdata = changes.getCellRawdata(row, modelColumn); // Get the corresponding raw data from changes
 
 
-            if (!currentCell.getRawdata().equals(changeCell.getRawdata())) { // Check if the cell has changed
+            if (currentCell != null && !currentCell.getRawdata().equals(changeRawdata)) { // Check if the cell has changed
                 c.setBackground(Color.YELLOW); // Highlight changed cells
             } else {
                 c.setBackground(Color.WHITE); // Default color for unchanged cells
@@ -67,23 +67,23 @@ public class ReviewChangesSheetView extends SheetView {
      * @author Tony
      */
     public void loadChanges() throws Exception {
-        java.util.List<java.util.List<Cell>> changedCells = this.changes.getCells(); // Get the changed cells
-        java.util.List<java.util.List<Cell>> currCells = this.current.getCells(); // Get the current cells
+        int rows = Math.max(this.changes.getRows(), this.current.getRows()); // Cover the extent of both sheets
+        int cols = Math.max(this.changes.getCols(), this.current.getCols());
 
         boolean changed = false; // Flag to track if any changes are found
-        for (int i = 0; i < changedCells.size(); i++) { // Iterate through the rows
+        for (int i = 0; i < rows; i++) { // Iterate through the rows
             ArrayList<Cell> addRow = new ArrayList<>(); // Create a new row for original cells
-            for (int j = 0; j < changedCells.get(i).size(); j++) { // Iterate through the columns
-                Cell change = changedCells.get(i).get(j); // Get the changed cell
-                Cell curr = currCells.get(i).get(j); // Get the current cell
+            for (int j = 0; j < cols; j++) { // Iterate through the columns
+                String changeRawdata = this.changes.getCellRawdata(i, j); // Get the changed raw data
+                String currRawdata = this.current.getCellRawdata(i, j); // Get the current raw data
 
                 Cell addCell = new Cell(); // Create a new cell for original data
-                addCell.setRawData(curr.getRawdata()); // Set raw data from current cell
-                addCell.setValue(curr.getValue()); // Set value from current cell
+                addCell.setRawData(currRawdata); // Set raw data from current cell
+                addCell.setValue(this.current.getCellValue(i, j)); // Set value from current cell
                 addRow.add(addCell); // Add the cell to the row
-                if (!curr.getRawdata().equals(change.getRawdata())) { // Check if the cell data has changed
+                if (!currRawdata.equals(changeRawdata)) { // Check if the cell data has changed
                     changed = true; // Set the flag to true if a change is found
-                    controller.changeSpreadSheetValueAt(i, j, change.getRawdata()); // Update the spreadsheet with the change
+                    controller.changeSpreadSheetValueAt(i, j, changeRawdata); // Update the spreadsheet with the change
                 }
             }
             originalCells.add(addRow); // Add the row to the list of original cells
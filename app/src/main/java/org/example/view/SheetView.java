@@ -1,7 +1,6 @@
 package org.example.view;
 
 import org.example.controller.IUserController;
-import org.example.model.Cell;
 import org.example.model.IReadOnlySpreadSheet;
 import org.example.model.ISpreadsheet;
 import org.example.model.SelectedCells;
@@ -12,7 +11,6 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.HashMap;
@@ -32,8 +30,6 @@ public class SheetView extends SheetViewFactory<SheetView> implements ISheetView
     protected boolean isUpdatingTable = false; // Flag to check if the table is being updated
     protected JTextField formulaTextField; // Text field to display/edit the formula of the selected cell
 
-    protected static final int rowSize = 100; // Number of rows in the table
-    protected static final int colSize = 100; // Number of columns in the table
     public static final Color PINK = new Color(255, 192, 203); // Color constant for pink
     public static final Color GREEN = new Color(0, 255, 0); // Color constant for green
 
@@ -62,11 +58,7 @@ public class SheetView extends SheetViewFactory<SheetView> implements ISheetView
         setExtendedState(JFrame.MAXIMIZED_BOTH); // Maximize the window
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // Set the default close operation
         makeToolbar(); // Create the toolbar
-        Object[][] data = initializeData(); // Initialize the data array
-        initializeColumnNames(); // Initialize the column names
-        String[] columnNames = initializeColumnNames(); // Get the column names
-        DefaultTableModel tableModel = createTableModel(data, columnNames); // Create the table model
-        setRowHeaders(tableModel); // Set the row headers
+        SpreadsheetTableModel tableModel = createTableModel(); // Create the table model
         initalizeTableModel(tableModel); // Initialize the table model
         JPanel rightClickPanel = configureCells(); // Configure the cells for right-click actions
         addMouseListener(rightClickPanel); // Add mouse listener for right-click actions
@@ -219,23 +211,8 @@ public class SheetView extends SheetViewFactory<SheetView> implements ISheetView
             isUpdatingTable = false; // Reset the flag
             return;
         }
-        DefaultTableModel model = (DefaultTableModel) table.getModel(); // Get the table model
-        String[][] data = this.cells.getCellStringsObject(); // Get the cell data as a 2D array
-        if (data == null) {
-            System.out.println("Error: cells.getCellStringsObject() returned null."); // Print an error message if the data is null
-            isUpdatingTable = false; // Reset the flag
-            return;
-        }
-        for (int row = 0; row < data.length; row++) { // Loop through the rows
-            for (int col = 0; col < data[row].length; col++) { // Loop through the columns
-                String value = controller.handleReevaluatingCellFormula(row, col, data[row][col]); // Reevaluate the cell formula
-                model.setValueAt(value, row, col + 1); // Set the cell value in the model
-                if (!value.isEmpty()) {
-                    System.out.println("Setting cell (" + row + ", " + col + ") to value: " + value); // Print the cell value if it is not empty
-                }
-            }
-        }
-        model.fireTableDataChanged(); // Notify the model that the data has changed
+        SpreadsheetTableModel model = (SpreadsheetTableModel) table.getModel(); // Get the table model
+        model.refresh(); // The model reads the cells from the sheet, formula values are kept up to date by the dependency graph
         isUpdatingTable = false; // Reset the flag
     }
 
@@ -328,41 +305,6 @@ public class SheetView extends SheetViewFactory<SheetView> implements ISheetView
         return this; // Return the current instance of SheetView
     }
 
-    /**
-     * Initializes the data array with cell values.
-     *
-     * @return the initialized data array.
-     * @author Vinay
-     */
-    protected Object[][] initializeData(){
-        // Initialize data array with cell values
-        Object[][] data = new Object[rowSize][colSize]; // Create a new data array
-        Cell[][] cellRef = this.cells.getCellsObject(); // Get the cell reference array
-
-        for (Cell[] row : cellRef) { // Loop through the rows
-            for (Cell c : row) { // Loop through the cells
-                data[c.getRow()][c.getCol()] = c.getValue(); // Set the cell value in the data array
-            }
-        }
-        return data; // Return the data array
-    }
-
-    /**
-     * Initializes the column names.
-     *
-     * @return the initialized column names.
-     * @author Theo
-     */
-    protected String[] initializeColumnNames(){
-        // Initialize column names
-        String[] columnNames = new String[colSize + 1]; // Create a new column names array
-        columnNames[0] = ""; // Set the first column name to an empty string
-        for (int i = 1; i <= colSize; i++) { // Loop through the columns
-            columnNames[i] = getExcelColumnName(i); // Set the column name to the corresponding Excel column name
-        }
-        return columnNames; // Return the column names array
-    }
-
     /**
      * Configures the cells for right-click actions.
      *
@@ -395,7 +337,7 @@ public class SheetView extends SheetViewFactory<SheetView> implements ISheetView
      * @param tableModel the table model to initialize.
      * @author Theo
      */
-    protected void initalizeTableModel(DefaultTableModel tableModel) {
+    protected void initalizeTableModel(SpreadsheetTableModel tableModel) {
         yourTable = new JTable(tableModel); // Initialize the table with the model
         yourTable.setSelectionMode(MULTIPLE_INTERVAL_SELECTION); // Set the selection mode to multiple interval selection
         yourTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF); // Disable auto-resize mode
@@ -403,19 +345,6 @@ public class SheetView extends SheetViewFactory<SheetView> implements ISheetView
         yourTable.setShowGrid(true); // Show grid lines
     }
 
-    /**
-     * Sets the row headers in the table model.
-     *
-     * @param tableModel the table model to set the row headers in.
-     * @author Theo
-     */
-    protected void setRowHeaders(DefaultTableModel tableModel){
-        // Set row headers
-        for (int i = 0; i < rowSize; i++) { // Loop through the rows
-            tableModel.setValueAt(i + 1, i, 0); // Set the row header value
-        }
-    }
-
     /**
      * Adds mouse listener for right-click actions.
      *
@@ -429,7 +358,7 @@ public class SheetView extends SheetViewFactory<SheetView> implements ISheetView
                 if (e.getButton() == MouseEvent.BUTTON3) { // For right-clicks
                     int row = yourTable.rowAtPoint(e.getPoint()); // Get the row at the mouse point
                     int col = yourTable.columnAtPoint(e.getPoint()); // Get the column at the mouse point
-                    if (row >= 0 && row < rowSize && col >= 1 && col < colSize) { // Check if the cell is within bounds
+                    if (row >= 0 && row < yourTable.getRowCount() && col >= 1 && col < yourTable.getColumnCount()) { // Check if the cell is within bounds
                         rightClickPanel.setLocation(e.getX(), e.getY()); // Set the location of the panel
                         rightClickPanel.setVisible(true); // Set the visibility of the panel to true
                     }
@@ -537,21 +466,12 @@ public class SheetView extends SheetViewFactory<SheetView> implements ISheetView
     }
 
     /**
-     * Creates a table model with the specified data and column names.
+     * Creates a table model that reads its values from the spreadsheet.
      *
-     * @param data the data for the table.
-     * @param columnNames the column names for the table.
      * @return the created table model.
      * @author Vinay
      */
-    public DefaultTableModel createTableModel(Object[][] data, String[] columnNames){
-        // Create table model
-        DefaultTableModel tableModel = new DefaultTableModel(data, columnNames) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return column != 0; // Make all columns except the first one editable
-            }
-        };
-        return tableModel; // Return the table model
+    public SpreadsheetTableModel createTableModel(){
+        return new SpreadsheetTableModel(this.cells); // Return the table model
     }
 }
@@ -0,0 +1,85 @@
+package org.example.view;
+
+import org.example.model.IReadOnlySpreadSheet;
+import org.example.model.Spreadsheet;
+
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A table model that reads cell values straight from the spreadsheet, so the table
+ * never holds a copy of the grid. Column 0 shows the row numbers. The size of the table
+ * follows the used extent of the sheet.
+ */
+public class SpreadsheetTableModel extends AbstractTableModel {
+    private final IReadOnlySpreadSheet sheet; // The spreadsheet shown in the table
+    private final Map<Point, Object> edits = new HashMap<>(); // Typed values the spreadsheet has not taken yet
+    private int rows; // Number of rows last reported to the table
+    private int cols; // Number of spreadsheet columns last reported to the table
+
+    /**
+     * Constructs a table model for the given spreadsheet.
+     *
+     * @param sheet the spreadsheet to show.
+     */
+    public SpreadsheetTableModel(IReadOnlySpreadSheet sheet) {
+        this.sheet = sheet; // Set the spreadsheet
+        this.rows = sheet.getRows(); // Take the current extent of the sheet
+        this.cols = sheet.getCols();
+    }
+
+    @Override
+    public int getRowCount() {
+        return this.rows; // One table row per spreadsheet row
+    }
+
+    @Override
+    public int getColumnCount() {
+        return this.cols + 1; // Spreadsheet columns plus the row header
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return column == 0 ? "" : Spreadsheet.getColumnName(column); // The row header has no name
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == 0) {
+            return row + 1; // Row header
+        }
+        Object edit = this.edits.get(new Point(row, column));
+        return edit != null ? edit : this.sheet.getCellValue(row, column - 1); // Read the cell from the sheet
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column != 0; // Make all columns except the first one editable
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        this.edits.put(new Point(row, column), value); // Keep the typed value until the sheet is refreshed
+        fireTableCellUpdated(row, column); // Let listeners pass the value on to the spreadsheet
+    }
+
+    /**
+     * Drops typed values and shows the spreadsheet as it is now, resizing the table if
+     * the used extent of the sheet has changed.
+     */
+    public void refresh() {
+        this.edits.clear(); // The spreadsheet now holds every typed value
+        int newRows = this.sheet.getRows();
+        int newCols = this.sheet.getCols();
+        if (newCols != this.cols) {
+            this.rows = newRows;
+            this.cols = newCols;
+            fireTableStructureChanged(); // The columns have changed
+        } else {
+            this.rows = newRows;
+            fireTableDataChanged(); // Repaint every visible cell, and pick up any new rows
+        }
+    }
+}
@@ -121,4 +121,20 @@ public class AppUserTest {
         assertTrue(this.user.doesSheetExist("Sheet1")); // Verifies that the sheet "Sheet1" now exists.
         assertFalse(this.user.doesSheetExist("Sheet2")); // Checks that a non-existent sheet "Sheet2" is not found.
     }
+
+    /**
+     * Tests finding sheets by name and that sheet names are unique.
+     */
+    @Test
+    public void testGetSheet() {
+        assertNull(this.user.getSheet("Sheet1")); // Checks that no sheet is found initially.
+
+        assertTrue(this.user.addSheet("Sheet1")); // Adds a sheet named "Sheet1".
+        assertFalse(this.user.addSheet("Sheet1")); // A second sheet with the same name is refused.
+
+        assertEquals("Sheet1", this.user.getSheet("Sheet1").getName()); // Verifies the sheet is found by name.
+        assertEquals(1, this.user.getSheets().size()); // Verifies only one sheet was added.
+        this.user.removeSheet("Sheet1"); // Removes the sheet.
+        assertNull(this.user.getSheet("Sheet1")); // Verifies the sheet is no longer found.
+    }
 }
@@ -1,5 +1,6 @@
 package org.example.model;
 
+import org.example.model.formula.CellValue;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -150,4 +151,30 @@ public class CellTest {
 
         assertEquals(formula, cell.getFormula(), "setFormula should update the formula field"); // Verifies that the formula is updated correctly.
     }
+
+    /**
+     * Tests that cell values are typed when set, while keeping the text they were set with.
+     */
+    @Test
+    public void testTypedValue() {
+        Cell cell = new Cell();
+        assertEquals(CellValue.Type.EMPTY, cell.getTypedValue().getType(), "A new cell should be empty");
+
+        cell.setValue("5.0");
+        assertEquals(CellValue.Type.NUMBER, cell.getTypedValue().getType(), "Numeric text should be stored as a number");
+        assertEquals(5.0, cell.getTypedValue().asNumber());
+        assertEquals("5.0", cell.getValue(), "The text of a number should be kept as entered");
+
+        cell.setValue("hello");
+        assertEquals(CellValue.Type.TEXT, cell.getTypedValue().getType());
+        assertFalse(cell.getTypedValue().isNumber());
+
+        cell.setTypedValue(CellValue.number(4));
+        assertEquals("4", cell.getValue(), "Arithmetic results are shown without a fractional part");
+        cell.setTypedValue(CellValue.decimal(4));
+        assertEquals("4.0", cell.getValue(), "Function results are shown as doubles");
+        cell.setTypedValue(CellValue.bool(true));
+        assertEquals("1", cell.getValue());
+        assertEquals(1.0, cell.getTypedValue().asNumber());
+    }
 }
@@ -0,0 +1,143 @@
+package org.example.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the methods within the ChangeLog class.
+ */
+public class ChangeLogTest {
+
+    private ChangeLog log;
+    private IHome home;
+
+    /**
+     * Sets up the test environment by initializing an empty change log.
+     */
+    @BeforeEach
+    public void setUp() {
+        log = new ChangeLog();
+        home = new Home();
+    }
+
+    /**
+     * Tests that only the cells changed by each version are recorded.
+     */
+    @Test
+    public void testRecordAndChangesSince() {
+        ISpreadsheet first = home.readPayload("$A1 1\\n$B1 2\\n", "sheet");
+        ISpreadsheet second = home.readPayload("$A1 1\\n$B1 3\\n$C1 =$A1+1\\n", "sheet");
+        ISpreadsheet third = home.readPayload("$B1 3\\n$C1 =$A1+1\\n", "sheet");
+        log.record(first);
+        log.record(second);
+        log.record(third);
+        assertEquals(3, log.size());
+
+        assertEquals("$A1 1\n$B1 2\n$B1 3\n$C1 =$A1+1\n$A1\n", log.changesSince(0, first, 3));
+        assertEquals("$A1 1\n$B1 3\n$C1 =$A1+1\n$A1\n", log.changesSince(1, second, 3)); // All of the first version
+        assertEquals("$B1 3\n$C1 =$A1+1\n", log.changesSince(2, third, 3));
+        assertEquals("", log.changesSince(3, null, 3), "Nothing after the latest version");
+    }
+
+    /**
+     * Tests rebuilding a version from the changes recorded for it.
+     */
+    @Test
+    public void testApplyChanges() {
+        log.record(home.readPayload("$A1 1\\n$B1 2\\n", "sheet"));
+        log.record(home.readPayload("$B1 3\\n$C1 =$B1\\n", "sheet"));
+        ChangeLog rebuilt = new ChangeLog();
+        String first = rebuilt.applyChanges(log.getChanges(0));
+        assertEquals("$A1 1\n$B1 2\n", first);
+        rebuilt.record(home.readPayload(first, "sheet"));
+        assertEquals("$B1 3\n$C1 =$B1\n", rebuilt.applyChanges(log.getChanges(1)));
+    }
+
+    /**
+     * Tests that pruned versions keep their ids, and that updates since a pruned version
+     * start from the checkpoint.
+     */
+    @Test
+    public void testPrune() {
+        ISpreadsheet first = home.readPayload("$A1 1\\n", "sheet");
+        ISpreadsheet second = home.readPayload("$A1 2\\n$B1 2\\n", "sheet");
+        ISpreadsheet third = home.readPayload("$A1 3\\n$B1 2\\n", "sheet");
+        log.record(first);
+        log.record(second);
+        ChangeLog.Retained retained = log.retained();
+        log.record(third);
+        log.prune(1, second);
+        assertEquals(0, retained.getFirst(), "Captured before the pruning");
+        assertEquals(2, retained.size());
+        assertEquals("$A1 2\n$B1 2\n", retained.getChanges(1));
+        assertEquals("$A1 2\n$B1 2\n", log.retained().getCheckpoint());
+        assertEquals(3, log.size());
+        assertEquals(1, log.getFirst());
+        assertEquals("$A1 3\n", log.getChanges(2));
+
+        assertEquals("$A1 2\n$B1 2\n$A1 3\n", log.changesSince(0, first, 3), "From the checkpoint");
+        assertEquals("$A1 3\n$B1 2\n", log.changesSince(2, third, 3));
+        log.prune(3, third);
+        assertEquals(1, log.getFirst(), "The latest version is always kept");
+
+        ChangeLog rebuilt = new ChangeLog();
+        rebuilt.startAt(1);
+        rebuilt.record(second);
+        assertEquals(2, rebuilt.size());
+        assertEquals("$A1 2\n$B1 2\n", rebuilt.changesSince(0, null, 2));
+    }
+
+    /**
+     * Tests that the content hash set for the latest version matches an update with the
+     * same cells in any order, and no other update, and that a new version forgets it.
+     */
+    @Test
+    public void testContentHash() {
+        assertNull(log.getContentHash());
+        log.record(home.readPayload("$A1 1\\n$B1 =$A1+1\\n", "sheet"));
+        assertNull(log.getContentHash(), "Recording a version does not hash it");
+        log.setContentHash(ContentHash.of(Home.convertPayloadToCells("$A1 1\n$B1 =$A1+1\n")));
+        assertEquals(log.getContentHash(), ContentHash.of(Home.convertPayloadToCells("$B1 =$A1+1\n$A1 1\n")));
+        assertEquals(log.getContentHash(), ContentHash.of(Home.convertPayloadToCells("$A1 1\n$B1 =$A1+1\n$C1 \n")),
+                "Clearing an empty cell changes nothing");
+        assertEquals(log.getContentHash(), ContentHash.of(Home.convertPayloadToCells("$A1 2\n$B1 =$A1+1\n$A1 1\n")),
+                "A later cell replaces an earlier one");
+        assertNotEquals(log.getContentHash(), ContentHash.of(Home.convertPayloadToCells("$A1 1\n")));
+        assertNotEquals(log.getContentHash(), ContentHash.of(Home.convertPayloadToCells("$A1 1\n$B1 =$A1+2\n")));
+        assertNotEquals(log.getContentHash(), ContentHash.of(Home.convertPayloadToCells("$B1 1\n$A1 =$A1+1\n")));
+        log.record(home.readPayload("$A1 1\\n", "sheet"));
+        assertNull(log.getContentHash(), "A new version forgets the hash of the one before");
+    }
+
+    /**
+     * Tests that versions taken from a sheet as it changes record only the cells that
+     * changed, including cells written by COPY, for each version list separately.
+     */
+    @Test
+    public void testRecordChangedCells() {
+        Spreadsheet sheet = new Spreadsheet("sheet");
+        sheet.loadCells(Home.convertPayloadToCells("$A1 1\n$B1 2\n$C1 =COPY($A1, $D1)\n"));
+        sheet.addPublished(sheet.snapshot());
+        sheet.loadCells(Home.convertPayloadToCells("$A1 5\n$C1 =COPY($A1, $D1)\n"));
+        sheet.addSubscribed(sheet.snapshot());
+        sheet.addPublished(sheet.snapshot());
+        sheet.loadCells(Home.convertPayloadToCells("$A1 5\n$B1 2\n$C1 =COPY($A1, $D1)\n$D1 5\n"));
+        sheet.addPublished(sheet.snapshot());
+
+        ChangeLog published = sheet.getPublishedChanges();
+        assertEquals("$A1 1\n$B1 2\n$C1 =COPY($A1, $D1)\n$D1 1\n", published.getChanges(0));
+        assertEquals("$A1 5\n$D1 5\n$B1\n", published.getChanges(1));
+        assertEquals("$B1 2\n", published.getChanges(2));
+        assertEquals("$A1 5\n$C1 =COPY($A1, $D1)\n$D1 5\n", sheet.getSubscribedChanges().getChanges(0));
+    }
+
+    /**
+     * Tests splitting a payload into cell references and values.
+     */
+    @Test
+    public void testParseEntries() {
+        assertEquals("{$A1=1, $B2==SUM($A1:$A2)}",
+                ChangeLog.parseEntries("$A1 1\n\n$B2 =SUM($A1:$A2)\n$C3\n").toString());
+    }
+}
@@ -0,0 +1,124 @@
+package org.example.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the methods within the ChunkedGrid class.
+ */
+public class ChunkedGridTest {
+
+    private ChunkedGrid grid;
+
+    /**
+     * Sets up the test environment by initializing an empty grid.
+     */
+    @BeforeEach
+    public void setUp() {
+        grid = new ChunkedGrid();
+    }
+
+    /**
+     * Tests storing, replacing and finding cells, including far outside the first tile.
+     */
+    @Test
+    public void testPutAndGet() {
+        Cell a = new Cell("a");
+        Cell b = new Cell("b");
+        grid.put(3, 4, a);
+        grid.put(200000, 700, b);
+        assertSame(a, grid.get(3, 4));
+        assertSame(b, grid.get(200000, 700));
+        assertNull(grid.get(4, 3));
+        assertNull(grid.get(500000, 9000), "Positions past every tile are empty");
+
+        grid.put(3, 4, b); // Replaces the cell
+        assertSame(b, grid.get(3, 4));
+        assertEquals(2, grid.size());
+    }
+
+    /**
+     * Tests that the extent follows the populated cells as they are added and removed.
+     */
+    @Test
+    public void testExtent() {
+        assertEquals(0, grid.getRows());
+        grid.put(10, 2, new Cell("a"));
+        grid.put(499, 101, new Cell("b"));
+        assertEquals(500, grid.getRows());
+        assertEquals(102, grid.getCols());
+
+        assertNotNull(grid.remove(499, 101));
+        assertNull(grid.remove(499, 101), "Already removed");
+        assertEquals(11, grid.getRows());
+        assertEquals(3, grid.getCols());
+    }
+
+    /**
+     * Tests that cells are visited row by row, from left to right, across tiles.
+     */
+    @Test
+    public void testForEach() {
+        grid.put(70, 0, new Cell("d"));
+        grid.put(0, 100, new Cell("b"));
+        grid.put(0, 5, new Cell("a"));
+        grid.put(1, 0, new Cell("c"));
+
+        List<String> visited = new ArrayList<>();
+        grid.forEach((row, col, cell) -> visited.add(row + "," + col + "=" + cell.getValue()));
+        assertEquals(List.of("0,5=a", "0,100=b", "1,0=c", "70,0=d"), visited);
+
+        grid.clear();
+        assertEquals(0, grid.size());
+        assertEquals(0, grid.getCols());
+    }
+
+    /**
+     * Tests that only the cells inside a rectangle are visited, in row order.
+     */
+    @Test
+    public void testForEachInRange() {
+        grid.put(0, 0, new Cell("outside"));
+        grid.put(63, 63, new Cell("a"));
+        grid.put(63, 64, new Cell("b"));
+        grid.put(64, 63, new Cell("c"));
+        grid.put(200, 63, new Cell("outside"));
+
+        List<String> visited = new ArrayList<>();
+        grid.forEachInRange(1, 1, 199, 64, (row, col, cell) -> visited.add(cell.getValue()));
+        assertEquals(List.of("a", "b", "c"), visited);
+
+        visited.clear();
+        grid.forEachInRange(5000, 0, 6000, 10, (row, col, cell) -> visited.add(cell.getValue()));
+        assertTrue(visited.isEmpty(), "Ranges past every tile visit nothing");
+    }
+
+    /**
+     * Tests that a snapshot and its grid do not see each other's changes.
+     */
+    @Test
+    public void testSnapshot() {
+        grid.put(0, 0, new Cell("a"));
+        grid.put(100, 100, new Cell("b"));
+        ChunkedGrid snapshot = grid.snapshot();
+        assertSame(grid.get(100, 100), snapshot.get(100, 100), "Untouched tiles are shared");
+
+        grid.getForWrite(0, 0).setValue("changed");
+        grid.put(0, 1, new Cell("new"));
+        grid.remove(100, 100);
+        assertEquals("a", snapshot.get(0, 0).getValue());
+        assertNull(snapshot.get(0, 1));
+        assertEquals("b", snapshot.get(100, 100).getValue());
+        assertEquals(2, snapshot.size());
+        assertEquals("changed", grid.get(0, 0).getValue());
+        assertEquals(2, grid.size());
+
+        snapshot.put(5000, 5, new Cell("later"));
+        assertNull(grid.get(5000, 5), "Writes to the snapshot are not seen either");
+        assertNull(grid.getForWrite(7, 7));
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.model;
+
+import org.example.model.formula.Formula;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests the methods within the DependencyGraph class.
+ */
+public class DependencyGraphTest {
+
+    private DependencyGraph graph;
+
+    /**
+     * Sets up the test environment by initializing an empty graph.
+     */
+    @BeforeEach
+    public void setUp() {
+        graph = new DependencyGraph();
+    }
+
+    /**
+     * Tests that cell keys round trip their row and column.
+     */
+    @Test
+    public void testKey() {
+        long key = DependencyGraph.key(42, 7);
+        assertEquals(42, DependencyGraph.row(key));
+        assertEquals(7, DependencyGraph.col(key));
+    }
+
+    /**
+     * Tests that dependents come after the formulas they read.
+     */
+    @Test
+    public void testRecalculationOrder() {
+        graph.setPrecedents(0, 1, Formula.compile("=$A1 + 1")); // B1 reads A1
+        graph.setPrecedents(0, 2, Formula.compile("=$B1 + $A1")); // C1 reads B1 and A1
+        graph.setPrecedents(0, 3, Formula.compile("=SUM($B1:$C1)")); // D1 reads B1 and C1 through a range
+
+        Set<Long> cyclic = new HashSet<>();
+        List<Long> order = graph.recalculationOrder(0, 0, cyclic);
+        assertEquals(List.of(DependencyGraph.key(0, 1), DependencyGraph.key(0, 2), DependencyGraph.key(0, 3)), order);
+        assertTrue(cyclic.isEmpty());
+
+        assertTrue(graph.recalculationOrder(5, 5, cyclic).isEmpty(), "Unreferenced cells have no dependents");
+    }
+
+    /**
+     * Tests that removing a formula stops it from being recalculated.
+     */
+    @Test
+    public void testRemovePrecedents() {
+        graph.setPrecedents(0, 1, Formula.compile("=$A1 + 1"));
+        graph.removePrecedents(0, 1);
+        assertTrue(graph.recalculationOrder(0, 0, new HashSet<>()).isEmpty());
+
+        graph.setPrecedents(0, 1, Formula.compile("=$A1 + 1"));
+        graph.setPrecedents(0, 1, Formula.compile("=$A2 + 1")); // Replacing the formula forgets $A1
+        assertTrue(graph.recalculationOrder(0, 0, new HashSet<>()).isEmpty());
+        assertEquals(1, graph.recalculationOrder(1, 0, new HashSet<>()).size());
+    }
+
+    /**
+     * Tests that formulas reading a range are found from any cell of the range, across
+     * tiles and for ranges too large to index by tile, and forgotten once removed.
+     */
+    @Test
+    public void testRangeDependents() {
+        graph.setPrecedents(0, 0, Formula.compile("=SUM($C60:$C70)")); // A1 reads a range over two tiles
+        graph.setPrecedents(0, 1, Formula.compile("=SUM($C1:$ZZ500000)")); // B1 reads a range over too many tiles to index
+        long a1 = DependencyGraph.key(0, 0);
+        long b1 = DependencyGraph.key(0, 1);
+
+        assertEquals(List.of(a1, b1), graph.recalculationOrder(59, 2, new HashSet<>()));
+        assertEquals(List.of(a1, b1), graph.recalculationOrder(69, 2, new HashSet<>()));
+        assertEquals(List.of(b1), graph.recalculationOrder(70, 2, new HashSet<>()));
+        assertEquals(List.of(b1), graph.recalculationOrder(64, 3, new HashSet<>()));
+        assertTrue(graph.recalculationOrder(64, 0, new HashSet<>()).isEmpty());
+        assertTrue(graph.recalculationOrder(500000, 2, new HashSet<>()).isEmpty());
+
+        graph.setPrecedents(0, 0, Formula.compile("=SUM($C200:$C201)")); // Replacing the formula forgets the old range
+        graph.removePrecedents(0, 1);
+        assertTrue(graph.recalculationOrder(64, 2, new HashSet<>()).isEmpty());
+        assertEquals(List.of(a1), graph.recalculationOrder(200, 2, new HashSet<>()));
+    }
+
+    /**
+     * Tests that circular references are reported instead of ordered.
+     */
+    @Test
+    public void testCircularReference() {
+        graph.setPrecedents(0, 0, Formula.compile("=$B1")); // A1 reads B1
+        graph.setPrecedents(0, 1, Formula.compile("=$A1")); // B1 reads A1
+        graph.setPrecedents(0, 2, Formula.compile("=$A1")); // C1 reads the cycle
+
+        Set<Long> cyclic = new HashSet<>();
+        List<Long> order = graph.recalculationOrder(0, 0, cyclic);
+        assertTrue(order.isEmpty());
+        assertEquals(Set.of(DependencyGraph.key(0, 0), DependencyGraph.key(0, 1), DependencyGraph.key(0, 2)), cyclic);
+    }
+
+    /**
+     * Tests that independent formulas share a level and dependents come in later levels.
+     */
+    @Test
+    public void testAllFormulaLevels() {
+        graph.setPrecedents(0, 1, Formula.compile("=$A1 + 1")); // B1 reads a value
+        graph.setPrecedents(1, 1, Formula.compile("=$A2 + 1")); // B2 reads a value
+        graph.setPrecedents(0, 2, Formula.compile("=1 + 2")); // C1 reads nothing
+        graph.setPrecedents(0, 3, Formula.compile("=SUM($B1:$B2)")); // D1 reads B1 and B2 through a range
+        graph.setPrecedents(1, 3, Formula.compile("=$D1 * 2")); // D2 reads D1
+
+        Set<Long> cyclic = new HashSet<>();
+        List<List<Long>> levels = graph.allFormulaLevels(cyclic);
+        assertEquals(List.of(
+                List.of(DependencyGraph.key(0, 1), DependencyGraph.key(0, 2), DependencyGraph.key(1, 1)),
+                List.of(DependencyGraph.key(0, 3)),
+                List.of(DependencyGraph.key(1, 3))), levels);
+        assertTrue(cyclic.isEmpty());
+    }
+}
@@ -77,6 +77,20 @@ public class HomeTest {
         assertEquals("11", sheet.getCellValue(1, 1)); // Verifies the value of cell (1,1).
     }
 
+    /**
+     * Tests that formulas in a payload see cells that come after them.
+     */
+    @Test
+    public void testReadPayloadFormulaBeforeInputs() {
+        String payload = "$A1 =$A2 + $B2\\n$A2 3\\n$B2 =$A2 * 2\\n"; // Declares a payload with formulas first.
+
+        ISpreadsheet sheet = this.home.readPayload(payload, "formulas"); // Reads the payload into a spreadsheet.
+
+        assertEquals("9", sheet.getCellValue(0, 0)); // Verifies the value of cell (0,0).
+        assertEquals("6", sheet.getCellValue(1, 1)); // Verifies the value of cell (1,1).
+        assertEquals("=$A2 + $B2", sheet.getCellRawdata(0, 0)); // Verifies the raw data of cell (0,0).
+    }
+
     /**
      * Tests the writeXML method with a valid sheet and path.
      * @author Theo
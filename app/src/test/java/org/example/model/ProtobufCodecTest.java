@@ -0,0 +1,78 @@
+package org.example.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the methods within the ProtobufCodec class.
+ */
+public class ProtobufCodecTest {
+
+    /**
+     * Tests that an Argument's fields and payload survive encoding, with every kind of
+     * cell value.
+     */
+    @Test
+    public void testArgumentRoundTrip() throws IOException {
+        Argument argument = new Argument("publisher", "sheet", "3",
+                "$A1 12\\n$B1 =$A1 * 2\\n$AA100 hello world\\n$C2\\n$A1 -7\\n$D4 007\\n$E5 -0\\n$F6 1.5\\n");
+        argument.setExpectedVersion("2");
+        Argument decoded = ProtobufCodec.decodeArgument(ProtobufCodec.encodeArgument(argument));
+        assertEquals("publisher", decoded.getPublisher());
+        assertEquals("sheet", decoded.getSheet());
+        assertEquals("3", decoded.getId());
+        assertEquals("2", decoded.getExpectedVersion());
+        assertEquals("$A1 12\n$B1 =$A1 * 2\n$AA100 hello world\n$C2\n$A1 -7\n$D4 007\n$E5 -0\n$F6 1.5\n",
+                decoded.getPayload()); // Line breaks are no longer escaped
+        assertEquals(Home.convertStringTo2DArray(argument.getPayload()),
+                Home.convertStringTo2DArray(decoded.getPayload()));
+
+        Argument empty = ProtobufCodec.decodeArgument(ProtobufCodec.encodeArgument(new Argument("p", null, null, null)));
+        assertEquals("p", empty.getPublisher());
+        assertNull(empty.getSheet());
+        assertNull(empty.getPayload());
+    }
+
+    /**
+     * Tests that a Result survives encoding, and that a large sheet is much smaller
+     * than its JSON.
+     */
+    @Test
+    public void testResultRoundTrip() throws IOException {
+        StringBuilder payload = new StringBuilder();
+        for (int row = 1; row <= 1000; row++) {
+            for (int col = 1; col <= 10; col++) {
+                payload.append("$").append(Spreadsheet.getColumnName(col)).append(row).append(" ")
+                        .append(col == 10 ? "=SUM($A" + row + ":$I" + row + ")" : String.valueOf(row * col)).append("\n");
+            }
+        }
+        Result result = new Result(true, null, List.of(new Argument("p", "s", "1", payload.toString()),
+                new Argument("p", "s", "2", "")));
+        byte[] message = ProtobufCodec.encodeResult(result);
+        Result decoded = ProtobufCodec.decodeResult(message);
+        assertTrue(decoded.getSuccess());
+        assertNull(decoded.getMessage());
+        assertEquals(2, decoded.getValue().size());
+        assertEquals(payload.toString(), decoded.getValue().get(0).getPayload());
+        assertEquals("", decoded.getValue().get(1).getPayload());
+
+        int json = payload.toString().replace("\n", "\\n").getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(message.length * 10 < json * 6, message.length + " bytes, JSON payload alone is " + json);
+    }
+
+    /**
+     * Tests that a truncated message is rejected.
+     */
+    @Test
+    public void testTruncatedMessage() {
+        byte[] message = ProtobufCodec.encodeArgument(new Argument("publisher", "sheet", null, "$A1 1\n$B2 x\n"));
+        assertThrows(IOException.class,
+                () -> ProtobufCodec.decodeArgument(Arrays.copyOf(message, message.length - 3)));
+    }
+}
@@ -5,8 +5,10 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.lang.reflect.Method;
+import org.example.model.formula.Formula;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Tests the methods within the Spreadsheet class.
@@ -69,7 +71,9 @@ public class SpreadsheetTest {
 
         // grid was correctly set
         assertEquals("New Value", spreadsheet.getCellValue(0, 0)); // Assert that the value of the first cell is "New Value"
-        assertEquals(newGrid, spreadsheet.getGrid()); // Assert that the grid was correctly set
+        assertSame(newGrid.get(0).get(0), spreadsheet.getGrid().get(0).get(0)); // Assert that the cell was stored
+        assertEquals("", spreadsheet.getGrid().get(99).get(99).getValue()); // Empty cells stay empty
+        assertEquals(1, spreadsheet.getPopulatedCells().size()); // Only the populated cell is stored
     }
 
     /**
@@ -271,6 +275,21 @@ public class SpreadsheetTest {
         assertEquals("Error", spreadsheet.evaluateFormula("= e / 2")); // Test division with an invalid string, expecting "Error"
     }
 
+    /**
+     * Tests that arithmetic results are printed the way the old JavaScript evaluator printed them.
+     */
+    @Test
+    public void testEvaluateFormulaNumberFormatting() {
+        assertEquals("2.5", spreadsheet.evaluateFormula("= 5 / 2"));
+        assertEquals("0.30000000000000004", spreadsheet.evaluateFormula("= 0.1 + 0.2"));
+        assertEquals("0.0001", spreadsheet.evaluateFormula("= 1 / 10000"));
+        assertEquals("1e-7", spreadsheet.evaluateFormula("= 1 / 10000000"));
+        assertEquals("1e+22", spreadsheet.evaluateFormula("= 100000000 * 100000000000000"));
+        assertEquals("-2", spreadsheet.evaluateFormula("= -3 + 1"));
+        assertEquals("9", spreadsheet.evaluateFormula("= 2 * (3 + 4) - 5")); // Precedence and parentheses
+        assertEquals("Infinity", spreadsheet.evaluateFormula("= 1 / 0"));
+    }
+
     /**
      * Tests the evaluateFormula method of the Spreadsheet class with comparison operations.
      * @author Vinay
@@ -321,105 +340,148 @@ public class SpreadsheetTest {
         assertEquals("1", spreadsheet.evaluateFormula("= 0 | 1"));
         assertEquals("0", spreadsheet.evaluateFormula("= 0 | 0")); // false
         assertEquals("Error", spreadsheet.evaluateFormula("= e | 1")); // string error
+
+        // short-circuit: the right hand side is not evaluated once the left decides
+        assertEquals("0", spreadsheet.evaluateFormula("= 0 & e"));
+        assertEquals("1", spreadsheet.evaluateFormula("= 1 | e"));
+        assertEquals("Error", spreadsheet.evaluateFormula("= 1 & e")); // right hand side needed
+        assertEquals("Error", spreadsheet.evaluateFormula("= 0 | e"));
     }
 
     /**
-     * Tests the private rangeOperation method of the Spreadsheet class using reflection.
-     * @throws Exception if there is an error during reflection
+     * Tests evaluating a cell range on its own.
      * @author Theo
      */
     @Test
-    public void testRangeOperation() throws Exception {
+    public void testRangeOperation() {
         // Create a new Spreadsheet and set some values
         spreadsheet.setCellValue(0, 0, "1");
         spreadsheet.setCellValue(0, 1, "2");
         spreadsheet.setCellValue(1, 0, "3");
         spreadsheet.setCellValue(1, 1, "4");
     
-        Method rangeOperationMethod = Spreadsheet.class.getDeclaredMethod("rangeOperation", String.class, String.class);
-        rangeOperationMethod.setAccessible(true);
-    
         // Test valid range
-        String result = (String) rangeOperationMethod.invoke(spreadsheet, "$A1", "$B2");
-        assertEquals("1,2,3,4", result);
+        assertEquals("1,2,3,4", spreadsheet.evaluateFormula("=$A1:$B2"));
     
         // Test invalid range (end row less than start row)
-        result = (String) rangeOperationMethod.invoke(spreadsheet, "$A2", "$A1");
-        assertEquals("Error", result);
+        assertEquals("Error", spreadsheet.evaluateFormula("=$A2:$A1"));
     
         // Test invalid range (end column less than start column)
-        result = (String) rangeOperationMethod.invoke(spreadsheet, "$B1", "$A1");
-        assertEquals("Error", result);
+        assertEquals("Error", spreadsheet.evaluateFormula("=$B1:$A1"));
     
         // Test range with non-existent cells
-        result = (String) rangeOperationMethod.invoke(spreadsheet, "$Z1", "$AA1");
-        assertEquals("", result);
+        assertEquals("", spreadsheet.evaluateFormula("=$Z1:$AA1"));
     
         // Test empty range
-        result = (String) rangeOperationMethod.invoke(spreadsheet, "$A3", "$A3");
-        assertEquals("", result);
+        assertEquals("", spreadsheet.evaluateFormula("=$A3:$A3"));
     }
     
     /**
-     * Tests the private evaluateIF method of the Spreadsheet class using reflection.
-     * @throws Exception if there is an error during reflection
+     * Tests the IF function of the Spreadsheet class.
      * @author Vinay
      */
     @Test
-    public void testEvaluateIF() throws Exception {
-        Method evaluateIFMethod = Spreadsheet.class.getDeclaredMethod("evaluateIF", String.class); // Get the private evaluateIF method from the Spreadsheet class
-        evaluateIFMethod.setAccessible(true); // Make the evaluateIF method accessible
-    
+    public void testEvaluateIF() {
         // Test valid IF condition true
-        String result = (String) evaluateIFMethod.invoke(spreadsheet, "1,1,0"); // Invoke evaluateIF method with condition true
-        assertEquals("1", result); // Assert that the result is "1"
+        assertEquals("1", spreadsheet.evaluateFormula("=IF(1,1,0)")); // Assert that the result is "1"
     
         // Test valid IF condition false
-        result = (String) evaluateIFMethod.invoke(spreadsheet, "0,1,0"); // Invoke evaluateIF method with condition false
-        assertEquals("0", result); // Assert that the result is "0"
+        assertEquals("0", spreadsheet.evaluateFormula("=IF(0,1,0)")); // Assert that the result is "0"
     
         // Test valid IF with cell references
         spreadsheet.setCellValue(0, 0, "5"); // Set cell (0,0) value to 5
         spreadsheet.setCellValue(0, 1, "3"); // Set cell (0,1) value to 3
-        result = (String) evaluateIFMethod.invoke(spreadsheet, "$A1>$A2,1,0"); // Invoke evaluateIF method with cell references
-        assertEquals("Error", result); // Assert that the result is "Error"
+        assertEquals("Error", spreadsheet.evaluateFormula("=IF($A1>$A2,1,0)")); // $A2 is empty, so the comparison is an error
+        assertEquals("1", spreadsheet.evaluateFormula("=IF($A1>$B1,1,0)")); // 5 > 3
     
         // Test invalid IF condition
-        result = (String) evaluateIFMethod.invoke(spreadsheet, "e,1,0"); // Invoke evaluateIF method with an invalid condition
-        assertEquals("Error", result); // Assert that the result is "Error"
+        assertEquals("Error", spreadsheet.evaluateFormula("=IF(e,1,0)")); // Assert that the result is "Error"
     
         // Test IF with missing parameters
-        result = (String) evaluateIFMethod.invoke(spreadsheet, "1,1"); // Invoke evaluateIF method with missing parameters
-        assertEquals("Error", result); // Assert that the result is "Error"
+        assertEquals("Error", spreadsheet.evaluateFormula("=IF(1,1)")); // Assert that the result is "Error"
     
         // Test IF with extra parameters
-        result = (String) evaluateIFMethod.invoke(spreadsheet, "1,1,0,1"); // Invoke evaluateIF method with extra parameters
-        assertEquals("Error", result); // Assert that the result is "Error"
+        assertEquals("Error", spreadsheet.evaluateFormula("=IF(1,1,0,1)")); // Assert that the result is "Error"
+
+        // Test that only the taken branch is evaluated
+        assertEquals("5", spreadsheet.evaluateFormula("=IF(1,5,SUM(e))"));
+        assertEquals("3", spreadsheet.evaluateFormula("=IF($A1<$B1,$C1,$B1)")); // $C1 is empty but not taken
+        assertEquals("Error", spreadsheet.evaluateFormula("=IF(0,5,SUM(e))"));
     }
 
     /**
-     * Tests the evaluateDEBUG method of the Spreadsheet class using reflection.
-     * @throws Exception if there is an error during reflection
+     * Tests the DEBUG function of the Spreadsheet class.
      * @author Theo
      */
     @Test
-    public void testEvaluateDEBUG() throws Exception {
-        Method evaluateDEBUGMethod = Spreadsheet.class.getDeclaredMethod("evaluateDEBUG", String.class);
-        evaluateDEBUGMethod.setAccessible(true);
-
+    public void testEvaluateDEBUG() {
         // Test with leading and trailing spaces
-        String result = (String) evaluateDEBUGMethod.invoke(spreadsheet, "  test  ");
-        assertEquals("test", result, "evaluateDEBUG should trim leading and trailing spaces");
+        assertEquals("test", spreadsheet.evaluateFormula("=DEBUG(  test  )"), "DEBUG should trim leading and trailing spaces");
 
         // Test with no spaces
-        result = (String) evaluateDEBUGMethod.invoke(spreadsheet, "test");
-        assertEquals("test", result, "evaluateDEBUG should return the same string when there are no leading or trailing spaces");
+        assertEquals("test", spreadsheet.evaluateFormula("=DEBUG(test)"), "DEBUG should return the same string when there are no leading or trailing spaces");
 
         // Test with only spaces
-        result = (String) evaluateDEBUGMethod.invoke(spreadsheet, "  ");
-        assertEquals("", result, "evaluateDEBUG should return an empty string when the input is only spaces");
+        assertEquals("", spreadsheet.evaluateFormula("=DEBUG(  )"), "DEBUG should return an empty string when the input is only spaces");
     }
-    
+
+    /**
+     * Tests that a formula set on a cell is compiled once and reused on re-evaluation.
+     */
+    @Test
+    public void testEvaluateCellFormulaReusesCompiledFormula() {
+        spreadsheet.setCellValue(0, 0, "2");
+        spreadsheet.setCellRawdata(0, 1, "=$A1 * 3");
+        spreadsheet.setCellValue(0, 1, "=$A1 * 3");
+        assertEquals("6", spreadsheet.getCellValue(0, 1));
+
+        Formula compiled = spreadsheet.getGrid().get(0).get(1).getCompiledFormula();
+        assertNotNull(compiled);
+
+        spreadsheet.setCellValue(0, 0, "4");
+        assertEquals("12", spreadsheet.evaluateCellFormula(0, 1)); // Picks up the new value of $A1
+        assertSame(compiled, spreadsheet.getGrid().get(0).get(1).getCompiledFormula()); // Not parsed again
+
+        spreadsheet.setCellValue(0, 1, "plain");
+        assertNull(spreadsheet.getGrid().get(0).get(1).getCompiledFormula()); // Cleared once the formula is gone
+    }
+
+    /**
+     * Tests that editing a cell re-evaluates the formulas that depend on it.
+     */
+    @Test
+    public void testDependentsRecalculated() {
+        spreadsheet.setCellValue(0, 0, "1"); // $A1
+        spreadsheet.setCellValue(0, 1, "=$A1 + 1"); // $B1
+        spreadsheet.setCellValue(0, 2, "=$B1 * 2"); // $C1
+        spreadsheet.setCellValue(1, 0, "=SUM($A1:$C1)"); // $A2
+        assertEquals("7.0", spreadsheet.getCellValue(1, 0));
+
+        spreadsheet.setCellValue(0, 0, "3");
+        assertEquals("4", spreadsheet.getCellValue(0, 1));
+        assertEquals("8", spreadsheet.getCellValue(0, 2));
+        assertEquals("15.0", spreadsheet.getCellValue(1, 0));
+
+        spreadsheet.setCellValue(0, 1, "10"); // Replacing the formula stops it from following $A1
+        spreadsheet.setCellValue(0, 0, "5");
+        assertEquals("10", spreadsheet.getCellValue(0, 1));
+        assertEquals("20", spreadsheet.getCellValue(0, 2));
+    }
+
+    /**
+     * Tests that formulas in a circular reference evaluate to "Error".
+     */
+    @Test
+    public void testCircularReference() {
+        spreadsheet.setCellValue(0, 0, "=$B1 + 1");
+        spreadsheet.setCellValue(0, 1, "=$A1 + 1");
+        assertEquals("Error", spreadsheet.getCellValue(0, 0));
+        assertEquals("Error", spreadsheet.getCellValue(0, 1));
+
+        spreadsheet.setCellValue(0, 1, "2"); // Breaking the cycle
+        assertEquals("3", spreadsheet.getCellValue(0, 0));
+    }
+
     /**
      * Tests the evaluateFormula method of the Spreadsheet class with the SUM function.
      * @author Theo
@@ -474,7 +536,7 @@ public class SpreadsheetTest {
 
         assertEquals("4.25", spreadsheet.evaluateFormula("=AVG($A1,$A2,$A3,$A4)")); // Test AVG function with individual cell references, expecting 4.25
         assertEquals("4.25", spreadsheet.evaluateFormula("=AVG($A1:$A4)")); // Test AVG function with a range of cells, expecting 4.25
-        assertEquals("2.0", spreadsheet.evaluateFormula("=AVG(AVG(2,4),3,2)")); // Test AVG function with nested AVG function calls, expecting 2.0
+        assertEquals("2.6666666666666665", spreadsheet.evaluateFormula("=AVG(AVG(2,4),3,2)")); // Test AVG function with nested AVG function calls, AVG(3,3,2)
     }
 
     /**
@@ -519,7 +581,7 @@ public class SpreadsheetTest {
         assertEquals("4.899", spreadsheet.evaluateFormula("=STDDEV($A1:$A8)"));
 
         // Test with nested function calls
-        assertEquals("2.136", spreadsheet.evaluateFormula("=STDDEV(STDDEV(1,2,3,4),STDDEV(5,6,7,8))"));
+        assertEquals("0.0", spreadsheet.evaluateFormula("=STDDEV(STDDEV(1,2,3,4),STDDEV(5,6,7,8))")); // Both inner results are 1.118
     }
 
     /**
@@ -572,4 +634,170 @@ public class SpreadsheetTest {
         assertEquals("1.0", spreadsheet.evaluateFormula("=MIN($A1:$A4)")); // Test MIN function with a range of cells
         assertEquals("1.0", spreadsheet.evaluateFormula("=MIN(MIN(2,4),3,1)")); // Test MIN function with nested MIN function calls
     }
+
+    /**
+     * Tests that only populated cells are stored and that clearing a cell frees it.
+     */
+    @Test
+    public void testPopulatedCells() {
+        assertTrue(spreadsheet.getPopulatedCells().isEmpty()); // A new sheet stores nothing
+        spreadsheet.setCellValue(5, 2, "x");
+        spreadsheet.setCellRawdata(5, 2, "x");
+        spreadsheet.setCellValue(1, 7, "y");
+        spreadsheet.setCellRawdata(1, 7, "y");
+
+        List<Cell> populated = spreadsheet.getPopulatedCells();
+        assertEquals(2, populated.size());
+        assertEquals(1, populated.get(0).getRow()); // Row by row
+        assertEquals(7, populated.get(0).getCol());
+        assertEquals("x", populated.get(1).getValue());
+        assertEquals("$H2 y\\n$C6 x\\n", Spreadsheet.convertSheetToPayload(spreadsheet));
+
+        spreadsheet.setCellValue(5, 2, "");
+        spreadsheet.setCellRawdata(5, 2, "");
+        assertEquals(1, spreadsheet.getPopulatedCells().size()); // The cleared cell is no longer stored
+        assertEquals("", spreadsheet.getCellValue(5, 2));
+    }
+
+    /**
+     * Tests range functions over a long column that spans many tiles.
+     */
+    @Test
+    public void testLargeRangeAggregation() {
+        for (int row = 0; row < 100000; row += 10) {
+            spreadsheet.setCellValue(row, 0, "2"); // Every tenth row is populated
+        }
+        assertEquals("20000.0", spreadsheet.evaluateFormula("=SUM($A1:$A100000)"));
+        assertEquals("2.0", spreadsheet.evaluateFormula("=AVG($A1:$A100000)"));
+        assertEquals("2.0", spreadsheet.evaluateFormula("=MAX($A1:$A100000)"));
+        assertEquals("4.0", spreadsheet.evaluateFormula("=SUM($A1:$A20)"));
+        assertEquals("Error", spreadsheet.evaluateFormula("=SUM($A1:$A2000000)"), "Ranges outside the sheet are errors");
+    }
+
+    /**
+     * Tests that recalculating in parallel gives the same values as on one thread.
+     */
+    @Test
+    public void testParallelRecalculation() {
+        Spreadsheet single = new Spreadsheet("single");
+        single.setRecalculationScheduler(new RecalculationScheduler(ForkJoinPool.commonPool(), false));
+        Spreadsheet parallel = new Spreadsheet("parallel");
+        parallel.setRecalculationScheduler(new RecalculationScheduler(ForkJoinPool.commonPool(), true));
+        for (Spreadsheet sheet : List.of(single, parallel)) {
+            for (int row = 0; row < 500; row++) {
+                sheet.setCellValue(row, 0, String.valueOf(row % 7));
+                String formula = "=$A" + (row + 1) + " * 3 + SUM($A1:$A" + (row + 1) + ")"; // 500 independent formulas
+                sheet.setCellRawdata(row, 1, formula);
+                sheet.setCellValue(row, 1, formula);
+                String dependent = "=$B" + (row + 1) + " - 1"; // Reads the level before it
+                sheet.setCellRawdata(row, 2, dependent);
+                sheet.setCellValue(row, 2, dependent);
+            }
+            sheet.setCellValue(0, 0, "100"); // Every formula depends on the first cell
+            sheet.recalculate();
+        }
+        for (int row = 0; row < 500; row++) {
+            assertEquals(single.getCellValue(row, 1), parallel.getCellValue(row, 1));
+            assertEquals(single.getCellValue(row, 2), parallel.getCellValue(row, 2));
+        }
+        assertEquals("399", parallel.getCellValue(0, 2)); // 100 * 3 + 100 - 1
+    }
+
+    /**
+     * Tests that loading cells gives the same values whatever order the cells come in.
+     */
+    @Test
+    public void testLoadCells() {
+        String[][] data = {{"=$B1 + $C1", "=$C1 * 2", "4"}, {"x"}}; // Formulas before their inputs
+        List<Cell> forwards = new ArrayList<>();
+        List<Cell> backwards = new ArrayList<>();
+        for (int row = 0; row < data.length; row++) {
+            for (int col = 0; col < data[row].length; col++) {
+                forwards.add(loadedCell(row, col, data[row][col]));
+                backwards.add(0, loadedCell(row, col, data[row][col])); // Inputs before their formulas
+            }
+        }
+        Spreadsheet reversed = new Spreadsheet("reversed");
+        spreadsheet.setCellValue(5, 5, "old"); // Replaced by the loaded cells
+        spreadsheet.loadCells(forwards);
+        reversed.loadCells(backwards);
+        for (Spreadsheet sheet : List.of(spreadsheet, reversed)) {
+            assertEquals("12", sheet.getCellValue(0, 0)); // Evaluated after both of its precedents
+            assertEquals("8", sheet.getCellValue(0, 1));
+            assertEquals("=$B1 + $C1", sheet.getCellRawdata(0, 0));
+            assertEquals("x", sheet.getCellValue(1, 0));
+            assertEquals("", sheet.getCellValue(5, 5));
+        }
+
+        spreadsheet.setCellValue(0, 2, "1"); // Loaded formulas are tracked like any other
+        assertEquals("3", spreadsheet.getCellValue(0, 0));
+    }
+
+    /**
+     * Tests that a snapshot keeps its cells while the sheet is updated, and that loading
+     * an update leaves unchanged cells alone.
+     */
+    @Test
+    public void testSnapshot() {
+        spreadsheet.loadCells(List.of(loadedCell(0, 0, "2"), loadedCell(0, 1, "=$A1 * 3"), loadedCell(200, 0, "x")));
+        ISpreadsheet version = spreadsheet.snapshot();
+        Cell unchanged = spreadsheet.getPopulatedCells().get(2);
+
+        spreadsheet.loadCells(List.of(loadedCell(0, 0, "5"), loadedCell(0, 1, "=$A1 * 3"), loadedCell(200, 0, "x")));
+        assertEquals("15", spreadsheet.getCellValue(0, 1)); // Recalculated from the changed cell
+        assertSame(unchanged, spreadsheet.getPopulatedCells().get(2), "Cells the update does not change are kept");
+        assertEquals("2", version.getCellValue(0, 0));
+        assertEquals("6", version.getCellValue(0, 1));
+        assertEquals("$A1 2\\n$B1 =$A1 * 3\\n$A201 x\\n", Spreadsheet.convertSheetToPayload(version));
+
+        version.setCellValue(0, 0, "1"); // A snapshot is a sheet of its own
+        assertEquals("3", version.getCellValue(0, 1));
+        assertEquals("5", spreadsheet.getCellValue(0, 0));
+        assertTrue(version.getPublishedVersions().isEmpty());
+    }
+
+    /**
+     * Tests that loading a sheet's cells followed by a version's changed cells applies
+     * the version, with empty cells clearing the cells before them.
+     */
+    @Test
+    public void testLoadChangedCells() {
+        spreadsheet.loadCells(List.of(loadedCell(0, 0, "2"), loadedCell(0, 1, "=$A1 * 3"), loadedCell(1, 0, "x")));
+        List<Cell> cells = new ArrayList<>(spreadsheet.getPopulatedCells());
+        cells.addAll(Home.convertPayloadToCells("$A1 4\n$A2 \n"));
+        spreadsheet.loadCells(cells);
+        assertEquals("12", spreadsheet.getCellValue(0, 1));
+        assertEquals("", spreadsheet.getCellRawdata(1, 0)); // Cleared by the empty cell
+        assertEquals(2, spreadsheet.getPopulatedCells().size());
+    }
+
+    /**
+     * Tests that cells loaded with the same text share one value, even from different
+     * strings.
+     */
+    @Test
+    public void testLoadedValuesAreShared() {
+        spreadsheet.loadCells(List.of(loadedCell(0, 0, new String("total")), loadedCell(5, 3, new String("total")),
+                loadedCell(6, 0, "=$A1")));
+        List<Cell> cells = spreadsheet.getPopulatedCells();
+        assertSame(cells.get(0).getTypedValue(), cells.get(1).getTypedValue());
+        assertSame(cells.get(0).getRawdata(), cells.get(1).getRawdata());
+        assertEquals("total", spreadsheet.getCellValue(6, 0)); // Formulas are still evaluated
+    }
+
+    /**
+     * Creates a cell to load.
+     *
+     * @param row     the row index.
+     * @param col     the column index.
+     * @param rawdata the raw data.
+     * @return the cell.
+     */
+    private static Cell loadedCell(int row, int col, String rawdata) {
+        Cell cell = new Cell();
+        cell.setRow(row);
+        cell.setCol(col);
+        cell.setRawData(rawdata);
+        return cell;
+    }
 }
@@ -0,0 +1,35 @@
+package org.example.model;
+
+import org.example.server.UpdateStreams;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the methods within the UpdateStream class.
+ */
+public class UpdateStreamTest {
+
+    /**
+     * Tests that the events encoded by the server are read back with their name, id and
+     * payload.
+     */
+    @Test
+    public void testReadEvents() {
+        List<String> received = new ArrayList<>();
+        UpdateStream stream = new UpdateStream(null, null, "0",
+                (event, version, payload) -> received.add(event + " " + version + " " + payload));
+        String events = new String(UpdateStreams.encode("sheet", 1, "$A1 1\n$B1 =$A1 + 1\n"), StandardCharsets.UTF_8)
+                + new String(UpdateStreams.encode("update", 2, ""), StandardCharsets.UTF_8)
+                + ": comment\n\n" // Ignored
+                + new String(UpdateStreams.encode("update", 3, "$A1 \n"), StandardCharsets.UTF_8);
+        for (String line : events.split("\n", -1)) {
+            stream.accept(line);
+        }
+        assertEquals(List.of("sheet 1 $A1 1\n$B1 =$A1 + 1\n", "update 2 ", "update 3 $A1 \n"), received);
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.server;
+
+import org.example.model.AppUser;
+import org.example.model.IAppUser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the methods within the CredentialCache and Passwords classes.
+ */
+public class CredentialCacheTest {
+
+    /**
+     * Tests that a hash verifies its own password only, and that two hashes of the same
+     * password differ by their salt.
+     */
+    @Test
+    public void testHashPassword() {
+        String hash = Passwords.hash("secret");
+        assertTrue(Passwords.isHash(hash));
+        assertFalse(hash.contains("secret"));
+        assertTrue(Passwords.verify("secret", hash));
+        assertFalse(Passwords.verify("Secret", hash));
+        assertNotEquals(hash, Passwords.hash("secret"));
+        assertFalse(Passwords.verify("secret", "secret")); // Plain text is never a match
+    }
+
+    /**
+     * Tests that a verified header is remembered for the user's current hash only.
+     */
+    @Test
+    public void testVerified() {
+        CredentialCache cache = new CredentialCache(10, 60_000);
+        IAppUser user = new AppUser("alice", Passwords.hash("secret"));
+        assertFalse(cache.isVerified("Basic YWxpY2U6c2VjcmV0", user));
+        cache.add("Basic YWxpY2U6c2VjcmV0", user);
+        assertTrue(cache.isVerified("Basic YWxpY2U6c2VjcmV0", user));
+        assertFalse(cache.isVerified("Basic YWxpY2U6b3RoZXI=", user)); // Another password
+
+        IAppUser changed = new AppUser("alice", Passwords.hash("other"));
+        assertFalse(cache.isVerified("Basic YWxpY2U6c2VjcmV0", changed)); // Verified for the old password
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Tests that a wrong password is remembered for the user's current hash only, apart
+     * from the verified headers.
+     */
+    @Test
+    public void testRejected() {
+        CredentialCache cache = new CredentialCache(10, 60_000);
+        IAppUser user = new AppUser("alice", Passwords.hash("secret"));
+        assertFalse(cache.isRejected("Basic YWxpY2U6b3RoZXI=", user));
+        cache.reject("Basic YWxpY2U6b3RoZXI=", user);
+        assertTrue(cache.isRejected("Basic YWxpY2U6b3RoZXI=", user));
+        assertFalse(cache.isVerified("Basic YWxpY2U6b3RoZXI=", user));
+        assertEquals(0, cache.size()); // Rejections are not counted with the verified headers
+
+        IAppUser changed = new AppUser("alice", Passwords.hash("other"));
+        assertFalse(cache.isRejected("Basic YWxpY2U6b3RoZXI=", changed)); // Wrong for the old password only
+        cache.reject("Basic YWxpY2U6b3RoZXI=", user);
+        cache.invalidate("alice");
+        assertFalse(cache.isRejected("Basic YWxpY2U6b3RoZXI=", user));
+    }
+
+    /**
+     * Tests that entries expire, that the cache stays within its limit, and that a user
+     * can be invalidated.
+     */
+    @Test
+    public void testExpiryLimitAndInvalidate() {
+        IAppUser alice = new AppUser("alice", Passwords.hash("secret"));
+        IAppUser bob = new AppUser("bob", Passwords.hash("secret"));
+
+        CredentialCache expired = new CredentialCache(10, 0);
+        expired.add("Basic alice", alice);
+        assertFalse(expired.isVerified("Basic alice", alice));
+
+        CredentialCache cache = new CredentialCache(2, 60_000);
+        cache.add("Basic alice1", alice);
+        cache.add("Basic alice2", alice);
+        cache.add("Basic bob", bob);
+        assertEquals(2, cache.size());
+        assertFalse(cache.isVerified("Basic alice1", alice)); // The least recently used is dropped
+        cache.invalidate("alice");
+        assertFalse(cache.isVerified("Basic alice2", alice));
+        assertTrue(cache.isVerified("Basic bob", bob));
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the methods within the Metrics and Histogram classes.
+ */
+public class MetricsTest {
+
+    /**
+     * Tests that every value falls in a bucket that holds it, and that the buckets
+     * follow each other without gaps.
+     */
+    @Test
+    public void testBuckets() {
+        long[] values = {0, 1, 3, 4, 5, 7, 8, 9, 1000, 123_456_789, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = Histogram.bucket(value);
+            assertTrue(Histogram.upperBound(bucket) >= value);
+            assertTrue(bucket == 0 || Histogram.upperBound(bucket - 1) < value);
+        }
+        for (int bucket = 1; bucket <= Histogram.bucket(Long.MAX_VALUE); bucket++) {
+            assertEquals(bucket, Histogram.bucket(Histogram.upperBound(bucket - 1) + 1));
+        }
+    }
+
+    /**
+     * Tests that percentiles are read back to within a quarter of their value.
+     */
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.percentile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        assertTrue(histogram.percentile(0.5) >= 500 && histogram.percentile(0.5) <= 625);
+        assertTrue(histogram.percentile(0.99) >= 990 && histogram.percentile(0.99) <= 1000);
+        assertEquals(1000, histogram.percentile(0.999)); // Never more than the largest value
+    }
+
+    /**
+     * Tests that requests, histograms and gauges are written in the Prometheus text format.
+     */
+    @Test
+    public void testScrape() {
+        Metrics metrics = new Metrics();
+        metrics.recordRequest("login", 2_000_000, -1, false);
+        metrics.recordRequest("login", 4_000_000, -1, true);
+        metrics.record("sheet_versions", "Versions of a sheet.", 3);
+        metrics.gauge("users", "Registered users.", () -> 7);
+        assertEquals(2, metrics.getRequests("login"));
+        assertEquals(0, metrics.getRequests("register"));
+
+        String scraped = metrics.scrape();
+        assertTrue(scraped.contains("# TYPE husksheets_requests_total counter\n"));
+        assertTrue(scraped.contains("husksheets_requests_total{endpoint=\"login\"} 2\n"));
+        assertTrue(scraped.contains("husksheets_request_failures_total{endpoint=\"login\"} 1\n"));
+        assertTrue(scraped.contains("husksheets_request_duration_seconds_count{endpoint=\"login\"} 2\n"));
+        assertTrue(scraped.contains("husksheets_request_duration_seconds{endpoint=\"login\",quantile=\"0.5\"} 0.00"));
+        assertTrue(scraped.contains("husksheets_sheet_versions{quantile=\"0.999\"} 3\n"));
+        assertTrue(scraped.contains("# TYPE husksheets_users gauge\nhusksheets_users 7\n"));
+    }
+}
@@ -0,0 +1,223 @@
+package org.example.server;
+
+import org.example.model.Argument;
+import org.example.model.Result;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the methods within the ServerJournal class, and a server recovering its state
+ * from a data directory.
+ */
+public class ServerJournalTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Collects replayed records and lists them again for snapshots.
+     */
+    private static class Recorder implements ServerJournal.Handler {
+        private final List<String> replayed = new ArrayList<>(); // "op field..." for each replayed record
+        private final List<ServerJournal.Entry> state = new ArrayList<>(); // Listed for snapshots
+
+        @Override
+        public void replay(ServerJournal.Entry entry) {
+            this.replayed.add(entry.getOp() + " " + entry.getField(0));
+        }
+
+        @Override
+        public Supplier<List<ServerJournal.Entry>> compact() {
+            return () -> this.state;
+        }
+    }
+
+    /**
+     * Creates a basic auth header.
+     * @param username a username
+     * @return an encoded String
+     */
+    private static String auth(String username) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":password").getBytes());
+    }
+
+    /**
+     * Lists the files in the data directory.
+     * @return the file names, sorted
+     * @throws IOException if the directory could not be listed
+     */
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(this.dir)) {
+            return files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Tests that a restarted server has the users, sheets and updates of the last one.
+     * @throws IOException if the data directory could not be used
+     */
+    @Test
+    public void testServerRecoversState() throws IOException {
+        Server server = new Server(this.dir.toString(), 10000);
+        server.register(auth("alice"));
+        server.createSheet(auth("alice"), new Argument("alice", "kept", null, null));
+        server.createSheet(auth("alice"), new Argument("alice", "deleted", null, null));
+        server.deleteSheet(auth("alice"), new Argument("alice", "deleted", null, null));
+        server.updatePublished(auth("alice"), new Argument("alice", "kept", null, "$A1 1\\n$B1 =$A1+1\\n"));
+        server.updatePublished(auth("alice"), new Argument("alice", "kept", null, "$A1 2\\n$B1 =$A1+1\\n"));
+        Result before = (Result) server.getUpdatesForSubscription(auth("alice"), null,
+                new Argument("alice", "kept", "0", null)).getBody();
+
+        Server restarted = new Server(this.dir.toString(), 10000); // Replays the log, as after a crash
+        assertTrue(restarted.existingUser("alice", "password"));
+        Result sheets = restarted.getSheets(auth("alice"), null, new Argument("alice", null, null, null)).getBody();
+        assertEquals(1, sheets.getValue().size());
+        assertEquals("kept", sheets.getValue().get(0).getSheet());
+        Result after = (Result) restarted.getUpdatesForSubscription(auth("alice"), null,
+                new Argument("alice", "kept", "0", null)).getBody();
+        assertEquals(before.getValue().get(0).getPayload(), after.getValue().get(0).getPayload());
+        assertEquals("2", after.getValue().get(0).getId());
+
+        restarted.close(); // Writes a snapshot
+        Server fromSnapshot = new Server(this.dir.toString(), 10000);
+        Result loaded = (Result) fromSnapshot.getUpdatesForSubscription(auth("alice"), null,
+                new Argument("alice", "kept", "1", null)).getBody();
+        assertEquals("$A1 2\n$B1 =$A1+1\n", loaded.getValue().get(0).getPayload());
+    }
+
+    /**
+     * Tests that old versions are pruned into a checkpoint, that a request from a pruned
+     * version gets the checkpoint and the later changes, and that a restarted server
+     * numbers its versions as before.
+     * @throws Exception if the data directory could not be used
+     */
+    @Test
+    public void testOldVersionsArePruned() throws Exception {
+        VersionRetention retention = new VersionRetention(2, 0, 0);
+        Server server = new Server(this.dir.toString(), 10000, retention);
+        server.register(auth("alice"));
+        server.createSheet(auth("alice"), new Argument("alice", "pruned", null, null));
+        for (int i = 1; i <= 5; i++) {
+            server.updatePublished(auth("alice"), new Argument("alice", "pruned", null, "$A1 " + i + "\\n$B1 =$A1+1\\n"));
+        }
+        server.pruneVersions();
+        Result fromStart = (Result) server.getUpdatesForSubscription(auth("alice"), null,
+                new Argument("alice", "pruned", "0", null)).getBody();
+        assertEquals("$A1 4\n$B1 =$A1+1\n$A1 5\n", fromStart.getValue().get(0).getPayload()); // Versions 4 and 5 are kept
+        assertEquals("5", fromStart.getValue().get(0).getId());
+
+        server.close(); // Writes a snapshot with the checkpoint
+        Server restarted = new Server(this.dir.toString(), 10000, retention);
+        Result loaded = (Result) restarted.getUpdatesForSubscription(auth("alice"), null,
+                new Argument("alice", "pruned", "0", null)).getBody();
+        assertEquals(fromStart.getValue().get(0).getPayload(), loaded.getValue().get(0).getPayload());
+        restarted.updatePublished(auth("alice"), new Argument("alice", "pruned", null, "$A1 6\\n"));
+        Result latest = (Result) restarted.getUpdatesForSubscription(auth("alice"), null,
+                new Argument("alice", "pruned", "5", null)).getBody();
+        assertEquals("$A1 6\n", latest.getValue().get(0).getPayload());
+        assertEquals("6", latest.getValue().get(0).getId());
+    }
+
+    /**
+     * Tests that an update identical to the latest version is acknowledged without adding
+     * a version or a record, and that a changed update still adds one.
+     * @throws IOException if the data directory could not be used
+     */
+    @Test
+    public void testIdenticalUpdateAddsNoVersion() throws IOException {
+        Server server = new Server(this.dir.toString(), 10000);
+        server.register(auth("alice"));
+        server.createSheet(auth("alice"), new Argument("alice", "same", null, null));
+        Result first = server.updatePublished(auth("alice"), new Argument("alice", "same", null, "$A1 1\\n$B1 =$A1+1\\n")).getBody();
+        Result again = server.updatePublished(auth("alice"), new Argument("alice", "same", null, "$B1 =$A1+1\\n$A1 1\\n")).getBody();
+        assertEquals("Sheet updated successfully", first.getMessage());
+        assertTrue(again.getSuccess());
+        assertEquals("Sheet unchanged", again.getMessage());
+        Result changed = server.updatePublished(auth("alice"), new Argument("alice", "same", null, "$A1 2\\n$B1 =$A1+1\\n")).getBody();
+        assertEquals("Sheet updated successfully", changed.getMessage());
+
+        Server restarted = new Server(this.dir.toString(), 10000); // Replays the log
+        Result updates = (Result) restarted.getUpdatesForSubscription(auth("alice"), null,
+                new Argument("alice", "same", "0", null)).getBody();
+        assertEquals("2", updates.getValue().get(0).getId()); // Two versions, not three
+        assertEquals("$A1 1\n$B1 =$A1+1\n$A1 2\n", updates.getValue().get(0).getPayload());
+    }
+
+    /**
+     * Tests that an update using COPY is recognized when it is sent again, although the
+     * sheet also holds the cell COPY wrote.
+     * @throws IOException if the data directory could not be used
+     */
+    @Test
+    public void testIdenticalCopyUpdateAddsNoVersion() throws IOException {
+        Server server = new Server(this.dir.toString(), 10000);
+        server.register(auth("alice"));
+        server.createSheet(auth("alice"), new Argument("alice", "copy", null, null));
+        String payload = "$A1 1\\n$C1 =COPY($A1, $D1)\\n";
+        Result first = server.updatePublished(auth("alice"), new Argument("alice", "copy", null, payload)).getBody();
+        Result again = server.updatePublished(auth("alice"), new Argument("alice", "copy", null, payload)).getBody();
+        assertEquals("Sheet updated successfully", first.getMessage());
+        assertEquals("Sheet unchanged", again.getMessage());
+
+        Result updates = (Result) server.getUpdatesForSubscription(auth("alice"), null,
+                new Argument("alice", "copy", "0", null)).getBody();
+        assertEquals("1", updates.getValue().get(0).getId()); // One version, not two
+    }
+
+    /**
+     * Tests that a record torn by a crash is dropped and the log can be written again.
+     * @throws IOException if the data directory could not be used
+     */
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        Recorder recorder = new Recorder();
+        ServerJournal journal = new ServerJournal(this.dir, 10000, recorder);
+        journal.append(() -> { }, ServerJournal.REGISTER, "alice", "password");
+        long last = journal.append(() -> { }, ServerJournal.CREATE_SHEET, "alice", "sheet");
+        journal.sync(last);
+        Files.write(this.dir.resolve("journal-0"), new byte[]{0, 0, 0, 9, 1, 2}, StandardOpenOption.APPEND);
+
+        Recorder recovered = new Recorder();
+        ServerJournal reopened = new ServerJournal(this.dir, 10000, recovered);
+        assertEquals(List.of("1 alice", "2 alice"), recovered.replayed);
+        reopened.sync(reopened.append(() -> { }, ServerJournal.DELETE_SHEET, "alice", "sheet"));
+
+        Recorder again = new Recorder();
+        new ServerJournal(this.dir, 10000, again);
+        assertEquals(List.of("1 alice", "2 alice", "3 alice"), again.replayed);
+    }
+
+    /**
+     * Tests that a checkpoint replaces the log with a snapshot, and that recovery loads
+     * the snapshot and then the records written after it.
+     * @throws IOException if the data directory could not be used
+     */
+    @Test
+    public void testCheckpoint() throws IOException {
+        Recorder recorder = new Recorder();
+        ServerJournal journal = new ServerJournal(this.dir, 10000, recorder);
+        journal.append(() -> { }, ServerJournal.REGISTER, "alice", "password");
+        journal.append(() -> { }, ServerJournal.REGISTER, "bob", "password");
+        recorder.state.add(new ServerJournal.Entry(ServerJournal.REGISTER, "compacted", "password"));
+        journal.checkpoint();
+        journal.sync(journal.append(() -> { }, ServerJournal.REGISTER, "carol", "password"));
+        assertEquals(List.of("journal-2", "snapshot-2"), files());
+
+        Recorder recovered = new Recorder();
+        new ServerJournal(this.dir, 10000, recovered);
+        assertEquals(List.of("1 compacted", "1 carol"), recovered.replayed);
+    }
+}
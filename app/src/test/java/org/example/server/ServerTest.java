@@ -8,10 +8,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
-import java.util.ArrayList;
 import java.util.Base64;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -26,12 +29,12 @@ class ServerTests {
     private MockMvc mockMvc;
     @InjectMocks
     private Server server;
-    private List<IAppUser> availUsers;
+    private Map<String, IAppUser> availUsers;
 
     // Registers testuser before every test method
     @BeforeEach
     void setUp() throws Exception {
-        availUsers = new ArrayList<>();
+        availUsers = new ConcurrentHashMap<>();
 
         // Inject availUsers into the server
         server = new Server();
@@ -443,6 +446,38 @@ class ServerTests {
                 .andExpect(jsonPath("$.message").value("User not found"));
     }
 
+    /**
+     * Tests when the user tries to update a published sheet with the wrong password.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testWrongPasswordUpdatePublished() throws Exception {
+        String json = "{\"publisher\":\"testuser\", \"sheet\":\"newsheet\", \"payload\":\"\"}";
+        mockMvc.perform(post("/api/v1/updatePublished")
+                        .header("Authorization", createBasicAuthHeader("testuser", "wrongpassword"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.success").value(false))
+                .andExpect(jsonPath("$.message").value("Wrong username or password"));
+    }
+
+    /**
+     * Tests when the user tries to get updates with the wrong password.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testWrongPasswordGetUpdatesForSubscription() throws Exception {
+        String json = "{\"publisher\":\"testuser\", \"sheet\":\"newsheet\", \"id\":\"0\"}";
+        mockMvc.perform(post("/api/v1/getUpdatesForSubscription")
+                        .header("Authorization", createBasicAuthHeader("testuser", "wrongpassword"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.success").value(false))
+                .andExpect(jsonPath("$.message").value("Wrong username or password"));
+    }
+
     /**
      * Tests when the user tries to update a published sheet with a sheet that does not exist.
      * @throws Exception irrelevant to the actual test
@@ -482,6 +517,36 @@ class ServerTests {
                 .andExpect(jsonPath("$.message").value("Sheet updated successfully"));
     }
 
+    /**
+     * Tests that an update made against an old version of a published sheet is rejected.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testUpdatePublishedVersionConflict() throws Exception {
+        String json = "{\"publisher\":\"testuser\", \"sheet\":\"versioned\"}";
+        // Creates the sheet
+        mockMvc.perform(post("/api/v1/createSheet")
+                .header("Authorization", createBasicAuthHeader("testuser", "password"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json));
+        // The first update is made against version 0
+        json = "{\"publisher\":\"testuser\", \"sheet\":\"versioned\", \"payload\":\"$A1 2\\n\", \"expectedVersion\":\"0\"}";
+        mockMvc.perform(post("/api/v1/updatePublished")
+                        .header("Authorization", createBasicAuthHeader("testuser", "password"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.success").value(true));
+        // A second update made against version 0 has not seen the first one
+        json = "{\"publisher\":\"testuser\", \"sheet\":\"versioned\", \"payload\":\"$A1 3\\n\", \"expectedVersion\":\"0\"}";
+        mockMvc.perform(post("/api/v1/updatePublished")
+                        .header("Authorization", createBasicAuthHeader("testuser", "password"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.success").value(false));
+    }
+
     /**
      * Tests when the user tries to update a published sheet with an invalid basic auth.
      * @throws Exception irrelevant to the actual test
@@ -617,6 +682,40 @@ class ServerTests {
                 .andExpect(jsonPath("$.value[0].payload").value("$A1 2\\n"));
     }
 
+    /**
+     * Tests that a long-poll for updates waits for the next published version.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testLongPollGetUpdatesSubscription() throws Exception {
+        // Creates a new sheet
+        String json = "{\"publisher\":\"testuser\", \"sheet\":\"polled\"}";
+        mockMvc.perform(post("/api/v1/createSheet")
+                .header("Authorization", createBasicAuthHeader("testuser", "password"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json));
+        // Subscriber waits for the first version
+        json = "{\"publisher\":\"testuser\", \"sheet\":\"polled\", \"id\":\"0\"}";
+        MvcResult waiting = mockMvc.perform(post("/api/v1/getUpdatesForSubscription")
+                        .param("timeout", "10000")
+                        .header("Authorization", createBasicAuthHeader("subscriber", "password"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // Publishing the sheet answers the waiting subscriber
+        json = "{\"publisher\":\"testuser\", \"sheet\":\"polled\", \"payload\":\"$A1 2\\n\"}";
+        mockMvc.perform(post("/api/v1/updatePublished")
+                .header("Authorization", createBasicAuthHeader("testuser", "password"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json));
+        mockMvc.perform(asyncDispatch(waiting))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.success").value(true))
+                .andExpect(jsonPath("$.value[0].id").value("1"))
+                .andExpect(jsonPath("$.value[0].payload").value("$A1 2\n"));
+    }
+
     /**
      * Tests when a subscriber tries to get updates from the publisher when the basic auth of the
      * subscriber is invalid.
@@ -732,4 +831,172 @@ class ServerTests {
                 .andExpect(jsonPath("$.message").value("Sheet not found"));
     }
 
+    /**
+     * Tests that a sheet published in the protobuf wire format is read back in it.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testProtobufUpdatePublished() throws Exception {
+        MediaType protobuf = MediaType.parseMediaType(ProtobufCodec.MEDIA_TYPE);
+        mockMvc.perform(post("/api/v1/createSheet")
+                        .header("Authorization", createBasicAuthHeader("testuser", "password"))
+                        .contentType(protobuf)
+                        .accept(protobuf)
+                        .content(ProtobufCodec.encodeArgument(new Argument("testuser", "binary", null, null))))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(protobuf));
+        mockMvc.perform(post("/api/v1/updatePublished")
+                        .header("Authorization", createBasicAuthHeader("testuser", "password"))
+                        .contentType(protobuf)
+                        .accept(protobuf)
+                        .content(ProtobufCodec.encodeArgument(
+                                new Argument("testuser", "binary", null, "$A1 2\\n$B1 =$A1 * 3\\n"))))
+                .andExpect(status().isOk());
+        MvcResult result = mockMvc.perform(post("/api/v1/getUpdatesForSubscription")
+                        .header("Authorization", createBasicAuthHeader("testuser", "password"))
+                        .contentType(protobuf)
+                        .accept(protobuf)
+                        .content(ProtobufCodec.encodeArgument(new Argument("testuser", "binary", "0", null))))
+                .andExpect(status().isOk())
+                .andReturn();
+        Result updates = ProtobufCodec.decodeResult(result.getResponse().getContentAsByteArray());
+        assertTrue(updates.getSuccess());
+        assertEquals("$A1 2\n$B1 =$A1 * 3\n", updates.getValue().get(0).getPayload());
+    }
+
+    /**
+     * Tests that getUpdatesForSubscription answers 304 while the sheet is unchanged, and
+     * sends the updates again once it is published.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testGetUpdatesSubscriptionNotModified() throws Exception {
+        String auth = createBasicAuthHeader("testuser", "password");
+        mockMvc.perform(post("/api/v1/createSheet")
+                        .header("Authorization", auth)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"publisher\":\"testuser\", \"sheet\":\"cached\"}"))
+                .andExpect(status().isOk());
+        String json = "{\"publisher\":\"testuser\", \"sheet\":\"cached\", \"id\":\"0\"}";
+        MvcResult result = mockMvc.perform(post("/api/v1/getUpdatesForSubscription")
+                        .header("Authorization", auth)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn();
+        String etag = result.getResponse().getHeader("ETag");
+        // The same request with the tag it was given has nothing new to send
+        mockMvc.perform(post("/api/v1/getUpdatesForSubscription")
+                        .header("Authorization", auth)
+                        .header("If-None-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        mockMvc.perform(post("/api/v1/updatePublished")
+                        .header("Authorization", auth)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"publisher\":\"testuser\", \"sheet\":\"cached\", \"payload\":\"$A1 1\\n\"}"))
+                .andExpect(status().isOk());
+        // A new version changes the tag
+        mockMvc.perform(post("/api/v1/getUpdatesForSubscription")
+                        .header("Authorization", auth)
+                        .header("If-None-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.value").isNotEmpty());
+    }
+
+    /**
+     * Tests that a batch runs each operation as its endpoint would, in order for the same
+     * sheet, and reports an unknown operation without failing the rest.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testBatch() throws Exception {
+        String auth = createBasicAuthHeader("testuser", "password");
+        mockMvc.perform(post("/api/v1/createSheet")
+                        .header("Authorization", auth)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"publisher\":\"testuser\", \"sheet\":\"batched\"}"))
+                .andExpect(status().isOk());
+        String json = "["
+                + "{\"op\":\"updatePublished\", \"publisher\":\"testuser\", \"sheet\":\"batched\", \"payload\":\"$A1 5\\n\"},"
+                + "{\"op\":\"getUpdatesForSubscription\", \"publisher\":\"testuser\", \"sheet\":\"batched\", \"id\":\"0\"},"
+                + "{\"op\":\"getSheets\", \"publisher\":\"testuser\"},"
+                + "{\"op\":\"getUpdatesForPublished\", \"publisher\":\"testuser\", \"sheet\":\"missing\", \"id\":\"0\"},"
+                + "{\"op\":\"deleteEverything\", \"publisher\":\"testuser\"}]";
+        mockMvc.perform(post("/api/v1/batch")
+                        .header("Authorization", auth)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(5))
+                .andExpect(jsonPath("$[0].message").value("Sheet updated successfully"))
+                .andExpect(jsonPath("$[1].message").value("Updates received"))
+                .andExpect(jsonPath("$[1].value[0].id").value("1"))
+                .andExpect(jsonPath("$[2].message").value("Sheets retrieved successfully"))
+                .andExpect(jsonPath("$[3].success").value(false))
+                .andExpect(jsonPath("$[3].message").value("Sheet not found"))
+                .andExpect(jsonPath("$[4].success").value(false))
+                .andExpect(jsonPath("$[4].message").value("Unknown operation: deleteEverything"));
+    }
+
+    /**
+     * Tests that a batch with invalid credentials is refused as a whole.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testUnauthorizedBasicAuthBatch() throws Exception {
+        mockMvc.perform(post("/api/v1/batch")
+                        .header("Authorization", createBasicAuthHeader("", ""))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"op\":\"getSheets\", \"publisher\":\"testuser\"}]"))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.success").value(false));
+    }
+
+    /**
+     * Tests that a sheet cannot be created with the wrong password for the publisher.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testWrongPasswordCreateSheet() throws Exception {
+        String json = "{\"publisher\":\"testuser\", \"sheet\":\"guessed\"}";
+        mockMvc.perform(post("/api/v1/createSheet")
+                        .header("Authorization", createBasicAuthHeader("testuser", "wrongpassword"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.success").value(false))
+                .andExpect(jsonPath("$.message").value("Wrong username or password"));
+    }
+
+    /**
+     * Tests that the metrics count the requests to each endpoint, and are only
+     * answered for requests from the same machine.
+     * @throws Exception irrelevant to the actual test
+     */
+    @Test
+    void testMetrics() throws Exception {
+        mockMvc.perform(get("/api/v1/login")
+                        .header("Authorization", createBasicAuthHeader("testuser", "password")))
+                .andExpect(status().isOk());
+        MvcResult result = mockMvc.perform(get("/api/v1/metrics"))
+                .andExpect(status().isOk())
+                .andReturn();
+        String metrics = result.getResponse().getContentAsString();
+        assertTrue(metrics.contains("husksheets_requests_total{endpoint=\"login\"}"));
+        assertTrue(metrics.contains("husksheets_request_duration_seconds{endpoint=\"login\",quantile=\"0.99\"}"));
+        assertTrue(metrics.contains("# TYPE husksheets_users gauge"));
+        mockMvc.perform(get("/api/v1/metrics")
+                        .with(request -> {
+                            request.setRemoteAddr("192.0.2.1");
+                            return request;
+                        }))
+                .andExpect(status().isNotFound());
+    }
+
 }
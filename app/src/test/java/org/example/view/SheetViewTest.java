@@ -276,15 +276,24 @@ public class SheetViewTest {
     }
 
     /**
-     * Test initializing data in the sheet view.
+     * Test that the table model reads its values from the spreadsheet and follows its extent.
      */
     @Test
-    public void testInitializeData() {
-        Object[][] data = sheetView.initializeData();
-        for (Cell[] row : testSpreadSheet.getCellsObject()) {
-            for (Cell cell : row) {
-                assertEquals(cell.getValue(), data[cell.getRow()][cell.getCol()]);
-            }
-        }
+    public void testTableModel() {
+        SpreadsheetTableModel model = sheetView.createTableModel();
+        assertEquals(100, model.getRowCount());
+        assertEquals(101, model.getColumnCount()); // Row header plus 100 columns
+        assertEquals(1, model.getValueAt(0, 0)); // Row header
+        assertEquals("A", model.getColumnName(1));
+
+        testSpreadSheet.setCellValue(0, 0, "5");
+        assertEquals("5", model.getValueAt(0, 1));
+
+        testSpreadSheet.setCellValue(499, 101, "far");
+        model.refresh();
+        assertEquals(500, model.getRowCount());
+        assertEquals(103, model.getColumnCount());
+        assertEquals("far", model.getValueAt(499, 102));
+        assertEquals("", model.getValueAt(250, 50));
     }
 }